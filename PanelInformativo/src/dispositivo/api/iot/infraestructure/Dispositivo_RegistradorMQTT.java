@@ -1,26 +1,23 @@
 package dispositivo.api.iot.infraestructure;
 
 import java.util.UUID;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
 
 import org.eclipse.paho.client.mqttv3.IMqttDeliveryToken;
 import org.eclipse.paho.client.mqttv3.MqttCallback;
-import org.eclipse.paho.client.mqttv3.MqttClient;
-import org.eclipse.paho.client.mqttv3.MqttConnectOptions;
-import org.eclipse.paho.client.mqttv3.MqttDeliveryToken;
 import org.eclipse.paho.client.mqttv3.MqttException;
 import org.eclipse.paho.client.mqttv3.MqttMessage;
-import org.eclipse.paho.client.mqttv3.MqttTopic;
-import org.eclipse.paho.client.mqttv3.persist.MqttDefaultFilePersistence;
 import org.json.JSONException;
 import org.json.JSONObject;
 
+import dispositivo.api.mqtt.Dispositivo_ConexionMQTT;
 import dispositivo.interfaces.Configuracion;
 import dispositivo.utils.MySimpleLogger;
 
 public class Dispositivo_RegistradorMQTT implements MqttCallback {
 
-	protected MqttClient myClient;
-	protected MqttConnectOptions connOpt;
+	protected Dispositivo_ConexionMQTT conexion; // Compartida con el resto de componentes del proceso
 
 	protected String dispositivoId = null;
 	protected String dispositivoIP = null;
@@ -56,7 +53,7 @@ public class Dispositivo_RegistradorMQTT implements MqttCallback {
 	@Override
 	public void connectionLost(Throwable t) {
 		MySimpleLogger.warn(this.loggerId, "Connection lost!");
-		// code to reconnect to the broker would go here if desired
+		// La reconexión la gestiona Dispositivo_ConexionMQTT
 	}
 
 	/**
@@ -87,28 +84,10 @@ public class Dispositivo_RegistradorMQTT implements MqttCallback {
 
 		// setup MQTT Client
 		String clientID = this.dispositivoId + UUID.randomUUID().toString();
-		connOpt = new MqttConnectOptions();
-		
-		connOpt.setCleanSession(true);
-		connOpt.setKeepAliveInterval(30);
-//			connOpt.setUserName(M2MIO_USERNAME);
-//			connOpt.setPassword(M2MIO_PASSWORD_MD5.toCharArray());
 
-		// Connect to Broker
+		// Connect to Broker (conexión compartida del proceso)
 		try {
-			
-			MqttDefaultFilePersistence persistence = null;
-			try {
-				persistence = new MqttDefaultFilePersistence("/tmp");
-			} catch (Exception e) {
-			}
-			if ( persistence != null )
-				myClient = new MqttClient(this.mqttBroker, clientID, persistence);
-			else
-				myClient = new MqttClient(this.mqttBroker, clientID);
-			
-			myClient.setCallback(this);
-			myClient.connect(connOpt);
+			this.conexion = Dispositivo_ConexionMQTT.obtener(this.mqttBroker, clientID);
 		} catch (MqttException e) {
 			e.printStackTrace();
 			System.exit(-1);
@@ -121,21 +100,20 @@ public class Dispositivo_RegistradorMQTT implements MqttCallback {
 	
 	public void disconnect() {
 		// disconnect
-		try {
-			myClient.disconnect();
-		} catch (Exception e) {
-			e.printStackTrace();
+		if ( this.conexion != null ) {
+			this.conexion.liberar();
+			this.conexion = null;
 		}
 	}
 	
 	
 	public void registrar() {
 		
-		if ( this.myClient == null || !this.myClient.isConnected() ) {
+		if ( this.conexion == null ) {
 			this.connect();
 		}
 
-		MqttTopic topic = myClient.getTopic(Configuracion.TOPIC_REGISTRO);
+		String topic = Configuracion.TOPIC_REGISTRO;
 
 
 		// M1 = 
@@ -150,19 +128,16 @@ public class Dispositivo_RegistradorMQTT implements MqttCallback {
 		}
 		
    		int pubQoS = 0;
-		MqttMessage message = new MqttMessage(pubMsg.toString().getBytes());
-    	message.setQos(pubQoS);
-    	message.setRetained(false);
 
     	// Publish the message
     	MySimpleLogger.debug(this.loggerId, "Publicando en topic \"" + topic + "\" qos " + pubQoS);
-    	MqttDeliveryToken token = null;
+    	CountDownLatch enviado = new CountDownLatch(1);
     	try {
     		// publish message to broker
-			token = topic.publish(message);
+			this.conexion.publish(topic, pubMsg.toString().getBytes(), pubQoS, (t, error) -> enviado.countDown());
 			MySimpleLogger.debug(this.loggerId, pubMsg.toString());
 	    	// Wait until the message has been delivered to the broker
-			token.waitForCompletion();
+			enviado.await(10, TimeUnit.SECONDS);
 			Thread.sleep(100);
 		} catch (Exception e) {
 			e.printStackTrace();
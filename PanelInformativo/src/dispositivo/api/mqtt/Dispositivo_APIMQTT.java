@@ -1,14 +1,13 @@
 package dispositivo.api.mqtt;
 
+import java.util.ArrayList;
+import java.util.List;
 import java.util.UUID;
 
 import org.eclipse.paho.client.mqttv3.IMqttDeliveryToken;
 import org.eclipse.paho.client.mqttv3.MqttCallback;
-import org.eclipse.paho.client.mqttv3.MqttClient;
-import org.eclipse.paho.client.mqttv3.MqttConnectOptions;
 import org.eclipse.paho.client.mqttv3.MqttException;
 import org.eclipse.paho.client.mqttv3.MqttMessage;
-import org.eclipse.paho.client.mqttv3.persist.MqttDefaultFilePersistence;
 import org.json.JSONException;
 import org.json.JSONObject;
 
@@ -19,8 +18,13 @@ import dispositivo.utils.MySimpleLogger;
 
 public class Dispositivo_APIMQTT implements MqttCallback {
 
-	protected MqttClient myClient;
-	protected MqttConnectOptions connOpt;
+	// Topics de comandos -> tipo de comando
+	private static final Dispositivo_TopicTrie<String> TOPICS_COMANDOS = new Dispositivo_TopicTrie<String>()
+			.add(Configuracion.TOPIC_BASE + "dispositivo/{dispositivo}/funcion/{funcion}/comandos", "funcion")
+			.add(Configuracion.TOPIC_BASE + "dispositivo/{dispositivo}/comandos", "dispositivo");
+
+	protected Dispositivo_ConexionMQTT conexion; // Compartida con el resto de componentes del proceso
+	protected List<String> topicsSuscritos = new ArrayList<>();
 	protected String clientId = null;
 	
 	protected IDispositivo dispositivo;
@@ -47,7 +51,7 @@ public class Dispositivo_APIMQTT implements MqttCallback {
 	@Override
 	public void connectionLost(Throwable t) {
 		MySimpleLogger.debug(this.loggerId, "Connection lost!");
-		// code to reconnect to the broker would go here if desired
+		// La reconexión (y la nueva suscripción) la gestiona Dispositivo_ConexionMQTT
 	}
 
 	@Override
@@ -92,15 +96,13 @@ public class Dispositivo_APIMQTT implements MqttCallback {
 		}
 		
 		// Distinguir entre comandos de dispositivo y comandos de función
-		String[] topicNiveles = topic.split("/");
+		Dispositivo_TopicTrie.Match<String> comando = TOPICS_COMANDOS.match(topic);
 		
 		// Verificar si es un comando de función: dispositivo/{id}/funcion/{funcion}/comandos
-		if (topicNiveles.length >= 4 && 
-			topicNiveles[topicNiveles.length-3].equals("funcion") && 
-			topicNiveles[topicNiveles.length-1].equals("comandos")) {
+		if (comando != null && comando.value().equals("funcion")) {
 			
 			// Es un comando de función
-			String funcionId = topicNiveles[topicNiveles.length-2];
+			String funcionId = comando.capture("funcion");
 			
 			IFuncion f = this.dispositivo.getFuncion(funcionId);
 			if (f == null) {
@@ -117,9 +119,7 @@ public class Dispositivo_APIMQTT implements MqttCallback {
 			else
 				MySimpleLogger.warn(this.loggerId, "Acción de función '" + action + "' no reconocida. Sólo admitidas: encender, apagar o parpadear");
 				
-		} else if (topicNiveles.length >= 3 && 
-				   topicNiveles[topicNiveles.length-1].equals("comandos") &&
-				   !topicNiveles[topicNiveles.length-2].equals("funcion")) {
+		} else if (comando != null) {
 			
 			// Es un comando de dispositivo: dispositivo/{id}/comandos
 			if (action.equalsIgnoreCase("habilitar")) {
@@ -149,27 +149,10 @@ public class Dispositivo_APIMQTT implements MqttCallback {
 	public void connect() {
 		// setup MQTT Client
 		String clientID = this.dispositivo.getId() + UUID.randomUUID().toString() + ".subscriber";
-		connOpt = new MqttConnectOptions();
-		
-		connOpt.setCleanSession(true);
-		connOpt.setKeepAliveInterval(30);
-//			connOpt.setUserName(M2MIO_USERNAME);
-//			connOpt.setPassword(M2MIO_PASSWORD_MD5.toCharArray());
 		
-		// Connect to Broker
+		// Connect to Broker (conexión compartida del proceso)
 		try {
-			MqttDefaultFilePersistence persistence = null;
-			try {
-				persistence = new MqttDefaultFilePersistence("/tmp");
-			} catch (Exception e) {
-			}
-			if ( persistence != null )
-				myClient = new MqttClient(this.mqttBroker, clientID, persistence);
-			else
-				myClient = new MqttClient(this.mqttBroker, clientID);
-
-			myClient.setCallback(this);
-			myClient.connect(connOpt);
+			this.conexion = Dispositivo_ConexionMQTT.obtener(this.mqttBroker, clientID);
 		} catch (MqttException e) {
 			e.printStackTrace();
 			System.exit(-1);
@@ -187,7 +170,11 @@ public class Dispositivo_APIMQTT implements MqttCallback {
 			// wait to ensure subscribed messages are delivered
 			Thread.sleep(10000);
 
-			myClient.disconnect();
+			for (String topic : this.topicsSuscritos)
+				this.conexion.unsubscribe(topic, this);
+			this.topicsSuscritos.clear();
+			this.conexion.liberar();
+			this.conexion = null;
 		} catch (Exception e) {
 			e.printStackTrace();
 		}
@@ -200,8 +187,8 @@ public class Dispositivo_APIMQTT implements MqttCallback {
 		
 		// subscribe to topic
 		try {
-			int subQoS = 0;
-			myClient.subscribe(myTopic, subQoS);
+			this.conexion.subscribe(myTopic, this);
+			this.topicsSuscritos.add(myTopic);
 			MySimpleLogger.info(this.loggerId, "Suscrito al topic " + myTopic);
 		} catch (Exception e) {
 			e.printStackTrace();
@@ -214,7 +201,8 @@ public class Dispositivo_APIMQTT implements MqttCallback {
 		
 		// unsubscribe to topic
 		try {
-			myClient.unsubscribe(myTopic);
+			this.conexion.unsubscribe(myTopic, this);
+			this.topicsSuscritos.remove(myTopic);
 		} catch (Exception e) {
 			e.printStackTrace();
 		}
@@ -223,7 +211,7 @@ public class Dispositivo_APIMQTT implements MqttCallback {
 	
 	public void iniciar() {
 
-		if ( this.myClient == null || !this.myClient.isConnected() )
+		if ( this.conexion == null )
 			this.connect();
 		
 		if ( this.dispositivo == null )
@@ -269,16 +257,16 @@ public class Dispositivo_APIMQTT implements MqttCallback {
 	 */
 	public void publishFunctionStatus(IFuncion funcion) {
 		if (funcionPublisher == null) {
-			funcionPublisher = FuncionPublisher_APIMQTT.build(this.myClient, this.dispositivo.getId());
+			funcionPublisher = FuncionPublisher_APIMQTT.build(this.conexion, this.dispositivo.getId());
 		}
 		funcionPublisher.publishStatus(funcion);
 	}
 	
 	/**
-	 * Obtiene el cliente MQTT para uso externo
+	 * Obtiene la conexión MQTT (compartida) para uso externo
 	 */
-	public MqttClient getMqttClient() {
-		return this.myClient;
+	public Dispositivo_ConexionMQTT getConexionMQTT() {
+		return this.conexion;
 	}
 	
 
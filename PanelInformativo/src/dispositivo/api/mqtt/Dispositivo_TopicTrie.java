@@ -0,0 +1,488 @@
+package dispositivo.api.mqtt;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Árbol (trie) de patrones de topic MQTT por niveles.
+ *
+ * Un patrón son niveles separados por '/'. Cada nivel puede ser un literal, '+' (un nivel cualquiera),
+ * '{nombre}' (un nivel cualquiera, capturado con ese nombre) o '#' (el resto del topic; sólo como
+ * último nivel y, como en MQTT, también coincide con el nivel padre). Por ejemplo:
+ *
+ *   Configuracion.TOPIC_BASE + "dispositivo/{dispositivo}/funcion/{funcion}/comandos"
+ *
+ * Un topic se recorre una sola vez sin crear objetos: los literales de cada nivel se buscan en una
+ * tabla hash abierta comparando la región del topic (sin substring ni split), y sólo se vuelve atrás
+ * cuando un nivel coincide a la vez con un literal y con un wildcard. Las capturas se devuelven como
+ * posiciones en el topic o como String canónico (intern): cada segmento se crea una sola vez.
+ *
+ * El árbol es inmutable: add y remove construyen uno nuevo (copy-on-write), de modo que las búsquedas
+ * no usan locks. Está pensado para conjuntos de patrones pequeños que cambian poco (los topics que
+ * procesa un suscriptor, los filtros con wildcards de un bus).
+ */
+public class Dispositivo_TopicTrie<T> {
+
+	/**
+	 * Recibe cada valor cuyo patrón coincide con el topic (forEachMatch)
+	 */
+	public interface Visitor<T, C> {
+		void visit(T value, String topic, C context);
+	}
+
+	static final int MAX_INTERNED = 1 << 14; // Capturas canónicas distintas como máximo
+
+	private final List<String> patterns = new ArrayList<>();
+	private final List<T> values = new ArrayList<>();
+	private volatile Node root = new Node();
+	private volatile int maxCaptures = 0;
+
+	// Resultado de match/matchAll, reutilizado por cada hilo
+	private final ThreadLocal<Match<T>> matches = ThreadLocal.withInitial(() -> new Match<>(this));
+
+	// Capturas canónicas: tabla hash abierta; las inserciones se hacen con el lock del árbol
+	private volatile String[] interned = new String[64];
+	private int internedCount = 0;
+
+	public Dispositivo_TopicTrie() {
+	}
+
+	/**
+	 * Añade un patrón con su valor (un mismo patrón puede tener varios valores)
+	 * @throws IllegalArgumentException si '#' no es el último nivel o un nivel mezcla wildcards y texto
+	 */
+	public synchronized Dispositivo_TopicTrie<T> add(String pattern, T value) {
+		Node r = this.copy();
+		int captures = insert(r, pattern, value);
+		this.patterns.add(pattern);
+		this.values.add(value);
+		this.maxCaptures = Math.max(this.maxCaptures, captures);
+		this.root = r;
+		return this;
+	}
+
+	/**
+	 * Elimina un patrón con su valor (comparado por identidad)
+	 * @return false si no estaba
+	 */
+	public synchronized boolean remove(String pattern, T value) {
+		for (int i = 0; i < this.patterns.size(); i++) {
+			if (this.values.get(i) == value && this.patterns.get(i).equals(pattern)) {
+				this.patterns.remove(i);
+				this.values.remove(i);
+				this.root = this.copy();
+				return true;
+			}
+		}
+		return false;
+	}
+
+	public synchronized int size() {
+		return this.patterns.size();
+	}
+
+	public boolean isEmpty() {
+		Node r = this.root;
+		return r.size == 0 && r.one == null && r.rest == null && r.values.length == 0;
+	}
+
+	/**
+	 * Primera coincidencia (la más específica: literal antes que '+' y '+' antes que '#') o null.
+	 * El Match pertenece al hilo y se reutiliza en su siguiente búsqueda en este árbol: las capturas
+	 * se deben leer antes de volver a buscar (p.ej. antes de publicar en un bus síncrono).
+	 */
+	public Match<T> match(String topic) {
+		Match<T> m = this.matches.get();
+		m.reset(topic, this.maxCaptures);
+		this.walk(this.root, topic, 0, 0, m, null, null, false);
+		return (m.size > 0) ? m : null;
+	}
+
+	/**
+	 * Todas las coincidencias (Match.size, Match.value(i)) o null; las capturas son las de la primera
+	 */
+	public Match<T> matchAll(String topic) {
+		Match<T> m = this.matches.get();
+		m.reset(topic, this.maxCaptures);
+		this.walk(this.root, topic, 0, 0, m, null, null, true);
+		return (m.size > 0) ? m : null;
+	}
+
+	/**
+	 * Llama al visitante con el valor de cada patrón que coincide, sin capturas. No usa estado por
+	 * hilo, de modo que el visitante puede volver a buscar en el árbol (entrega síncrona de mensajes).
+	 * @return número de coincidencias
+	 */
+	public <C> int forEachMatch(String topic, Visitor<? super T, C> visitor, C context) {
+		return this.walk(this.root, topic, 0, 0, null, visitor, context, true);
+	}
+
+	/**
+	 * Indica si algún patrón coincide con el topic
+	 */
+	public boolean matches(String topic) {
+		return this.walk(this.root, topic, 0, 0, null, null, null, false) > 0;
+	}
+
+	/**
+	 * String canónico con los caracteres [start, end) de s: sólo se crea la primera vez
+	 */
+	public String intern(String s, int start, int end) {
+		String[] table = this.interned;
+		int mask = table.length - 1;
+		for (int i = hash(s, start, end) & mask;; i = (i + 1) & mask) {
+			String k = table[i];
+			if (k == null) {
+				return this.internSlow(s, start, end);
+			}
+			if (k.length() == end - start && k.regionMatches(0, s, start, end - start)) {
+				return k;
+			}
+		}
+	}
+
+	private synchronized String internSlow(String s, int start, int end) {
+		String[] table = this.interned;
+		int mask = table.length - 1;
+		int i = hash(s, start, end) & mask;
+		for (;; i = (i + 1) & mask) {
+			String k = table[i];
+			if (k == null) {
+				break;
+			}
+			if (k.length() == end - start && k.regionMatches(0, s, start, end - start)) {
+				return k;
+			}
+		}
+		String value = s.substring(start, end);
+		if (this.internedCount >= MAX_INTERNED) {
+			return value; // Tabla llena: la captura se devuelve sin canonicalizar
+		}
+		if ((this.internedCount + 1) * 2 > table.length) {
+			String[] bigger = new String[table.length * 2];
+			for (String k : table) {
+				if (k != null) {
+					put(bigger, k);
+				}
+			}
+			put(bigger, value);
+			this.interned = bigger;
+		} else {
+			table[i] = value; // String es inmutable: un lector lo ve completo o ve null
+		}
+		this.internedCount++;
+		return value;
+	}
+
+	private static void put(String[] table, String k) {
+		int mask = table.length - 1;
+		int i = hash(k, 0, k.length()) & mask;
+		while (table[i] != null) {
+			i = (i + 1) & mask;
+		}
+		table[i] = k;
+	}
+
+	private Node copy() {
+		Node r = new Node();
+		for (int i = 0; i < this.patterns.size(); i++) {
+			insert(r, this.patterns.get(i), this.values.get(i));
+		}
+		return r;
+	}
+
+	private static int insert(Node root, String pattern, Object value) {
+		List<String> names = new ArrayList<>();
+		Node n = root;
+		int pos = 0, len = pattern.length();
+		while (true) {
+			int end = pattern.indexOf('/', pos);
+			if (end < 0) {
+				end = len;
+			}
+			String level = pattern.substring(pos, end);
+			if (level.equals("#")) {
+				if (end != len) {
+					throw new IllegalArgumentException("'#' must be the last level: " + pattern);
+				}
+				if (n.rest == null) {
+					n.rest = new Node();
+				}
+				n = n.rest;
+			} else if (level.equals("+") || (level.length() > 2 && level.charAt(0) == '{' && level.charAt(level.length() - 1) == '}')) {
+				names.add(level.equals("+") ? null : level.substring(1, level.length() - 1));
+				if (n.one == null) {
+					n.one = new Node();
+				}
+				n = n.one;
+			} else if (level.indexOf('+') >= 0 || level.indexOf('#') >= 0) {
+				throw new IllegalArgumentException("Wildcards must take a whole level: " + pattern);
+			} else {
+				n = n.child(level);
+			}
+			if (end == len) {
+				break;
+			}
+			pos = end + 1;
+		}
+		n.addValue(value, names.toArray(new String[0]));
+		return names.size();
+	}
+
+	/**
+	 * Recorre el árbol desde n con el nivel del topic que empieza en pos (pos > length: no quedan niveles)
+	 */
+	private <C> int walk(Node n, String topic, int pos, int depth, Match<T> m, Visitor<? super T, C> visitor, C context, boolean all) {
+		int found = 0;
+		int len = topic.length();
+		if (pos > len) {
+			found += this.collect(n, topic, depth, m, visitor, context, all);
+		} else {
+			int end = topic.indexOf('/', pos);
+			if (end < 0) {
+				end = len;
+			}
+			Node c = n.find(topic, pos, end);
+			if (c != null) {
+				found += this.walk(c, topic, end + 1, depth, m, visitor, context, all);
+				if (found > 0 && !all) {
+					return found;
+				}
+			}
+			if (n.one != null) {
+				if (m != null) {
+					m.work(depth, pos, end);
+				}
+				found += this.walk(n.one, topic, end + 1, depth + 1, m, visitor, context, all);
+				if (found > 0 && !all) {
+					return found;
+				}
+			}
+		}
+		if (n.rest != null && (found == 0 || all)) {
+			found += this.collect(n.rest, topic, depth, m, visitor, context, all);
+		}
+		return found;
+	}
+
+	@SuppressWarnings("unchecked")
+	private <C> int collect(Node n, String topic, int depth, Match<T> m, Visitor<? super T, C> visitor, C context, boolean all) {
+		int count = all ? n.values.length : Math.min(1, n.values.length);
+		for (int i = 0; i < count; i++) {
+			if (m != null) {
+				m.add((T) n.values[i], n.names[i], depth);
+			}
+			if (visitor != null) {
+				visitor.visit((T) n.values[i], topic, context);
+			}
+		}
+		return count;
+	}
+
+	static int hash(String s, int start, int end) {
+		int h = 0;
+		for (int i = start; i < end; i++) {
+			h = 31 * h + s.charAt(i);
+		}
+		return h ^ (h >>> 16);
+	}
+
+	/**
+	 * Nodo del árbol: un nivel de los patrones
+	 */
+	private static final class Node {
+		private static final Object[] NO_VALUES = new Object[0];
+		private static final String[][] NO_NAMES = new String[0][];
+
+		// Literales del siguiente nivel (tabla hash abierta)
+		String[] keys = new String[4];
+		Node[] children = new Node[4];
+		int size = 0;
+		Node one = null;  // '+' o '{nombre}'
+		Node rest = null; // '#'
+
+		// Patrones que terminan en este nodo y nombres de sus capturas
+		Object[] values = NO_VALUES;
+		String[][] names = NO_NAMES;
+
+		Node find(String topic, int start, int end) {
+			if (this.size == 0) {
+				return null;
+			}
+			int mask = this.keys.length - 1;
+			for (int i = hash(topic, start, end) & mask;; i = (i + 1) & mask) {
+				String k = this.keys[i];
+				if (k == null) {
+					return null;
+				}
+				if (k.length() == end - start && k.regionMatches(0, topic, start, end - start)) {
+					return this.children[i];
+				}
+			}
+		}
+
+		Node child(String level) {
+			Node c = this.find(level, 0, level.length());
+			if (c != null) {
+				return c;
+			}
+			if ((this.size + 1) * 2 > this.keys.length) {
+				String[] oldKeys = this.keys;
+				Node[] oldChildren = this.children;
+				this.keys = new String[oldKeys.length * 2];
+				this.children = new Node[oldKeys.length * 2];
+				for (int i = 0; i < oldKeys.length; i++) {
+					if (oldKeys[i] != null) {
+						this.put(oldKeys[i], oldChildren[i]);
+					}
+				}
+			}
+			c = new Node();
+			this.put(level, c);
+			this.size++;
+			return c;
+		}
+
+		private void put(String level, Node c) {
+			int mask = this.keys.length - 1;
+			int i = hash(level, 0, level.length()) & mask;
+			while (this.keys[i] != null) {
+				i = (i + 1) & mask;
+			}
+			this.keys[i] = level;
+			this.children[i] = c;
+		}
+
+		void addValue(Object value, String[] captureNames) {
+			int n = this.values.length;
+			Object[] v = new Object[n + 1];
+			String[][] names = new String[n + 1][];
+			System.arraycopy(this.values, 0, v, 0, n);
+			System.arraycopy(this.names, 0, names, 0, n);
+			v[n] = value;
+			names[n] = captureNames;
+			this.values = v;
+			this.names = names;
+		}
+	}
+
+	/**
+	 * Resultado de una búsqueda: valores que coinciden y capturas de la primera coincidencia
+	 */
+	public static final class Match<T> {
+
+		private final Dispositivo_TopicTrie<T> trie;
+		private String topic = null;
+
+		private Object[] values = new Object[4];
+		private int size = 0;
+
+		// Posiciones (inicio, fin) de los niveles wildcard del camino en curso y de la primera coincidencia
+		private int[] work = new int[8];
+		private int[] captures = new int[8];
+		private int captureCount = 0;
+		private String[] names = null;
+
+		private Match(Dispositivo_TopicTrie<T> trie) {
+			this.trie = trie;
+		}
+
+		void reset(String topic, int maxCaptures) {
+			this.topic = topic;
+			for (int i = 0; i < this.size; i++) {
+				this.values[i] = null;
+			}
+			this.size = 0;
+			this.captureCount = 0;
+			this.names = null;
+			if (this.work.length < 2 * maxCaptures) {
+				this.work = new int[2 * maxCaptures];
+				this.captures = new int[2 * maxCaptures];
+			}
+		}
+
+		void work(int depth, int start, int end) {
+			this.work[2 * depth] = start;
+			this.work[2 * depth + 1] = end;
+		}
+
+		void add(T value, String[] captureNames, int depth) {
+			if (this.size == 0) {
+				System.arraycopy(this.work, 0, this.captures, 0, 2 * depth);
+				this.captureCount = depth;
+				this.names = captureNames;
+			}
+			if (this.size == this.values.length) {
+				Object[] bigger = new Object[this.size * 2];
+				System.arraycopy(this.values, 0, bigger, 0, this.size);
+				this.values = bigger;
+			}
+			this.values[this.size++] = value;
+		}
+
+		public String topic() {
+			return this.topic;
+		}
+
+		/**
+		 * Número de patrones que coinciden (1 en match)
+		 */
+		public int size() {
+			return this.size;
+		}
+
+		public T value() {
+			return this.value(0);
+		}
+
+		@SuppressWarnings("unchecked")
+		public T value(int i) {
+			return (T) this.values[i];
+		}
+
+		public int captureCount() {
+			return this.captureCount;
+		}
+
+		public int start(int k) {
+			return this.captures[2 * k];
+		}
+
+		public int end(int k) {
+			return this.captures[2 * k + 1];
+		}
+
+		/**
+		 * Índice de la captura con ese nombre ('{nombre}' en el patrón) o -1
+		 */
+		public int indexOf(String name) {
+			for (int k = 0; k < this.captureCount; k++) {
+				if (name.equals(this.names[k])) {
+					return k;
+				}
+			}
+			return -1;
+		}
+
+		/**
+		 * Nivel capturado, como String canónico
+		 */
+		public String capture(int k) {
+			return this.trie.intern(this.topic, this.start(k), this.end(k));
+		}
+
+		/**
+		 * Nivel capturado con ese nombre o null
+		 */
+		public String capture(String name) {
+			int k = this.indexOf(name);
+			return (k >= 0) ? this.capture(k) : null;
+		}
+
+		public boolean captureEquals(int k, String s) {
+			int start = this.start(k);
+			int length = this.end(k) - start;
+			return s.length() == length && s.regionMatches(0, this.topic, start, length);
+		}
+	}
+}
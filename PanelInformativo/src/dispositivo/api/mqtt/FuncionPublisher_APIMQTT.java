@@ -1,9 +1,5 @@
 package dispositivo.api.mqtt;
 
-import org.eclipse.paho.client.mqttv3.MqttClient;
-import org.eclipse.paho.client.mqttv3.MqttException;
-import org.eclipse.paho.client.mqttv3.MqttMessage;
-import org.eclipse.paho.client.mqttv3.MqttTopic;
 import org.json.JSONException;
 import org.json.JSONObject;
 
@@ -17,13 +13,13 @@ import dispositivo.utils.MySimpleLogger;
  */
 public class FuncionPublisher_APIMQTT {
 	
-	protected MqttClient mqttClient;
+	protected Dispositivo_ConexionMQTT conexion;
 	protected String dispositivoId;
 	protected String loggerId;
 	
-	public static FuncionPublisher_APIMQTT build(MqttClient mqttClient, String dispositivoId) {
+	public static FuncionPublisher_APIMQTT build(Dispositivo_ConexionMQTT conexion, String dispositivoId) {
 		FuncionPublisher_APIMQTT publisher = new FuncionPublisher_APIMQTT();
-		publisher.mqttClient = mqttClient;
+		publisher.conexion = conexion;
 		publisher.dispositivoId = dispositivoId;
 		publisher.loggerId = dispositivoId + "-FuncionPublisher";
 		return publisher;
@@ -37,7 +33,7 @@ public class FuncionPublisher_APIMQTT {
 	 * @param funcion La función cuyo estado se va a publicar
 	 */
 	public void publishStatus(IFuncion funcion) {
-		if (mqttClient == null || !mqttClient.isConnected()) {
+		if (conexion == null || !conexion.isConnected()) {
 			MySimpleLogger.warn(loggerId, "Cliente MQTT no conectado, no se puede publicar estado de " + funcion.getId());
 			return;
 		}
@@ -51,21 +47,13 @@ public class FuncionPublisher_APIMQTT {
 			// Calcular el topic de info para esta función
 			String infoTopic = calculateInfoTopic(funcion);
 			
-			// Crear el mensaje MQTT
-			MqttMessage message = new MqttMessage(statusMessage.toString().getBytes());
-			message.setQos(0);
-			message.setRetained(false);
-			
-			// Publicar el mensaje
-			MqttTopic topic = mqttClient.getTopic(infoTopic);
-			topic.publish(message);
+			// Publicar el mensaje (se encola, sin esperar al envío)
+			conexion.publish(infoTopic, statusMessage.toString().getBytes(), 0);
 			
 			MySimpleLogger.debug(loggerId, "Publicado estado de " + funcion.getId() + " en topic " + infoTopic + ": " + statusMessage.toString());
 			
 		} catch (JSONException e) {
 			MySimpleLogger.error(loggerId, "Error al crear JSON para función " + funcion.getId() + ": " + e.getMessage());
-		} catch (MqttException e) {
-			MySimpleLogger.error(loggerId, "Error al publicar estado de función " + funcion.getId() + ": " + e.getMessage());
 		}
 	}
 	
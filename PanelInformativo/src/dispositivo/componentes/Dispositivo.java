@@ -71,7 +71,7 @@ public class Dispositivo implements IDispositivo {
 		// Ejercicio 9: Configurar publisher MQTT en la función
 		if (f instanceof dispositivo.componentes.Funcion && apiFuncionesMQTT != null) {
 			dispositivo.api.mqtt.FuncionPublisher_APIMQTT publisher = 
-				dispositivo.api.mqtt.FuncionPublisher_APIMQTT.build(apiFuncionesMQTT.getMqttClient(), this.getId());
+				dispositivo.api.mqtt.FuncionPublisher_APIMQTT.build(apiFuncionesMQTT.getConexionMQTT(), this.getId());
 			((dispositivo.componentes.Funcion) f).setMqttPublisher(publisher);
 		}
 		
@@ -102,7 +102,7 @@ public class Dispositivo implements IDispositivo {
 			for(IFuncion f : this.getFunctions().values()) {
 				if (f instanceof dispositivo.componentes.Funcion) {
 					dispositivo.api.mqtt.FuncionPublisher_APIMQTT publisher = 
-						dispositivo.api.mqtt.FuncionPublisher_APIMQTT.build(apiFuncionesMQTT.getMqttClient(), this.getId());
+						dispositivo.api.mqtt.FuncionPublisher_APIMQTT.build(apiFuncionesMQTT.getConexionMQTT(), this.getId());
 					((dispositivo.componentes.Funcion) f).setMqttPublisher(publisher);
 				}
 			}
@@ -1,18 +1,17 @@
 package dispositivo.componentes;
 
-import org.eclipse.paho.client.mqttv3.MqttClient;
-import org.eclipse.paho.client.mqttv3.MqttConnectOptions;
 import org.eclipse.paho.client.mqttv3.MqttException;
 import org.eclipse.paho.client.mqttv3.MqttMessage;
 import org.eclipse.paho.client.mqttv3.MqttCallback;
 import org.eclipse.paho.client.mqttv3.IMqttDeliveryToken;
-import org.eclipse.paho.client.mqttv3.persist.MemoryPersistence;
 
 import java.util.HashMap;
 import java.util.Map;
 
 import org.json.JSONObject;
 
+import dispositivo.api.mqtt.Dispositivo_ConexionMQTT;
+import dispositivo.api.mqtt.Dispositivo_TopicTrie;
 import dispositivo.interfaces.FuncionStatus;
 import dispositivo.interfaces.IDispositivo;
 import dispositivo.interfaces.IFuncion;
@@ -25,8 +24,14 @@ import dispositivo.componentes.PanelInformativo_AWSShadowSubscriber;
 
 public class PanelInformativo implements MqttCallback {
     
-    private MqttClient mqttClientSubscriber;  // Para suscribirse (recibir)
-    private MqttClient mqttClientPublisher;   // Para publicar
+    // Canales del segmento: .../road/{segmento}/info, traffic o alerts -> canal
+    private static final String TOPIC_ROAD = "es/upv/pros/tatami/smartcities/traffic/PTPaterna/road/";
+    private static final Dispositivo_TopicTrie<String> CANALES = new Dispositivo_TopicTrie<String>()
+            .add(TOPIC_ROAD + "{segmento}/info", "info")
+            .add(TOPIC_ROAD + "{segmento}/traffic", "traffic")
+            .add(TOPIC_ROAD + "{segmento}/alerts", "alerts");
+
+    private Dispositivo_ConexionMQTT conexionMQTT;  // Compartida con el semáforo (registro y API MQTT)
     private String roadSegment;
     private String loggerId;
     private String ttmiID;
@@ -54,7 +59,7 @@ public class PanelInformativo implements MqttCallback {
         this.loggerId = "PanelInformativo" + "-" + ttmiID;
         this.ttmiID = ttmiID;
         this.ubicacionInicial = ubicacionInicial;
-        this.topicBase = "es/upv/pros/tatami/smartcities/traffic/PTPaterna/road/";
+        this.topicBase = TOPIC_ROAD;
         this.topicInfo = topicBase + roadSegment + "/info";
         this.topicTraffic = topicBase + roadSegment + "/traffic";
         this.topicAlerts = topicBase + roadSegment + "/alerts";
@@ -70,23 +75,8 @@ public class PanelInformativo implements MqttCallback {
         semaforo.iniciar();
 
         try {
-            // Crear cliente MQTT para suscripciones (recibir)
-            this.mqttClientSubscriber = new MqttClient(mqttBroker, "PanelInformativo_Sub", new MemoryPersistence());
-            
-            // Crear cliente MQTT para publicaciones (enviar)
-            this.mqttClientPublisher = new MqttClient(mqttBroker, "PanelInformativo_Pub", new MemoryPersistence());
-            
-            // Configurar opciones de conexión
-            MqttConnectOptions connOpts = new MqttConnectOptions();
-            connOpts.setCleanSession(true);
-            connOpts.setKeepAliveInterval(60);
-            
-            // Configurar callback solo en el subscriber
-            this.mqttClientSubscriber.setCallback(this);
-            
-            // Conectar ambos clientes al broker
-            this.mqttClientSubscriber.connect(connOpts);
-            this.mqttClientPublisher.connect(connOpts);
+            // Conexión MQTT compartida con el semáforo: el panel sólo registra sus topics
+            this.conexionMQTT = Dispositivo_ConexionMQTT.obtener(mqttBroker, "PanelInformativo_" + ttmiID);
             MySimpleLogger.info(loggerId, "Conectado al broker MQTT LOCAL: " + mqttBroker);
             
         } catch (MqttException e) {
@@ -191,15 +181,15 @@ public class PanelInformativo implements MqttCallback {
         
         // Suscribirse al topic de información
         MySimpleLogger.info(loggerId, "Suscribiendo al topic: " + topicInfo);
-        mqttClientSubscriber.subscribe(topicInfo, 0);
+        conexionMQTT.subscribe(topicInfo, this);
         MySimpleLogger.info(loggerId, "Suscrito al topic: " + topicInfo);
         
         MySimpleLogger.info(loggerId, "Suscribiendo al topic: " + topicTraffic);
-        mqttClientSubscriber.subscribe(topicTraffic, 0);
+        conexionMQTT.subscribe(topicTraffic, this);
         MySimpleLogger.info(loggerId, "Suscrito al topic: " + topicTraffic);
         
         MySimpleLogger.info(loggerId, "Suscribiendo al topic: " + topicAlerts);
-        mqttClientSubscriber.subscribe(topicAlerts, 0);        
+        conexionMQTT.subscribe(topicAlerts, this);        
         MySimpleLogger.info(loggerId, "Suscrito al topic: " + topicAlerts);
     }
     
@@ -210,8 +200,7 @@ public class PanelInformativo implements MqttCallback {
     public void messageArrived(String topic, MqttMessage message) throws Exception {
         String payload = new String(message.getPayload());
         MySimpleLogger.info(loggerId, "Mensaje recibido en topic " + topic + ": " + payload);
-        MySimpleLogger.info(loggerId, "Cliente MQTT Subscriber conectado: " + (mqttClientSubscriber != null && mqttClientSubscriber.isConnected()));
-        MySimpleLogger.info(loggerId, "Cliente MQTT Publisher conectado: " + (mqttClientPublisher != null && mqttClientPublisher.isConnected()));
+        MySimpleLogger.info(loggerId, "Conexión MQTT conectada: " + (conexionMQTT != null && conexionMQTT.isConnected()));
         
         try {
             // Parsear el mensaje JSON
@@ -219,7 +208,13 @@ public class PanelInformativo implements MqttCallback {
             JSONObject msg = statusMessage.getJSONObject("msg");
             String type = statusMessage.getString("type");
 
-            if (topic.equals(topicInfo)) {
+            // Canal del mensaje (sólo los del segmento del panel)
+            Dispositivo_TopicTrie.Match<String> canal = CANALES.match(topic);
+            if (canal != null && !canal.captureEquals(0, roadSegment)) {
+                canal = null;
+            }
+
+            if (canal != null && canal.value().equals("info")) {
 
                 if (type.equals("ROAD_STATUS")) {
                     // Obtener el valor del campo "status"
@@ -244,10 +239,8 @@ public class PanelInformativo implements MqttCallback {
                         }
                     }
                     publishAwsState(); //  Publicar en AWS después de cambio
-                }
-            } else if (topic.equals(topicInfo)) {
-
-                if (type.equals("ACCIDENT")) {
+                } else if (type.equals("ACCIDENT")) {
+                    // Las alertas llegan retransmitidas por el Road Manager en el canal info
                     String accidenteId = msg.getString("id");
                     String event = msg.getString("event");
 
@@ -266,10 +259,10 @@ public class PanelInformativo implements MqttCallback {
                         semaforo.getFuncion("f2").apagar();
                         MySimpleLogger.info(loggerId, "Apagando f2");
                     }
+                    publishAwsState(); // Publicar en AWS después de cambio
                 }
-                publishAwsState(); // Publicar en AWS después de cambio
                 
-            } else if (topic.equals(topicTraffic)) {
+            } else if (canal != null && canal.value().equals("traffic")) {
 
                     if (type.equals("TRAFFIC")) {
 
@@ -313,6 +306,9 @@ public class PanelInformativo implements MqttCallback {
                     publishAwsState(); // Publicar en AWS después de cambio
                 }
                 
+            } else if (canal != null && canal.value().equals("alerts")) {
+                // Se procesan al recibirlas retransmitidas en el canal info (evita contarlas dos veces)
+                MySimpleLogger.debug(loggerId, "Alerta " + type + " recibida en " + topic);
             } else {
                 MySimpleLogger.warn(loggerId, "Topic desconocido: " + topic);
             }
@@ -345,18 +341,16 @@ public class PanelInformativo implements MqttCallback {
      */
     public void cerrar() {
         try {
-            if (mqttClientSubscriber != null && mqttClientSubscriber.isConnected()) {
-                mqttClientSubscriber.disconnect();
-                mqttClientSubscriber.close();
-                MySimpleLogger.info(loggerId, "Conexión MQTT LOCAL Subscriber cerrada");
-            }
-            if (mqttClientPublisher != null && mqttClientPublisher.isConnected()) {
-                mqttClientPublisher.disconnect();
-                mqttClientPublisher.close();
-                MySimpleLogger.info(loggerId, "Conexión MQTT LOCAL Publisher cerrada");
+            if (conexionMQTT != null) {
+                conexionMQTT.unsubscribe(topicInfo, this);
+                conexionMQTT.unsubscribe(topicTraffic, this);
+                conexionMQTT.unsubscribe(topicAlerts, this);
+                conexionMQTT.liberar();
+                conexionMQTT = null;
+                MySimpleLogger.info(loggerId, "Conexión MQTT LOCAL liberada");
             }
             disconnectAWS();
-        } catch (MqttException e) {
+        } catch (Exception e) {
             MySimpleLogger.error(loggerId, "Error al cerrar conexiones: " + e.getMessage());
         }
     }
@@ -369,47 +363,7 @@ public class PanelInformativo implements MqttCallback {
             cause.printStackTrace();
         }
         
-        // Intentar reconectar automáticamente con retry
-        int maxRetries = 3;
-        int retryCount = 0;
-        
-        while (retryCount < maxRetries) {
-            try {
-                MySimpleLogger.info(loggerId, "Intentando reconectar... (intento " + (retryCount + 1) + "/" + maxRetries + ")");
-                
-                if (mqttClientSubscriber != null && !mqttClientSubscriber.isConnected()) {
-                    // Configurar opciones de conexión
-                    MqttConnectOptions connOpts = new MqttConnectOptions();
-                    connOpts.setCleanSession(true);
-                    connOpts.setKeepAliveInterval(60);
-                    
-                    mqttClientSubscriber.connect(connOpts);
-                    
-                    // Re-suscribirse a topics
-                    mqttClientSubscriber.subscribe(topicInfo, 0);
-                    MySimpleLogger.info(loggerId, "Reconectado y re-suscrito al topic: " + topicInfo);
-                    mqttClientSubscriber.subscribe(topicTraffic, 0);
-                    MySimpleLogger.info(loggerId, "Reconectado y re-suscrito al topic: " + topicTraffic);
-                    mqttClientSubscriber.subscribe(topicAlerts, 0);
-                    MySimpleLogger.info(loggerId, "Reconectado y re-suscrito al topic: " + topicAlerts);
-                    return; // Éxito, salir del bucle
-                }
-            } catch (MqttException e) {
-                retryCount++;
-                MySimpleLogger.error(loggerId, "Error al reconectar (intento " + retryCount + "): " + e.getMessage());
-                
-                if (retryCount < maxRetries) {
-                    try {
-                        Thread.sleep(2000); // Esperar 2 segundos antes del siguiente intento
-                    } catch (InterruptedException ie) {
-                        Thread.currentThread().interrupt();
-                        break;
-                    }
-                }
-            }
-        }
-        
-        MySimpleLogger.error(loggerId, "No se pudo reconectar después de " + maxRetries + " intentos");
+        // La reconexión y la nueva suscripción a los topics las gestiona Dispositivo_ConexionMQTT
     }
     
     @Override
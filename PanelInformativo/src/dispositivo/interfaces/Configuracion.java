@@ -12,5 +12,11 @@ public interface Configuracion {
 
 	public static final String TOPIC_REGISTRO =  Configuracion.TOPIC_BASE + "gestion/dispositivos";
 
+	// Cola de publicación MQTT de cada conexión (ver Dispositivo_ColaPublicacion)
+	public static final int PUBLICACION_CAPACIDAD = 1000;	// Mensajes pendientes como máximo
+	public static final int PUBLICACION_VENTANA = 10;		// Envíos en vuelo (Paho 1.0.2 rechaza más de 10 QoS>0)
+	public static final String PUBLICACION_POLITICA = "FUSIONAR";	// Con la cola llena: DESCARTAR, BLOQUEAR o FUSIONAR
+	public static final long PUBLICACION_ESPERA_MS = 1000;	// Espera máxima de BLOQUEAR
+
 
 }
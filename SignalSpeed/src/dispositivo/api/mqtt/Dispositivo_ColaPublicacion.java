@@ -0,0 +1,367 @@
+package dispositivo.api.mqtt;
+
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.eclipse.paho.client.mqttv3.IMqttActionListener;
+import org.eclipse.paho.client.mqttv3.IMqttAsyncClient;
+import org.eclipse.paho.client.mqttv3.IMqttToken;
+import org.eclipse.paho.client.mqttv3.MqttException;
+import org.eclipse.paho.client.mqttv3.MqttMessage;
+
+import dispositivo.utils.MySimpleLogger;
+
+/**
+ * Cola de publicación asíncrona sobre un MqttAsyncClient.
+ *
+ * publicar encola el mensaje y retorna sin esperar a la red (ni al PUBACK de los mensajes QoS 1): los
+ * componentes publican desde sus callbacks (p.ej. la señal al recibir un 'step') sin bloquearse. Como
+ * mucho 'ventana' mensajes están en vuelo a la vez; cada envío que se completa libera un hueco y pasa
+ * el siguiente mensaje de la cola, desde el hilo de callbacks de Paho.
+ *
+ * Cuando la cola está llena se aplica la política configurada:
+ *   DESCARTAR - se descarta el mensaje nuevo
+ *   BLOQUEAR  - quien publica espera (como mucho Configuracion.PUBLICACION_ESPERA_MS) a que haya hueco
+ *   FUSIONAR  - en los topics declarados de último valor (declararUltimoValor: los estados de un
+ *               dispositivo) el mensaje nuevo sustituye al último pendiente del mismo topic; en el resto
+ *               (p.ej. señales de distintos tramos en un mismo topic), o si no hay ninguno, se descarta
+ *
+ * Sin conexión los mensajes se quedan en la cola y se envían al llamar a reanudar tras reconectar. Si
+ * Paho rechaza un envío por tener su ventana llena (envíos de otros componentes del mismo cliente), el
+ * mensaje vuelve a la cabeza de la cola y se reintenta al completarse un envío, al publicar otro o
+ * pasados REINTENTO_MS.
+ */
+public class Dispositivo_ColaPublicacion {
+
+	public enum Politica {
+		DESCARTAR, BLOQUEAR, FUSIONAR
+	}
+
+	/**
+	 * Aviso de fin de un envío (en el hilo de callbacks de Paho, o en el que publica si se descarta)
+	 */
+	public interface Confirmacion {
+		/**
+		 * @param error null si se ha enviado; la causa si ha fallado o se ha descartado
+		 */
+		void completada(String topic, Throwable error);
+	}
+
+	private static final Exception DESCARTADO = new Exception("Cola de publicación llena: mensaje descartado");
+	static final long REINTENTO_MS = 20; // Reintento tras MAX_INFLIGHT sin envíos propios en vuelo
+
+	// Reintentos de las colas que Paho ha rechazado sin tener envíos en vuelo (compartido por todas)
+	private static final ScheduledExecutorService REINTENTOS = Executors.newSingleThreadScheduledExecutor(r -> {
+		Thread t = new Thread(r, "cola-publicacion-reintento");
+		t.setDaemon(true);
+		return t;
+	});
+
+	private final IMqttAsyncClient cliente;
+	private final String loggerId;
+	private final int capacidad;
+	private final int ventana;
+	private final Politica politica;
+	private final long esperaMaxima;
+	private final Dispositivo_TopicTrie<Boolean> topicsUltimoValor = new Dispositivo_TopicTrie<>(); // Topics que FUSIONAR puede fusionar
+
+	// Mensajes pendientes y número de envíos en vuelo (protegidos por cola)
+	private final ArrayDeque<Pendiente> cola = new ArrayDeque<>();
+	private int enVuelo = 0;
+	private boolean pausada = false;
+	private boolean vaciando = false; // Un hilo está entregando la cola a Paho (sólo uno a la vez: orden FIFO)
+	private boolean reintentoProgramado = false;
+
+	// Estadísticas
+	private final AtomicLong enviados = new AtomicLong(0);
+	private final AtomicLong fallidos = new AtomicLong(0);
+	private final AtomicLong descartados = new AtomicLong(0);
+	private final AtomicLong fusionados = new AtomicLong(0);
+	private volatile int maximo = 0;
+
+	private final IMqttActionListener listener = new IMqttActionListener() {
+		@Override
+		public void onSuccess(IMqttToken token) {
+			Dispositivo_ColaPublicacion.this.terminado((Pendiente) token.getUserContext(), null);
+		}
+
+		@Override
+		public void onFailure(IMqttToken token, Throwable causa) {
+			Dispositivo_ColaPublicacion.this.terminado((Pendiente) token.getUserContext(), (causa != null) ? causa : DESCARTADO);
+		}
+	};
+
+	public Dispositivo_ColaPublicacion(IMqttAsyncClient cliente, String nombre, int capacidad, int ventana, Politica politica, long esperaMaxima) {
+		this.cliente = cliente;
+		this.loggerId = nombre + "-colaPublicacion";
+		this.capacidad = Math.max(1, capacidad);
+		this.ventana = Math.max(1, ventana);
+		this.politica = (politica != null) ? politica : Politica.DESCARTAR;
+		this.esperaMaxima = Math.max(0, esperaMaxima);
+	}
+
+	public Politica getPolitica() {
+		return this.politica;
+	}
+
+	/**
+	 * Declara un patrón de topics (niveles literales, '+' o '#') cuyos mensajes sólo interesan en su último
+	 * valor: con la política FUSIONAR un mensaje nuevo sustituye al pendiente del mismo topic
+	 */
+	public void declararUltimoValor(String patron) {
+		this.topicsUltimoValor.add(patron, Boolean.TRUE);
+	}
+
+	/**
+	 * Encola un mensaje. El payload pasa a ser de la cola: no se debe modificar después.
+	 * @return false si se ha descartado (cola llena)
+	 */
+	public boolean publicar(String topic, byte[] payload, int qos, Confirmacion confirmacion) {
+		Pendiente p = new Pendiente(topic, payload, qos, confirmacion);
+		boolean encolado;
+		synchronized (this.cola) {
+			encolado = this.cola.size() < this.capacidad || this.hacerHueco(p);
+			if (encolado && p.payload != null) { // null: fusionado con un mensaje pendiente
+				this.cola.addLast(p);
+				if (this.cola.size() > this.maximo) {
+					this.maximo = this.cola.size();
+				}
+			}
+		}
+		if (!encolado) {
+			this.descartados.incrementAndGet();
+		}
+		if ((!encolado || p.payload == null) && p.confirmacion != null) {
+			// Descartado, o sustituido: se avisa al autor del mensaje pendiente que se ha fusionado
+			p.confirmacion.completada(topic, DESCARTADO);
+		}
+		this.enviar();
+		return encolado;
+	}
+
+	/**
+	 * Aplica la política con la cola llena
+	 * @return true si el mensaje puede encolarse o ya se ha fusionado con uno pendiente
+	 */
+	private boolean hacerHueco(Pendiente p) {
+		switch (this.politica) {
+			case BLOQUEAR:
+				long limite = System.currentTimeMillis() + this.esperaMaxima;
+				try {
+					long espera;
+					while (this.cola.size() >= this.capacidad && (espera = limite - System.currentTimeMillis()) > 0) {
+						this.cola.wait(espera);
+					}
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+				return this.cola.size() < this.capacidad;
+			case FUSIONAR:
+				if (!this.topicsUltimoValor.matches(p.topic)) {
+					return false;
+				}
+				Iterator<Pendiente> it = this.cola.descendingIterator();
+				while (it.hasNext()) {
+					Pendiente q = it.next();
+					if (q.topic.equals(p.topic)) {
+						Confirmacion sustituida = q.confirmacion;
+						q.payload = p.payload;
+						q.qos = p.qos;
+						q.confirmacion = p.confirmacion;
+						p.payload = null;
+						p.confirmacion = sustituida;
+						this.fusionados.incrementAndGet();
+						return true;
+					}
+				}
+				return false;
+			default:
+				return false;
+		}
+	}
+
+	/**
+	 * Entrega a Paho los mensajes de la cola mientras haya hueco en la ventana. Sólo un hilo a la vez
+	 * vacía la cola (los demás retornan y él recoge sus mensajes): salen en el orden en que se encolaron.
+	 */
+	private void enviar() {
+		synchronized (this.cola) {
+			if (this.vaciando) {
+				return; // Lo entrega el hilo que ya está vaciando la cola, en orden
+			}
+			this.vaciando = true;
+		}
+		try {
+			this.enviarLoop();
+		} catch (RuntimeException | Error e) {
+			synchronized (this.cola) {
+				this.vaciando = false;
+			}
+			throw e;
+		}
+	}
+
+	/**
+	 * Bucle del único hilo que entrega la cola (ver enviar)
+	 */
+	private void enviarLoop() {
+		while (true) {
+			Pendiente p;
+			synchronized (this.cola) {
+				if (this.pausada || this.enVuelo >= this.ventana || this.cola.isEmpty()) {
+					this.vaciando = false; // Con el cerrojo: quien encuentre el indicador puesto ya no pierde su mensaje
+					return;
+				}
+				p = this.cola.pollFirst();
+				this.enVuelo++;
+				this.cola.notifyAll(); // Hueco para BLOQUEAR
+			}
+			try {
+				MqttMessage message = new MqttMessage(p.payload);
+				message.setQos(p.qos);
+				message.setRetained(false);
+				this.cliente.publish(p.topic, message, p, this.listener);
+			} catch (MqttException e) {
+				synchronized (this.cola) {
+					this.enVuelo--;
+					if (!this.cliente.isConnected()) {
+						// Se reintentará al reconectar (reanudar)
+						this.cola.addFirst(p);
+						this.pausada = true;
+						this.vaciando = false;
+						return;
+					}
+					if (e.getReasonCode() == MqttException.REASON_CODE_MAX_INFLIGHT) {
+						// Paho está lleno (envíos de otros componentes): se reintenta al completarse uno de los
+						// nuestros o, si no hay ninguno en vuelo, al publicar otro o pasados REINTENTO_MS
+						this.cola.addFirst(p);
+						if (this.enVuelo == 0 && !this.reintentoProgramado) {
+							this.reintentoProgramado = true;
+							REINTENTOS.schedule(this::reintentar, REINTENTO_MS, TimeUnit.MILLISECONDS);
+						}
+						this.vaciando = false;
+						return;
+					}
+				}
+				this.completado(p, e);
+			}
+		}
+	}
+
+	private void reintentar() {
+		synchronized (this.cola) {
+			this.reintentoProgramado = false;
+		}
+		this.enviar();
+	}
+
+	private void terminado(Pendiente p, Throwable error) {
+		synchronized (this.cola) {
+			this.enVuelo--;
+		}
+		this.completado(p, error);
+		this.enviar();
+	}
+
+	private void completado(Pendiente p, Throwable error) {
+		if (error == null) {
+			this.enviados.incrementAndGet();
+		} else {
+			this.fallidos.incrementAndGet();
+			MySimpleLogger.warn(this.loggerId, "Error al publicar en " + p.topic + ": " + error.getMessage());
+		}
+		if (p.confirmacion != null) {
+			try {
+				p.confirmacion.completada(p.topic, error);
+			} catch (RuntimeException e) {
+				MySimpleLogger.warn(this.loggerId, "Error en la confirmación de " + p.topic + ": " + e.getMessage());
+			}
+		}
+	}
+
+	/**
+	 * Reanuda los envíos tras reconectar
+	 */
+	public void reanudar() {
+		synchronized (this.cola) {
+			this.pausada = false;
+		}
+		this.enviar();
+	}
+
+	/**
+	 * Espera (como mucho timeoutMillis) a que se vacíe la cola y se completen los envíos en vuelo
+	 * @return true si no queda nada pendiente
+	 */
+	public boolean vaciar(long timeoutMillis) {
+		long limite = System.currentTimeMillis() + timeoutMillis;
+		while (true) {
+			synchronized (this.cola) {
+				if ((this.cola.isEmpty() && this.enVuelo == 0) || this.pausada) {
+					return this.cola.isEmpty() && this.enVuelo == 0;
+				}
+			}
+			if (System.currentTimeMillis() >= limite) {
+				return false;
+			}
+			try {
+				Thread.sleep(10);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				return false;
+			}
+		}
+	}
+
+	/**
+	 * Mensajes esperando en la cola
+	 */
+	public int getProfundidad() {
+		synchronized (this.cola) {
+			return this.cola.size();
+		}
+	}
+
+	public int getEnVuelo() {
+		synchronized (this.cola) {
+			return this.enVuelo;
+		}
+	}
+
+	public long getEnviados() {
+		return this.enviados.get();
+	}
+
+	public long getDescartados() {
+		return this.descartados.get();
+	}
+
+	public String getEstadisticas() {
+		return "cola=" + this.getProfundidad() + "/" + this.capacidad
+				+ " max=" + this.maximo
+				+ " en vuelo=" + this.getEnVuelo() + "/" + this.ventana
+				+ " enviados=" + this.enviados.get()
+				+ " descartados=" + this.descartados.get()
+				+ " fusionados=" + this.fusionados.get()
+				+ " fallidos=" + this.fallidos.get()
+				+ " politica=" + this.politica;
+	}
+
+	private static final class Pendiente {
+		final String topic;
+		byte[] payload;
+		int qos;
+		Confirmacion confirmacion;
+
+		Pendiente(String topic, byte[] payload, int qos, Confirmacion confirmacion) {
+			this.topic = topic;
+			this.payload = payload;
+			this.qos = qos;
+			this.confirmacion = confirmacion;
+		}
+	}
+}
@@ -0,0 +1,300 @@
+package dispositivo.api.mqtt;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import org.eclipse.paho.client.mqttv3.IMqttActionListener;
+import org.eclipse.paho.client.mqttv3.IMqttDeliveryToken;
+import org.eclipse.paho.client.mqttv3.IMqttToken;
+import org.eclipse.paho.client.mqttv3.MqttAsyncClient;
+import org.eclipse.paho.client.mqttv3.MqttCallback;
+import org.eclipse.paho.client.mqttv3.MqttConnectOptions;
+import org.eclipse.paho.client.mqttv3.MqttException;
+import org.eclipse.paho.client.mqttv3.MqttMessage;
+import org.eclipse.paho.client.mqttv3.persist.MemoryPersistence;
+
+import dispositivo.interfaces.Configuracion;
+import dispositivo.utils.MySimpleLogger;
+
+/**
+ * Conexión MQTT compartida por todos los componentes del proceso que usan el mismo broker
+ * (registro, API MQTT de funciones, panel, señal...), en lugar de un cliente por componente.
+ *
+ * Cada componente registra su callback para los filtros de topic que le interesan y la conexión
+ * entrega cada mensaje entrante a todos los callbacks cuyo filtro coincide. Un filtro se suscribe
+ * una sola vez en el broker aunque tenga varios callbacks.
+ *
+ * Las publicaciones pasan por una cola asíncrona (Dispositivo_ColaPublicacion) sobre MqttAsyncClient:
+ * publish retorna sin esperar a la red ni al PUBACK.
+ *
+ * Se obtiene con obtener (una por broker) y se libera con liberar; la conexión se cierra al liberarla
+ * su último usuario. Si se pierde, se reconecta en segundo plano, se vuelven a suscribir los filtros
+ * y se envía lo que haya quedado en la cola.
+ */
+public class Dispositivo_ConexionMQTT implements MqttCallback {
+
+	// Conexiones del proceso: URL del broker -> conexión
+	private static final Map<String, Dispositivo_ConexionMQTT> CONEXIONES = new HashMap<>();
+
+	static final long TIMEOUT_CONEXION = 30000;
+	static final long TIMEOUT_VACIAR = 2000; // Espera máxima a la cola al desconectar
+
+	protected MqttAsyncClient myClient;
+	protected MqttConnectOptions connOpt;
+	protected Dispositivo_ColaPublicacion colaPublicacion;
+
+	protected String mqttBroker = null;
+	protected String clientId = null;
+	private int referencias = 0; // Protegido por CONEXIONES
+
+	// Filtro de topic -> callbacks registrados
+	private final Map<String, List<MqttCallback>> rutas = new ConcurrentHashMap<>();
+	// Filtros con wildcards (+, #) -> callbacks, en un árbol que resuelve un topic en una sola pasada
+	private final Dispositivo_TopicTrie<List<MqttCallback>> filtrosWildcard = new Dispositivo_TopicTrie<>();
+	private final Dispositivo_TopicTrie.Visitor<List<MqttCallback>, MqttMessage> entregarTodos = this::entregarTodos;
+
+	private volatile boolean cerrada = false;
+	private volatile boolean reconectando = false;
+
+	private String loggerId = null;
+
+	/**
+	 * Conexión compartida con un broker. La primera petición la crea y conecta; si no se indica
+	 * clientId se genera uno aleatorio.
+	 */
+	public static Dispositivo_ConexionMQTT obtener(String mqttBroker, String clientId) throws MqttException {
+		synchronized (CONEXIONES) {
+			Dispositivo_ConexionMQTT conexion = CONEXIONES.get(mqttBroker);
+			if (conexion == null || conexion.cerrada) {
+				conexion = new Dispositivo_ConexionMQTT(mqttBroker,
+						(clientId != null) ? clientId : UUID.randomUUID().toString());
+				conexion.connect();
+				CONEXIONES.put(mqttBroker, conexion);
+			}
+			conexion.referencias++;
+			return conexion;
+		}
+	}
+
+	protected Dispositivo_ConexionMQTT(String mqttBroker, String clientId) {
+		this.mqttBroker = mqttBroker;
+		this.clientId = clientId;
+		this.loggerId = clientId + "-conexionMQTT";
+	}
+
+	protected void connect() throws MqttException {
+		connOpt = new MqttConnectOptions();
+		connOpt.setCleanSession(true);
+		connOpt.setKeepAliveInterval(60);
+
+		myClient = new MqttAsyncClient(this.mqttBroker, this.clientId, new MemoryPersistence());
+		myClient.setCallback(this);
+		Dispositivo_ColaPublicacion.Politica politica;
+		try {
+			politica = Dispositivo_ColaPublicacion.Politica.valueOf(Configuracion.PUBLICACION_POLITICA);
+		} catch (IllegalArgumentException e) {
+			politica = Dispositivo_ColaPublicacion.Politica.DESCARTAR;
+		}
+		colaPublicacion = new Dispositivo_ColaPublicacion(myClient, this.clientId, Configuracion.PUBLICACION_CAPACIDAD,
+				Configuracion.PUBLICACION_VENTANA, politica, Configuracion.PUBLICACION_ESPERA_MS);
+		// Estado de las funciones (FuncionPublisher_APIMQTT): sólo interesa el último
+		colaPublicacion.declararUltimoValor(Configuracion.TOPIC_BASE + "dispositivo/+/funcion/+/info");
+		myClient.connect(connOpt).waitForCompletion(TIMEOUT_CONEXION);
+		MySimpleLogger.info(this.loggerId, "Conectado al broker " + this.mqttBroker);
+	}
+
+	/**
+	 * Libera la conexión; se desconecta al liberarla su último usuario
+	 */
+	public void liberar() {
+		synchronized (CONEXIONES) {
+			if (--this.referencias > 0) {
+				return;
+			}
+			CONEXIONES.remove(this.mqttBroker, this);
+		}
+		this.cerrada = true;
+		try {
+			if (myClient != null && myClient.isConnected()) {
+				// Enviar lo que quede en la cola antes de cerrar
+				if (!this.colaPublicacion.vaciar(TIMEOUT_VACIAR)) {
+					MySimpleLogger.warn(this.loggerId, "Desconectando con mensajes pendientes: " + this.colaPublicacion.getEstadisticas());
+				}
+				myClient.disconnect().waitForCompletion(TIMEOUT_CONEXION);
+			}
+			if (myClient != null) {
+				myClient.close();
+			}
+			MySimpleLogger.info(this.loggerId, "Desconectado del broker " + this.mqttBroker);
+		} catch (MqttException e) {
+			e.printStackTrace();
+		}
+	}
+
+	public String getBroker() {
+		return this.mqttBroker;
+	}
+
+	public boolean isConnected() {
+		return myClient != null && myClient.isConnected();
+	}
+
+	/**
+	 * Cola de publicación de la conexión (profundidad, envíos en vuelo, descartes)
+	 */
+	public Dispositivo_ColaPublicacion getColaPublicacion() {
+		return this.colaPublicacion;
+	}
+
+	/**
+	 * Registra un callback para un filtro de topic (admite wildcards + y #)
+	 */
+	public void subscribe(String topic, MqttCallback handler) throws MqttException {
+		boolean primero;
+		synchronized (this) {
+			List<MqttCallback> handlers = this.rutas.get(topic);
+			primero = (handlers == null);
+			if (primero) {
+				handlers = new CopyOnWriteArrayList<>();
+				this.rutas.put(topic, handlers);
+				if (topic.indexOf('+') >= 0 || topic.indexOf('#') >= 0) {
+					this.filtrosWildcard.add(topic, handlers);
+				}
+			}
+			if (!handlers.contains(handler)) {
+				handlers.add(handler);
+			}
+		}
+		if (primero && this.isConnected()) {
+			// Sin esperar al SUBACK: se suscribe también desde callbacks
+			myClient.subscribe(topic, 0, topic, this.suscripcionListener);
+		}
+	}
+
+	/**
+	 * Elimina el callback de un filtro; se desuscribe del broker cuando no quedan callbacks
+	 */
+	public void unsubscribe(String topic, MqttCallback handler) {
+		boolean ultimo = false;
+		synchronized (this) {
+			List<MqttCallback> handlers = this.rutas.get(topic);
+			if (handlers == null) {
+				return;
+			}
+			handlers.remove(handler);
+			if (handlers.isEmpty()) {
+				this.rutas.remove(topic);
+				this.filtrosWildcard.remove(topic, handlers);
+				ultimo = true;
+			}
+		}
+		if (ultimo && this.isConnected()) {
+			try {
+				myClient.unsubscribe(topic, topic, this.suscripcionListener);
+			} catch (MqttException e) {
+				MySimpleLogger.warn(this.loggerId, "Error al desuscribirse de " + topic + ": " + e.getMessage());
+			}
+		}
+	}
+
+	/**
+	 * Encola el mensaje y retorna sin esperar a que se complete el envío: los componentes publican
+	 * desde sus callbacks (p.ej. la señal al recibir un 'step')
+	 * @return false si se ha descartado (cola llena o conexión cerrada)
+	 */
+	public boolean publish(String topic, byte[] payload, int qos) {
+		return this.publish(topic, payload, qos, null);
+	}
+
+	/**
+	 * Publica sin esperar y avisa al completarse el envío (o al descartarse)
+	 */
+	public boolean publish(String topic, byte[] payload, int qos, Dispositivo_ColaPublicacion.Confirmacion confirmacion) {
+		if (this.cerrada) {
+			if (confirmacion != null) {
+				confirmacion.completada(topic, new MqttException(MqttException.REASON_CODE_CLIENT_NOT_CONNECTED));
+			}
+			return false;
+		}
+		return this.colaPublicacion.publicar(topic, payload, qos, confirmacion);
+	}
+
+	private final IMqttActionListener suscripcionListener = new IMqttActionListener() {
+		@Override
+		public void onSuccess(IMqttToken token) {
+		}
+
+		@Override
+		public void onFailure(IMqttToken token, Throwable causa) {
+			MySimpleLogger.warn(Dispositivo_ConexionMQTT.this.loggerId, "Error al (des)suscribirse de " + token.getUserContext() + ": "
+					+ (causa != null ? causa.getMessage() : ""));
+		}
+	};
+
+	@Override
+	public void messageArrived(String topic, MqttMessage message) throws Exception {
+		List<MqttCallback> handlers = this.rutas.get(topic);
+		if (handlers != null) {
+			this.entregarTodos(handlers, topic, message);
+		}
+		if (!this.filtrosWildcard.isEmpty()) {
+			this.filtrosWildcard.forEachMatch(topic, this.entregarTodos, message);
+		}
+	}
+
+	private void entregarTodos(List<MqttCallback> handlers, String topic, MqttMessage message) {
+		for (MqttCallback h : handlers) {
+			this.entregar(h, topic, message);
+		}
+	}
+
+	private void entregar(MqttCallback handler, String topic, MqttMessage message) {
+		try {
+			handler.messageArrived(topic, message);
+		} catch (Exception e) {
+			// Un callback que falla no debe afectar al resto ni cerrar la conexión
+			MySimpleLogger.warn(this.loggerId, "Error al entregar mensaje de " + topic + ": " + e.getMessage());
+		}
+	}
+
+	@Override
+	public void connectionLost(Throwable t) {
+		MySimpleLogger.warn(this.loggerId, "Connection lost! " + (t != null ? t.getMessage() : ""));
+		if (this.cerrada || this.reconectando) {
+			return;
+		}
+		this.reconectando = true;
+		// Reconectar en un hilo separado para no bloquear el hilo de Paho
+		Thread hilo = new Thread(() -> {
+			try {
+				while (!this.cerrada && !this.isConnected()) {
+					try {
+						Thread.sleep(2000);
+						myClient.connect(connOpt).waitForCompletion(TIMEOUT_CONEXION);
+						for (String topic : this.rutas.keySet()) {
+							myClient.subscribe(topic, 0, topic, this.suscripcionListener);
+						}
+						this.colaPublicacion.reanudar();
+						MySimpleLogger.info(this.loggerId, "Reconectado y re-suscrito a " + this.rutas.size() + " topics");
+					} catch (MqttException e) {
+						MySimpleLogger.error(this.loggerId, "Error al reconectar: " + e.getMessage());
+					}
+				}
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			} finally {
+				this.reconectando = false;
+			}
+		}, this.clientId + "-reconnect");
+		hilo.setDaemon(true);
+		hilo.start();
+	}
+
+	@Override
+	public void deliveryComplete(IMqttDeliveryToken token) {
+	}
+}
@@ -1,13 +1,11 @@
 package dispositivo.componentes;
 
 import org.json.JSONObject;
-import org.eclipse.paho.client.mqttv3.MqttClient;
-import org.eclipse.paho.client.mqttv3.MqttConnectOptions;
 import org.eclipse.paho.client.mqttv3.MqttException;
 import org.eclipse.paho.client.mqttv3.MqttMessage;
-import org.eclipse.paho.client.mqttv3.persist.MemoryPersistence;
 import org.eclipse.paho.client.mqttv3.MqttCallback;
 import org.eclipse.paho.client.mqttv3.IMqttDeliveryToken;
+import dispositivo.api.mqtt.Dispositivo_ConexionMQTT;
 import dispositivo.utils.MySimpleLogger;
 
 public class SignalSpeed implements MqttCallback {
@@ -17,7 +15,7 @@ public class SignalSpeed implements MqttCallback {
     private int velocidadMaxima;
     private int posicionInicio;
     private int posicionFin;
-    private MqttClient mqttClientPublisher;   // Ahora actúa como Publisher y Subscriber
+    private Dispositivo_ConexionMQTT conexionMQTT;   // Publica y se suscribe (conexión compartida del proceso)
     private String topicPublicacion;
     private String topicStep = "es/upv/pros/tatami/smartcities/traffic/PTPaterna/step"; 
     private String loggerId;
@@ -39,20 +37,11 @@ public class SignalSpeed implements MqttCallback {
         this.loggerId = "SignalSpeed-" + id;
 
         try {
-            this.mqttClientPublisher = new MqttClient(mqttBroker, "SignalSpeed_Pub_" + id, new MemoryPersistence());
-            
-            MqttConnectOptions connOpts = new MqttConnectOptions();
-            connOpts.setCleanSession(true);
-            connOpts.setKeepAliveInterval(60);
-            
-            //Asignamos el callback ANTES de conectar
-            this.mqttClientPublisher.setCallback(this);
-
-            this.mqttClientPublisher.connect(connOpts);
+            this.conexionMQTT = Dispositivo_ConexionMQTT.obtener(mqttBroker, "SignalSpeed_Pub_" + id);
             MySimpleLogger.info(loggerId, "Conectado al broker MQTT LOCAL: " + mqttBroker);
 
             // Nos suscribimos al topic del step
-            this.mqttClientPublisher.subscribe(topicStep);
+            this.conexionMQTT.subscribe(topicStep, this);
             MySimpleLogger.info(loggerId, "Suscrito al topic STEP: " + topicStep);
             
         } catch (MqttException e) {
@@ -124,11 +113,14 @@ public class SignalSpeed implements MqttCallback {
 
             String payload = root.toString();
 
-            
-            MqttMessage message = new MqttMessage(payload.getBytes());
-            message.setQos(1);
-            message.setRetained(false);
-            mqttClientPublisher.publish(topicPublicacion, message);
+            // Se publica desde el callback del 'step': se encola y el PUBACK se recibe en la confirmación
+            conexionMQTT.publish(topicPublicacion, payload.getBytes(), 1, (topic, error) -> {
+                if (error == null) {
+                    MySimpleLogger.debug(loggerId, "Mensaje LOCAL confirmado en: " + topic);
+                } else {
+                    MySimpleLogger.warn(loggerId, "Mensaje LOCAL no enviado a " + topic + ": " + error.getMessage());
+                }
+            });
             MySimpleLogger.info(loggerId, "Mensaje LOCAL publicado en: " + topicPublicacion);
 
             // Actualizar shadow cuando se publica estado
@@ -167,8 +159,10 @@ public class SignalSpeed implements MqttCallback {
      */
     public void cerrar() {
         try {
-            if (mqttClientPublisher != null && mqttClientPublisher.isConnected()) {
-                mqttClientPublisher.disconnect();
+            if (conexionMQTT != null) {
+                conexionMQTT.unsubscribe(topicStep, this);
+                conexionMQTT.liberar();
+                conexionMQTT = null;
                 MySimpleLogger.info(loggerId, "MQTT LOCAL desconectado");
             }
             if (this.awsShadowPublisher != null) {
@@ -30,5 +30,5 @@ echo ""
 cd "$PROJECT_DIR"
 
 # Ejecutar
-java -cp "$CLASSPATH" roadmanager.starter.RoadManagerStarter_Test "$MANAGER_ID" "$THING_NAME"
+java $JAVA_OPTS -cp "$CLASSPATH" roadmanager.starter.RoadManagerStarter_Test "$MANAGER_ID" "$THING_NAME"
 
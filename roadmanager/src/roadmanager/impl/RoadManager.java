@@ -1,7 +1,11 @@
 package roadmanager.impl;
 
 import java.util.HashMap;
+import java.util.Iterator;
 import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Gestor de Carreteras (Road Manager)
@@ -10,15 +14,21 @@ import java.util.Map;
  * 1. Gestionar alertas: monitorizar canal de alertas y retransmitir a canal de información
  * 2. Auto-regulación de velocidad según densidad de tráfico (mediante señales speed-limit)
  * 3. Gestionar señalización de velocidad (crear/eliminar señales speed-limit según densidad)
+ *
+ * Con -Droadmanager.signal.hold=<ms> (o setSignalHoldMillis) las señales se endurecen en cuanto llega un
+ * ROAD_STATUS más congestionado, pero sólo se relajan o se retiran cuando el estado menos congestionado
+ * se mantiene durante ese tiempo: un segmento que oscila alrededor de un umbral no crea y retira su
+ * señal (en el simulador y en AWS IoT) con cada ROAD_STATUS.
  */
 public class RoadManager {
 	
 	protected String managerId = null;
 	
-	// Componentes MQTT del simulador
+	// Componentes MQTT del simulador (comparten una única conexión, ver RoadManager_MqttConnection)
 	protected RoadManager_AlertsSubscriber alertsSubscriber = null; // Suscribe a alerts de todos los segmentos
 	protected RoadManager_InfoPublisher infoPublisher = null; // Publica en info de todos los segmentos
 	protected RoadManager_RoadStatusSubscriber roadStatusSubscriber = null; // Suscribe a info para ROAD_STATUS
+	protected RoadManager_FleetSnapshotSubscriber fleetSnapshotSubscriber = null; // Suscribe a instantáneas de flota (opcional)
 	
 	// Componentes AWS IoT
 	protected RoadManager_AWSAlertsSubscriber awsAlertsSubscriber = null; // Suscribe a alerts en AWS IoT
@@ -32,6 +42,17 @@ public class RoadManager {
 	// Mapa: road-segment -> velocidad máxima del segmento (para calcular límites dinámicos)
 	protected Map<String, Integer> segmentMaxSpeeds = new HashMap<>();
 	
+	// Relajaciones pendientes: road-segment -> límite al que se relajará (0: retirar la señal) y desde cuándo
+	protected Map<String, PendingRelaxation> pendingRelaxations = new HashMap<>();
+	
+	// Tiempo que debe mantenerse un estado menos congestionado antes de relajar la señal (0: inmediato)
+	// Se inicializa antes que los suscriptores, que pueden entregar ROAD_STATUS durante el constructor
+	protected long signalHoldMillis = Long.getLong("roadmanager.signal.hold", 0L);
+	protected ScheduledExecutorService holdTimer = null;
+	
+	// Última instantánea de flota recibida de cada anfitrión: hostId -> instantánea
+	protected Map<String, RoadManager_FleetSnapshot> fleetSnapshots = new HashMap<>();
+	
 	public RoadManager(String managerId) {
 		this.managerId = managerId;
 		
@@ -68,6 +89,59 @@ public class RoadManager {
 		this.awsRoadStatusSubscriber.connect();
 	}
 	
+	/**
+	 * Recibe las instantáneas binarias de flota (.../fleet/snapshot): la posición de todos los vehículos
+	 * de cada anfitrión en un mensaje por paso
+	 */
+	public void enableFleetSnapshots() {
+		if (this.fleetSnapshotSubscriber != null) {
+			return;
+		}
+		this.fleetSnapshotSubscriber = new RoadManager_FleetSnapshotSubscriber(this);
+		this.fleetSnapshotSubscriber.connect();
+		this.fleetSnapshotSubscriber.subscribe(RoadManager_FleetSnapshotSubscriber.FLEET_SNAPSHOT_TOPIC);
+	}
+	
+	/**
+	 * Guarda la última instantánea de flota de un anfitrión
+	 * @param bytes tamaño de la trama recibida
+	 */
+	public synchronized void processFleetSnapshot(RoadManager_FleetSnapshot snapshot, int bytes) {
+		RoadManager_FleetSnapshot previous = this.fleetSnapshots.get(snapshot.getHostId());
+		if (previous != null && previous.getStep() > snapshot.getStep()) {
+			return; // Trama atrasada
+		}
+		this.fleetSnapshots.put(snapshot.getHostId(), snapshot);
+		System.out.println("(RoadManager: " + this.managerId + ") Fleet snapshot from " + snapshot.getHostId()
+				+ " step " + snapshot.getStep() + ": " + snapshot.size() + " vehicles in " + bytes + " bytes");
+	}
+	
+	/**
+	 * Vehículos en un segmento según las últimas instantáneas de todos los anfitriones de flota
+	 */
+	public synchronized int getFleetVehicleCount(String roadSegment) {
+		int n = 0;
+		for (RoadManager_FleetSnapshot snapshot : this.fleetSnapshots.values()) {
+			for (int i = 0; i < snapshot.size(); i++) {
+				if (roadSegment.equals(snapshot.getSegment(i))) {
+					n++;
+				}
+			}
+		}
+		return n;
+	}
+	
+	public synchronized Map<String, RoadManager_FleetSnapshot> getFleetSnapshots() {
+		return new HashMap<>(this.fleetSnapshots);
+	}
+	
+	/**
+	 * Estado de la cola de publicación en el simulador (profundidad, envíos en vuelo, descartes)
+	 */
+	public String getPublishStats() {
+		return (this.infoPublisher != null) ? this.infoPublisher.getPublishStats() : "not connected";
+	}
+	
 	/**
 	 * Retransmite una alerta recibida en el canal alerts al canal info del mismo segmento
 	 * @param roadSegment Segmento de carretera donde ocurrió la alerta
@@ -91,24 +165,110 @@ public class RoadManager {
 	 * @param status Estado de densidad: Free_Flow, Mostly_Free_Flow, Limited_Manouvers, No_Manouvers, Collapsed
 	 * @param maxSpeed Velocidad máxima del segmento
 	 */
-	public void processRoadStatus(String roadSegment, String status, int maxSpeed) {
+	public synchronized void processRoadStatus(String roadSegment, String status, int maxSpeed) {
 		// Guardar velocidad máxima del segmento
 		this.segmentMaxSpeeds.put(roadSegment, maxSpeed);
 		
 		// Aplicar auto-regulación según el estado
 		if ("No_Manouvers".equals(status) || "Collapsed".equals(status)) {
-			// Crear señal de límite de velocidad de 20 km/h
-			createSpeedLimitSignal(roadSegment, 20);
+			// Señal de límite de velocidad de 20 km/h
+			applySpeedLimit(roadSegment, 20);
 		} else if ("Limited_Manouvers".equals(status)) {
-			// Crear señal de límite de velocidad: maxSpeed - 20 km/h
-			int speedLimit = Math.max(20, maxSpeed - 20);
-			createSpeedLimitSignal(roadSegment, speedLimit);
+			// Señal de límite de velocidad: maxSpeed - 20 km/h
+			applySpeedLimit(roadSegment, Math.max(20, maxSpeed - 20));
 		} else if ("Free_Flow".equals(status) || "Mostly_Free_Flow".equals(status)) {
-			// Eliminar señal de límite de velocidad si existe
+			// Sin señal de límite de velocidad
+			applySpeedLimit(roadSegment, 0);
+		}
+	}
+	
+	/**
+	 * Tiempo que debe mantenerse un estado menos congestionado antes de relajar o retirar la señal (0: inmediato)
+	 */
+	public synchronized void setSignalHoldMillis(long signalHoldMillis) {
+		this.signalHoldMillis = signalHoldMillis;
+	}
+	
+	public synchronized long getSignalHoldMillis() {
+		return this.signalHoldMillis;
+	}
+	
+	/**
+	 * Lleva la señal del segmento al límite indicado (0: sin señal). Endurecerla es inmediato; relajarla o
+	 * retirarla espera a que el nuevo límite se mantenga signalHoldMillis.
+	 */
+	private void applySpeedLimit(String roadSegment, int speedLimit) {
+		SpeedLimitSignal existingSignal = this.activeSpeedLimitSignals.get(roadSegment);
+		int currentLimit = (existingSignal != null) ? existingSignal.getValue() : 0;
+		
+		if (speedLimit == currentLimit) {
+			// Se mantiene el estado actual: se descarta una relajación pendiente
+			this.pendingRelaxations.remove(roadSegment);
+			return;
+		}
+		
+		boolean tighter = speedLimit > 0 && (currentLimit == 0 || speedLimit < currentLimit);
+		if (tighter || this.signalHoldMillis <= 0) {
+			this.pendingRelaxations.remove(roadSegment);
+			this.setSpeedLimit(roadSegment, speedLimit);
+			return;
+		}
+		
+		// Relajación: se aplica cuando lleva signalHoldMillis sin volver a endurecerse
+		long now = System.currentTimeMillis();
+		PendingRelaxation pending = this.pendingRelaxations.get(roadSegment);
+		if (pending == null) {
+			this.pendingRelaxations.put(roadSegment, new PendingRelaxation(speedLimit, now));
+			this.startHoldTimer();
+		} else {
+			pending.speedLimit = speedLimit;
+			if (now - pending.since >= this.signalHoldMillis) {
+				this.pendingRelaxations.remove(roadSegment);
+				this.setSpeedLimit(roadSegment, speedLimit);
+			}
+		}
+	}
+	
+	private void setSpeedLimit(String roadSegment, int speedLimit) {
+		if (speedLimit > 0) {
+			createSpeedLimitSignal(roadSegment, speedLimit);
+		} else {
 			removeSpeedLimitSignal(roadSegment);
 		}
 	}
 	
+	/**
+	 * Aplica las relajaciones que han cumplido su tiempo aunque no llegue otro ROAD_STATUS del segmento
+	 */
+	private synchronized void applyDueRelaxations() {
+		long now = System.currentTimeMillis();
+		for (Iterator<Map.Entry<String, PendingRelaxation>> it = this.pendingRelaxations.entrySet().iterator(); it.hasNext(); ) {
+			Map.Entry<String, PendingRelaxation> e = it.next();
+			if (now - e.getValue().since >= this.signalHoldMillis) {
+				it.remove();
+				this.setSpeedLimit(e.getKey(), e.getValue().speedLimit);
+			}
+		}
+	}
+	
+	private void startHoldTimer() {
+		if (this.holdTimer != null) {
+			return;
+		}
+		this.holdTimer = Executors.newSingleThreadScheduledExecutor(r -> {
+			Thread t = new Thread(r, "road-manager-signal-hold");
+			t.setDaemon(true);
+			return t;
+		});
+		this.holdTimer.scheduleWithFixedDelay(() -> {
+			try {
+				this.applyDueRelaxations();
+			} catch (Exception e) {
+				System.err.println("(RoadManager: " + this.managerId + ") Error applying speed-limit relaxations: " + e.getMessage());
+			}
+		}, 1, 1, TimeUnit.SECONDS);
+	}
+	
 	/**
 	 * Crea o actualiza una señal de límite de velocidad para un segmento
 	 * @param roadSegment Segmento de carretera
@@ -163,6 +323,12 @@ public class RoadManager {
 	 * Desconecta todos los componentes
 	 */
 	public void disconnect() {
+		synchronized (this) {
+			if (this.holdTimer != null) {
+				this.holdTimer.shutdownNow();
+				this.holdTimer = null;
+			}
+		}
 		if (this.alertsSubscriber != null) {
 			this.alertsSubscriber.disconnect();
 		}
@@ -172,6 +338,9 @@ public class RoadManager {
 		if (this.roadStatusSubscriber != null) {
 			this.roadStatusSubscriber.disconnect();
 		}
+		if (this.fleetSnapshotSubscriber != null) {
+			this.fleetSnapshotSubscriber.disconnect();
+		}
 		if (this.awsAlertsSubscriber != null) {
 			this.awsAlertsSubscriber.disconnect();
 		}
@@ -186,5 +355,18 @@ public class RoadManager {
 	public String getManagerId() {
 		return this.managerId;
 	}
+	
+	/**
+	 * Relajación de señal a la espera de que el estado se mantenga
+	 */
+	protected static class PendingRelaxation {
+		int speedLimit; // Límite al que se relajará (0: retirar la señal)
+		final long since; // Desde cuándo el estado es menos congestionado que la señal
+		
+		PendingRelaxation(int speedLimit, long since) {
+			this.speedLimit = speedLimit;
+			this.since = since;
+		}
+	}
 }
 
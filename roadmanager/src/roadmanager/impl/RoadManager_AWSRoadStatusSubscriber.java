@@ -124,8 +124,11 @@ public class RoadManager_AWSRoadStatusSubscriber extends AWSIotTopic {
 		try {
 			// Extraer el road-segment del topic
 			String topic = message.getTopic();
-			String[] topicParts = topic.split("/");
-			String roadSegment = topicParts[topicParts.length - 2]; // Antes de "info"
+			String roadSegment = RoadManager_InfoPublisher.segmentOf(topic);
+			if (roadSegment == null) {
+				this._debug("Could not extract segment from topic: " + topic);
+				return;
+			}
 			
 			// Parsear el mensaje JSON
 			JSONObject jsonMessage = new JSONObject(payload);
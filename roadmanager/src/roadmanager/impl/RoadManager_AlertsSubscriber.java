@@ -1,9 +1,10 @@
 package roadmanager.impl;
 
+import java.util.ArrayList;
+import java.util.List;
+
 import org.eclipse.paho.client.mqttv3.IMqttDeliveryToken;
 import org.eclipse.paho.client.mqttv3.MqttCallback;
-import org.eclipse.paho.client.mqttv3.MqttClient;
-import org.eclipse.paho.client.mqttv3.MqttConnectOptions;
 import org.eclipse.paho.client.mqttv3.MqttException;
 import org.eclipse.paho.client.mqttv3.MqttMessage;
 import org.json.JSONObject;
@@ -14,10 +15,9 @@ import org.json.JSONObject;
  */
 public class RoadManager_AlertsSubscriber implements MqttCallback {
 	
-	private MqttClient myClient;
-	private MqttConnectOptions connOpt;
+	private RoadManager_MqttConnection connection; // Conexión compartida con el resto de componentes
+	private List<String> subscribedTopics = new ArrayList<>();
 	
-	static final String BROKER_URL = "tcp://tambori.dsic.upv.es:10083";
 	
 	private RoadManager roadManager;
 	
@@ -32,15 +32,7 @@ public class RoadManager_AlertsSubscriber implements MqttCallback {
 	@Override
 	public void connectionLost(Throwable cause) {
 		this._debug("Connection lost: " + (cause != null ? cause.getMessage() : "Unknown"));
-		// Reconectar en hilo separado
-		new Thread(() -> {
-			try {
-				Thread.sleep(1000);
-				connect();
-			} catch (Exception e) {
-				this._debug("Error reconnecting: " + e.getMessage());
-			}
-		}).start();
+		// La reconexión (y la nueva suscripción) la gestiona RoadManager_MqttConnection
 	}
 	
 	@Override
@@ -50,28 +42,43 @@ public class RoadManager_AlertsSubscriber implements MqttCallback {
 	
 	@Override
 	public void messageArrived(String topic, MqttMessage message) throws Exception {
-		String payload = new String(message.getPayload());
+		byte[] data = message.getPayload();
+		String payload = RoadManager_MessageCodec.toText(data);
 		this._debug("Received alert from topic [" + topic + "]: " + payload);
 		
 		try {
 			// Extraer el road-segment del topic
 			// Formato: es/upv/pros/tatami/smartcities/traffic/PTPaterna/road/{road-segment}/alerts
-			String[] topicParts = topic.split("/");
-			String roadSegment = topicParts[topicParts.length - 2]; // Antes de "alerts"
+			String roadSegment = RoadManager_InfoPublisher.segmentOf(topic);
 			
-			// También intentar extraer del mensaje JSON si está disponible
-			try {
-				JSONObject jsonMessage = new JSONObject(payload);
-				if (jsonMessage.has("msg")) {
-					JSONObject msg = jsonMessage.getJSONObject("msg");
-					if (msg.has("road-segment")) {
-						roadSegment = msg.getString("road-segment");
-					} else if (msg.has("road")) {
-						roadSegment = msg.getString("road");
+			if (RoadManager_MessageCodec.isBinary(data, 0, data.length)) {
+				// Alerta en binario (RoadManager_BinaryCodec): se retransmite en JSON, que es lo que
+				// leen los dispositivos y AWS
+				RoadManager_Message alert = RoadManager_MessageCodec.decodeAny(data, new RoadManager_Message());
+				if (alert.roadSegment != null) {
+					roadSegment = alert.roadSegment;
+				}
+				payload = alert.toString();
+			} else {
+				// También intentar extraer del mensaje JSON si está disponible
+				try {
+					JSONObject jsonMessage = new JSONObject(payload);
+					if (jsonMessage.has("msg")) {
+						JSONObject msg = jsonMessage.getJSONObject("msg");
+						if (msg.has("road-segment")) {
+							roadSegment = msg.getString("road-segment");
+						} else if (msg.has("road")) {
+							roadSegment = msg.getString("road");
+						}
 					}
+				} catch (Exception e) {
+					// Si no se puede parsear, usar el del topic
 				}
-			} catch (Exception e) {
-				// Si no se puede parsear, usar el del topic
+			}
+			
+			if (roadSegment == null) {
+				this._debug("Could not extract segment from alert: " + topic);
+				return;
 			}
 			
 			// Retransmitir la alerta al canal de información del mismo segmento
@@ -84,20 +91,14 @@ public class RoadManager_AlertsSubscriber implements MqttCallback {
 	}
 	
 	/**
-	 * Conecta al broker MQTT del simulador
+	 * Obtiene la conexión compartida con el broker MQTT del simulador
 	 */
 	public void connect() {
-		String clientID = "road-manager-" + this.roadManager.getManagerId() + "-alerts-sub";
-		connOpt = new MqttConnectOptions();
-		
-		connOpt.setCleanSession(true);
-		connOpt.setKeepAliveInterval(60);
-		
+		String clientID = "road-manager-" + this.roadManager.getManagerId();
+	
 		try {
-			myClient = new MqttClient(BROKER_URL, clientID);
-			myClient.setCallback(this);
-			myClient.connect(connOpt);
-			this._debug("Connected to " + BROKER_URL);
+			connection = RoadManager_MqttConnection.acquire(RoadManager_Endpoints.getBrokerURL(), clientID);
+			this._debug("Connected to " + connection.getServerURI() + " (" + connection.getClientID() + ")");
 		} catch (MqttException e) {
 			e.printStackTrace();
 			System.err.println("Error connecting alerts subscriber: " + e.getMessage());
@@ -105,17 +106,19 @@ public class RoadManager_AlertsSubscriber implements MqttCallback {
 	}
 	
 	/**
-	 * Desconecta del broker MQTT
+	 * Retira las suscripciones y libera la conexión compartida
 	 */
 	public void disconnect() {
-		try {
-			if (myClient != null && myClient.isConnected()) {
-				myClient.disconnect();
-				this._debug("Disconnected");
-			}
-		} catch (MqttException e) {
-			e.printStackTrace();
+		if (connection == null) {
+			return;
+		}
+		for (String topic : subscribedTopics) {
+			connection.unsubscribe(topic, this);
 		}
+		subscribedTopics.clear();
+		connection.release();
+		connection = null;
+		this._debug("Disconnected");
 	}
 	
 	/**
@@ -123,9 +126,9 @@ public class RoadManager_AlertsSubscriber implements MqttCallback {
 	 */
 	public void subscribe(String topic) {
 		try {
-			if (myClient != null && myClient.isConnected()) {
-				int subQoS = 0;
-				myClient.subscribe(topic, subQoS);
+			if (connection != null && connection.isConnected()) {
+				connection.subscribe(topic, this);
+				subscribedTopics.add(topic);
 				this._debug("Subscribed to: " + topic);
 			}
 		} catch (Exception e) {
@@ -135,7 +138,6 @@ public class RoadManager_AlertsSubscriber implements MqttCallback {
 	}
 	
 	public boolean isConnected() {
-		return myClient != null && myClient.isConnected();
+		return connection != null && connection.isConnected();
 	}
 }
-
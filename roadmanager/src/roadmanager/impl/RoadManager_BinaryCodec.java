@@ -0,0 +1,288 @@
+package roadmanager.impl;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Codec binario de esquema fijo para los mensajes de RoadManager_Message.
+ *
+ * Formato (versión 1). 'zigzag' es un entero con signo ((n << 1) ^ (n >> 63)) escrito como varint
+ * LEB128 (7 bits por byte, el bit alto indica que sigue otro byte), igual que en RoadManager_FleetSnapshot:
+ *
+ *   0xB5 0x01          marca de contenido (BINARY_MARKER) y versión
+ *   byte tipo          ordinal de RoadManager_Message.Type
+ *   zigzag timestamp
+ *   TRAFFIC:           sym action, sym vehicle-role, str vehicle-id, str road-segment, zigzag position
+ *   ROAD_STATUS:       str road-segment, str code, str road, str rt, zigzag length, start-kp, end-kp,
+ *                      max-speed, current-max-speed, capacity, num-vehicles, density, sym status
+ *   SPEED_LIMIT:       zigzag value, position-start, position-end, validity
+ *   TRAFFIC_LIGHT:     sym state, zigzag position, str road-segment
+ *   ACCIDENT:          sym event, str rt, str id, str vehicle, str road-segment, zigzag position
+ *   SIMULATOR_STEP:    str simulator, zigzag step
+ *
+ *   str = varint (longitud + 1) + UTF-8, o 0 para null
+ *   sym = byte con el índice del valor en la tabla del campo (ACTIONS, ROLES...), 0xFE para null
+ *         o 0xFF seguido de str para un valor que no está en la tabla
+ *
+ * Los campos con pocos valores posibles ocupan un byte y se decodifican sin crear Strings (devuelven la
+ * constante de la tabla). Un TRAFFIC ocupa unos 30 bytes frente a los ~190 del JSON.
+ * Añadir un tipo o un campo requiere una versión nueva: el esquema no es autodescriptivo.
+ */
+public class RoadManager_BinaryCodec extends RoadManager_MessageCodec {
+
+	public static final RoadManager_BinaryCodec INSTANCE = new RoadManager_BinaryCodec();
+
+	public static final byte VERSION = 1;
+
+	static final String[] ACTIONS = { "VEHICLE_IN", "VEHICLE_OUT" };
+	static final String[] ROLES = { "PrivateUsage", "Ambulance", "Police" };
+	static final String[] STATUSES = { "Free_Flow", "Mostly_Free_Flow", "Restricted_Manouvers", "Limited_Manouvers",
+			"No_Manouvers", "Collapsed", "Closed" }; // ERoadStatus
+	static final String[] EVENTS = { "OPEN", "CLOSE" };
+	static final String[] STATES = { "RED", "GREEN", "YELLOW", "HLL", "LLH" };
+
+	private static final int SYM_NULL = 0xFE;
+	private static final int SYM_LITERAL = 0xFF;
+
+	private RoadManager_BinaryCodec() {
+	}
+
+	@Override
+	public String getName() {
+		return "binary";
+	}
+
+	@Override
+	public void encode(RoadManager_Message m, RoadManager_PayloadBuffer p) {
+		p.octet(BINARY_MARKER).octet(VERSION).octet(m.type.ordinal());
+		zigzag(p, m.timestamp);
+		switch (m.type) {
+			case TRAFFIC:
+				symbol(p, m.action, ACTIONS);
+				symbol(p, m.vehicleRole, ROLES);
+				string(p, m.vehicleId);
+				string(p, m.roadSegment);
+				zigzag(p, m.position);
+				break;
+			case ROAD_STATUS:
+				string(p, m.roadSegment);
+				string(p, m.code);
+				string(p, m.road);
+				string(p, m.rt);
+				zigzag(p, m.length);
+				zigzag(p, m.startKP);
+				zigzag(p, m.endKP);
+				zigzag(p, m.maxSpeed);
+				zigzag(p, m.currentMaxSpeed);
+				zigzag(p, m.capacity);
+				zigzag(p, m.numVehicles);
+				zigzag(p, m.density);
+				symbol(p, m.status, STATUSES);
+				break;
+			case SPEED_LIMIT:
+				zigzag(p, m.value);
+				zigzag(p, m.positionStart);
+				zigzag(p, m.positionEnd);
+				zigzag(p, m.validity);
+				break;
+			case TRAFFIC_LIGHT:
+				symbol(p, m.state, STATES);
+				zigzag(p, m.position);
+				string(p, m.roadSegment);
+				break;
+			case ACCIDENT:
+				symbol(p, m.event, EVENTS);
+				string(p, m.rt);
+				string(p, m.accidentId);
+				string(p, m.vehicle);
+				string(p, m.roadSegment);
+				zigzag(p, m.position);
+				break;
+			case SIMULATOR_STEP:
+				string(p, m.simulator);
+				zigzag(p, m.step);
+				break;
+		}
+	}
+
+	@Override
+	public RoadManager_Message decode(byte[] data, int offset, int length, RoadManager_Message into) {
+		Reader r = new Reader(data, offset, offset + length);
+		if (length < 3 || data[offset] != BINARY_MARKER) {
+			throw new IllegalArgumentException("Not a binary message");
+		}
+		r.pos++;
+		int version = r.readByte();
+		if (version != VERSION) {
+			throw new IllegalArgumentException("Unsupported binary message version " + version);
+		}
+		int t = r.readByte();
+		if (t >= RoadManager_Message.Type.VALUES.length) {
+			throw new IllegalArgumentException("Unknown binary message type " + t);
+		}
+		RoadManager_Message.Type type = RoadManager_Message.Type.VALUES[t];
+		into.reset(type, r.readZigzag());
+		switch (type) {
+			case TRAFFIC:
+				into.action = r.readSymbol(ACTIONS);
+				into.vehicleRole = r.readSymbol(ROLES);
+				into.vehicleId = r.readString();
+				into.roadSegment = r.readString();
+				into.position = r.readInt();
+				break;
+			case ROAD_STATUS:
+				into.roadSegment = r.readString();
+				into.code = r.readString();
+				into.road = r.readString();
+				into.rt = r.readString();
+				into.length = r.readInt();
+				into.startKP = r.readInt();
+				into.endKP = r.readInt();
+				into.maxSpeed = r.readInt();
+				into.currentMaxSpeed = r.readInt();
+				into.capacity = r.readInt();
+				into.numVehicles = r.readInt();
+				into.density = r.readInt();
+				into.status = r.readSymbol(STATUSES);
+				break;
+			case SPEED_LIMIT:
+				into.value = r.readInt();
+				into.positionStart = r.readInt();
+				into.positionEnd = r.readInt();
+				into.validity = r.readZigzag();
+				break;
+			case TRAFFIC_LIGHT:
+				into.state = r.readSymbol(STATES);
+				into.position = r.readInt();
+				into.roadSegment = r.readString();
+				break;
+			case ACCIDENT:
+				into.event = r.readSymbol(EVENTS);
+				into.rt = r.readString();
+				into.accidentId = r.readString();
+				into.vehicle = r.readString();
+				into.roadSegment = r.readString();
+				into.position = r.readInt();
+				break;
+			case SIMULATOR_STEP:
+				into.simulator = r.readString();
+				into.step = r.readZigzag();
+				break;
+		}
+		return into;
+	}
+
+	private static void zigzag(RoadManager_PayloadBuffer p, long n) {
+		varint(p, (n << 1) ^ (n >> 63));
+	}
+
+	private static void varint(RoadManager_PayloadBuffer p, long n) {
+		while ((n & ~0x7FL) != 0) {
+			p.octet((int) ((n & 0x7F) | 0x80));
+			n >>>= 7;
+		}
+		p.octet((int) n);
+	}
+
+	private static void string(RoadManager_PayloadBuffer p, String s) {
+		if (s == null) {
+			p.octet(0);
+			return;
+		}
+		varint(p, utf8Length(s) + 1);
+		p.raw(s);
+	}
+
+	private static void symbol(RoadManager_PayloadBuffer p, String s, String[] table) {
+		if (s == null) {
+			p.octet(SYM_NULL);
+			return;
+		}
+		for (int i = 0; i < table.length; i++) {
+			if (table[i] == s || table[i].equals(s)) {
+				p.octet(i);
+				return;
+			}
+		}
+		p.octet(SYM_LITERAL);
+		string(p, s);
+	}
+
+	/**
+	 * Bytes de la cadena en UTF-8 (igual que RoadManager_PayloadBuffer.raw)
+	 */
+	private static int utf8Length(String s) {
+		int n = 0;
+		for (int i = 0; i < s.length(); i++) {
+			char c = s.charAt(i);
+			n += (c < 0x80) ? 1 : (c < 0x800) ? 2 : 3;
+		}
+		return n;
+	}
+
+	private static final class Reader {
+		final byte[] data;
+		final int end;
+		int pos;
+
+		Reader(byte[] data, int pos, int end) {
+			this.data = data;
+			this.pos = pos;
+			this.end = end;
+		}
+
+		int readByte() {
+			if (this.pos >= this.end) {
+				throw new IllegalArgumentException("Truncated binary message");
+			}
+			return this.data[this.pos++] & 0xFF;
+		}
+
+		long readVarint() {
+			long n = 0;
+			for (int shift = 0; shift < 64; shift += 7) {
+				int b = this.readByte();
+				n |= (long) (b & 0x7F) << shift;
+				if ((b & 0x80) == 0) {
+					return n;
+				}
+			}
+			throw new IllegalArgumentException("Corrupt binary message (varint)");
+		}
+
+		long readZigzag() {
+			long n = this.readVarint();
+			return (n >>> 1) ^ -(n & 1);
+		}
+
+		int readInt() {
+			return (int) this.readZigzag();
+		}
+
+		String readString() {
+			long n = this.readVarint();
+			if (n == 0) {
+				return null;
+			}
+			if (n - 1 > this.end - this.pos) {
+				throw new IllegalArgumentException("Truncated binary message (string)");
+			}
+			String s = new String(this.data, this.pos, (int) n - 1, StandardCharsets.UTF_8);
+			this.pos += (int) n - 1;
+			return s;
+		}
+
+		String readSymbol(String[] table) {
+			int i = this.readByte();
+			if (i < table.length) {
+				return table[i];
+			}
+			if (i == SYM_NULL) {
+				return null;
+			}
+			if (i == SYM_LITERAL) {
+				return this.readString();
+			}
+			throw new IllegalArgumentException("Corrupt binary message (symbol " + i + ")");
+		}
+	}
+}
@@ -0,0 +1,23 @@
+package roadmanager.impl;
+
+/**
+ * Dirección del broker MQTT del simulador.
+ *
+ * Por defecto es la del simulador de la universidad (tambori.dsic.upv.es); para trabajar sin él
+ * (p.ej. contra el SmartCarStarter_OfflineStack del proyecto smartcar) se sustituye con
+ *   -Droadmanager.broker.url=tcp://localhost:1883
+ */
+public final class RoadManager_Endpoints {
+
+	public static final String DEFAULT_BROKER_URL = "tcp://tambori.dsic.upv.es:10083";
+
+	private RoadManager_Endpoints() {
+	}
+
+	/**
+	 * Broker MQTT del simulador (-Droadmanager.broker.url)
+	 */
+	public static String getBrokerURL() {
+		return System.getProperty("roadmanager.broker.url", DEFAULT_BROKER_URL);
+	}
+}
@@ -0,0 +1,246 @@
+package roadmanager.impl;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Instantánea binaria del estado de una flota de vehículos, tal y como la publican los anfitriones de
+ * flota (SmartCar_FleetSnapshot del proyecto smartcar) en .../PTPaterna/fleet/snapshot.
+ *
+ * Formato (versión 1). 'varint' es un entero sin signo LEB128; 'zigzag' es un varint de un entero con signo:
+ *
+ *   'F' 'S' 0x01                       cabecera y versión
+ *   varint len + UTF-8                 host que publica
+ *   varint step, varint timestamp      paso del simulador y marca de tiempo (ms)
+ *   varint nsegs + nsegs x (varint len + UTF-8)
+ *                                      tabla de segmentos de la trama (referencia 1..nsegs; 0 = sin segmento)
+ *   varint n                           número de vehículos
+ *   n x vehículo, ordenados por referencia de segmento y posición:
+ *     varint prefijo, varint len + bytes   id: bytes compartidos con el id anterior y el resto (UTF-8)
+ *     varint dseg                          referencia de segmento menos la del vehículo anterior (>= 0)
+ *     zigzag pos                           posición; si dseg == 0, diferencia con la del vehículo anterior
+ *     zigzag speed                         velocidad (km/h)
+ *     byte status                          código de ENavigatorStatus (0xFF sin navegador)
+ */
+public class RoadManager_FleetSnapshot {
+
+	public static final byte MAGIC_0 = 'F';
+	public static final byte MAGIC_1 = 'S';
+	public static final byte VERSION = 1;
+	public static final int NO_STATUS = 0xFF;
+
+	// Un array por campo, en el orden de la trama (por segmento y posición)
+	private final String hostId;
+	private final long step;
+	private final long timestamp;
+	private final String[] ids;
+	private final String[] segments;
+	private final int[] positions;
+	private final int[] speeds;
+	private final int[] statuses;
+
+	RoadManager_FleetSnapshot(String hostId, long step, long timestamp, int n) {
+		this.hostId = hostId;
+		this.step = step;
+		this.timestamp = timestamp;
+		this.ids = new String[n];
+		this.segments = new String[n];
+		this.positions = new int[n];
+		this.speeds = new int[n];
+		this.statuses = new int[n];
+	}
+
+	public String getHostId() {
+		return this.hostId;
+	}
+
+	public long getStep() {
+		return this.step;
+	}
+
+	public long getTimestamp() {
+		return this.timestamp;
+	}
+
+	public int size() {
+		return this.ids.length;
+	}
+
+	public String getVehicleId(int i) {
+		return this.ids[i];
+	}
+
+	/**
+	 * Segmento del vehículo (null si no está en la red)
+	 */
+	public String getSegment(int i) {
+		return this.segments[i];
+	}
+
+	public int getPosition(int i) {
+		return this.positions[i];
+	}
+
+	public int getSpeed(int i) {
+		return this.speeds[i];
+	}
+
+	/**
+	 * Código de ENavigatorStatus (NO_STATUS si el vehículo no tiene navegador)
+	 */
+	public int getStatusCode(int i) {
+		return this.statuses[i];
+	}
+
+	/**
+	 * Número de vehículos por segmento
+	 */
+	public Map<String, Integer> countBySegment() {
+		Map<String, Integer> counts = new HashMap<>();
+		for (String s : this.segments) {
+			if (s != null) {
+				counts.merge(s, 1, Integer::sum);
+			}
+		}
+		return counts;
+	}
+
+	@Override
+	public String toString() {
+		return "FleetSnapshot[" + this.hostId + ", step=" + this.step + ", vehicles=" + this.ids.length + "]";
+	}
+
+	// ------------------------------------------------------------
+	// Lectura
+	// ------------------------------------------------------------
+
+	public static RoadManager_FleetSnapshot decode(byte[] data) {
+		return decode(data, 0, data.length);
+	}
+
+	/**
+	 * Decodifica una trama
+	 * @throws IllegalArgumentException si no es una instantánea de flota o está truncada
+	 */
+	public static RoadManager_FleetSnapshot decode(byte[] data, int offset, int length) {
+		Reader r = new Reader(data, offset, offset + length);
+		if (length < 3 || data[offset] != MAGIC_0 || data[offset + 1] != MAGIC_1) {
+			throw new IllegalArgumentException("Not a fleet snapshot");
+		}
+		r.pos += 2;
+		int version = r.readByte();
+		if (version != VERSION) {
+			throw new IllegalArgumentException("Unsupported fleet snapshot version " + version);
+		}
+		String hostId = r.readString();
+		long step = r.readVarint();
+		long timestamp = r.readVarint();
+
+		int nsegs = r.readCount();
+		String[] segments = new String[nsegs + 1];
+		for (int s = 1; s <= nsegs; s++) {
+			segments[s] = r.readString();
+		}
+
+		int n = r.readCount();
+		RoadManager_FleetSnapshot f = new RoadManager_FleetSnapshot(hostId, step, timestamp, n);
+		byte[] id = new byte[32];
+		int idLen = 0;
+		int ref = 0;
+		int pos = 0;
+		for (int i = 0; i < n; i++) {
+			long shared = r.readVarint();
+			int rest = r.readCount();
+			if (shared > idLen) {
+				throw new IllegalArgumentException("Corrupt fleet snapshot (id prefix)");
+			}
+			if (shared + rest > id.length) {
+				id = Arrays.copyOf(id, Math.max(id.length * 2, (int) shared + rest));
+			}
+			r.readBytes(id, (int) shared, rest);
+			idLen = (int) shared + rest;
+			f.ids[i] = new String(id, 0, idLen, StandardCharsets.UTF_8);
+
+			long dseg = r.readVarint();
+			if (dseg > nsegs - ref) {
+				throw new IllegalArgumentException("Corrupt fleet snapshot (segment " + (ref + dseg) + ")");
+			}
+			long p = r.readZigzag();
+			if (i == 0 || dseg != 0) {
+				ref += (int) dseg;
+				pos = (int) p;
+			} else {
+				pos += (int) p;
+			}
+			f.segments[i] = segments[ref];
+			f.positions[i] = pos;
+			f.speeds[i] = (int) r.readZigzag();
+			f.statuses[i] = r.readByte();
+		}
+		return f;
+	}
+
+	private static final class Reader {
+		final byte[] data;
+		final int end;
+		int pos;
+
+		Reader(byte[] data, int pos, int end) {
+			this.data = data;
+			this.pos = pos;
+			this.end = end;
+		}
+
+		int readByte() {
+			if (this.pos >= this.end) {
+				throw new IllegalArgumentException("Truncated fleet snapshot");
+			}
+			return this.data[this.pos++] & 0xFF;
+		}
+
+		long readVarint() {
+			long n = 0;
+			for (int shift = 0; shift < 64; shift += 7) {
+				int b = this.readByte();
+				n |= (long) (b & 0x7F) << shift;
+				if ((b & 0x80) == 0) {
+					return n;
+				}
+			}
+			throw new IllegalArgumentException("Corrupt fleet snapshot (varint)");
+		}
+
+		long readZigzag() {
+			long n = this.readVarint();
+			return (n >>> 1) ^ -(n & 1);
+		}
+
+		/**
+		 * Varint usado como tamaño: no puede superar lo que queda de trama
+		 */
+		int readCount() {
+			long n = this.readVarint();
+			if (n > this.end - this.pos) {
+				throw new IllegalArgumentException("Corrupt fleet snapshot (count " + n + ")");
+			}
+			return (int) n;
+		}
+
+		void readBytes(byte[] dst, int off, int n) {
+			if (n > this.end - this.pos) {
+				throw new IllegalArgumentException("Truncated fleet snapshot");
+			}
+			System.arraycopy(this.data, this.pos, dst, off, n);
+			this.pos += n;
+		}
+
+		String readString() {
+			int n = this.readCount();
+			String s = new String(this.data, this.pos, n, StandardCharsets.UTF_8);
+			this.pos += n;
+			return s;
+		}
+	}
+}
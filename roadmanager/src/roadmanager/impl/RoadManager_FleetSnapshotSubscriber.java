@@ -0,0 +1,103 @@
+package roadmanager.impl;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.eclipse.paho.client.mqttv3.IMqttDeliveryToken;
+import org.eclipse.paho.client.mqttv3.MqttCallback;
+import org.eclipse.paho.client.mqttv3.MqttException;
+import org.eclipse.paho.client.mqttv3.MqttMessage;
+
+/**
+ * Suscriptor a las instantáneas binarias de flota (topic .../fleet/snapshot del simulador)
+ * Decodifica cada trama y la entrega al Road Manager
+ */
+public class RoadManager_FleetSnapshotSubscriber implements MqttCallback {
+
+	public static final String FLEET_SNAPSHOT_TOPIC = "es/upv/pros/tatami/smartcities/traffic/PTPaterna/fleet/snapshot";
+
+	private RoadManager_MqttConnection connection; // Conexión compartida con el resto de componentes
+	private List<String> subscribedTopics = new ArrayList<>();
+
+	private RoadManager roadManager;
+
+	public RoadManager_FleetSnapshotSubscriber(RoadManager roadManager) {
+		this.roadManager = roadManager;
+	}
+
+	protected void _debug(String message) {
+		System.out.println("(RoadManager FleetSnapshotSubscriber: " + this.roadManager.getManagerId() + ") " + message);
+	}
+
+	@Override
+	public void connectionLost(Throwable cause) {
+		this._debug("Connection lost: " + (cause != null ? cause.getMessage() : "Unknown"));
+		// La reconexión (y la nueva suscripción) la gestiona RoadManager_MqttConnection
+	}
+
+	@Override
+	public void deliveryComplete(IMqttDeliveryToken token) {
+		// No aplica para suscripciones
+	}
+
+	@Override
+	public void messageArrived(String topic, MqttMessage message) throws Exception {
+		try {
+			RoadManager_FleetSnapshot snapshot = RoadManager_FleetSnapshot.decode(message.getPayload());
+			this.roadManager.processFleetSnapshot(snapshot, message.getPayload().length);
+		} catch (IllegalArgumentException e) {
+			this._debug("Discarding fleet snapshot: " + e.getMessage());
+		}
+	}
+
+	/**
+	 * Obtiene la conexión compartida con el broker MQTT del simulador
+	 */
+	public void connect() {
+		String clientID = "road-manager-" + this.roadManager.getManagerId();
+
+		try {
+			connection = RoadManager_MqttConnection.acquire(RoadManager_Endpoints.getBrokerURL(), clientID);
+			this._debug("Connected to " + connection.getServerURI() + " (" + connection.getClientID() + ")");
+		} catch (MqttException e) {
+			e.printStackTrace();
+			System.err.println("Error connecting fleet snapshot subscriber: " + e.getMessage());
+		}
+	}
+
+	/**
+	 * Retira las suscripciones y libera la conexión compartida
+	 */
+	public void disconnect() {
+		if (connection == null) {
+			return;
+		}
+		for (String topic : subscribedTopics) {
+			connection.unsubscribe(topic, this);
+		}
+		subscribedTopics.clear();
+		connection.release();
+		connection = null;
+		this._debug("Disconnected");
+	}
+
+	/**
+	 * Suscribe a un topic (puede usar wildcards como + o #)
+	 */
+	public void subscribe(String topic) {
+		try {
+			if (connection != null && connection.isConnected()) {
+				connection.subscribe(topic, this);
+				subscribedTopics.add(topic);
+				this._debug("Subscribed to: " + topic);
+			}
+		} catch (Exception e) {
+			e.printStackTrace();
+			this._debug("Error subscribing to " + topic + ": " + e.getMessage());
+		}
+	}
+
+	public boolean isConnected() {
+		return connection != null && connection.isConnected();
+	}
+}
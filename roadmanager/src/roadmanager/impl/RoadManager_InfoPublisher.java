@@ -2,13 +2,8 @@ package roadmanager.impl;
 
 import org.eclipse.paho.client.mqttv3.IMqttDeliveryToken;
 import org.eclipse.paho.client.mqttv3.MqttCallback;
-import org.eclipse.paho.client.mqttv3.MqttClient;
-import org.eclipse.paho.client.mqttv3.MqttConnectOptions;
-import org.eclipse.paho.client.mqttv3.MqttDeliveryToken;
 import org.eclipse.paho.client.mqttv3.MqttException;
 import org.eclipse.paho.client.mqttv3.MqttMessage;
-import org.eclipse.paho.client.mqttv3.MqttTopic;
-import org.json.JSONObject;
 
 /**
  * Publisher para publicar información en el canal info de los segmentos (simulador)
@@ -16,11 +11,18 @@ import org.json.JSONObject;
  */
 public class RoadManager_InfoPublisher implements MqttCallback {
 	
-	private MqttClient myClient;
-	private MqttConnectOptions connOpt;
+	private RoadManager_MqttConnection connection; // Conexión compartida con el resto de componentes
 	
-	static final String BROKER_URL = "tcp://tambori.dsic.upv.es:10083";
 	static final String TOPIC_ROOT = "es/upv/pros/tatami/smartcities/traffic/PTPaterna";
+	static final String AWS_TOPIC_ROOT = "smartcities/traffic/PTPaterna";
+
+	// Topics por segmento (simulador y AWS) que procesan los suscriptores -> tipo
+	static final RoadManager_TopicTrie<String> ROAD_TOPICS = new RoadManager_TopicTrie<String>()
+			.add(TOPIC_ROOT + "/road/{segment}/alerts", "alerts")
+			.add(TOPIC_ROOT + "/road/{segment}/info", "info")
+			.add(TOPIC_ROOT + "/road/{segment}/signals", "signals")
+			.add(AWS_TOPIC_ROOT + "/road/{segment}/alerts", "alerts")
+			.add(AWS_TOPIC_ROOT + "/road/{segment}/info", "info");
 	
 	private RoadManager roadManager;
 	
@@ -32,6 +34,15 @@ public class RoadManager_InfoPublisher implements MqttCallback {
 		System.out.println("(RoadManager InfoPublisher: " + this.roadManager.getManagerId() + ") " + message);
 	}
 	
+	/**
+	 * Segmento de un topic .../road/{segment}/alerts|info|signals o null (sin split; misma instancia de String
+	 * para cada segmento)
+	 */
+	static String segmentOf(String topic) {
+		RoadManager_TopicTrie.Match<String> m = ROAD_TOPICS.match(topic);
+		return (m != null) ? m.capture(0) : null;
+	}
+	
 	@Override
 	public void connectionLost(Throwable cause) {
 		this._debug("Connection lost: " + (cause != null ? cause.getMessage() : "Unknown"));
@@ -48,20 +59,14 @@ public class RoadManager_InfoPublisher implements MqttCallback {
 	}
 	
 	/**
-	 * Conecta al broker MQTT del simulador
+	 * Obtiene la conexión compartida con el broker MQTT del simulador
 	 */
 	public void connect() {
-		String clientID = "road-manager-" + this.roadManager.getManagerId() + "-info-pub";
-		connOpt = new MqttConnectOptions();
-		
-		connOpt.setCleanSession(true);
-		connOpt.setKeepAliveInterval(60);
+		String clientID = "road-manager-" + this.roadManager.getManagerId();
 		
 		try {
-			myClient = new MqttClient(BROKER_URL, clientID);
-			myClient.setCallback(this);
-			myClient.connect(connOpt);
-			this._debug("Connected to " + BROKER_URL);
+			connection = RoadManager_MqttConnection.acquire(RoadManager_Endpoints.getBrokerURL(), clientID);
+			this._debug("Connected to " + connection.getServerURI() + " (" + connection.getClientID() + ")");
 		} catch (MqttException e) {
 			e.printStackTrace();
 			System.err.println("Error connecting info publisher: " + e.getMessage());
@@ -69,16 +74,13 @@ public class RoadManager_InfoPublisher implements MqttCallback {
 	}
 	
 	/**
-	 * Desconecta del broker MQTT
+	 * Libera la conexión compartida
 	 */
 	public void disconnect() {
-		try {
-			if (myClient != null && myClient.isConnected()) {
-				myClient.disconnect();
-				this._debug("Disconnected");
-			}
-		} catch (MqttException e) {
-			e.printStackTrace();
+		if (connection != null) {
+			connection.release();
+			connection = null;
+			this._debug("Disconnected");
 		}
 	}
 	
@@ -88,21 +90,14 @@ public class RoadManager_InfoPublisher implements MqttCallback {
 	 * @param infoMessage Mensaje JSON a publicar
 	 */
 	public void publishInfo(String roadSegment, String infoMessage) {
-		if (myClient == null || !myClient.isConnected()) {
+		if (connection == null || !connection.isConnected()) {
 			this._debug("Publisher not connected. Cannot publish.");
 			return;
 		}
 		
 		try {
 			String topic = TOPIC_ROOT + "/road/" + roadSegment + "/info";
-			MqttTopic mqttTopic = myClient.getTopic(topic);
-			
-			int pubQoS = 0;
-			MqttMessage message = new MqttMessage(infoMessage.getBytes());
-			message.setQos(pubQoS);
-			message.setRetained(false);
-			
-			MqttDeliveryToken token = mqttTopic.publish(message);
+			connection.publish(topic, infoMessage.getBytes(), 0);
 			this._debug("Published info to topic [" + topic + "]: " + infoMessage);
 			
 		} catch (Exception e) {
@@ -117,31 +112,18 @@ public class RoadManager_InfoPublisher implements MqttCallback {
 	 * @param signal Señal de límite de velocidad
 	 */
 	public void publishSpeedLimitSignal(String roadSegment, SpeedLimitSignal signal) {
-		if (myClient == null || !myClient.isConnected()) {
+		if (connection == null || !connection.isConnected()) {
 			this._debug("Publisher not connected. Cannot publish speed-limit signal.");
 			return;
 		}
 		
 		try {
-			// Construir mensaje de señal speed-limit
-			JSONObject signalMessage = new JSONObject();
-			signalMessage.put("type", "SPEED_LIMIT");
-			signalMessage.put("value", signal.getValue());
-			signalMessage.put("position-start", signal.getPositionStart());
-			signalMessage.put("position-end", signal.getPositionEnd());
-			signalMessage.put("validity", signal.getValidity());
-			
-			// Publicar en el topic de señales del segmento
+			// Publicar en el topic de señales del segmento (JSON o binario, ver RoadManager_MessageCodec)
 			String topic = TOPIC_ROOT + "/road/" + roadSegment + "/signals";
-			MqttTopic mqttTopic = myClient.getTopic(topic);
-			
-			int pubQoS = 0;
-			MqttMessage message = new MqttMessage(signalMessage.toString().getBytes());
-			message.setQos(pubQoS);
-			message.setRetained(false);
-			
-			MqttDeliveryToken token = mqttTopic.publish(message);
-			this._debug("Published speed-limit signal to topic [" + topic + "]: " + signalMessage.toString());
+			RoadManager_Message signalMessage = new RoadManager_Message().speedLimit(System.currentTimeMillis(), signal.getValue(),
+					signal.getPositionStart(), signal.getPositionEnd(), signal.getValidity());
+			connection.publish(topic, encode(topic, signalMessage), 0);
+			this._debug("Published speed-limit signal to topic [" + topic + "]: " + signalMessage);
 			
 		} catch (Exception e) {
 			e.printStackTrace();
@@ -154,28 +136,15 @@ public class RoadManager_InfoPublisher implements MqttCallback {
 	 * @param roadSegment Segmento de carretera
 	 */
 	public void removeSpeedLimitSignal(String roadSegment) {
-		if (myClient == null || !myClient.isConnected()) {
+		if (connection == null || !connection.isConnected()) {
 			return;
 		}
 		
 		try {
 			// Publicar señal con validez 0 para indicar eliminación
-			JSONObject signalMessage = new JSONObject();
-			signalMessage.put("type", "SPEED_LIMIT");
-			signalMessage.put("value", 0);
-			signalMessage.put("position-start", 0);
-			signalMessage.put("position-end", 0);
-			signalMessage.put("validity", 0);
-			
 			String topic = TOPIC_ROOT + "/road/" + roadSegment + "/signals";
-			MqttTopic mqttTopic = myClient.getTopic(topic);
-			
-			int pubQoS = 0;
-			MqttMessage message = new MqttMessage(signalMessage.toString().getBytes());
-			message.setQos(pubQoS);
-			message.setRetained(false);
-			
-			MqttDeliveryToken token = mqttTopic.publish(message);
+			RoadManager_Message signalMessage = new RoadManager_Message().speedLimit(System.currentTimeMillis(), 0, 0, 0, 0);
+			connection.publish(topic, encode(topic, signalMessage), 0);
 			this._debug("Removed speed-limit signal from topic [" + topic + "]");
 			
 		} catch (Exception e) {
@@ -184,8 +153,24 @@ public class RoadManager_InfoPublisher implements MqttCallback {
 		}
 	}
 	
+	/**
+	 * Payload de un mensaje con el codec del topic
+	 */
+	private static byte[] encode(String topic, RoadManager_Message message) {
+		RoadManager_PayloadBuffer p = new RoadManager_PayloadBuffer();
+		RoadManager_MessageCodec.forTopic(topic).encode(message, p);
+		return p.toByteArray();
+	}
+	
 	public boolean isConnected() {
-		return myClient != null && myClient.isConnected();
+		return connection != null && connection.isConnected();
+	}
+	
+	/**
+	 * Estado de la cola de publicación de la conexión compartida
+	 */
+	public String getPublishStats() {
+		return (connection != null) ? connection.getPipeline().getStats() : "not connected";
 	}
 }
 
@@ -0,0 +1,209 @@
+package roadmanager.impl;
+
+import java.nio.charset.StandardCharsets;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * Codec JSON: el formato de mensajes del simulador SmartTraffic (ver Estructura_de_mensajes.md).
+ *
+ * Codifica directamente en UTF-8 sobre RoadManager_PayloadBuffer (sin JSONObject), con el mismo contenido
+ * que publicaban hasta ahora los componentes:
+ *  - TRAFFIC, ROAD_STATUS, ACCIDENT y SIMULATOR_STEP con envoltorio: { "msg": {...}, "id": "MSG_{timestamp}",
+ *    "type": ..., "timestamp": ... }
+ *  - SPEED_LIMIT y TRAFFIC_LIGHT en formato directo: { "type": ..., campos de la señal }
+ *
+ * Decodifica con org.json y admite las variantes que ya aceptaban los suscriptores: con o sin envoltorio,
+ * 'type' en el envoltorio o en 'msg', road/kp en lugar de road-segment/position en ACCIDENT, code en
+ * lugar de road-segment en ROAD_STATUS. Sin 'type', un mensaje con 'action' es TRAFFIC y uno con 'event'
+ * es ACCIDENT (alertas retransmitidas).
+ */
+public class RoadManager_JsonCodec extends RoadManager_MessageCodec {
+
+	public static final RoadManager_JsonCodec INSTANCE = new RoadManager_JsonCodec();
+
+	private RoadManager_JsonCodec() {
+	}
+
+	@Override
+	public String getName() {
+		return "json";
+	}
+
+	@Override
+	public void encode(RoadManager_Message m, RoadManager_PayloadBuffer p) {
+		switch (m.type) {
+			case TRAFFIC:
+				p.raw('{').key("msg").raw('{');
+				p.key("action").string(m.action).raw(',');
+				p.key("vehicle-role").string(m.vehicleRole).raw(',');
+				p.key("vehicle-id").string(m.vehicleId).raw(',');
+				p.key("road-segment").string(m.roadSegment).raw(',');
+				p.key("position").number(m.position);
+				p.raw('}');
+				writeEnvelope(m, p);
+				break;
+			case ROAD_STATUS:
+				p.raw('{').key("msg");
+				writeRoadStatus(m, p);
+				writeEnvelope(m, p);
+				break;
+			case SPEED_LIMIT:
+				p.raw('{').key("type").string("SPEED_LIMIT").raw(',');
+				p.key("value").number(m.value).raw(',');
+				p.key("position-start").number(m.positionStart).raw(',');
+				p.key("position-end").number(m.positionEnd).raw(',');
+				p.key("validity").number(m.validity);
+				p.raw('}');
+				break;
+			case TRAFFIC_LIGHT:
+				p.raw('{').key("type").string("TRAFFIC_LIGHT").raw(',');
+				p.key("state").string(m.state).raw(',');
+				p.key("position").number(m.position);
+				if (m.roadSegment != null) {
+					p.raw(',').key("road-segment").string(m.roadSegment);
+				}
+				p.raw('}');
+				break;
+			case ACCIDENT:
+				p.raw('{').key("msg").raw('{');
+				p.key("event").string(m.event).raw(',');
+				p.key("rt").string(m.rt).raw(',');
+				p.key("id").string(m.accidentId).raw(',');
+				p.key("vehicle").string(m.vehicle).raw(',');
+				p.key("road-segment").string(m.roadSegment).raw(',');
+				p.key("road").string(m.roadSegment).raw(','); // Compatibilidad
+				p.key("position").number(m.position).raw(',');
+				p.key("kp").number(m.position); // Compatibilidad
+				p.raw('}');
+				writeEnvelope(m, p);
+				break;
+			case SIMULATOR_STEP:
+				p.raw('{').key("msg").raw('{');
+				p.key("simulator").string(m.simulator).raw(',');
+				p.key("step").number(m.step);
+				p.raw('}');
+				writeEnvelope(m, p);
+				break;
+			default:
+				throw new IllegalArgumentException("Unsupported message type " + m.type);
+		}
+	}
+
+	/**
+	 * Cierre del envoltorio: ,"id":"MSG_{timestamp}","type":...,"timestamp":...}
+	 */
+	private static void writeEnvelope(RoadManager_Message m, RoadManager_PayloadBuffer p) {
+		p.raw(',').key("id").raw("\"MSG_").number(m.timestamp).raw("\",");
+		p.key("type").string(m.type.name()).raw(',');
+		p.key("timestamp").number(m.timestamp).raw('}');
+	}
+
+	/**
+	 * Campo 'msg' de ROAD_STATUS (también es el contenido del recurso REST /segment/{id})
+	 */
+	public static void writeRoadStatus(RoadManager_Message m, RoadManager_PayloadBuffer p) {
+		p.raw('{');
+		p.key("code").string(m.code).raw(',');
+		p.key("rt").string(m.rt).raw(',');
+		p.key("road-segment").string(m.roadSegment).raw(',');
+		p.key("link").raw("\"/segment/").raw(m.roadSegment).raw("\",");
+		p.key("road").string(m.road).raw(',');
+		p.key("length").number(m.length).raw(',');
+		p.key("start-kp").number(m.startKP).raw(',');
+		p.key("end-kp").number(m.endKP).raw(',');
+		p.key("max-speed").number(m.maxSpeed).raw(',');
+		p.key("current-max-speed").number(m.currentMaxSpeed).raw(',');
+		p.key("capacity").number(m.capacity).raw(',');
+		p.key("num-vehicles").number(m.numVehicles).raw(',');
+		p.key("density").number(m.density).raw(',');
+		p.key("status").string(m.status);
+		p.raw('}');
+	}
+
+	@Override
+	public RoadManager_Message decode(byte[] data, int offset, int length, RoadManager_Message into) {
+		JSONObject json;
+		try {
+			json = new JSONObject(new String(data, offset, length, StandardCharsets.UTF_8));
+		} catch (JSONException e) {
+			throw new IllegalArgumentException("Invalid JSON message: " + e.getMessage(), e);
+		}
+		return decode(json, into);
+	}
+
+	/**
+	 * Rellena el mensaje a partir de un JSON ya parseado
+	 */
+	public RoadManager_Message decode(JSONObject json, RoadManager_Message into) {
+		JSONObject msg = json.optJSONObject("msg");
+		if (msg == null) {
+			msg = json; // Formato directo
+		}
+		String typeName = json.optString("type", null);
+		if (typeName == null) {
+			typeName = msg.optString("type", null);
+		}
+		RoadManager_Message.Type type = RoadManager_Message.Type.of(typeName);
+		if (type == null && typeName == null) {
+			if (msg.has("action")) {
+				type = RoadManager_Message.Type.TRAFFIC;
+			} else if (msg.has("event")) {
+				type = RoadManager_Message.Type.ACCIDENT;
+			}
+		}
+		into.reset(type, json.optLong("timestamp", 0));
+		if (type == null) {
+			return into;
+		}
+		switch (type) {
+			case TRAFFIC:
+				into.action = msg.optString("action", null);
+				into.vehicleRole = msg.optString("vehicle-role", null);
+				into.vehicleId = msg.optString("vehicle-id", null);
+				into.roadSegment = msg.optString("road-segment", null);
+				into.position = msg.optInt("position", -1);
+				break;
+			case ROAD_STATUS:
+				into.code = msg.optString("code", null);
+				into.roadSegment = msg.optString("road-segment", into.code);
+				into.rt = msg.optString("rt", null);
+				into.road = msg.optString("road", null);
+				into.length = msg.optInt("length", -1);
+				into.startKP = msg.optInt("start-kp", -1);
+				into.endKP = msg.optInt("end-kp", -1);
+				into.maxSpeed = msg.optInt("max-speed", -1);
+				into.currentMaxSpeed = msg.optInt("current-max-speed", -1);
+				into.capacity = msg.optInt("capacity", -1);
+				into.numVehicles = msg.optInt("num-vehicles", -1);
+				into.density = msg.optInt("density", -1);
+				into.status = msg.optString("status", null);
+				break;
+			case SPEED_LIMIT:
+				into.value = msg.optInt("value", -1);
+				into.positionStart = msg.optInt("position-start", 0);
+				into.positionEnd = msg.optInt("position-end", Integer.MAX_VALUE);
+				into.validity = msg.optLong("validity", -1);
+				break;
+			case TRAFFIC_LIGHT:
+				into.state = msg.optString("state", null);
+				into.position = msg.optInt("position", -1);
+				into.roadSegment = msg.optString("road-segment", null);
+				break;
+			case ACCIDENT:
+				into.event = msg.optString("event", null);
+				into.rt = msg.optString("rt", null);
+				into.accidentId = msg.optString("id", null);
+				into.vehicle = msg.optString("vehicle", msg.optString("vehicle-id", null));
+				into.roadSegment = msg.optString("road-segment", msg.optString("road", null));
+				into.position = msg.optInt("position", msg.optInt("kp", -1));
+				break;
+			case SIMULATOR_STEP:
+				into.simulator = msg.optString("simulator", null);
+				into.step = msg.optLong("step", -1);
+				break;
+		}
+		return into;
+	}
+}
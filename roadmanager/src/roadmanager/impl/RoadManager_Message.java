@@ -0,0 +1,189 @@
+package roadmanager.impl;
+
+/**
+ * Mensaje del sistema de tráfico independiente de su codificación (ver RoadManager_MessageCodec).
+ *
+ * Cubre los tipos que se intercambian a alta frecuencia: TRAFFIC, ROAD_STATUS, SPEED_LIMIT,
+ * TRAFFIC_LIGHT, ACCIDENT y SIMULATOR_STEP. Es una estructura plana y reutilizable: cada tipo sólo usa
+ * sus campos y reset deja el resto con el valor que los suscriptores usan cuando el campo no viene en
+ * el JSON (null, -1...). Junto a cada campo se indica su nombre en el JSON.
+ *
+ * No es thread-safe: cada publisher usa el suyo (protegido con el lock de su buffer) y cada mensaje
+ * recibido se decodifica en uno nuevo.
+ */
+public class RoadManager_Message {
+
+	public enum Type {
+		TRAFFIC, ROAD_STATUS, SPEED_LIMIT, TRAFFIC_LIGHT, ACCIDENT, SIMULATOR_STEP;
+
+		static final Type[] VALUES = values();
+
+		/**
+		 * Tipo a partir del campo 'type' del JSON (null si no es uno de los tipos del modelo)
+		 */
+		public static Type of(String name) {
+			if (name != null) {
+				for (Type t : VALUES) {
+					if (t.name().equalsIgnoreCase(name)) {
+						return t;
+					}
+				}
+			}
+			return null;
+		}
+	}
+
+	public Type type = null;            // type (null: tipo desconocido, ver RoadManager_JsonCodec)
+	public long timestamp = 0;          // timestamp (el id del envoltorio es "MSG_" + timestamp)
+
+	// Campos comunes a varios tipos
+	public String roadSegment = null;   // road-segment (TRAFFIC, ROAD_STATUS, TRAFFIC_LIGHT, ACCIDENT)
+	public int position = -1;           // position (TRAFFIC, TRAFFIC_LIGHT, ACCIDENT; kp en ACCIDENT)
+	public String rt = null;            // rt (ROAD_STATUS, ACCIDENT)
+
+	// TRAFFIC
+	public String action = null;        // action: VEHICLE_IN / VEHICLE_OUT
+	public String vehicleRole = null;   // vehicle-role
+	public String vehicleId = null;     // vehicle-id
+
+	// ROAD_STATUS
+	public String code = null;          // code
+	public String road = null;          // road
+	public int length = -1;             // length
+	public int startKP = -1;            // start-kp
+	public int endKP = -1;              // end-kp
+	public int maxSpeed = -1;           // max-speed
+	public int currentMaxSpeed = -1;    // current-max-speed
+	public int capacity = -1;           // capacity
+	public int numVehicles = -1;        // num-vehicles
+	public int density = -1;            // density
+	public String status = null;        // status (nombre de ERoadStatus)
+
+	// SPEED_LIMIT
+	public int value = -1;              // value (km/h; 0 retira la señal)
+	public int positionStart = 0;       // position-start
+	public int positionEnd = Integer.MAX_VALUE; // position-end
+	public long validity = -1;          // validity
+
+	// TRAFFIC_LIGHT
+	public String state = null;         // state
+
+	// ACCIDENT
+	public String event = null;         // event: OPEN / CLOSE
+	public String accidentId = null;    // id (del campo 'msg', no del envoltorio)
+	public String vehicle = null;       // vehicle
+
+	// SIMULATOR_STEP
+	public String simulator = null;     // simulator
+	public long step = -1;              // step
+
+	/**
+	 * Vacía el mensaje para reutilizarlo con otro tipo
+	 */
+	public RoadManager_Message reset(Type type, long timestamp) {
+		this.type = type;
+		this.timestamp = timestamp;
+		this.roadSegment = null;
+		this.position = -1;
+		this.rt = null;
+		this.action = null;
+		this.vehicleRole = null;
+		this.vehicleId = null;
+		this.code = null;
+		this.road = null;
+		this.length = -1;
+		this.startKP = -1;
+		this.endKP = -1;
+		this.maxSpeed = -1;
+		this.currentMaxSpeed = -1;
+		this.capacity = -1;
+		this.numVehicles = -1;
+		this.density = -1;
+		this.status = null;
+		this.value = -1;
+		this.positionStart = 0;
+		this.positionEnd = Integer.MAX_VALUE;
+		this.validity = -1;
+		this.state = null;
+		this.event = null;
+		this.accidentId = null;
+		this.vehicle = null;
+		this.simulator = null;
+		this.step = -1;
+		return this;
+	}
+
+	/**
+	 * TRAFFIC: VEHICLE_IN / VEHICLE_OUT de un vehículo
+	 */
+	public RoadManager_Message traffic(long timestamp, String action, String vehicleRole, String vehicleId, String roadSegment, int position) {
+		this.reset(Type.TRAFFIC, timestamp);
+		this.action = action;
+		this.vehicleRole = vehicleRole;
+		this.vehicleId = vehicleId;
+		this.roadSegment = roadSegment;
+		this.position = position;
+		return this;
+	}
+
+	/**
+	 * SPEED_LIMIT (el resto de campos se rellenan con los de la señal)
+	 */
+	public RoadManager_Message speedLimit(long timestamp, int value, int positionStart, int positionEnd, long validity) {
+		this.reset(Type.SPEED_LIMIT, timestamp);
+		this.value = value;
+		this.positionStart = positionStart;
+		this.positionEnd = positionEnd;
+		this.validity = validity;
+		return this;
+	}
+
+	/**
+	 * TRAFFIC_LIGHT
+	 * @param roadSegment segmento (opcional: el topic ya lo indica)
+	 */
+	public RoadManager_Message trafficLight(long timestamp, String state, int position, String roadSegment) {
+		this.reset(Type.TRAFFIC_LIGHT, timestamp);
+		this.state = state;
+		this.position = position;
+		this.roadSegment = roadSegment;
+		return this;
+	}
+
+	/**
+	 * ACCIDENT
+	 */
+	public RoadManager_Message accident(long timestamp, String event, String rt, String accidentId, String vehicle, String roadSegment, int position) {
+		this.reset(Type.ACCIDENT, timestamp);
+		this.event = event;
+		this.rt = rt;
+		this.accidentId = accidentId;
+		this.vehicle = vehicle;
+		this.roadSegment = roadSegment;
+		this.position = position;
+		return this;
+	}
+
+	/**
+	 * SIMULATOR_STEP
+	 */
+	public RoadManager_Message simulatorStep(long timestamp, String simulator, long step) {
+		this.reset(Type.SIMULATOR_STEP, timestamp);
+		this.simulator = simulator;
+		this.step = step;
+		return this;
+	}
+
+	/**
+	 * El mensaje en JSON (para trazas)
+	 */
+	@Override
+	public String toString() {
+		if (this.type == null) {
+			return "{}";
+		}
+		RoadManager_PayloadBuffer p = new RoadManager_PayloadBuffer();
+		RoadManager_JsonCodec.INSTANCE.encode(this, p);
+		return p.toString();
+	}
+}
@@ -0,0 +1,135 @@
+package roadmanager.impl;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Codificación de los mensajes del sistema (RoadManager_Message) en el payload MQTT. Mismo formato que
+ * SmartCar_MessageCodec del proyecto smartcar:
+ *
+ *  - RoadManager_JsonCodec: el JSON de siempre (el que entienden el simulador, los SmartCar y AWS).
+ *  - RoadManager_BinaryCodec: esquema fijo binario, sin nombres de campo ni conversión a texto.
+ *
+ * Al recibir, el formato se reconoce por el primer byte del payload (decodeAny): los mensajes binarios
+ * empiezan por BINARY_MARKER, que no puede iniciar un texto JSON en UTF-8. Al publicar, el codec se elige
+ * según el tipo de topic (forTopic):
+ *
+ *   -Droadmanager.codec=json|binary           para todos los topics (por defecto json)
+ *   -Droadmanager.codec.{tipo}=json|binary    para un tipo: info, signals, alerts
+ *
+ * Las retransmisiones de alertas y todo lo que se publica en AWS sigue en JSON. Las señales (signals) sólo
+ * deben publicarse en binario si no hay dispositivos SignalSpeed o PanelInformativo en el segmento.
+ */
+public abstract class RoadManager_MessageCodec {
+
+	/**
+	 * Primer byte de un mensaje binario (un byte de continuación UTF-8: ningún JSON empieza por él)
+	 */
+	public static final byte BINARY_MARKER = (byte) 0xB5;
+
+	static final String DEFAULT_CODEC = "json";
+
+	// Tipo de topic -> codec de publicación (se resuelve una vez por tipo)
+	private static final Map<String, RoadManager_MessageCodec> BY_KIND = new ConcurrentHashMap<>();
+
+	/**
+	 * Nombre del codec (json, binary)
+	 */
+	public abstract String getName();
+
+	/**
+	 * Añade el mensaje codificado al buffer (sin reiniciarlo)
+	 */
+	public abstract void encode(RoadManager_Message message, RoadManager_PayloadBuffer out);
+
+	/**
+	 * Decodifica un payload de este codec
+	 * @return into (con type null si el mensaje no es de uno de los tipos del modelo)
+	 * @throws IllegalArgumentException si el payload no es válido
+	 */
+	public abstract RoadManager_Message decode(byte[] data, int offset, int length, RoadManager_Message into);
+
+	@Override
+	public String toString() {
+		return this.getName();
+	}
+
+	/**
+	 * Codec por nombre (json, binary)
+	 */
+	public static RoadManager_MessageCodec forName(String name) {
+		if ("binary".equalsIgnoreCase(name)) {
+			return RoadManager_BinaryCodec.INSTANCE;
+		}
+		if (!DEFAULT_CODEC.equalsIgnoreCase(name)) {
+			System.err.println("Unknown codec '" + name + "', using " + DEFAULT_CODEC);
+		}
+		return RoadManager_JsonCodec.INSTANCE;
+	}
+
+	/**
+	 * Codec con el que se publica en un topic, según su tipo (ver la configuración arriba)
+	 */
+	public static RoadManager_MessageCodec forTopic(String topic) {
+		String kind = kindOf(topic);
+		RoadManager_MessageCodec codec = BY_KIND.get(kind);
+		return (codec != null) ? codec : BY_KIND.computeIfAbsent(kind, RoadManager_MessageCodec::load);
+	}
+
+	/**
+	 * Cambia el codec de un tipo de topic (info, signals, alerts)
+	 */
+	public static void setForKind(String kind, RoadManager_MessageCodec codec) {
+		BY_KIND.put(kind, (codec != null) ? codec : RoadManager_JsonCodec.INSTANCE);
+	}
+
+	/**
+	 * Tipo de un topic: info, signals o alerts para los de segmento y 'other' para el resto
+	 */
+	static String kindOf(String topic) {
+		RoadManager_TopicTrie.Match<String> m = RoadManager_InfoPublisher.ROAD_TOPICS.match(topic);
+		return (m != null) ? m.value() : "other";
+	}
+
+	private static RoadManager_MessageCodec load(String kind) {
+		String name = System.getProperty("roadmanager.codec." + kind);
+		if (name == null) {
+			name = System.getProperty("roadmanager.codec", DEFAULT_CODEC);
+		}
+		return forName(name.trim());
+	}
+
+	/**
+	 * Indica si el payload está en binario (RoadManager_BinaryCodec)
+	 */
+	public static boolean isBinary(byte[] data, int offset, int length) {
+		return length > 0 && data[offset] == BINARY_MARKER;
+	}
+
+	/**
+	 * Payload legible para trazas: el JSON tal cual o el mensaje binario convertido a JSON
+	 */
+	public static String toText(byte[] data) {
+		if (!isBinary(data, 0, data.length)) {
+			return new String(data, StandardCharsets.UTF_8);
+		}
+		try {
+			return RoadManager_BinaryCodec.INSTANCE.decode(data, 0, data.length, new RoadManager_Message()).toString();
+		} catch (IllegalArgumentException e) {
+			return "<" + e.getMessage() + ": " + data.length + " bytes>";
+		}
+	}
+
+	/**
+	 * Decodifica un payload en cualquiera de los dos formatos (según su primer byte)
+	 */
+	public static RoadManager_Message decodeAny(byte[] data, RoadManager_Message into) {
+		return decodeAny(data, 0, data.length, into);
+	}
+
+	public static RoadManager_Message decodeAny(byte[] data, int offset, int length, RoadManager_Message into) {
+		RoadManager_MessageCodec codec = isBinary(data, offset, length) ? RoadManager_BinaryCodec.INSTANCE : RoadManager_JsonCodec.INSTANCE;
+		return codec.decode(data, offset, length, into);
+	}
+}
@@ -0,0 +1,292 @@
+package roadmanager.impl;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import org.eclipse.paho.client.mqttv3.IMqttActionListener;
+import org.eclipse.paho.client.mqttv3.IMqttDeliveryToken;
+import org.eclipse.paho.client.mqttv3.IMqttToken;
+import org.eclipse.paho.client.mqttv3.MqttAsyncClient;
+import org.eclipse.paho.client.mqttv3.MqttCallback;
+import org.eclipse.paho.client.mqttv3.MqttConnectOptions;
+import org.eclipse.paho.client.mqttv3.MqttException;
+import org.eclipse.paho.client.mqttv3.MqttMessage;
+import org.eclipse.paho.client.mqttv3.persist.MemoryPersistence;
+
+/**
+ * Conexión MQTT compartida por todos los componentes del Road Manager que usan el mismo broker
+ * (alertas, ROAD_STATUS, señales, instantáneas de flota), en lugar de un cliente por componente.
+ *
+ * Cada componente registra su callback para los filtros de topic que le interesan y la conexión
+ * entrega cada mensaje entrante a todos los callbacks cuyo filtro coincide. Un filtro se suscribe
+ * una sola vez en el broker aunque tenga varios callbacks.
+ *
+ * Las publicaciones pasan por una cola asíncrona (RoadManager_PublishPipeline) sobre MqttAsyncClient:
+ * publish retorna sin esperar a la red.
+ *
+ * Se obtiene con acquire (una por broker en todo el proceso) y se libera con release; la conexión se
+ * cierra al liberarla su último usuario. Si se pierde, se reconecta en segundo plano, se vuelven a
+ * suscribir todos los filtros registrados y se envía lo que haya quedado en la cola.
+ */
+public class RoadManager_MqttConnection implements MqttCallback {
+
+	// Conexiones del proceso: URL del broker -> conexión
+	private static final Map<String, RoadManager_MqttConnection> SHARED = new HashMap<>();
+
+	static final long CONNECT_TIMEOUT = 30000;
+	static final long FLUSH_TIMEOUT = 2000; // Espera máxima a la cola al desconectar
+
+	private MqttAsyncClient myClient;
+	private MqttConnectOptions connOpt;
+	private RoadManager_PublishPipeline pipeline;
+
+	private final String brokerURL;
+	private final String clientID;
+	private int references = 0; // Protegido por SHARED
+
+	// Filtro de topic -> callbacks registrados
+	private final Map<String, List<MqttCallback>> routes = new ConcurrentHashMap<>();
+	// Filtros con wildcards (+, #) -> callbacks, en un árbol que resuelve un topic en una sola pasada
+	private final RoadManager_TopicTrie<List<MqttCallback>> wildcardFilters = new RoadManager_TopicTrie<>();
+	private final RoadManager_TopicTrie.Visitor<List<MqttCallback>, MqttMessage> deliverAll = this::deliverAll;
+
+	private volatile boolean closed = false;
+	private volatile boolean reconnecting = false;
+
+	private RoadManager_MqttConnection(String brokerURL, String clientID) {
+		this.brokerURL = brokerURL;
+		this.clientID = clientID;
+	}
+
+	protected void _debug(String message) {
+		System.out.println("(RoadManager MqttConnection: " + this.clientID + ") " + message);
+	}
+
+	/**
+	 * Conexión compartida con un broker. La primera petición la crea (con el clientID indicado) y conecta.
+	 */
+	public static RoadManager_MqttConnection acquire(String brokerURL, String clientID) throws MqttException {
+		synchronized (SHARED) {
+			RoadManager_MqttConnection connection = SHARED.get(brokerURL);
+			if (connection == null || connection.closed) {
+				connection = new RoadManager_MqttConnection(brokerURL, clientID);
+				connection.connect();
+				SHARED.put(brokerURL, connection);
+			}
+			connection.references++;
+			return connection;
+		}
+	}
+
+	/**
+	 * Libera la conexión; se desconecta al liberarla su último usuario
+	 */
+	public void release() {
+		synchronized (SHARED) {
+			if (--this.references > 0) {
+				return;
+			}
+			SHARED.remove(this.brokerURL, this);
+		}
+		this.closed = true;
+		try {
+			if (myClient != null && myClient.isConnected()) {
+				// Enviar lo que quede en la cola antes de cerrar
+				if (!this.pipeline.flush(FLUSH_TIMEOUT)) {
+					this._debug("Disconnecting with pending messages: " + this.pipeline.getStats());
+				}
+				myClient.disconnect().waitForCompletion(CONNECT_TIMEOUT);
+				this._debug("Disconnected");
+			}
+		} catch (MqttException e) {
+			e.printStackTrace();
+		}
+	}
+
+	private void connect() throws MqttException {
+		connOpt = new MqttConnectOptions();
+		connOpt.setCleanSession(true);
+		connOpt.setKeepAliveInterval(60);
+
+		myClient = new MqttAsyncClient(this.brokerURL, this.clientID, new MemoryPersistence());
+		myClient.setCallback(this);
+		pipeline = RoadManager_PublishPipeline.fromSystemProperties(myClient, this.clientID);
+		myClient.connect(connOpt).waitForCompletion(CONNECT_TIMEOUT);
+		this._debug("Connected to " + myClient.getServerURI());
+	}
+
+	public String getClientID() {
+		return this.clientID;
+	}
+
+	public String getServerURI() {
+		return this.brokerURL;
+	}
+
+	public boolean isConnected() {
+		return myClient != null && myClient.isConnected();
+	}
+
+	/**
+	 * Cola de publicación de la conexión (profundidad, envíos en vuelo, descartes)
+	 */
+	public RoadManager_PublishPipeline getPipeline() {
+		return this.pipeline;
+	}
+
+	/**
+	 * Registra un callback para un filtro de topic (admite wildcards + y #)
+	 */
+	public void subscribe(String topic, MqttCallback handler) throws MqttException {
+		boolean first;
+		synchronized (this) {
+			List<MqttCallback> handlers = this.routes.get(topic);
+			first = (handlers == null);
+			if (first) {
+				handlers = new CopyOnWriteArrayList<>();
+				this.routes.put(topic, handlers);
+				if (isWildcard(topic)) {
+					this.wildcardFilters.add(topic, handlers);
+				}
+			}
+			if (!handlers.contains(handler)) {
+				handlers.add(handler);
+			}
+		}
+		if (first && this.isConnected()) {
+			// Sin esperar al SUBACK: se suscribe también desde callbacks
+			myClient.subscribe(topic, 0, topic, this.subscriptionListener);
+		}
+	}
+
+	/**
+	 * Elimina el callback de un filtro; se desuscribe del broker cuando no quedan callbacks
+	 */
+	public void unsubscribe(String topic, MqttCallback handler) {
+		boolean last = false;
+		synchronized (this) {
+			List<MqttCallback> handlers = this.routes.get(topic);
+			if (handlers == null) {
+				return;
+			}
+			handlers.remove(handler);
+			if (handlers.isEmpty()) {
+				this.routes.remove(topic);
+				this.wildcardFilters.remove(topic, handlers);
+				last = true;
+			}
+		}
+		if (last && this.isConnected()) {
+			try {
+				myClient.unsubscribe(topic, topic, this.subscriptionListener);
+			} catch (MqttException e) {
+				this._debug("Error unsubscribing from " + topic + ": " + e.getMessage());
+			}
+		}
+	}
+
+	/**
+	 * Encola el mensaje y retorna sin esperar a la red: los componentes publican desde los callbacks
+	 * (retransmisión de alertas, señales por ROAD_STATUS)
+	 * @return false si se ha descartado (cola llena o conexión cerrada)
+	 */
+	public boolean publish(String topic, byte[] payload, int qos) {
+		return this.publish(topic, payload, qos, null);
+	}
+
+	/**
+	 * Publica sin esperar y avisa al completarse el envío (o al descartarse)
+	 */
+	public boolean publish(String topic, byte[] payload, int qos, RoadManager_PublishPipeline.Completion completion) {
+		if (this.closed) {
+			if (completion != null) {
+				completion.completed(topic, new MqttException(MqttException.REASON_CODE_CLIENT_NOT_CONNECTED));
+			}
+			return false;
+		}
+		return this.pipeline.publish(topic, payload, qos, completion);
+	}
+
+	private final IMqttActionListener subscriptionListener = new IMqttActionListener() {
+		@Override
+		public void onSuccess(IMqttToken token) {
+		}
+
+		@Override
+		public void onFailure(IMqttToken token, Throwable cause) {
+			RoadManager_MqttConnection.this._debug("Error (un)subscribing to " + token.getUserContext() + ": "
+					+ (cause != null ? cause.getMessage() : "Unknown"));
+		}
+	};
+
+	@Override
+	public void messageArrived(String topic, MqttMessage message) throws Exception {
+		List<MqttCallback> handlers = this.routes.get(topic);
+		if (handlers != null) {
+			this.deliverAll(handlers, topic, message);
+		}
+		if (!this.wildcardFilters.isEmpty()) {
+			this.wildcardFilters.forEachMatch(topic, this.deliverAll, message);
+		}
+	}
+
+	private void deliverAll(List<MqttCallback> handlers, String topic, MqttMessage message) {
+		for (MqttCallback h : handlers) {
+			this.deliver(h, topic, message);
+		}
+	}
+
+	private void deliver(MqttCallback handler, String topic, MqttMessage message) {
+		try {
+			handler.messageArrived(topic, message);
+		} catch (Exception e) {
+			// Un callback que falla no debe afectar al resto ni cerrar la conexión
+			this._debug("Error delivering message from " + topic + ": " + e.getMessage());
+		}
+	}
+
+	@Override
+	public void connectionLost(Throwable cause) {
+		this._debug("Connection lost: " + (cause != null ? cause.getMessage() : "Unknown"));
+		if (this.closed || this.reconnecting) {
+			return;
+		}
+		this.reconnecting = true;
+		// Reconectar en hilo separado
+		Thread t = new Thread(() -> {
+			try {
+				while (!this.closed && !this.isConnected()) {
+					try {
+						Thread.sleep(1000);
+						myClient.connect(connOpt).waitForCompletion(CONNECT_TIMEOUT);
+						for (String topic : this.routes.keySet()) {
+							myClient.subscribe(topic, 0, topic, this.subscriptionListener);
+						}
+						this.pipeline.resume();
+						this._debug("Reconnected to " + this.brokerURL + " (" + this.routes.size() + " topics)");
+					} catch (MqttException e) {
+						this._debug("Error reconnecting: " + e.getMessage());
+					}
+				}
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			} finally {
+				this.reconnecting = false;
+			}
+		}, this.clientID + "-reconnect");
+		t.setDaemon(true);
+		t.start();
+	}
+
+	@Override
+	public void deliveryComplete(IMqttDeliveryToken token) {
+		// No se usa: RoadManager_PublishPipeline recibe el aviso de cada envío
+	}
+
+	private static boolean isWildcard(String filter) {
+		return filter.indexOf('+') >= 0 || filter.indexOf('#') >= 0;
+	}
+}
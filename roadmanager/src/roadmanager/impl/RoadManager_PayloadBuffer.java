@@ -0,0 +1,166 @@
+package roadmanager.impl;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Buffer reutilizable para construir payloads JSON directamente en UTF-8
+ * (también los binarios de RoadManager_BinaryCodec, con octet).
+ *
+ * Sustituye a JSONObject + toString() + getBytes() en los mensajes que se publican
+ * en cada paso de simulación: una vez que el buffer ha crecido a su tamaño de trabajo,
+ * construir y publicar un mensaje no crea ningún objeto.
+ *
+ * No es thread-safe: cada publisher usa el suyo y lo protege con su propio lock.
+ */
+public class RoadManager_PayloadBuffer {
+
+	private byte[] buf;
+	private int len = 0;
+	private final byte[] digits = new byte[20];
+
+	public RoadManager_PayloadBuffer() {
+		this(256);
+	}
+
+	public RoadManager_PayloadBuffer(int capacity) {
+		this.buf = new byte[Math.max(16, capacity)];
+	}
+
+	public RoadManager_PayloadBuffer reset() {
+		this.len = 0;
+		return this;
+	}
+
+	public byte[] array() {
+		return this.buf;
+	}
+
+	public int length() {
+		return this.len;
+	}
+
+	/**
+	 * Copia exacta del contenido (para depuración o APIs que no admiten longitud)
+	 */
+	public byte[] toByteArray() {
+		return Arrays.copyOf(this.buf, this.len);
+	}
+
+	private void ensure(int extra) {
+		if (this.len + extra > this.buf.length) {
+			this.buf = Arrays.copyOf(this.buf, Math.max(this.buf.length * 2, this.len + extra));
+		}
+	}
+
+	/**
+	 * Añade texto tal cual (sin comillas ni escapado), codificado en UTF-8
+	 */
+	public RoadManager_PayloadBuffer raw(String s) {
+		for (int i = 0; i < s.length(); i++) {
+			this.utf8(s.charAt(i));
+		}
+		return this;
+	}
+
+	public RoadManager_PayloadBuffer raw(char c) {
+		this.utf8(c);
+		return this;
+	}
+
+	/**
+	 * Añade una cadena JSON entre comillas, escapando los caracteres necesarios
+	 */
+	public RoadManager_PayloadBuffer string(String s) {
+		if (s == null) {
+			return this.raw("null");
+		}
+		this.ensure(1);
+		this.buf[this.len++] = '"';
+		for (int i = 0; i < s.length(); i++) {
+			char c = s.charAt(i);
+			if (c == '"' || c == '\\') {
+				this.ensure(2);
+				this.buf[this.len++] = '\\';
+				this.buf[this.len++] = (byte) c;
+			} else if (c < 0x20) {
+				this.ensure(6);
+				this.buf[this.len++] = '\\';
+				this.buf[this.len++] = 'u';
+				this.buf[this.len++] = '0';
+				this.buf[this.len++] = '0';
+				this.buf[this.len++] = (byte) Character.forDigit(c >> 4, 16);
+				this.buf[this.len++] = (byte) Character.forDigit(c & 0xF, 16);
+			} else {
+				this.utf8(c);
+			}
+		}
+		this.ensure(1);
+		this.buf[this.len++] = '"';
+		return this;
+	}
+
+	/**
+	 * Añade un número entero en decimal (sin crear Strings)
+	 */
+	public RoadManager_PayloadBuffer number(long v) {
+		if (v == Long.MIN_VALUE) {
+			return this.raw("-9223372036854775808");
+		}
+		this.ensure(20);
+		if (v < 0) {
+			this.buf[this.len++] = '-';
+			v = -v;
+		}
+		int n = 0;
+		do {
+			this.digits[n++] = (byte) ('0' + (v % 10));
+			v /= 10;
+		} while (v > 0);
+		while (n > 0) {
+			this.buf[this.len++] = this.digits[--n];
+		}
+		return this;
+	}
+
+	/**
+	 * Añade un byte tal cual (codificaciones binarias)
+	 */
+	public RoadManager_PayloadBuffer octet(int b) {
+		this.ensure(1);
+		this.buf[this.len++] = (byte) b;
+		return this;
+	}
+
+	/**
+	 * Añade "clave": al objeto en construcción
+	 */
+	public RoadManager_PayloadBuffer key(String name) {
+		this.string(name);
+		this.ensure(1);
+		this.buf[this.len++] = ':';
+		return this;
+	}
+
+	private void utf8(char c) {
+		if (c < 0x80) {
+			this.ensure(1);
+			this.buf[this.len++] = (byte) c;
+		} else if (c < 0x800) {
+			this.ensure(2);
+			this.buf[this.len++] = (byte) (0xC0 | (c >> 6));
+			this.buf[this.len++] = (byte) (0x80 | (c & 0x3F));
+		} else {
+			// Los pares sustitutos se codifican por separado (no aparecen en ids de vehículos/segmentos)
+			this.ensure(3);
+			this.buf[this.len++] = (byte) (0xE0 | (c >> 12));
+			this.buf[this.len++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+			this.buf[this.len++] = (byte) (0x80 | (c & 0x3F));
+		}
+	}
+
+	@Override
+	public String toString() {
+		return new String(this.buf, 0, this.len, StandardCharsets.UTF_8);
+	}
+}
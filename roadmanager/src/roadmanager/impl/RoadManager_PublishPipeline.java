@@ -0,0 +1,413 @@
+package roadmanager.impl;
+
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.eclipse.paho.client.mqttv3.IMqttActionListener;
+import org.eclipse.paho.client.mqttv3.IMqttAsyncClient;
+import org.eclipse.paho.client.mqttv3.IMqttToken;
+import org.eclipse.paho.client.mqttv3.MqttException;
+import org.eclipse.paho.client.mqttv3.MqttMessage;
+
+/**
+ * Cola de publicación asíncrona sobre un MqttAsyncClient.
+ *
+ * publish encola el mensaje y retorna sin esperar a la red: los callbacks MQTT (retransmisión de
+ * alertas, señales por ROAD_STATUS) nunca se bloquean por un envío (salvo con la política BLOCK y la
+ * cola llena). Como mucho 'window' mensajes están en vuelo a la vez (entregados a Paho y pendientes de
+ * completar); cada envío que se completa libera un hueco y pasa el siguiente mensaje de la cola, desde
+ * el hilo de callbacks de Paho.
+ *
+ * Cuando la cola está llena se aplica la política configurada:
+ *   DROP     - se descarta el mensaje nuevo
+ *   BLOCK    - quien publica espera (como mucho blockMillis) a que haya hueco; si no, se descarta
+ *   COALESCE - en los topics declarados de último valor (addLastValueTopic: estados, de los que sólo
+ *              interesa el último) el mensaje nuevo sustituye al último pendiente del mismo topic; en el
+ *              resto, o si no hay ninguno pendiente, se descarta. Un topic compartido por varios emisores
+ *              (p.ej. .../traffic, con los VEHICLE_IN/OUT de todos los vehículos de la conexión) no se
+ *              debe declarar: se perderían los eventos de otros.
+ *
+ * Sin conexión los mensajes se quedan en la cola y se envían al llamar a resume tras reconectar. Si Paho
+ * rechaza un envío por tener su ventana llena (envíos de otros componentes del mismo cliente), el mensaje
+ * vuelve a la cabeza de la cola y se reintenta al completarse un envío, al publicar otro o pasados
+ * RETRY_MILLIS.
+ *
+ * Configuración por defecto (RoadManager_PublishPipeline.fromSystemProperties):
+ *   -Droadmanager.publish.queue=10000  -Droadmanager.publish.window=10  -Droadmanager.publish.policy=DROP
+ */
+public class RoadManager_PublishPipeline {
+
+	public enum Policy {
+		DROP, BLOCK, COALESCE
+	}
+
+	/**
+	 * Aviso de fin de un envío (en el hilo de callbacks de Paho, o en el que publica si se descarta)
+	 */
+	public interface Completion {
+		/**
+		 * @param error null si se ha enviado; la causa si ha fallado o se ha descartado
+		 */
+		void completed(String topic, Throwable error);
+	}
+
+	static final int DEFAULT_CAPACITY = 10000;
+	static final int DEFAULT_WINDOW = 10; // Paho 1.0.2 rechaza envíos QoS>0 con 10 ya en vuelo
+	static final long DEFAULT_BLOCK_MILLIS = 1000;
+	static final long RETRY_MILLIS = 20; // Reintento tras MAX_INFLIGHT sin envíos propios en vuelo
+
+	// Reintentos de las colas que Paho ha rechazado sin tener envíos en vuelo (compartido por todas)
+	private static final ScheduledExecutorService RETRY = Executors.newSingleThreadScheduledExecutor(r -> {
+		Thread t = new Thread(r, "publish-pipeline-retry");
+		t.setDaemon(true);
+		return t;
+	});
+
+	private static final Exception DROPPED = new Exception("Publish queue full: message dropped");
+
+	private final IMqttAsyncClient client;
+	private final String name;
+	private final int capacity;
+	private final int window;
+	private final Policy policy;
+	private volatile long blockMillis = DEFAULT_BLOCK_MILLIS;
+	private final RoadManager_TopicTrie<Boolean> lastValueTopics = new RoadManager_TopicTrie<>(); // Topics que COALESCE puede fusionar
+
+	// Mensajes pendientes y número de envíos en vuelo (protegidos por queue)
+	private final ArrayDeque<Pending> queue = new ArrayDeque<>();
+	private int inFlight = 0;
+	private boolean paused = false;
+	private boolean draining = false; // Un hilo está entregando la cola a Paho (sólo uno a la vez: orden FIFO)
+	private boolean retryScheduled = false;
+
+	// Estadísticas
+	private final AtomicLong sent = new AtomicLong(0);
+	private final AtomicLong failed = new AtomicLong(0);
+	private final AtomicLong dropped = new AtomicLong(0);
+	private final AtomicLong coalesced = new AtomicLong(0);
+	private volatile int maxDepth = 0;
+
+	private final IMqttActionListener listener = new IMqttActionListener() {
+		@Override
+		public void onSuccess(IMqttToken token) {
+			RoadManager_PublishPipeline.this.finished((Pending) token.getUserContext(), null);
+		}
+
+		@Override
+		public void onFailure(IMqttToken token, Throwable cause) {
+			RoadManager_PublishPipeline.this.finished((Pending) token.getUserContext(), (cause != null) ? cause : DROPPED);
+		}
+	};
+
+	public RoadManager_PublishPipeline(IMqttAsyncClient client, String name, int capacity, int window, Policy policy) {
+		this.client = client;
+		this.name = name;
+		this.capacity = Math.max(1, capacity);
+		this.window = Math.max(1, window);
+		this.policy = (policy != null) ? policy : Policy.DROP;
+	}
+
+	/**
+	 * Cola con la configuración de las propiedades roadmanager.publish.*
+	 */
+	public static RoadManager_PublishPipeline fromSystemProperties(IMqttAsyncClient client, String name) {
+		Policy policy;
+		try {
+			policy = Policy.valueOf(System.getProperty("roadmanager.publish.policy", Policy.DROP.name()).toUpperCase());
+		} catch (IllegalArgumentException e) {
+			policy = Policy.DROP;
+		}
+		return new RoadManager_PublishPipeline(client, name,
+				Integer.getInteger("roadmanager.publish.queue", DEFAULT_CAPACITY),
+				Integer.getInteger("roadmanager.publish.window", DEFAULT_WINDOW),
+				policy);
+	}
+
+	protected void _debug(String message) {
+		System.out.println("(PublishPipeline: " + this.name + ") " + message);
+	}
+
+	/**
+	 * Tiempo máximo de espera de la política BLOCK
+	 */
+	public void setBlockMillis(long blockMillis) {
+		this.blockMillis = Math.max(0, blockMillis);
+	}
+
+	public Policy getPolicy() {
+		return this.policy;
+	}
+
+	/**
+	 * Declara un patrón de topics (niveles literales, '+' o '#') cuyos mensajes sólo interesan en su último
+	 * valor: con la política COALESCE un mensaje nuevo sustituye al pendiente del mismo topic
+	 */
+	public void addLastValueTopic(String pattern) {
+		this.lastValueTopics.add(pattern, Boolean.TRUE);
+	}
+
+	/**
+	 * Encola un mensaje. El payload pasa a ser de la cola: no se debe modificar después.
+	 * @return false si se ha descartado (cola llena)
+	 */
+	public boolean publish(String topic, byte[] payload, int qos, Completion completion) {
+		Pending p = new Pending(topic, payload, qos, completion);
+		boolean queued;
+		synchronized (this.queue) {
+			queued = this.queue.size() < this.capacity || this.makeRoom(p);
+			if (queued && p.payload != null) { // null: fusionado con un mensaje pendiente
+				this.queue.addLast(p);
+				if (this.queue.size() > this.maxDepth) {
+					this.maxDepth = this.queue.size();
+				}
+			}
+		}
+		if (!queued) {
+			this.dropped.incrementAndGet();
+		}
+		if ((!queued || p.payload == null) && p.completion != null) {
+			// Descartado, o sustituido: se avisa al autor del mensaje pendiente que se ha fusionado
+			p.completion.completed(topic, DROPPED);
+		}
+		this.pump();
+		return queued;
+	}
+
+	/**
+	 * Aplica la política con la cola llena
+	 * @return true si el mensaje puede encolarse o ya se ha fusionado con uno pendiente
+	 */
+	private boolean makeRoom(Pending p) {
+		switch (this.policy) {
+			case BLOCK:
+				long deadline = System.currentTimeMillis() + this.blockMillis;
+				try {
+					long wait;
+					while (this.queue.size() >= this.capacity && (wait = deadline - System.currentTimeMillis()) > 0) {
+						this.queue.wait(wait);
+					}
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+				return this.queue.size() < this.capacity;
+			case COALESCE:
+				if (!this.lastValueTopics.matches(p.topic)) {
+					return false;
+				}
+				Iterator<Pending> it = this.queue.descendingIterator();
+				while (it.hasNext()) {
+					Pending q = it.next();
+					if (q.topic.equals(p.topic)) {
+						Completion replaced = q.completion;
+						q.payload = p.payload;
+						q.qos = p.qos;
+						q.completion = p.completion;
+						p.payload = null;
+						p.completion = replaced;
+						this.coalesced.incrementAndGet();
+						return true;
+					}
+				}
+				return false;
+			default:
+				return false;
+		}
+	}
+
+	/**
+	 * Entrega a Paho los mensajes de la cola mientras haya hueco en la ventana. Sólo un hilo a la vez
+	 * vacía la cola (los demás retornan y él recoge sus mensajes): salen en el orden en que se encolaron.
+	 */
+	private void pump() {
+		synchronized (this.queue) {
+			if (this.draining) {
+				return; // Lo entrega el hilo que ya está vaciando la cola, en orden
+			}
+			this.draining = true;
+		}
+		try {
+			this.pumpLoop();
+		} catch (RuntimeException | Error e) {
+			synchronized (this.queue) {
+				this.draining = false;
+			}
+			throw e;
+		}
+	}
+
+	/**
+	 * Bucle del único hilo que entrega la cola (ver pump)
+	 */
+	private void pumpLoop() {
+		while (true) {
+			Pending p;
+			synchronized (this.queue) {
+				if (this.paused || this.inFlight >= this.window || this.queue.isEmpty()) {
+					this.draining = false; // Con el cerrojo: quien encuentre el indicador puesto ya no pierde su mensaje
+					return;
+				}
+				p = this.queue.pollFirst();
+				this.inFlight++;
+				this.queue.notifyAll(); // Hueco para BLOCK
+			}
+			try {
+				MqttMessage message = new MqttMessage(p.payload);
+				message.setQos(p.qos);
+				message.setRetained(false);
+				this.client.publish(p.topic, message, p, this.listener);
+			} catch (MqttException e) {
+				synchronized (this.queue) {
+					this.inFlight--;
+					if (!this.client.isConnected()) {
+						// Se reintentará al reconectar (resume)
+						this.queue.addFirst(p);
+						this.paused = true;
+						this.draining = false;
+						return;
+					}
+					if (e.getReasonCode() == MqttException.REASON_CODE_MAX_INFLIGHT) {
+						// Paho está lleno (envíos de otros componentes): se reintenta al completarse uno de los
+						// nuestros o, si no hay ninguno en vuelo, al publicar otro o pasados RETRY_MILLIS
+						this.queue.addFirst(p);
+						if (this.inFlight == 0 && !this.retryScheduled) {
+							this.retryScheduled = true;
+							RETRY.schedule(this::retry, RETRY_MILLIS, TimeUnit.MILLISECONDS);
+						}
+						this.draining = false;
+						return;
+					}
+				}
+				this.completed(p, e);
+			}
+		}
+	}
+
+	private void retry() {
+		synchronized (this.queue) {
+			this.retryScheduled = false;
+		}
+		this.pump();
+	}
+
+	private void finished(Pending p, Throwable error) {
+		synchronized (this.queue) {
+			this.inFlight--;
+		}
+		this.completed(p, error);
+		this.pump();
+	}
+
+	private void completed(Pending p, Throwable error) {
+		if (error == null) {
+			this.sent.incrementAndGet();
+		} else {
+			this.failed.incrementAndGet();
+			this._debug("Error publishing to " + p.topic + ": " + error.getMessage());
+		}
+		if (p.completion != null) {
+			try {
+				p.completion.completed(p.topic, error);
+			} catch (RuntimeException e) {
+				this._debug("Error in completion callback for " + p.topic + ": " + e.getMessage());
+			}
+		}
+	}
+
+	/**
+	 * Reanuda los envíos tras reconectar
+	 */
+	public void resume() {
+		synchronized (this.queue) {
+			this.paused = false;
+		}
+		this.pump();
+	}
+
+	/**
+	 * Espera (como mucho timeoutMillis) a que se vacíe la cola y se completen los envíos en vuelo
+	 * @return true si no queda nada pendiente
+	 */
+	public boolean flush(long timeoutMillis) {
+		long deadline = System.currentTimeMillis() + timeoutMillis;
+		while (true) {
+			synchronized (this.queue) {
+				if ((this.queue.isEmpty() && this.inFlight == 0) || this.paused) {
+					return this.queue.isEmpty() && this.inFlight == 0;
+				}
+			}
+			if (System.currentTimeMillis() >= deadline) {
+				return false;
+			}
+			try {
+				Thread.sleep(10);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				return false;
+			}
+		}
+	}
+
+	/**
+	 * Mensajes esperando en la cola
+	 */
+	public int getQueueDepth() {
+		synchronized (this.queue) {
+			return this.queue.size();
+		}
+	}
+
+	public int getInFlight() {
+		synchronized (this.queue) {
+			return this.inFlight;
+		}
+	}
+
+	public int getMaxQueueDepth() {
+		return this.maxDepth;
+	}
+
+	public long getSentCount() {
+		return this.sent.get();
+	}
+
+	public long getDroppedCount() {
+		return this.dropped.get();
+	}
+
+	public long getCoalescedCount() {
+		return this.coalesced.get();
+	}
+
+	public long getFailedCount() {
+		return this.failed.get();
+	}
+
+	public String getStats() {
+		return "queue=" + this.getQueueDepth() + "/" + this.capacity
+				+ " max=" + this.maxDepth
+				+ " inflight=" + this.getInFlight() + "/" + this.window
+				+ " sent=" + this.sent.get()
+				+ " dropped=" + this.dropped.get()
+				+ " coalesced=" + this.coalesced.get()
+				+ " failed=" + this.failed.get()
+				+ " policy=" + this.policy;
+	}
+
+	private static final class Pending {
+		final String topic;
+		byte[] payload;
+		int qos;
+		Completion completion;
+
+		Pending(String topic, byte[] payload, int qos, Completion completion) {
+			this.topic = topic;
+			this.payload = payload;
+			this.qos = qos;
+			this.completion = completion;
+		}
+	}
+}
@@ -1,12 +1,12 @@
 package roadmanager.impl;
 
+import java.util.ArrayList;
+import java.util.List;
+
 import org.eclipse.paho.client.mqttv3.IMqttDeliveryToken;
 import org.eclipse.paho.client.mqttv3.MqttCallback;
-import org.eclipse.paho.client.mqttv3.MqttClient;
-import org.eclipse.paho.client.mqttv3.MqttConnectOptions;
 import org.eclipse.paho.client.mqttv3.MqttException;
 import org.eclipse.paho.client.mqttv3.MqttMessage;
-import org.json.JSONObject;
 
 /**
  * Suscriptor a mensajes ROAD_STATUS del canal info (simulador)
@@ -14,10 +14,9 @@ import org.json.JSONObject;
  */
 public class RoadManager_RoadStatusSubscriber implements MqttCallback {
 	
-	private MqttClient myClient;
-	private MqttConnectOptions connOpt;
+	private RoadManager_MqttConnection connection; // Conexión compartida con el resto de componentes
+	private List<String> subscribedTopics = new ArrayList<>();
 	
-	static final String BROKER_URL = "tcp://tambori.dsic.upv.es:10083";
 	
 	private RoadManager roadManager;
 	
@@ -32,15 +31,7 @@ public class RoadManager_RoadStatusSubscriber implements MqttCallback {
 	@Override
 	public void connectionLost(Throwable cause) {
 		this._debug("Connection lost: " + (cause != null ? cause.getMessage() : "Unknown"));
-		// Reconectar en hilo separado
-		new Thread(() -> {
-			try {
-				Thread.sleep(1000);
-				connect();
-			} catch (Exception e) {
-				this._debug("Error reconnecting: " + e.getMessage());
-			}
-		}).start();
+		// La reconexión (y la nueva suscripción) la gestiona RoadManager_MqttConnection
 	}
 	
 	@Override
@@ -50,32 +41,22 @@ public class RoadManager_RoadStatusSubscriber implements MqttCallback {
 	
 	@Override
 	public void messageArrived(String topic, MqttMessage message) throws Exception {
-		String payload = new String(message.getPayload());
+		byte[] data = message.getPayload();
 		
 		try {
 			// Extraer el road-segment del topic
 			// Formato: es/upv/pros/tatami/smartcities/traffic/PTPaterna/road/{road-segment}/info
-			String[] topicParts = topic.split("/");
-			String roadSegment = topicParts[topicParts.length - 2]; // Antes de "info"
-			
-			// Parsear el mensaje JSON
-			JSONObject jsonMessage = new JSONObject(payload);
-			JSONObject msgContent = null;
-			String messageType = null;
-			
-			// Detectar formato: puede ser con wrapper o directo
-			if (jsonMessage.has("msg")) {
-				msgContent = jsonMessage.getJSONObject("msg");
-				messageType = jsonMessage.optString("type", null);
-			} else {
-				msgContent = jsonMessage;
-				messageType = jsonMessage.optString("type", null);
+			String roadSegment = RoadManager_InfoPublisher.segmentOf(topic);
+			if (roadSegment == null) {
+				this._debug("Could not extract segment from topic: " + topic);
+				return;
 			}
 			
-			// Procesar solo mensajes ROAD_STATUS
-			if ("ROAD_STATUS".equals(messageType) && msgContent != null) {
-				String status = msgContent.optString("status", "UNKNOWN");
-				int maxSpeed = msgContent.optInt("max-speed", msgContent.optInt("current-max-speed", 60));
+			// Mensaje en JSON (con o sin "msg") o en binario (RoadManager_MessageCodec): sólo ROAD_STATUS
+			RoadManager_Message msg = RoadManager_MessageCodec.decodeAny(data, new RoadManager_Message());
+			if (msg.type == RoadManager_Message.Type.ROAD_STATUS) {
+				String status = (msg.status != null) ? msg.status : "UNKNOWN";
+				int maxSpeed = (msg.maxSpeed >= 0) ? msg.maxSpeed : (msg.currentMaxSpeed >= 0) ? msg.currentMaxSpeed : 60;
 				
 				this._debug("ROAD_STATUS received for " + roadSegment + " - Status: " + status + ", Max Speed: " + maxSpeed);
 				
@@ -90,20 +71,14 @@ public class RoadManager_RoadStatusSubscriber implements MqttCallback {
 	}
 	
 	/**
-	 * Conecta al broker MQTT del simulador
+	 * Obtiene la conexión compartida con el broker MQTT del simulador
 	 */
 	public void connect() {
-		String clientID = "road-manager-" + this.roadManager.getManagerId() + "-status-sub";
-		connOpt = new MqttConnectOptions();
-		
-		connOpt.setCleanSession(true);
-		connOpt.setKeepAliveInterval(60);
-		
+		String clientID = "road-manager-" + this.roadManager.getManagerId();
+	
 		try {
-			myClient = new MqttClient(BROKER_URL, clientID);
-			myClient.setCallback(this);
-			myClient.connect(connOpt);
-			this._debug("Connected to " + BROKER_URL);
+			connection = RoadManager_MqttConnection.acquire(RoadManager_Endpoints.getBrokerURL(), clientID);
+			this._debug("Connected to " + connection.getServerURI() + " (" + connection.getClientID() + ")");
 		} catch (MqttException e) {
 			e.printStackTrace();
 			System.err.println("Error connecting road status subscriber: " + e.getMessage());
@@ -111,17 +86,19 @@ public class RoadManager_RoadStatusSubscriber implements MqttCallback {
 	}
 	
 	/**
-	 * Desconecta del broker MQTT
+	 * Retira las suscripciones y libera la conexión compartida
 	 */
 	public void disconnect() {
-		try {
-			if (myClient != null && myClient.isConnected()) {
-				myClient.disconnect();
-				this._debug("Disconnected");
-			}
-		} catch (MqttException e) {
-			e.printStackTrace();
+		if (connection == null) {
+			return;
+		}
+		for (String topic : subscribedTopics) {
+			connection.unsubscribe(topic, this);
 		}
+		subscribedTopics.clear();
+		connection.release();
+		connection = null;
+		this._debug("Disconnected");
 	}
 	
 	/**
@@ -129,9 +106,9 @@ public class RoadManager_RoadStatusSubscriber implements MqttCallback {
 	 */
 	public void subscribe(String topic) {
 		try {
-			if (myClient != null && myClient.isConnected()) {
-				int subQoS = 0;
-				myClient.subscribe(topic, subQoS);
+			if (connection != null && connection.isConnected()) {
+				connection.subscribe(topic, this);
+				subscribedTopics.add(topic);
 				this._debug("Subscribed to: " + topic);
 			}
 		} catch (Exception e) {
@@ -141,7 +118,6 @@ public class RoadManager_RoadStatusSubscriber implements MqttCallback {
 	}
 	
 	public boolean isConnected() {
-		return myClient != null && myClient.isConnected();
+		return connection != null && connection.isConnected();
 	}
 }
-
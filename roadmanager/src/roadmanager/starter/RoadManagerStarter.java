@@ -27,8 +27,12 @@ public class RoadManagerStarter {
 		System.out.println("==========================================");
 		
 		// Mantener el programa ejecutándose
+		// (informando cada 60 segundos del estado de la cola de publicación)
 		try {
-			Thread.sleep(Long.MAX_VALUE);
+			while (true) {
+				Thread.sleep(60000);
+				System.out.println("(RoadManager) Publicación: " + roadManager.getPublishStats());
+			}
 		} catch (InterruptedException e) {
 			System.out.println("Interrumpido, desconectando...");
 			roadManager.disconnect();
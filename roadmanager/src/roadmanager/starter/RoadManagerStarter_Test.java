@@ -10,6 +10,8 @@ import roadmanager.impl.RoadManager;
  * 
  * Ejemplo:
  *   java RoadManagerStarter_Test RoadManager001 RoadManager097
+ * 
+ * Con -Droadmanager.fleet.snapshot=true recibe además las instantáneas binarias de flota (.../fleet/snapshot)
  */
 public class RoadManagerStarter_Test {
 	
@@ -30,6 +32,10 @@ public class RoadManagerStarter_Test {
 		// Crear instancia del Road Manager
 		RoadManager roadManager = new RoadManager(managerId);
 		
+		if (Boolean.getBoolean("roadmanager.fleet.snapshot")) {
+			roadManager.enableFleetSnapshots();
+		}
+		
 		// Habilitar integración con AWS IoT
 		roadManager.enableAWSIoT();
 		
@@ -43,8 +49,12 @@ public class RoadManagerStarter_Test {
 		System.out.println("==========================================");
 		
 		// Mantener el programa ejecutándose
+		// (informando cada 60 segundos del estado de la cola de publicación)
 		try {
-			Thread.sleep(Long.MAX_VALUE);
+			while (true) {
+				Thread.sleep(60000);
+				System.out.println("(RoadManager) Publicación: " + roadManager.getPublishStats());
+			}
 		} catch (InterruptedException e) {
 			System.out.println("Interrumpido, desconectando...");
 			roadManager.disconnect();
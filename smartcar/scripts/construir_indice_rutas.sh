@@ -0,0 +1,36 @@
+#!/bin/bash
+
+# Script para precalcular el índice de rutas (jerarquía de contracción) de una red desde binarios compilados
+# Uso: ./construir_indice_rutas.sh [roads.json] [fichero-indice] [conexiones]
+
+PROJECT_DIR="$(cd "$(dirname "${BASH_SOURCE[0]}")/.." && pwd)"
+
+ROADS=${1:-"$PROJECT_DIR/../roads_example.json"}
+INDICE=${2:-"$PROJECT_DIR/../roads_example.cch"}
+CONEXIONES=${3:-"$PROJECT_DIR/../connections_example.txt"}
+
+BIN_DIR="$PROJECT_DIR/bin"
+LIB_DIR="$PROJECT_DIR/lib"
+
+# Construir classpath
+CLASSPATH="$BIN_DIR"
+for jar in "$LIB_DIR"/*.jar; do
+    if [ -f "$jar" ]; then
+        CLASSPATH="$CLASSPATH:$jar"
+    fi
+done
+
+echo "=========================================="
+echo "Construyendo ÍNDICE DE RUTAS"
+echo "=========================================="
+echo "Carreteras: $ROADS"
+echo "Conexiones: $CONEXIONES"
+echo "Índice: $INDICE"
+echo "=========================================="
+echo ""
+
+# Cambiar al directorio del proyecto para que las rutas relativas funcionen
+cd "$PROJECT_DIR"
+
+# Ejecutar
+java $JAVA_OPTS -cp "$CLASSPATH" smartcar.starter.SmartCarStarter_RouteIndex "$ROADS" "$INDICE" "$CONEXIONES"
@@ -0,0 +1,36 @@
+#!/bin/bash
+
+# Script para ejecutar la autoridad de tráfico local (ROAD_STATUS y /segment/{id}) desde binarios compilados
+# Uso: ./ejecutar_autoridad_trafico.sh [roads.json] [puerto_http] [broker]
+
+PROJECT_DIR="$(cd "$(dirname "${BASH_SOURCE[0]}")/.." && pwd)"
+
+ROADS=${1:-"$PROJECT_DIR/../roads_example.json"}
+PUERTO=${2:-10082}
+BROKER=${3:-"tcp://localhost:1883"}
+
+BIN_DIR="$PROJECT_DIR/bin"
+LIB_DIR="$PROJECT_DIR/lib"
+
+# Construir classpath
+CLASSPATH="$BIN_DIR"
+for jar in "$LIB_DIR"/*.jar; do
+    if [ -f "$jar" ]; then
+        CLASSPATH="$CLASSPATH:$jar"
+    fi
+done
+
+echo "=========================================="
+echo "Ejecutando AUTORIDAD DE TRÁFICO"
+echo "=========================================="
+echo "Carreteras: $ROADS"
+echo "Puerto REST: $PUERTO"
+echo "Broker: $BROKER"
+echo "=========================================="
+echo ""
+
+# Cambiar al directorio del proyecto para que las rutas relativas funcionen
+cd "$PROJECT_DIR"
+
+# Ejecutar
+java $JAVA_OPTS -cp "$CLASSPATH" smartcar.starter.SmartCarStarter_TrafficAuthority "$ROADS" "$PUERTO" "$BROKER"
@@ -0,0 +1,36 @@
+#!/bin/bash
+
+# Script para ejecutar una flota de vehículos en una única JVM desde binarios compilados
+# Uso: ./ejecutar_flota.sh [fichero-flota] [conexiones] [hostId]
+
+PROJECT_DIR="$(cd "$(dirname "${BASH_SOURCE[0]}")/.." && pwd)"
+
+FICHERO=${1:-"$PROJECT_DIR/flota_ejemplo.txt"}
+CONEXIONES=${2:-4}
+HOST_ID=${3:-"FleetHost001"}
+
+BIN_DIR="$PROJECT_DIR/bin"
+LIB_DIR="$PROJECT_DIR/lib"
+
+# Construir classpath
+CLASSPATH="$BIN_DIR"
+for jar in "$LIB_DIR"/*.jar; do
+    if [ -f "$jar" ]; then
+        CLASSPATH="$CLASSPATH:$jar"
+    fi
+done
+
+echo "=========================================="
+echo "Ejecutando FLOTA de vehículos"
+echo "=========================================="
+echo "Fichero: $FICHERO"
+echo "Conexiones MQTT: $CONEXIONES"
+echo "Host ID: $HOST_ID"
+echo "=========================================="
+echo ""
+
+# Cambiar al directorio del proyecto para que las rutas relativas funcionen
+cd "$PROJECT_DIR"
+
+# Ejecutar
+java $JAVA_OPTS -cp "$CLASSPATH" smartcar.starter.SmartCarStarter_Fleet "$FICHERO" "$CONEXIONES" "$HOST_ID"
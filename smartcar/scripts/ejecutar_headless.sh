@@ -0,0 +1,38 @@
+#!/bin/bash
+
+# Script para ejecutar una simulación headless (sin broker ni simulador) desde binarios compilados
+# Uso: ./ejecutar_headless.sh [fichero-flota] [roads.json] [duracion_h] [paso_ms] [aceleracion]
+
+PROJECT_DIR="$(cd "$(dirname "${BASH_SOURCE[0]}")/.." && pwd)"
+
+FICHERO=${1:-"$PROJECT_DIR/flota_ejemplo.txt"}
+ROADS=${2:-"$PROJECT_DIR/../roads_example.json"}
+DURACION=${3:-24}
+PASO=${4:-3000}
+ACELERACION=${5:-0}
+
+BIN_DIR="$PROJECT_DIR/bin"
+LIB_DIR="$PROJECT_DIR/lib"
+
+# Construir classpath
+CLASSPATH="$BIN_DIR"
+for jar in "$LIB_DIR"/*.jar; do
+    if [ -f "$jar" ]; then
+        CLASSPATH="$CLASSPATH:$jar"
+    fi
+done
+
+echo "=========================================="
+echo "Ejecutando SIMULACIÓN HEADLESS"
+echo "=========================================="
+echo "Fichero: $FICHERO"
+echo "Carreteras: $ROADS"
+echo "Duración: $DURACION h (paso $PASO ms, aceleración $ACELERACION)"
+echo "=========================================="
+echo ""
+
+# Cambiar al directorio del proyecto para que las rutas relativas funcionen
+cd "$PROJECT_DIR"
+
+# Ejecutar
+java $JAVA_OPTS -cp "$CLASSPATH" smartcar.starter.SmartCarStarter_Headless "$FICHERO" "$ROADS" "$DURACION" "$PASO" "$ACELERACION"
@@ -0,0 +1,38 @@
+#!/bin/bash
+
+# Script para ejecutar el simulador local (broker MQTT, pasos y REST API de segmentos) desde binarios compilados
+# Uso: ./ejecutar_simulador_local.sh [roads.json] [puerto_mqtt] [puerto_http] [paso_ms]
+
+PROJECT_DIR="$(cd "$(dirname "${BASH_SOURCE[0]}")/.." && pwd)"
+
+ROADS=${1:-"$PROJECT_DIR/../roads_example.json"}
+PUERTO_MQTT=${2:-1883}
+PUERTO_HTTP=${3:-10082}
+PASO=${4:-3000}
+
+BIN_DIR="$PROJECT_DIR/bin"
+LIB_DIR="$PROJECT_DIR/lib"
+
+# Construir classpath
+CLASSPATH="$BIN_DIR"
+for jar in "$LIB_DIR"/*.jar; do
+    if [ -f "$jar" ]; then
+        CLASSPATH="$CLASSPATH:$jar"
+    fi
+done
+
+echo "=========================================="
+echo "Ejecutando SIMULADOR LOCAL"
+echo "=========================================="
+echo "Carreteras: $ROADS"
+echo "Puerto MQTT: $PUERTO_MQTT"
+echo "Puerto REST: $PUERTO_HTTP"
+echo "Paso: $PASO ms"
+echo "=========================================="
+echo ""
+
+# Cambiar al directorio del proyecto para que las rutas relativas funcionen
+cd "$PROJECT_DIR"
+
+# Ejecutar
+java $JAVA_OPTS -cp "$CLASSPATH" smartcar.starter.SmartCarStarter_OfflineStack "$ROADS" "$PUERTO_MQTT" "$PUERTO_HTTP" "$PASO"
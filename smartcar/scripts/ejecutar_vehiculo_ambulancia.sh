@@ -34,5 +34,5 @@ echo ""
 cd "$PROJECT_DIR"
 
 # Ejecutar
-java -cp "$CLASSPATH" smartcar.starter.SmartCarStarter_Test ambulance "$ID" "$THING_NAME" "$VELOCIDAD" "$RUTA"
+java $JAVA_OPTS -cp "$CLASSPATH" smartcar.starter.SmartCarStarter_Test ambulance "$ID" "$THING_NAME" "$VELOCIDAD" "$RUTA"
 
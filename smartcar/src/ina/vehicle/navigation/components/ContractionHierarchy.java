@@ -0,0 +1,905 @@
+package ina.vehicle.navigation.components;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import ina.vehicle.navigation.interfaces.ISegmentWeightListener;
+
+/**
+ * Jerarquía de contracción personalizable (CCH) sobre el grafo de un RoutePlanner.
+ *
+ * Se divide en dos fases:
+ *  - Preproceso (build, fuera de línea): se ordenan los nodos por disección anidada (con separadores
+ *    obtenidos por niveles de un recorrido en anchura, ya que los segmentos no tienen coordenadas) y
+ *    se contraen en ese orden, añadiendo atajos entre los vecinos de cada nodo contraído. El resultado
+ *    no depende de las velocidades y se guarda en un fichero binario versionado que se proyecta en
+ *    memoria (open) sin copiarlo al heap.
+ *  - Personalización (customize): calcula el peso de cada arista de la jerarquía con las velocidades
+ *    actuales del planificador, recorriendo los triángulos inferiores en orden. Los cambios de
+ *    velocidad marcan la personalización como obsoleta y se rehace en la siguiente consulta.
+ *
+ * Las consultas suben por el árbol de eliminación desde el origen y desde el destino (sin cola de
+ * prioridad) y desempaquetan los atajos del camino mínimo. Con setHierarchy el RoutePlanner la usa
+ * en lugar de A*.
+ *
+ * Formato del fichero (little-endian, el orden nativo habitual, para leerlo proyectado sin conversiones):
+ *   MAGIC, FORMAT_VERSION, huella del grafo (long), nodos, aristas, arcos originales,
+ *   order[nodos] (rango -> nodo), rank[nodos] (nodo -> rango),
+ *   upOffsets[nodos+1], upTargets[aristas], upSources[aristas] (aristas hacia rangos mayores, por rango),
+ *   arcs[3*arcos] (arista*2+sentido, nodo origen, nodo destino)
+ */
+public final class ContractionHierarchy implements ISegmentWeightListener {
+
+	public static final int MAGIC = 0x43434831; // "CCH1"
+	public static final int FORMAT_VERSION = 1;
+
+	private static final int HEADER_BYTES = 28;
+	private static final int LEAF_SIZE = 16; // Partes que ya no se dividen
+	private static final int UP = 0;
+	private static final int DOWN = 1;
+
+	private final RoutePlanner graph;
+	private final String file;
+	private final MappedByteBuffer buffer; // Se mantiene la referencia mientras se usan las vistas
+	private final int nodes;
+	private final int edges;
+	private final int arcs;
+
+	// Vistas sobre el fichero proyectado
+	private final IntBuffer order;
+	private final IntBuffer rank;
+	private final IntBuffer upOffsets;
+	private final IntBuffer upTargets;
+	private final IntBuffer upSources;
+	private final IntBuffer arcData;
+
+	// Pesos de la última personalización
+	private volatile Metric metric = null;
+	private volatile boolean dirty = true;
+	private long customizations = 0;
+
+	private final ThreadLocal<Query> queries;
+
+	private ContractionHierarchy(RoutePlanner graph, String file, MappedByteBuffer buffer, int nodes, int edges, int arcs) {
+		this.graph = graph;
+		this.file = file;
+		this.buffer = buffer;
+		this.nodes = nodes;
+		this.edges = edges;
+		this.arcs = arcs;
+		int offset = HEADER_BYTES;
+		this.order = view(buffer, offset, nodes);
+		offset += 4 * nodes;
+		this.rank = view(buffer, offset, nodes);
+		offset += 4 * nodes;
+		this.upOffsets = view(buffer, offset, nodes + 1);
+		offset += 4 * (nodes + 1);
+		this.upTargets = view(buffer, offset, edges);
+		offset += 4 * edges;
+		this.upSources = view(buffer, offset, edges);
+		offset += 4 * edges;
+		this.arcData = view(buffer, offset, 3 * arcs);
+		this.queries = ThreadLocal.withInitial(() -> new Query(this.nodes));
+		graph.addWeightListener(this);
+	}
+
+	// ------------------------------------------------------------
+	// Preproceso
+	// ------------------------------------------------------------
+
+	/**
+	 * Contrae el grafo del planificador y guarda la jerarquía en un fichero
+	 */
+	public static void build(RoutePlanner graph, String file) throws IOException {
+		int nn = graph.nodeCount();
+
+		// Grafo no dirigido (el orden y los atajos no dependen del sentido ni de los pesos)
+		int[] arcs = originalArcs(graph);
+		int[] adjOffsets = new int[nn + 1];
+		for (int i = 0; i < arcs.length; i++) {
+			adjOffsets[arcs[i] + 1]++;
+		}
+		for (int n = 0; n < nn; n++) {
+			adjOffsets[n + 1] += adjOffsets[n];
+		}
+		int[] adjacency = new int[arcs.length];
+		int[] fill = Arrays.copyOf(adjOffsets, nn);
+		for (int i = 0; i < arcs.length; i += 2) {
+			adjacency[fill[arcs[i]]++] = arcs[i + 1];
+			adjacency[fill[arcs[i + 1]]++] = arcs[i];
+		}
+
+		int[] order = nestedDissection(nn, adjOffsets, adjacency);
+		int[] rank = new int[nn];
+		for (int r = 0; r < nn; r++) {
+			rank[order[r]] = r;
+		}
+
+		// Eliminación simbólica en orden de rango: los vecinos superiores de cada nodo pasan a ser vecinos
+		// de su padre en el árbol de eliminación (el de menor rango), lo que completa los triángulos
+		int[][] upper = new int[nn][];
+		for (int r = 0; r < nn; r++) {
+			int v = order[r];
+			int[] up = new int[adjOffsets[v + 1] - adjOffsets[v]];
+			int k = 0;
+			for (int i = adjOffsets[v]; i < adjOffsets[v + 1]; i++) {
+				if (rank[adjacency[i]] > r) {
+					up[k++] = rank[adjacency[i]];
+				}
+			}
+			upper[r] = sortedUnique(up, k);
+		}
+		for (int r = 0; r < nn; r++) {
+			int[] up = upper[r];
+			if (up.length > 1) {
+				upper[up[0]] = union(upper[up[0]], up, 1);
+			}
+		}
+
+		// Aristas hacia rangos mayores, por rango y ordenadas (la primera es el padre en el árbol de eliminación)
+		int[] offsets = new int[nn + 1];
+		for (int i = 0; i < nn; i++) {
+			offsets[i + 1] = offsets[i] + upper[i].length;
+		}
+		int ne = offsets[nn];
+		int[] targets = new int[ne];
+		int[] sources = new int[ne];
+		for (int i = 0; i < nn; i++) {
+			System.arraycopy(upper[i], 0, targets, offsets[i], upper[i].length);
+			Arrays.fill(sources, offsets[i], offsets[i + 1], i);
+		}
+
+		// Arista y sentido de cada arco original
+		IntBuffer offsetView = IntBuffer.wrap(offsets);
+		IntBuffer targetView = IntBuffer.wrap(targets);
+		int na = arcs.length / 2;
+		int[] arcData = new int[3 * na];
+		for (int i = 0; i < na; i++) {
+			int a = arcs[2 * i];
+			int b = arcs[2 * i + 1];
+			int ra = rank[a];
+			int rb = rank[b];
+			int e = findEdge(offsetView, targetView, Math.min(ra, rb), Math.max(ra, rb));
+			arcData[3 * i] = (e << 1) | ((ra < rb) ? UP : DOWN);
+			arcData[3 * i + 1] = a;
+			arcData[3 * i + 2] = b;
+		}
+
+		try (FileChannel out = FileChannel.open(Paths.get(file), StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+				StandardOpenOption.TRUNCATE_EXISTING)) {
+			ByteBuffer buffer = ByteBuffer.allocate(1 << 16).order(ByteOrder.LITTLE_ENDIAN);
+			buffer.putInt(MAGIC);
+			buffer.putInt(FORMAT_VERSION);
+			buffer.putLong(fingerprint(graph));
+			buffer.putInt(nn);
+			buffer.putInt(ne);
+			buffer.putInt(na);
+			writeInts(out, buffer, order);
+			writeInts(out, buffer, rank);
+			writeInts(out, buffer, offsets);
+			writeInts(out, buffer, targets);
+			writeInts(out, buffer, sources);
+			writeInts(out, buffer, arcData);
+			flush(out, buffer);
+		}
+	}
+
+	/**
+	 * Orden por disección anidada sin coordenadas: en cada parte se hace un recorrido en anchura desde un
+	 * nodo pseudo-periférico y se toma como separador un nivel pequeño cerca de la mitad. El separador recibe
+	 * los rangos más altos de la parte y el resto se divide en componentes conexas que se ordenan igual
+	 * @return order[rango] = nodo
+	 */
+	private static int[] nestedDissection(int nn, int[] adjOffsets, int[] adjacency) {
+		int[] order = new int[nn];
+		int next = nn - 1;
+		int[] part = new int[nn]; // parte a la que pertenece cada nodo (-1: ya ordenado)
+		int[] level = new int[nn];
+		int[] queue = new int[nn];
+		int parts = 1;
+		ArrayDeque<int[]> pending = new ArrayDeque<>();
+		for (int[] component : components(null, nn, 0, adjOffsets, adjacency, part, ++parts, queue)) {
+			pending.push(component);
+		}
+		while (!pending.isEmpty()) {
+			int[] set = pending.pop();
+			int id = ++parts;
+			for (int v : set) {
+				part[v] = id;
+			}
+			int levels = 0;
+			if (set.length > LEAF_SIZE) {
+				// Nodo pseudo-periférico: el más lejano del más lejano
+				int root = set[0];
+				for (int i = 0; i < 2; i++) {
+					bfs(root, id, adjOffsets, adjacency, part, level, queue);
+					root = queue[set.length - 1];
+				}
+				levels = bfs(root, id, adjOffsets, adjacency, part, level, queue);
+			}
+			if (levels < 3) {
+				// Parte pequeña (o casi completa): se ordena tal cual
+				for (int v : set) {
+					order[next--] = v;
+					part[v] = -1;
+				}
+				continue;
+			}
+			int separator = separatorLevel(set.length, levels, level, queue);
+			// Los nodos del nivel sin vecinos en uno de los lados no hace falta que separen: pasan al otro lado
+			for (int v : set) {
+				if (level[v] != separator) {
+					continue;
+				}
+				boolean before = false;
+				boolean after = false;
+				for (int i = adjOffsets[v]; i < adjOffsets[v + 1]; i++) {
+					int w = adjacency[i];
+					if (part[w] == id && level[w] != separator) {
+						before |= level[w] < separator;
+						after |= level[w] > separator;
+					}
+				}
+				if (!after) {
+					level[v] = separator - 1;
+				} else if (!before) {
+					level[v] = separator + 1;
+				}
+			}
+			for (int v : set) {
+				if (level[v] == separator) {
+					order[next--] = v;
+					part[v] = -1;
+				}
+			}
+			for (int[] component : components(set, set.length, id, adjOffsets, adjacency, part, ++parts, queue)) {
+				pending.push(component);
+			}
+		}
+		return order;
+	}
+
+	/**
+	 * Recorrido en anchura dentro de una parte: deja los nodos en queue por niveles
+	 * @return número de niveles
+	 */
+	private static int bfs(int root, int id, int[] adjOffsets, int[] adjacency, int[] part, int[] level, int[] queue) {
+		int head = 0;
+		int tail = 0;
+		queue[tail++] = root;
+		part[root] = -id; // Marca de visitado durante el recorrido
+		level[root] = 0;
+		while (head < tail) {
+			int v = queue[head++];
+			for (int i = adjOffsets[v]; i < adjOffsets[v + 1]; i++) {
+				int w = adjacency[i];
+				if (part[w] == id) {
+					part[w] = -id;
+					level[w] = level[v] + 1;
+					queue[tail++] = w;
+				}
+			}
+		}
+		for (int i = 0; i < tail; i++) {
+			part[queue[i]] = id;
+		}
+		return level[queue[tail - 1]] + 1;
+	}
+
+	/**
+	 * Nivel separador: el más pequeño de los que dejan entre un cuarto y tres cuartos de la parte a cada lado
+	 * (queue contiene la parte ordenada por niveles)
+	 */
+	private static int separatorLevel(int size, int levels, int[] level, int[] queue) {
+		int[] count = new int[levels];
+		for (int i = 0; i < size; i++) {
+			count[level[queue[i]]]++;
+		}
+		int best = -1;
+		int before = 0;
+		int half = -1;
+		for (int l = 0; l < levels; l++) {
+			if (l > 0 && l < levels - 1) {
+				if (half < 0 && before + count[l] >= size / 2) {
+					half = l;
+				}
+				if (4 * before >= size && 4 * (before + count[l]) <= 3 * size && (best < 0 || count[l] < count[best])) {
+					best = l;
+				}
+			}
+			before += count[l];
+		}
+		return (best >= 0) ? best : Math.max(1, Math.min(half, levels - 2));
+	}
+
+	/**
+	 * Componentes conexas de los nodos de 'set' (todos los nodos si es null) que siguen en la parte 'id'
+	 */
+	private static List<int[]> components(int[] set, int size, int id, int[] adjOffsets, int[] adjacency, int[] part, int mark, int[] queue) {
+		List<int[]> result = new ArrayList<>();
+		for (int i = 0; i < size; i++) {
+			int v = (set != null) ? set[i] : i;
+			if (part[v] != id) {
+				continue;
+			}
+			int head = 0;
+			int tail = 0;
+			queue[tail++] = v;
+			part[v] = mark;
+			while (head < tail) {
+				int x = queue[head++];
+				for (int j = adjOffsets[x]; j < adjOffsets[x + 1]; j++) {
+					int w = adjacency[j];
+					if (part[w] == id) {
+						part[w] = mark;
+						queue[tail++] = w;
+					}
+				}
+			}
+			result.add(Arrays.copyOf(queue, tail));
+		}
+		return result;
+	}
+
+	private static int[] sortedUnique(int[] values, int length) {
+		Arrays.sort(values, 0, length);
+		int k = 0;
+		for (int i = 0; i < length; i++) {
+			if (k == 0 || values[i] != values[k - 1]) {
+				values[k++] = values[i];
+			}
+		}
+		return Arrays.copyOf(values, k);
+	}
+
+	/**
+	 * Unión de dos arrays ordenados (de b sólo a partir de 'from')
+	 */
+	private static int[] union(int[] a, int[] b, int from) {
+		int[] r = new int[a.length + b.length - from];
+		int i = 0;
+		int j = from;
+		int k = 0;
+		while (i < a.length || j < b.length) {
+			int v;
+			if (j >= b.length || (i < a.length && a[i] < b[j])) {
+				v = a[i++];
+			} else if (i >= a.length || b[j] < a[i]) {
+				v = b[j++];
+			} else {
+				v = a[i++];
+				j++;
+			}
+			r[k++] = v;
+		}
+		return Arrays.copyOf(r, k);
+	}
+
+	/**
+	 * Arcos del grafo como pares (origen, destino): avance por cada segmento y conexiones entre segmentos
+	 */
+	private static int[] originalArcs(RoutePlanner graph) {
+		int nn = graph.nodeCount();
+		int[] arcs = new int[2 * (nn + graph.connectionCount())];
+		int k = 0;
+		for (int n = 0; n < nn; n++) {
+			int s = graph.nodeSegment[n];
+			if (n + 1 < graph.segNodes[s + 1]) {
+				arcs[k++] = n;
+				arcs[k++] = n + 1;
+			}
+			for (int i = graph.outOffsets[n]; i < graph.outOffsets[n + 1]; i++) {
+				arcs[k++] = n;
+				arcs[k++] = graph.outTargets[i];
+			}
+		}
+		return Arrays.copyOf(arcs, k);
+	}
+
+	/**
+	 * Huella del grafo (segmentos, nodos y conexiones) para no usar un fichero de otra red
+	 */
+	static long fingerprint(RoutePlanner graph) {
+		long h = 0xcbf29ce484222325L;
+		RoadNetwork network = graph.getNetwork();
+		h = mix(h, network.getSegmentCount());
+		for (int s = 0; s < network.getSegmentCount(); s++) {
+			h = mix(h, network.getSegmentCode(s).hashCode());
+		}
+		int nn = graph.nodeCount();
+		h = mix(h, nn);
+		for (int n = 0; n < nn; n++) {
+			h = mix(h, graph.nodeSegment[n]);
+			h = mix(h, graph.nodePosition[n]);
+			for (int i = graph.outOffsets[n]; i < graph.outOffsets[n + 1]; i++) {
+				h = mix(h, graph.outTargets[i]);
+			}
+		}
+		return h;
+	}
+
+	private static long mix(long h, int value) {
+		// FNV-1a, un entero cada vez
+		return (h ^ value) * 0x100000001b3L;
+	}
+
+	private static void writeInts(FileChannel out, ByteBuffer buffer, int[] values) throws IOException {
+		for (int v : values) {
+			if (buffer.remaining() < 4) {
+				flush(out, buffer);
+			}
+			buffer.putInt(v);
+		}
+	}
+
+	private static void flush(FileChannel out, ByteBuffer buffer) throws IOException {
+		buffer.flip();
+		while (buffer.hasRemaining()) {
+			out.write(buffer);
+		}
+		buffer.clear();
+	}
+
+	// ------------------------------------------------------------
+	// Carga
+	// ------------------------------------------------------------
+
+	/**
+	 * Proyecta en memoria una jerarquía creada con build para el mismo grafo
+	 */
+	public static ContractionHierarchy open(RoutePlanner graph, String file) throws IOException {
+		try (FileChannel channel = FileChannel.open(Paths.get(file), StandardOpenOption.READ)) {
+			long size = channel.size();
+			if (size < HEADER_BYTES) {
+				throw new IOException("Invalid route index " + file + " (truncated)");
+			}
+			MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+			buffer.order(ByteOrder.LITTLE_ENDIAN);
+			if (buffer.getInt(0) != MAGIC) {
+				throw new IOException("Invalid route index " + file + " (bad magic)");
+			}
+			int version = buffer.getInt(4);
+			if (version != FORMAT_VERSION) {
+				throw new IOException("Unsupported route index version " + version + " in " + file + " (expected " + FORMAT_VERSION + ")");
+			}
+			if (buffer.getLong(8) != fingerprint(graph) || buffer.getInt(16) != graph.nodeCount()) {
+				throw new IOException("Route index " + file + " was built for another road network or connections file (rebuild it)");
+			}
+			int nodes = buffer.getInt(16);
+			int edges = buffer.getInt(20);
+			int arcs = buffer.getInt(24);
+			long expected = HEADER_BYTES + 4L * (3L * nodes + 1 + 2L * edges + 3L * arcs);
+			if (edges < 0 || arcs < 0 || size != expected) {
+				throw new IOException("Invalid route index " + file + " (" + size + " bytes, expected " + expected + ")");
+			}
+			return new ContractionHierarchy(graph, file, buffer, nodes, edges, arcs);
+		}
+	}
+
+	private static IntBuffer view(ByteBuffer buffer, int offset, int count) {
+		ByteBuffer b = buffer.duplicate();
+		b.position(offset);
+		b = b.slice();
+		b.limit(4 * count);
+		return b.order(ByteOrder.LITTLE_ENDIAN).asIntBuffer();
+	}
+
+	// ------------------------------------------------------------
+	// Personalización
+	// ------------------------------------------------------------
+
+	@Override
+	public void onSegmentWeightChanged(String segment, int previousSpeed, int currentSpeed) {
+		this.dirty = true;
+	}
+
+	/**
+	 * Recalcula los pesos de la jerarquía con las velocidades actuales del planificador
+	 */
+	public synchronized void customize() {
+		// Un cambio de velocidad durante la personalización la vuelve a marcar como obsoleta
+		this.dirty = false;
+		double[] up = new double[this.edges];
+		double[] down = new double[this.edges];
+		int[] upMiddle = new int[this.edges];
+		int[] downMiddle = new int[this.edges];
+		Arrays.fill(up, Double.POSITIVE_INFINITY);
+		Arrays.fill(down, Double.POSITIVE_INFINITY);
+		Arrays.fill(upMiddle, -1);
+		Arrays.fill(downMiddle, -1);
+
+		// Arcos originales
+		RoutePlanner g = this.graph;
+		for (int i = 0; i < this.arcs; i++) {
+			int data = this.arcData.get(3 * i);
+			int a = this.arcData.get(3 * i + 1);
+			int b = this.arcData.get(3 * i + 2);
+			int s = g.nodeSegment[a];
+			double w = (s == g.nodeSegment[b]) ? g.travelTime(s, Math.abs(g.nodePosition[b] - g.nodePosition[a]), false) : 0;
+			int e = data >>> 1;
+			if ((data & 1) == UP) {
+				up[e] = Math.min(up[e], w);
+			} else {
+				down[e] = Math.min(down[e], w);
+			}
+		}
+
+		// Triángulos inferiores u-v-w (u < v < w): v->w puede ir por u, y w->v también.
+		// edgeTo[w] = arista v-w de las aristas superiores de v
+		int[] edgeTo = new int[this.nodes];
+		for (int u = 0; u < this.nodes; u++) {
+			int first = this.upOffsets.get(u);
+			int last = this.upOffsets.get(u + 1);
+			for (int i = first; i < last; i++) {
+				int v = this.upTargets.get(i);
+				int vLast = this.upOffsets.get(v + 1);
+				for (int k = this.upOffsets.get(v); k < vLast; k++) {
+					edgeTo[this.upTargets.get(k)] = k;
+				}
+				for (int j = i + 1; j < last; j++) {
+					int vw = edgeTo[this.upTargets.get(j)];
+					double c = down[i] + up[j];
+					if (c < up[vw]) {
+						up[vw] = c;
+						upMiddle[vw] = u;
+					}
+					c = down[j] + up[i];
+					if (c < down[vw]) {
+						down[vw] = c;
+						downMiddle[vw] = u;
+					}
+				}
+			}
+		}
+
+		// Personalización perfecta (de arriba abajo): con los triángulos intermedios y superiores cada arista
+		// pasa a valer la distancia mínima real. Las que mejoran no hacen falta en ningún camino mínimo
+		// (hay otro mejor por nodos más altos) y se descartan para las consultas
+		double[] exactUp = up.clone();
+		double[] exactDown = down.clone();
+		for (int x = this.nodes - 1; x >= 0; x--) {
+			int first = this.upOffsets.get(x);
+			int last = this.upOffsets.get(x + 1);
+			for (int i = first; i < last; i++) {
+				int y = this.upTargets.get(i);
+				int yLast = this.upOffsets.get(y + 1);
+				for (int k = this.upOffsets.get(y); k < yLast; k++) {
+					edgeTo[this.upTargets.get(k)] = k;
+				}
+				for (int j = i + 1; j < last; j++) {
+					int yz = edgeTo[this.upTargets.get(j)];
+					// x-y por z
+					exactUp[i] = Math.min(exactUp[i], exactUp[j] + exactDown[yz]);
+					exactDown[i] = Math.min(exactDown[i], exactUp[yz] + exactDown[j]);
+					// x-z por y
+					exactUp[j] = Math.min(exactUp[j], exactUp[i] + exactUp[yz]);
+					exactDown[j] = Math.min(exactDown[j], exactDown[yz] + exactDown[i]);
+				}
+			}
+		}
+		this.metric = new Metric(this.prune(up, exactUp), this.prune(down, exactDown), upMiddle, downMiddle);
+		this.customizations++;
+	}
+
+	/**
+	 * Aristas útiles en un sentido: las transitables cuyo peso no mejora en la personalización perfecta
+	 */
+	private Arcs prune(double[] weight, double[] exact) {
+		int[] offsets = new int[this.nodes + 1];
+		for (int x = 0; x < this.nodes; x++) {
+			int count = 0;
+			for (int e = this.upOffsets.get(x); e < this.upOffsets.get(x + 1); e++) {
+				if (weight[e] < Double.POSITIVE_INFINITY && weight[e] == exact[e]) {
+					count++;
+				}
+			}
+			offsets[x + 1] = offsets[x] + count;
+		}
+		Arcs arcs = new Arcs(offsets);
+		int k = 0;
+		for (int e = 0; e < this.edges; e++) {
+			if (weight[e] < Double.POSITIVE_INFINITY && weight[e] == exact[e]) {
+				arcs.target[k] = this.upTargets.get(e);
+				arcs.weight[k] = weight[e];
+				arcs.edge[k] = e;
+				k++;
+			}
+		}
+		return arcs;
+	}
+
+	private Metric currentMetric() {
+		if (this.dirty) {
+			synchronized (this) {
+				if (this.dirty) {
+					this.customize();
+				}
+			}
+		}
+		return this.metric;
+	}
+
+	// ------------------------------------------------------------
+	// Consultas
+	// ------------------------------------------------------------
+
+	/**
+	 * Camino mínimo entre dos nodos del grafo con los pesos de la última personalización
+	 * @return nodos del camino de source a target, o null si no hay camino
+	 */
+	public int[] findPath(int source, int target) {
+		Metric m = this.currentMetric();
+		Query q = this.queries.get();
+		q.reset();
+		int rs = this.rank.get(source);
+		int rt = this.rank.get(target);
+
+		// Subida por el árbol de eliminación desde el origen (arcos hacia arriba) y desde el destino (hacia
+		// abajo), en orden de rango. Los antecesores comunes son los posibles puntos de encuentro; un nodo
+		// cuya distancia ya supera el mejor camino encontrado no se expande
+		q.reach(q.forward, rs, 0, -1);
+		q.reach(q.backward, rt, 0, -1);
+		int meet = -1;
+		double best = Double.POSITIVE_INFINITY;
+		int x = rs;
+		int y = rt;
+		while (x >= 0 || y >= 0) {
+			if (x >= 0 && (y < 0 || x < y)) {
+				this.relaxUpward(q, q.forward, x, m.up, best);
+				x = this.parent(x);
+			} else if (x < 0 || y < x) {
+				this.relaxUpward(q, q.backward, y, m.down, best);
+				y = this.parent(y);
+			} else {
+				if (q.isReached(q.forward, x) && q.isReached(q.backward, x)) {
+					double d = q.forward.distance[x] + q.backward.distance[x];
+					if (d < best) {
+						best = d;
+						meet = x;
+					}
+				}
+				this.relaxUpward(q, q.forward, x, m.up, best);
+				this.relaxUpward(q, q.backward, x, m.down, best);
+				x = this.parent(x);
+				y = x;
+			}
+		}
+		if (meet < 0) {
+			return null;
+		}
+
+		// Aristas del camino en la jerarquía: origen -> encuentro (subiendo) y encuentro -> destino (bajando)
+		q.pathSize = 0;
+		for (int n = meet; n != rs; n = this.upSources.get(q.forward.edge[n])) {
+			q.pushPath((q.forward.edge[n] << 1) | UP);
+		}
+		q.reversePath();
+		for (int n = meet; n != rt; n = this.upSources.get(q.backward.edge[n])) {
+			q.pushPath((q.backward.edge[n] << 1) | DOWN);
+		}
+		return this.unpack(q, m, source);
+	}
+
+	private void relaxUpward(Query q, Side side, int x, Arcs arcs, double bound) {
+		if (!q.isReached(side, x) || side.distance[x] >= bound) {
+			return;
+		}
+		double dx = side.distance[x];
+		for (int a = arcs.offsets[x]; a < arcs.offsets[x + 1]; a++) {
+			double d = dx + arcs.weight[a];
+			int y = arcs.target[a];
+			if (!q.isReached(side, y) || d < side.distance[y]) {
+				q.reach(side, y, d, arcs.edge[a]);
+			}
+		}
+	}
+
+	/**
+	 * Desempaqueta los atajos: un atajo v->w por u es v->u seguido de u->w
+	 */
+	private int[] unpack(Query q, Metric m, int source) {
+		q.nodeCount = 0;
+		q.pushNode(source);
+		for (int i = 0; i < q.pathSize; i++) {
+			q.stackSize = 0;
+			q.pushStack(q.path[i]);
+			while (q.stackSize > 0) {
+				int item = q.stack[--q.stackSize];
+				int e = item >>> 1;
+				int dir = item & 1;
+				int low = this.upSources.get(e);
+				int high = this.upTargets.get(e);
+				int middle = (dir == UP) ? m.upMiddle[e] : m.downMiddle[e];
+				if (middle < 0) {
+					q.pushNode(this.order.get((dir == UP) ? high : low));
+					continue;
+				}
+				int lowEdge = findEdge(this.upOffsets, this.upTargets, middle, low);
+				int highEdge = findEdge(this.upOffsets, this.upTargets, middle, high);
+				if (dir == UP) {
+					// low -> middle -> high (se apila al revés)
+					q.pushStack((highEdge << 1) | UP);
+					q.pushStack((lowEdge << 1) | DOWN);
+				} else {
+					// high -> middle -> low
+					q.pushStack((lowEdge << 1) | UP);
+					q.pushStack((highEdge << 1) | DOWN);
+				}
+			}
+		}
+		return Arrays.copyOf(q.nodePath, q.nodeCount);
+	}
+
+	private int parent(int x) {
+		int first = this.upOffsets.get(x);
+		return (first < this.upOffsets.get(x + 1)) ? this.upTargets.get(first) : -1;
+	}
+
+	private static int findEdge(IntBuffer offsets, IntBuffer targets, int low, int high) {
+		int lo = offsets.get(low);
+		int hi = offsets.get(low + 1) - 1;
+		while (lo <= hi) {
+			int mid = (lo + hi) >>> 1;
+			int t = targets.get(mid);
+			if (t < high) {
+				lo = mid + 1;
+			} else if (t > high) {
+				hi = mid - 1;
+			} else {
+				return mid;
+			}
+		}
+		throw new IllegalStateException("Missing edge " + low + "-" + high + " in route index");
+	}
+
+	// ------------------------------------------------------------
+	// Información
+	// ------------------------------------------------------------
+
+	public RoutePlanner getGraph() {
+		return this.graph;
+	}
+
+	public int nodeCount() {
+		return this.nodes;
+	}
+
+	public int edgeCount() {
+		return this.edges;
+	}
+
+	public synchronized long getCustomizations() {
+		return this.customizations;
+	}
+
+	@Override
+	public String toString() {
+		return "ContractionHierarchy[" + this.file + ": " + this.nodes + " nodes, " + this.edges + " edges, "
+				+ this.arcs + " arcs]";
+	}
+
+	/**
+	 * Pesos de una personalización (inmutable una vez publicada)
+	 */
+	private static final class Metric {
+		final Arcs up; // hacia el rango mayor
+		final Arcs down; // desde el rango mayor (por el nodo de rango menor)
+		final int[] upMiddle; // nodo intermedio de cada atajo (-1: arco original)
+		final int[] downMiddle;
+
+		Metric(Arcs up, Arcs down, int[] upMiddle, int[] downMiddle) {
+			this.up = up;
+			this.down = down;
+			this.upMiddle = upMiddle;
+			this.downMiddle = downMiddle;
+		}
+	}
+
+	/**
+	 * Aristas útiles de un sentido por nodo de rango menor (CSR en el heap)
+	 */
+	private static final class Arcs {
+		final int[] offsets;
+		final int[] target;
+		final double[] weight;
+		final int[] edge; // arista de la jerarquía (para reconstruir el camino)
+
+		Arcs(int[] offsets) {
+			int n = offsets[offsets.length - 1];
+			this.offsets = offsets;
+			this.target = new int[n];
+			this.weight = new double[n];
+			this.edge = new int[n];
+		}
+	}
+
+	/**
+	 * Distancias de una de las dos búsquedas
+	 */
+	private static final class Side {
+		final double[] distance;
+		final int[] edge; // arista por la que se ha llegado (-1: raíz)
+		final int[] reached;
+
+		Side(int nodes) {
+			this.distance = new double[nodes];
+			this.edge = new int[nodes];
+			this.reached = new int[nodes];
+		}
+	}
+
+	/**
+	 * Estado de una consulta (reutilizable: cada hilo tiene el suyo). Las marcas por generación evitan
+	 * limpiar los arrays en cada consulta
+	 */
+	private static final class Query {
+		final Side forward;
+		final Side backward;
+		int generation = 1;
+
+		int[] path = new int[64];
+		int pathSize = 0;
+		int[] stack = new int[64];
+		int stackSize = 0;
+		int[] nodePath = new int[64];
+		int nodeCount = 0;
+
+		Query(int nodes) {
+			this.forward = new Side(nodes);
+			this.backward = new Side(nodes);
+		}
+
+		void reset() {
+			this.generation++;
+		}
+
+		boolean isReached(Side side, int x) {
+			return side.reached[x] == this.generation;
+		}
+
+		void reach(Side side, int x, double distance, int edge) {
+			side.distance[x] = distance;
+			side.edge[x] = edge;
+			side.reached[x] = this.generation;
+		}
+
+		void pushPath(int item) {
+			if (this.pathSize == this.path.length) {
+				this.path = Arrays.copyOf(this.path, this.pathSize * 2);
+			}
+			this.path[this.pathSize++] = item;
+		}
+
+		void reversePath() {
+			for (int i = 0, j = this.pathSize - 1; i < j; i++, j--) {
+				int t = this.path[i];
+				this.path[i] = this.path[j];
+				this.path[j] = t;
+			}
+		}
+
+		void pushStack(int item) {
+			if (this.stackSize == this.stack.length) {
+				this.stack = Arrays.copyOf(this.stack, this.stackSize * 2);
+			}
+			this.stack[this.stackSize++] = item;
+		}
+
+		void pushNode(int node) {
+			if (this.nodeCount == this.nodePath.length) {
+				this.nodePath = Arrays.copyOf(this.nodePath, this.nodeCount * 2);
+			}
+			this.nodePath[this.nodeCount++] = node;
+		}
+	}
+}
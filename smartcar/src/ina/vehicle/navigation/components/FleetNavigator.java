@@ -0,0 +1,812 @@
+package ina.vehicle.navigation.components;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+import ina.vehicle.navigation.interfaces.INavigator;
+import ina.vehicle.navigation.interfaces.IRoadPoint;
+import ina.vehicle.navigation.interfaces.IRoadSegment;
+import ina.vehicle.navigation.interfaces.IRoute;
+import ina.vehicle.navigation.interfaces.IRouteFragment;
+import ina.vehicle.navigation.types.ENavigatorStatus;
+import ina.vehicle.navigation.utils.MySimpleLogger;
+
+/**
+ * Motor de movimiento por lotes para flotas grandes.
+ *
+ * Equivale a un Navigator por vehículo, pero guarda el estado de toda la flota en arrays de tipos
+ * primitivos (struct-of-arrays) en lugar de un MyBean por vehículo:
+ *
+ *   - segment[v], position[v]: posición actual (segmento como id entero, ver getSegmentName)
+ *   - speed[v]: velocidad actual en km/h
+ *   - cursor[v]: fragmento de ruta que se está recorriendo (índice en los arrays de fragmentos)
+ *   - status[v]: código de ENavigatorStatus
+ *
+ * Los fragmentos de todas las rutas se guardan contiguos en arrays de enteros; cada vehículo
+ * conoce el rango [routeStart, routeEnd) de los suyos. Consumir un fragmento es avanzar el cursor.
+ * Los vehículos que siguen un mismo RoutePlan comparten el rango de fragmentos del plan.
+ *
+ * Al cambiar de ruta, una ruta propia se escribe sobre el rango anterior del vehículo si cabe en él,
+ * y un plan compartido se libera cuando deja de seguirlo el último vehículo. Los fragmentos que ya
+ * no usa nadie se recuperan al principio de step(), compactando los arrays cuando son más de la
+ * mitad del total (entre dos pasos los índices de ruta de un vehículo no cambian).
+ *
+ * step() avanza todos los vehículos en un único bucle sin reservar memoria ni consultar mapas,
+ * repartido entre núcleos con fork/join. El movimiento de cada vehículo reproduce exactamente
+ * Navigator.move / Navigator._move (incluido el cálculo de la distancia recorrida).
+ *
+ * newNavigator da a cada SmartCar una vista INavigator de su plaza en la flota (VehicleNavigator):
+ * el vehículo calcula su velocidad y replanifica como con un Navigator, y la flota los mueve a todos
+ * a la vez con step() (así lo hace HeadlessSimulation). Las plazas de los vehículos retirados con
+ * removeVehicle se reutilizan.
+ *
+ * Las altas, bajas y cambios de ruta están sincronizados y se pueden hacer desde varios hilos entre
+ * dos pasos (p.ej. los vehículos que replanifican en paralelo), pero no mientras se ejecuta step().
+ */
+public class FleetNavigator {
+
+	public static final byte WAITING = (byte) ENavigatorStatus.WAITING.getCode();
+	public static final byte ROUTING = (byte) ENavigatorStatus.ROUTING.getCode();
+	public static final byte STOPPED = (byte) ENavigatorStatus.STOPPED.getCode();
+	public static final byte REACHED_DESTINATION = (byte) ENavigatorStatus.REACHED_DESTINATION.getCode();
+
+	static final int INITIAL_CAPACITY = 1024;
+	static final int SPLIT_THRESHOLD = 4096; // Vehículos por tarea fork/join
+	static final int COMPACT_THRESHOLD = INITIAL_CAPACITY; // Fragmentos libres mínimos para compactar
+
+	private static final ENavigatorStatus[] STATUSES = ENavigatorStatus.values();
+
+	private final String id;
+	private final ForkJoinPool pool;
+
+	// Segmentos internados: id denso <-> código
+	private final Map<String, Integer> segmentIds = new HashMap<>();
+	private String[] segmentNames = new String[64];
+	private int segmentCount = 0;
+
+	// Estado de los vehículos
+	private int size = 0;
+	private int[] segment = new int[INITIAL_CAPACITY];
+	private int[] position = new int[INITIAL_CAPACITY];
+	private int[] speed = new int[INITIAL_CAPACITY];
+	private int[] cursor = new int[INITIAL_CAPACITY];
+	private int[] routeStart = new int[INITIAL_CAPACITY];
+	private int[] routeEnd = new int[INITIAL_CAPACITY];
+	private byte[] status = new byte[INITIAL_CAPACITY];
+	// Ruta de cada vehículo: plan compartido (plan[v]) o rango propio [ownStart, ownStart + ownCapacity)
+	private RoutePlan[] plan = new RoutePlan[INITIAL_CAPACITY];
+	private int[] ownStart = new int[INITIAL_CAPACITY];
+	private int[] ownCapacity = new int[INITIAL_CAPACITY];
+	// Plazas de vehículos retirados (se reutilizan en las altas)
+	private int[] freeVehicles = new int[64];
+	private int freeVehicleCount = 0;
+
+	// Fragmentos de ruta de todos los vehículos
+	private int fragmentCount = 0;
+	private int freeFragments = 0; // Fragmentos que ya no usa ningún vehículo (se recuperan en compact)
+	private int[] fragStartSeg = new int[INITIAL_CAPACITY];
+	private int[] fragStartPos = new int[INITIAL_CAPACITY];
+	private int[] fragEndSeg = new int[INITIAL_CAPACITY];
+	private int[] fragEndPos = new int[INITIAL_CAPACITY];
+	// Planes compartidos almacenados -> posición de su primer fragmento y vehículos que los siguen
+	private final Map<RoutePlan, PlanSlot> planSlots = new IdentityHashMap<>();
+
+	public FleetNavigator(String id) {
+		this(id, ForkJoinPool.commonPool());
+	}
+
+	public FleetNavigator(String id, ForkJoinPool pool) {
+		this.id = id;
+		this.pool = pool;
+	}
+
+	public String getId() {
+		return this.id;
+	}
+
+	public int size() {
+		return this.size;
+	}
+
+	// ------------------------------------------------------------
+	// Altas y rutas
+	// ------------------------------------------------------------
+
+	/**
+	 * Añade un vehículo con la ruta indicada y empieza a navegar (como Navigator.setRoute + startRouting).
+	 * La ruta se copia: el IRoute recibido no se modifica.
+	 * @return índice del vehículo en la flota
+	 */
+	public synchronized int addVehicle(IRoute route, int speedKmh) {
+		int v = this.newVehicle();
+		this.speed[v] = speedKmh;
+		this.setRoute(v, route);
+		this.startRouting(v);
+		return v;
+	}
+
+	/**
+	 * Añade un vehículo que sigue un plan de ruta compartido
+	 */
+	public int addVehicle(RoutePlan plan, int speedKmh) {
+		return this.addVehicle(plan.newCursor(), speedKmh);
+	}
+
+	/**
+	 * Añade un vehículo sin ruta (WAITING) y devuelve su vista INavigator.
+	 * La ruta se asigna con INavigator.setRoute, como con un Navigator.
+	 */
+	public synchronized VehicleNavigator newNavigator(String navigatorId) {
+		return new VehicleNavigator(navigatorId, this.newVehicle());
+	}
+
+	/**
+	 * Retira el vehículo de la flota: libera su ruta y la plaza se reutiliza en la siguiente alta
+	 */
+	public synchronized void removeVehicle(int v) {
+		this.releasePlan(v);
+		this.releaseOwn(v);
+		this.routeStart[v] = this.routeEnd[v] = this.cursor[v] = 0;
+		this.speed[v] = 0;
+		this.status[v] = WAITING;
+		if (this.freeVehicleCount == this.freeVehicles.length) {
+			this.freeVehicles = Arrays.copyOf(this.freeVehicles, this.freeVehicleCount * 2);
+		}
+		this.freeVehicles[this.freeVehicleCount++] = v;
+	}
+
+	/**
+	 * Vehículos en la flota (sin contar las plazas libres)
+	 */
+	public int getVehicleCount() {
+		return this.size - this.freeVehicleCount;
+	}
+
+	/**
+	 * Asigna una ruta nueva al vehículo y lo ubica en su punto de inicio.
+	 * Si la ruta es un RouteCursor sus fragmentos no se copian: se comparten con el resto de
+	 * vehículos que siguen el mismo plan.
+	 */
+	public synchronized void setRoute(int v, IRoute route) {
+		if (route instanceof RouteCursor) {
+			RouteCursor c = (RouteCursor) route;
+			this.setRoute(v, c.getPlan(), c.getIndex());
+			return;
+		}
+		int n = (route != null) ? route.size() : 0;
+		this.releasePlan(v);
+		int start;
+		if (n <= this.ownCapacity[v]) {
+			// Cabe en el rango del vehículo: se reutiliza
+			start = this.ownStart[v];
+		} else {
+			this.releaseOwn(v);
+			start = this.allocate(n);
+			this.ownStart[v] = start;
+			this.ownCapacity[v] = n;
+		}
+		for (int i = 0; i < n; i++) {
+			this.writeFragment(start + i, route.get(i));
+		}
+		this.routeStart[v] = start;
+		this.routeEnd[v] = start + n;
+		this.cursor[v] = start;
+		if (n > 0) {
+			this.segment[v] = this.fragStartSeg[start];
+			this.position[v] = this.fragStartPos[start];
+		}
+	}
+
+	/**
+	 * Asigna al vehículo un plan de ruta compartido, empezando en el fragmento 'from'.
+	 * Los fragmentos de cada plan se guardan una sola vez en la flota.
+	 */
+	public synchronized void setRoute(int v, RoutePlan plan, int from) {
+		this.releaseOwn(v);
+		if (this.plan[v] != plan) {
+			this.releasePlan(v);
+			PlanSlot slot = this.planSlots.get(plan);
+			if (slot == null) {
+				int n = plan.size();
+				slot = new PlanSlot(this.allocate(n));
+				for (int i = 0; i < n; i++) {
+					this.writeFragment(slot.offset + i, plan.getFragment(i));
+				}
+				this.planSlots.put(plan, slot);
+			}
+			slot.vehicles++;
+			this.plan[v] = plan;
+		}
+		int offset = this.planSlots.get(plan).offset;
+		int start = offset + Math.min(from, plan.size());
+		this.routeStart[v] = start;
+		this.routeEnd[v] = offset + plan.size();
+		this.cursor[v] = start;
+		if (start < this.routeEnd[v]) {
+			this.segment[v] = this.fragStartSeg[start];
+			this.position[v] = this.fragStartPos[start];
+		}
+	}
+
+	/**
+	 * Fragmentos almacenados en uso (rangos propios y planes compartidos)
+	 */
+	public int getStoredFragments() {
+		return this.fragmentCount - this.freeFragments;
+	}
+
+	/**
+	 * Equivalente a Navigator.startRouting
+	 */
+	public void startRouting(int v) {
+		boolean hasRoute = this.cursor[v] < this.routeEnd[v];
+		switch (this.status[v]) {
+			case 0: // WAITING
+				if (!hasRoute) {
+					MySimpleLogger.error(this.id, "Route not defined for vehicle " + v + ". Cannot start navigation ...");
+					return;
+				}
+				this.status[v] = ROUTING;
+				break;
+			case 2: // STOPPED
+				this.status[v] = ROUTING;
+				break;
+			case 3: // REACHED_DESTINATION
+				if (hasRoute) {
+					this.status[v] = ROUTING;
+				}
+				break;
+			default:
+				break;
+		}
+	}
+
+	/**
+	 * Equivalente a Navigator.stopRouting
+	 */
+	public void stopRouting(int v) {
+		if (this.status[v] != REACHED_DESTINATION) {
+			this.status[v] = STOPPED;
+		}
+	}
+
+	public void setSpeed(int v, int speedKmh) {
+		this.speed[v] = speedKmh;
+	}
+
+	// ------------------------------------------------------------
+	// Consultas
+	// ------------------------------------------------------------
+
+	public int getSpeed(int v) {
+		return this.speed[v];
+	}
+
+	public int getSegmentId(int v) {
+		return this.segment[v];
+	}
+
+	public String getSegment(int v) {
+		return this.segmentNames[this.segment[v]];
+	}
+
+	public int getPosition(int v) {
+		return this.position[v];
+	}
+
+	public byte getStatusCode(int v) {
+		return this.status[v];
+	}
+
+	public ENavigatorStatus getStatus(int v) {
+		return STATUSES[this.status[v]];
+	}
+
+	public boolean isRouting(int v) {
+		return this.status[v] == ROUTING;
+	}
+
+	/**
+	 * Fragmentos de ruta que le quedan al vehículo (incluido el actual)
+	 */
+	public int getRemainingFragments(int v) {
+		return this.routeEnd[v] - this.cursor[v];
+	}
+
+	public String getSegmentName(int segmentId) {
+		return this.segmentNames[segmentId];
+	}
+
+	/**
+	 * Id denso del segmento, o -1 si ninguna ruta lo usa
+	 */
+	public int getSegmentId(String code) {
+		Integer sid = this.segmentIds.get(code);
+		return (sid != null) ? sid : -1;
+	}
+
+	public int getSegmentCount() {
+		return this.segmentCount;
+	}
+
+	/**
+	 * Número de vehículos en ruta por segmento (indexado por id de segmento)
+	 */
+	public int[] countRoutingBySegment(int[] counts) {
+		if (counts == null || counts.length < this.segmentCount) {
+			counts = new int[this.segmentCount];
+		} else {
+			Arrays.fill(counts, 0, this.segmentCount, 0);
+		}
+		for (int v = 0; v < this.size; v++) {
+			if (this.status[v] == ROUTING) {
+				counts[this.segment[v]]++;
+			}
+		}
+		return counts;
+	}
+
+	// ------------------------------------------------------------
+	// Movimiento
+	// ------------------------------------------------------------
+
+	/**
+	 * Avanza todos los vehículos en ruta el tiempo indicado, cada uno a su velocidad actual
+	 */
+	public void step(long milliseconds) {
+		if (this.freeFragments >= COMPACT_THRESHOLD && this.freeFragments * 2 > this.fragmentCount) {
+			this.compact();
+		}
+		if (this.size <= SPLIT_THRESHOLD) {
+			this.moveRange(0, this.size, milliseconds);
+		} else {
+			this.pool.invoke(new StepTask(0, this.size, milliseconds));
+		}
+	}
+
+	/**
+	 * Avanza un único vehículo (equivalente a Navigator.move)
+	 */
+	public void move(int v, long milliseconds) {
+		if (this.status[v] == ROUTING) {
+			this.moveVehicle(v, (int) (milliseconds * this.speed[v] * 0.0002778)); // 1 seg -> m = speed*1000/3600
+		}
+	}
+
+	private void moveRange(int from, int to, long milliseconds) {
+		final int[] speed = this.speed;
+		final byte[] status = this.status;
+		for (int v = from; v < to; v++) {
+			if (status[v] == ROUTING) {
+				this.moveVehicle(v, (int) (milliseconds * speed[v] * 0.0002778));
+			}
+		}
+	}
+
+	/**
+	 * Versión iterativa de Navigator._move: recorre 'distance' metros desde la posición actual,
+	 * consumiendo los fragmentos de ruta que se completen.
+	 */
+	private void moveVehicle(int v, int distance) {
+		int cur = this.cursor[v];
+		int end = this.routeEnd[v];
+		int seg = this.segment[v];
+		int pos = this.position[v];
+
+		if (cur >= end) {
+			// Sin fragmentos: el Navigator lo trataría como destino alcanzado
+			this.reached(v, cur, seg, pos);
+			return;
+		}
+
+		while (distance > 0) {
+			int endPos = this.fragEndPos[cur];
+			boolean exits;
+			int nextPos;
+			if (endPos >= pos) {
+				nextPos = pos + distance;
+				exits = nextPos > endPos;
+			} else {
+				nextPos = pos - distance;
+				exits = nextPos < endPos;
+			}
+
+			if (!exits) {
+				// Seguimos dentro del fragmento actual
+				this.segment[v] = seg;
+				this.position[v] = nextPos;
+				this.cursor[v] = cur;
+				return;
+			}
+
+			// Fragmento completado: pasamos al siguiente
+			int doneEndSeg = this.fragEndSeg[cur];
+			cur++;
+			if (cur == end) {
+				this.reached(v, cur, doneEndSeg, endPos);
+				return;
+			}
+			int remaining = distance - Math.abs(endPos - pos);
+			if (remaining <= 0) {
+				// Mismo comportamiento que Navigator._move: se da por alcanzado el destino
+				this.reached(v, cur, doneEndSeg, endPos);
+				return;
+			}
+			distance = remaining;
+			seg = this.fragStartSeg[cur];
+			pos = this.fragStartPos[cur];
+		}
+		// Sin distancia que recorrer (velocidad 0): la posición no cambia
+	}
+
+	private void reached(int v, int cur, int seg, int pos) {
+		this.cursor[v] = cur;
+		this.segment[v] = seg;
+		this.position[v] = pos;
+		this.status[v] = REACHED_DESTINATION;
+	}
+
+	final class StepTask extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+
+		private final int from;
+		private final int to;
+		private final long milliseconds;
+
+		StepTask(int from, int to, long milliseconds) {
+			this.from = from;
+			this.to = to;
+			this.milliseconds = milliseconds;
+		}
+
+		@Override
+		protected void compute() {
+			if (this.to - this.from <= SPLIT_THRESHOLD) {
+				FleetNavigator.this.moveRange(this.from, this.to, this.milliseconds);
+				return;
+			}
+			int mid = (this.from + this.to) >>> 1;
+			invokeAll(new StepTask(this.from, mid, this.milliseconds), new StepTask(mid, this.to, this.milliseconds));
+		}
+	}
+
+	// ------------------------------------------------------------
+	// Internos
+	// ------------------------------------------------------------
+
+	/**
+	 * Plaza para un vehículo nuevo (WAITING, sin ruta): una libre o una al final
+	 */
+	private int newVehicle() {
+		int v;
+		if (this.freeVehicleCount > 0) {
+			v = this.freeVehicles[--this.freeVehicleCount];
+		} else {
+			v = this.size;
+			if (v == this.status.length) {
+				this.growVehicles(v * 2);
+			}
+			this.size++;
+		}
+		this.speed[v] = 0;
+		this.status[v] = WAITING;
+		this.routeStart[v] = this.routeEnd[v] = this.cursor[v] = 0;
+		return v;
+	}
+
+	private int intern(String code) {
+		Integer sid = this.segmentIds.get(code);
+		if (sid != null) {
+			return sid;
+		}
+		if (this.segmentCount == this.segmentNames.length) {
+			this.segmentNames = Arrays.copyOf(this.segmentNames, this.segmentCount * 2);
+		}
+		this.segmentNames[this.segmentCount] = code;
+		this.segmentIds.put(code, this.segmentCount);
+		return this.segmentCount++;
+	}
+
+	/**
+	 * Deja de seguir el plan compartido (lo libera si era el último vehículo)
+	 */
+	private void releasePlan(int v) {
+		RoutePlan p = this.plan[v];
+		if (p == null) {
+			return;
+		}
+		this.plan[v] = null;
+		PlanSlot slot = this.planSlots.get(p);
+		if (--slot.vehicles == 0) {
+			this.planSlots.remove(p);
+			this.freeFragments += p.size();
+		}
+	}
+
+	/**
+	 * Libera el rango propio del vehículo
+	 */
+	private void releaseOwn(int v) {
+		this.freeFragments += this.ownCapacity[v];
+		this.ownCapacity[v] = 0;
+	}
+
+	/**
+	 * Reserva n fragmentos al final (los libres se recuperan en step)
+	 */
+	private int allocate(int n) {
+		if (this.fragmentCount + n > this.fragEndPos.length) {
+			this.growFragments(Math.max(this.fragEndPos.length * 2, this.fragmentCount + n));
+		}
+		int start = this.fragmentCount;
+		this.fragmentCount += n;
+		return start;
+	}
+
+	private void writeFragment(int f, IRouteFragment rf) {
+		this.fragStartSeg[f] = this.intern(rf.getStartPoint().getRoadSegment());
+		this.fragStartPos[f] = rf.getStartPoint().getPosition();
+		this.fragEndSeg[f] = this.intern(rf.getEndPoint().getRoadSegment());
+		this.fragEndPos[f] = rf.getEndPoint().getPosition();
+	}
+
+	/**
+	 * Copia los fragmentos en uso al principio de arrays nuevos y desplaza los índices de ruta de
+	 * cada vehículo
+	 */
+	private void compact() {
+		int live = this.fragmentCount - this.freeFragments;
+		int capacity = Math.max(INITIAL_CAPACITY, live * 2);
+		int[] startSeg = new int[capacity];
+		int[] startPos = new int[capacity];
+		int[] endSeg = new int[capacity];
+		int[] endPos = new int[capacity];
+		int next = 0;
+		for (Map.Entry<RoutePlan, PlanSlot> e : this.planSlots.entrySet()) {
+			PlanSlot slot = e.getValue();
+			int n = e.getKey().size();
+			System.arraycopy(this.fragStartSeg, slot.offset, startSeg, next, n);
+			System.arraycopy(this.fragStartPos, slot.offset, startPos, next, n);
+			System.arraycopy(this.fragEndSeg, slot.offset, endSeg, next, n);
+			System.arraycopy(this.fragEndPos, slot.offset, endPos, next, n);
+			slot.moved = next;
+			next += n;
+		}
+		for (int v = 0; v < this.size; v++) {
+			int delta;
+			if (this.plan[v] != null) {
+				PlanSlot slot = this.planSlots.get(this.plan[v]);
+				delta = slot.moved - slot.offset;
+			} else if (this.ownCapacity[v] > 0) {
+				int n = this.ownCapacity[v];
+				int from = this.ownStart[v];
+				System.arraycopy(this.fragStartSeg, from, startSeg, next, n);
+				System.arraycopy(this.fragStartPos, from, startPos, next, n);
+				System.arraycopy(this.fragEndSeg, from, endSeg, next, n);
+				System.arraycopy(this.fragEndPos, from, endPos, next, n);
+				this.ownStart[v] = next;
+				delta = next - from;
+				next += n;
+			} else {
+				// Sin fragmentos (ruta vacía o en plena asignación)
+				this.routeStart[v] = this.routeEnd[v] = this.cursor[v] = 0;
+				continue;
+			}
+			this.routeStart[v] += delta;
+			this.routeEnd[v] += delta;
+			this.cursor[v] += delta;
+		}
+		for (PlanSlot slot : this.planSlots.values()) {
+			slot.offset = slot.moved;
+		}
+		this.fragStartSeg = startSeg;
+		this.fragStartPos = startPos;
+		this.fragEndSeg = endSeg;
+		this.fragEndPos = endPos;
+		this.fragmentCount = next;
+		this.freeFragments = 0;
+	}
+
+	private void growVehicles(int capacity) {
+		this.segment = Arrays.copyOf(this.segment, capacity);
+		this.position = Arrays.copyOf(this.position, capacity);
+		this.speed = Arrays.copyOf(this.speed, capacity);
+		this.cursor = Arrays.copyOf(this.cursor, capacity);
+		this.routeStart = Arrays.copyOf(this.routeStart, capacity);
+		this.routeEnd = Arrays.copyOf(this.routeEnd, capacity);
+		this.status = Arrays.copyOf(this.status, capacity);
+		this.plan = Arrays.copyOf(this.plan, capacity);
+		this.ownStart = Arrays.copyOf(this.ownStart, capacity);
+		this.ownCapacity = Arrays.copyOf(this.ownCapacity, capacity);
+	}
+
+	private void growFragments(int capacity) {
+		this.fragStartSeg = Arrays.copyOf(this.fragStartSeg, capacity);
+		this.fragStartPos = Arrays.copyOf(this.fragStartPos, capacity);
+		this.fragEndSeg = Arrays.copyOf(this.fragEndSeg, capacity);
+		this.fragEndPos = Arrays.copyOf(this.fragEndPos, capacity);
+	}
+
+	/**
+	 * Plan compartido almacenado en la flota
+	 */
+	static final class PlanSlot {
+		int offset;       // Primer fragmento del plan
+		int moved;        // Nueva posición durante compact
+		int vehicles = 0; // Vehículos que lo siguen
+
+		PlanSlot(int offset) {
+			this.offset = offset;
+		}
+	}
+
+	/**
+	 * Punto actual de un vehículo como IRoadPoint (crea un objeto: no usar en el camino de cada paso)
+	 */
+	public IRoadPoint getCurrentPosition(int v) {
+		return new RoadPoint(this.getSegment(v), this.position[v]);
+	}
+
+	/**
+	 * Vista INavigator de un vehículo de la flota, para usarla en lugar de un Navigator (SmartCar.setNavigator).
+	 *
+	 * La ruta que se asigna se guarda tal cual y se consume (extractFirst) al consultarla, hasta el
+	 * fragmento por el que va el vehículo en la flota: como en Navigator, getRoute() devuelve lo que
+	 * queda de ruta. La posición es un RoadPoint propio que se actualiza al consultarla.
+	 *
+	 * move() avanza sólo este vehículo; en una flota se fija la velocidad de cada uno con setSpeed
+	 * y se avanzan todos a la vez con FleetNavigator.step.
+	 */
+	public final class VehicleNavigator implements INavigator {
+
+		private final String navigatorId;
+		private final int v;
+		private IRoute route = null;
+		private int consumed = 0;          // Fragmentos de 'route' ya consumidos
+		private IRoadPoint destination = null;
+		private boolean positioned = false; // Sin posición hasta la primera ruta (como Navigator)
+		private final RoadPoint position = new RoadPoint(null, 0);
+
+		VehicleNavigator(String navigatorId, int v) {
+			this.navigatorId = navigatorId;
+			this.v = v;
+		}
+
+		@Override
+		public String getId() {
+			return this.navigatorId;
+		}
+
+		/**
+		 * Índice del vehículo en la flota
+		 */
+		public int getIndex() {
+			return this.v;
+		}
+
+		public FleetNavigator getFleet() {
+			return FleetNavigator.this;
+		}
+
+		/**
+		 * Velocidad (km/h) con la que lo moverá el siguiente FleetNavigator.step
+		 */
+		public void setSpeed(int speedKmh) {
+			FleetNavigator.this.setSpeed(this.v, speedKmh);
+		}
+
+		@Override
+		public IRoute getRoute() {
+			if (this.route != null) {
+				int done = FleetNavigator.this.cursor[this.v] - FleetNavigator.this.routeStart[this.v];
+				while (this.consumed < done && !this.route.isEmpty()) {
+					this.route.extractFirst();
+					this.consumed++;
+				}
+			}
+			return this.route;
+		}
+
+		@Override
+		public INavigator setRoute(IRoute route) {
+			FleetNavigator.this.setRoute(this.v, route);
+			this.route = route;
+			this.consumed = 0;
+			if (route != null && !route.isEmpty()) {
+				this.destination = route.get(route.size() - 1).getEndPoint();
+				this.positioned = true;
+			}
+			return this;
+		}
+
+		@Override
+		public IRoadPoint getCurrentPosition() {
+			if (!this.positioned) {
+				return null;
+			}
+			this.position.setRoadSegment(FleetNavigator.this.getSegment(this.v));
+			this.position.setPosition(FleetNavigator.this.position[this.v]);
+			return this.position;
+		}
+
+		@Override
+		public INavigator setCurrentPosition(IRoadPoint point) {
+			synchronized (FleetNavigator.this) {
+				if (point == null) {
+					this.positioned = false;
+					return this;
+				}
+				FleetNavigator.this.segment[this.v] = FleetNavigator.this.intern(point.getRoadSegment());
+				FleetNavigator.this.position[this.v] = point.getPosition();
+				this.positioned = true;
+			}
+			return this;
+		}
+
+		@Override
+		public IRouteFragment getCurrentRouteStep() {
+			IRoute r = this.getRoute();
+			return (r == null || r.isEmpty()) ? null : r.getFirst();
+		}
+
+		@Override
+		public IRoadSegment getCurrentRoadSegment() {
+			return null; // Navigator tampoco lo calcula
+		}
+
+		@Override
+		public IRoadPoint getDestinationPoint() {
+			if (FleetNavigator.this.status[this.v] == REACHED_DESTINATION && this.positioned) {
+				// Navigator.reachedDestination toma como destino el punto en el que se detiene
+				IRoadPoint p = this.getCurrentPosition();
+				if (this.destination == null || !this.destination.equals(p)) {
+					this.destination = new RoadPoint(p.getRoadSegment(), p.getPosition());
+				}
+			}
+			return this.destination;
+		}
+
+		@Override
+		public ENavigatorStatus getNavigatorStatus() {
+			return FleetNavigator.this.getStatus(this.v);
+		}
+
+		@Override
+		public INavigator startRouting() {
+			FleetNavigator.this.startRouting(this.v);
+			return this;
+		}
+
+		@Override
+		public INavigator stopRouting() {
+			FleetNavigator.this.stopRouting(this.v);
+			return this;
+		}
+
+		@Override
+		public boolean isRouting() {
+			return FleetNavigator.this.isRouting(this.v);
+		}
+
+		@Override
+		public boolean getOffRoadMode() {
+			return false;
+		}
+
+		@Override
+		public INavigator move(long milliseconds, int vehicle_current_speed) {
+			FleetNavigator.this.setSpeed(this.v, vehicle_current_speed);
+			FleetNavigator.this.move(this.v, milliseconds);
+			return this;
+		}
+
+		@Override
+		public String toString() {
+			return this.navigatorId + "[" + this.v + "]";
+		}
+	}
+}
@@ -0,0 +1,427 @@
+package ina.vehicle.navigation.components;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import ina.vehicle.navigation.interfaces.IRoadPoint;
+import ina.vehicle.navigation.interfaces.IRoute;
+import ina.vehicle.navigation.types.ERoadStatus;
+
+/**
+ * Planificador de rutas con pesos en vivo y replanificación incremental.
+ *
+ * El peso de cada segmento depende de su velocidad máxima actual, de su estado de tráfico
+ * (ROAD_STATUS: Collapsed, No_Manouvers, ...) y de los accidentes abiertos en él (que lo
+ * bloquean para el cálculo de rutas).
+ *
+ * Para replanificar sin lanzar una búsqueda completa por vehículo se mantiene, por cada destino,
+ * el árbol de caminos mínimos hacia él (búsqueda hacia atrás desde el destino). Cuando cambia el
+ * peso de un segmento, los árboles se reparan de forma incremental al estilo LPA* / D* Lite
+ * (valores g/rhs y cola de nodos inconsistentes): sólo se recalculan los nodos cuya distancia
+ * al destino cambia. D* Lite focaliza la reparación en un único origen; aquí hay muchos vehículos
+ * con el mismo destino, así que se repara el árbol entero y cada vehículo obtiene su nuevo sufijo
+ * de ruta siguiendo el árbol desde su posición actual, en tiempo proporcional a la longitud de la ruta.
+ *
+ * Se guardan como mucho MAX_TREES árboles (los usados más recientemente).
+ */
+public class IncrementalRoutePlanner extends RoutePlanner {
+
+	public static final int MAX_TREES = 256;
+
+	// Peso de cada segmento: velocidad base, estado y número de accidentes abiertos
+	private final int[] baseSpeed;
+	private final ERoadStatus[] status;
+	private final int[] accidents;
+	private final Map<String, Integer> openAccidents = new HashMap<>();
+
+	private final LinkedHashMap<Integer, DestinationTree> trees = new LinkedHashMap<Integer, DestinationTree>(16, 0.75f, true) {
+		private static final long serialVersionUID = 1L;
+
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<Integer, DestinationTree> eldest) {
+			return this.size() > MAX_TREES;
+		}
+	};
+
+	// Estadísticas
+	private long treesBuilt = 0;
+	private long nodesRepaired = 0;
+
+	public IncrementalRoutePlanner(RoadNetwork network) {
+		this(network, new int[0], DEFAULT_LANDMARKS);
+	}
+
+	public IncrementalRoutePlanner(RoadNetwork network, String connectionsFile) throws IOException {
+		this(network, readConnections(network, connectionsFile), DEFAULT_LANDMARKS);
+	}
+
+	public IncrementalRoutePlanner(RoadNetwork network, int[] connections, int landmarks) {
+		super(network, connections, landmarks);
+		int ns = network.getSegmentCount();
+		this.baseSpeed = new int[ns];
+		this.status = new ERoadStatus[ns];
+		this.accidents = new int[ns];
+		for (int s = 0; s < ns; s++) {
+			this.baseSpeed[s] = this.speed[s];
+		}
+	}
+
+	// ------------------------------------------------------------
+	// Pesos en vivo
+	// ------------------------------------------------------------
+
+	/**
+	 * Factor sobre la velocidad del segmento según su estado de tráfico (0: no transitable)
+	 */
+	public static double speedFactor(ERoadStatus status) {
+		if (status == null) {
+			return 1;
+		}
+		switch (status) {
+			case Restricted_Manouvers: return 0.75;
+			case Limited_Manouvers: return 0.5;
+			case No_Manouvers: return 0.25;
+			case Collapsed: return 0.1;
+			case Closed: return 0;
+			default: return 1;
+		}
+	}
+
+	/**
+	 * Estados que obligan a replanificar a los vehículos que tienen el segmento por delante
+	 */
+	public static boolean requiresRerouting(ERoadStatus status) {
+		return status == ERoadStatus.Collapsed || status == ERoadStatus.No_Manouvers || status == ERoadStatus.Closed;
+	}
+
+	@Override
+	public synchronized void setSegmentSpeed(String segment, int speed) {
+		int s = this.segmentId(segment);
+		this.baseSpeed[s] = Math.max(0, Math.min(speed, this.network.getMaxSpeed(s)));
+		this.updateWeight(s);
+	}
+
+	/**
+	 * Estado de tráfico de un segmento (ROAD_STATUS)
+	 * @return true si cambia el peso del segmento
+	 */
+	public synchronized boolean setSegmentStatus(String segment, ERoadStatus status) {
+		int s = this.segmentId(segment);
+		this.status[s] = status;
+		return this.updateWeight(s);
+	}
+
+	public synchronized ERoadStatus getSegmentStatus(String segment) {
+		return this.status[this.segmentId(segment)];
+	}
+
+	/**
+	 * Accidente abierto en un segmento (ACCIDENT OPEN): el segmento deja de ser transitable
+	 * @return true si cambia el peso del segmento
+	 */
+	public synchronized boolean openAccident(String accidentId, String segment) {
+		int s = this.segmentId(segment);
+		Integer previous = this.openAccidents.put(accidentId, s);
+		if (previous != null) {
+			if (previous == s) {
+				return false;
+			}
+			this.accidents[previous]--;
+			this.updateWeight(previous);
+		}
+		this.accidents[s]++;
+		return this.updateWeight(s);
+	}
+
+	/**
+	 * Accidente cerrado (ACCIDENT CLOSE)
+	 * @return true si cambia el peso del segmento
+	 */
+	public synchronized boolean closeAccident(String accidentId) {
+		Integer s = this.openAccidents.remove(accidentId);
+		if (s == null) {
+			return false;
+		}
+		this.accidents[s]--;
+		return this.updateWeight(s);
+	}
+
+	public synchronized boolean hasOpenAccident(String segment) {
+		return this.accidents[this.segmentId(segment)] > 0;
+	}
+
+	/**
+	 * Recalcula la velocidad efectiva del segmento y, si cambia, repara los árboles de destino
+	 */
+	private boolean updateWeight(int s) {
+		int v = 0;
+		if (this.accidents[s] == 0) {
+			double factor = speedFactor(this.status[s]);
+			// Un segmento cerrado (velocidad base 0) sigue cerrado; uno abierto no baja de 1 km/h
+			v = (factor == 0 || this.baseSpeed[s] == 0) ? 0 : Math.max(1, (int) Math.round(this.baseSpeed[s] * factor));
+		}
+		if (!this.applySpeed(s, v)) {
+			return false;
+		}
+		for (DestinationTree tree : this.trees.values()) {
+			tree.onSegmentChanged(s);
+		}
+		return true;
+	}
+
+	// ------------------------------------------------------------
+	// Replanificación
+	// ------------------------------------------------------------
+
+	/**
+	 * Ruta más rápida desde el punto actual hasta el destino según los pesos en vivo, siguiendo el
+	 * árbol de caminos mínimos del destino (se crea la primera vez y después sólo se repara).
+	 * @return la ruta, o null si el destino no es alcanzable
+	 */
+	public synchronized IRoute replanRoute(IRoadPoint from, IRoadPoint destination) {
+		int so = this.segmentId(from.getRoadSegment());
+		int sd = this.segmentId(destination.getRoadSegment());
+		int originPosition = from.getPosition();
+		int destinationPosition = destination.getPosition();
+		checkPosition(this.network, so, originPosition);
+		checkPosition(this.network, sd, destinationPosition);
+
+		if (so == sd && this.isAhead(so, originPosition, destinationPosition)) {
+			return new Route().addRouteFragment(from.getRoadSegment(), originPosition, destinationPosition);
+		}
+
+		int source = this.nodeAtOrAfter(so, originPosition);
+		int target = this.nodeAtOrBefore(sd, destinationPosition);
+		DestinationTree tree = this.trees.get(target);
+		if (tree == null) {
+			tree = new DestinationTree(target);
+			this.trees.put(target, tree);
+			this.treesBuilt++;
+		}
+		int[] path = tree.pathFrom(source);
+		if (path == null) {
+			return null;
+		}
+		return this.buildRoute(path, path.length, so, originPosition, destinationPosition);
+	}
+
+	/**
+	 * Indica si el segmento está en lo que queda de la ruta
+	 */
+	public static boolean routeContains(IRoute route, String segment) {
+		if (route == null) {
+			return false;
+		}
+		for (int i = 0; i < route.size(); i++) {
+			if (route.get(i).getStartPoint().getRoadSegment().equals(segment)
+					|| route.get(i).getEndPoint().getRoadSegment().equals(segment)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	public synchronized int getTreeCount() {
+		return this.trees.size();
+	}
+
+	public synchronized String getStats() {
+		return "trees=" + this.trees.size() + " built=" + this.treesBuilt + " repaired-nodes=" + this.nodesRepaired
+				+ " accidents=" + this.openAccidents.size();
+	}
+
+	/**
+	 * Árbol de caminos mínimos hacia un nodo destino, reparable de forma incremental.
+	 *
+	 * g[n] es el coste conocido desde n hasta el destino; rhs[n] el que resulta de sus sucesores
+	 * (min c(n,s) + g[s]). Un nodo es inconsistente si g != rhs; la cola contiene los nodos
+	 * inconsistentes ordenados por min(g, rhs). Tras cada cambio de peso sólo se procesan los nodos
+	 * que pasan a ser inconsistentes.
+	 */
+	private final class DestinationTree {
+		final int target;
+		final double[] g;
+		final double[] rhs;
+
+		// Montículo de (clave, nodo) con entradas obsoletas que se descartan al extraerlas
+		double[] heapKey = new double[64];
+		int[] heapNode = new int[64];
+		int heapSize = 0;
+
+		DestinationTree(int target) {
+			int nn = IncrementalRoutePlanner.this.nodeCount();
+			this.target = target;
+			this.g = new double[nn];
+			this.rhs = new double[nn];
+			Arrays.fill(this.g, Double.POSITIVE_INFINITY);
+			Arrays.fill(this.rhs, Double.POSITIVE_INFINITY);
+			this.rhs[target] = 0;
+			this.push(0, target);
+			this.computeShortestPaths();
+		}
+
+		/**
+		 * Ha cambiado el peso del segmento: cambian las aristas de avance de sus nodos
+		 */
+		void onSegmentChanged(int segment) {
+			IncrementalRoutePlanner p = IncrementalRoutePlanner.this;
+			for (int n = p.segNodes[segment]; n < p.segNodes[segment + 1] - 1; n++) {
+				this.updateNode(n);
+			}
+			this.computeShortestPaths();
+		}
+
+		/**
+		 * Camino de nodos desde 'source' hasta el destino siguiendo el mejor sucesor (null si no hay camino)
+		 */
+		int[] pathFrom(int source) {
+			if (this.g[source] == Double.POSITIVE_INFINITY) {
+				return null;
+			}
+			IncrementalRoutePlanner p = IncrementalRoutePlanner.this;
+			int[] path = new int[16];
+			int length = 0;
+			int n = source;
+			while (true) {
+				if (length == path.length) {
+					path = Arrays.copyOf(path, length * 2);
+				}
+				path[length++] = n;
+				if (n == this.target || length > p.nodeCount()) {
+					break;
+				}
+				n = this.bestSuccessor(n);
+				if (n < 0) {
+					return null;
+				}
+			}
+			return (n == this.target) ? Arrays.copyOf(path, length) : null;
+		}
+
+		private int bestSuccessor(int n) {
+			IncrementalRoutePlanner p = IncrementalRoutePlanner.this;
+			int best = -1;
+			double bestCost = Double.POSITIVE_INFINITY;
+			int s = p.nodeSegment[n];
+			if (n + 1 < p.segNodes[s + 1]) {
+				double c = this.alongCost(n) + this.g[n + 1];
+				if (c < bestCost) {
+					best = n + 1;
+					bestCost = c;
+				}
+			}
+			for (int i = p.outOffsets[n]; i < p.outOffsets[n + 1]; i++) {
+				int t = p.outTargets[i];
+				if (this.g[t] < bestCost) {
+					best = t;
+					bestCost = this.g[t];
+				}
+			}
+			return best;
+		}
+
+		private double alongCost(int n) {
+			IncrementalRoutePlanner p = IncrementalRoutePlanner.this;
+			int s = p.nodeSegment[n];
+			return p.travelTime(s, Math.abs(p.nodePosition[n + 1] - p.nodePosition[n]), false);
+		}
+
+		private void updateNode(int n) {
+			if (n != this.target) {
+				IncrementalRoutePlanner p = IncrementalRoutePlanner.this;
+				double best = Double.POSITIVE_INFINITY;
+				int s = p.nodeSegment[n];
+				if (n + 1 < p.segNodes[s + 1]) {
+					best = this.alongCost(n) + this.g[n + 1];
+				}
+				for (int i = p.outOffsets[n]; i < p.outOffsets[n + 1]; i++) {
+					best = Math.min(best, this.g[p.outTargets[i]]);
+				}
+				this.rhs[n] = best;
+			}
+			if (this.g[n] != this.rhs[n]) {
+				this.push(Math.min(this.g[n], this.rhs[n]), n);
+			}
+		}
+
+		private void updatePredecessors(int n) {
+			IncrementalRoutePlanner p = IncrementalRoutePlanner.this;
+			int s = p.nodeSegment[n];
+			if (n > p.segNodes[s]) {
+				this.updateNode(n - 1);
+			}
+			for (int i = p.inOffsets[n]; i < p.inOffsets[n + 1]; i++) {
+				this.updateNode(p.inSources[i]);
+			}
+		}
+
+		private void computeShortestPaths() {
+			while (this.heapSize > 0) {
+				double key = this.heapKey[0];
+				int n = this.heapNode[0];
+				this.pop();
+				if (this.g[n] == this.rhs[n] || key != Math.min(this.g[n], this.rhs[n])) {
+					continue; // entrada obsoleta
+				}
+				IncrementalRoutePlanner.this.nodesRepaired++;
+				if (this.g[n] > this.rhs[n]) {
+					// Mejora: el nodo queda consistente y se propaga a sus predecesores
+					this.g[n] = this.rhs[n];
+					this.updatePredecessors(n);
+				} else {
+					// Empeora: se invalida y se recalcula junto con sus predecesores
+					this.g[n] = Double.POSITIVE_INFINITY;
+					this.updateNode(n);
+					this.updatePredecessors(n);
+				}
+			}
+		}
+
+		private void push(double key, int node) {
+			if (this.heapSize == this.heapKey.length) {
+				this.heapKey = Arrays.copyOf(this.heapKey, this.heapSize * 2);
+				this.heapNode = Arrays.copyOf(this.heapNode, this.heapSize * 2);
+			}
+			int i = this.heapSize++;
+			while (i > 0) {
+				int parent = (i - 1) >>> 1;
+				if (this.heapKey[parent] <= key) {
+					break;
+				}
+				this.heapKey[i] = this.heapKey[parent];
+				this.heapNode[i] = this.heapNode[parent];
+				i = parent;
+			}
+			this.heapKey[i] = key;
+			this.heapNode[i] = node;
+		}
+
+		private void pop() {
+			this.heapSize--;
+			if (this.heapSize == 0) {
+				return;
+			}
+			double key = this.heapKey[this.heapSize];
+			int node = this.heapNode[this.heapSize];
+			int i = 0;
+			int half = this.heapSize >>> 1;
+			while (i < half) {
+				int c = 2 * i + 1;
+				if (c + 1 < this.heapSize && this.heapKey[c + 1] < this.heapKey[c]) {
+					c++;
+				}
+				if (key <= this.heapKey[c]) {
+					break;
+				}
+				this.heapKey[i] = this.heapKey[c];
+				this.heapNode[i] = this.heapNode[c];
+				i = c;
+			}
+			this.heapKey[i] = key;
+			this.heapNode[i] = node;
+		}
+	}
+}
@@ -86,12 +86,42 @@ public class Navigator implements INavigator {
 
    @Override
    public INavigator setCurrentPosition(IRoadPoint position) {
-	   MySimpleLogger.trace(this.getId(), "Set current position to: " + position);
-      this.bean.getProperties().put("position", position);
+	   if ( MySimpleLogger.isTraceEnabled() )
+		   MySimpleLogger.trace(this.getId(), "Set current position to: " + position);
+	   if ( position == null ) {
+		   this.bean.getProperties().put("position", null);
+		   return this;
+	   }
+	   // La posición es un RoadPoint propio del navegador que se actualiza en cada paso
+	   // (se copia el punto recibido: los puntos de la ruta nunca se modifican)
+	   RoadPoint current = this.bean.getProperty("position", RoadPoint.class);
+	   if ( current == position )
+		   return this;
+	   if ( current == null ) {
+		   current = new RoadPoint(position.getRoadSegment(), position.getPosition());
+		   this.bean.getProperties().put("position", current);
+	   } else {
+		   current.setRoadSegment(position.getRoadSegment());
+		   current.setPosition(position.getPosition());
+	   }
       return this;
    
    }
    
+   /**
+    * Actualiza la posición dentro del segmento sin crear objetos (camino de cada paso de simulación)
+    */
+   protected INavigator setCurrentPosition(String roadSegment, int position) {
+	   RoadPoint current = this.bean.getProperty("position", RoadPoint.class);
+	   if ( current == null ) {
+		   this.bean.getProperties().put("position", new RoadPoint(roadSegment, position));
+	   } else {
+		   current.setRoadSegment(roadSegment);
+		   current.setPosition(position);
+	   }
+	   return this;
+   }
+   
    protected INavigator setLastDestinationPoint(IRoadPoint dest) {
 	   this.bean.setProperty("destination", dest);
 	   return this;
@@ -203,7 +233,8 @@ public class Navigator implements INavigator {
 	  case ROUTING:
 		  
 		  int travelled_distance = (int)(milliseconds * vehicle_current_speed * 0.0002778 ); // 1 seg -> m = speed*1000/3600
-		  MySimpleLogger.debug(this.getId(), "Starting Point: " + String.format("%12s", this.getCurrentPosition()) + "\t Travelled Distance: " + travelled_distance + " m\t Speed " +  vehicle_current_speed + " Km/h");
+		  if ( MySimpleLogger.isDebugEnabled() )
+			  MySimpleLogger.debug(this.getId(), "Starting Point: " + String.format("%12s", this.getCurrentPosition()) + "\t Travelled Distance: " + travelled_distance + " m\t Speed " +  vehicle_current_speed + " Km/h");
 		  this._move(travelled_distance, this.getCurrentPosition());
 		  break;
 	  }
@@ -214,15 +245,16 @@ public class Navigator implements INavigator {
    
    protected INavigator _move(int distance, IRoadPoint posicionActual) {
 	
-	   // Esta función actualiza la ruta del navegador calculando el movimiento realizado desde la posición actual (IRoadPoint) una distancia indicada
+	   // Esta función actualiza la ruta del navegador calculando el movimiento realizado desde la posición actual (IRoadPoint) una distancia indicada.
+	   // Se recorren en un único bucle todos los fragmentos que se completen en el paso (sin recursión: a velocidades
+	   // altas o con rutas de muchos fragmentos cortos el número de fragmentos cruzados en un paso no está acotado)
 	   
-	   IRouteFragment rf = null;
-	   try {
-		   rf = this.getCurrentRouteStep();
-		} catch (IndexOutOfBoundsException e) {
-			this.reachedDestination(posicionActual);
-			return this;
-		}
+	   IRoute route = this.getRoute();
+	   IRouteFragment rf = this.getCurrentRouteStep();
+	   if ( rf == null ) {
+		   this.reachedDestination(posicionActual);
+		   return this;
+	   }
  
 	  if ( posicionActual == null ) {
 		  // Si la posición actual es NULL es porque acabo de iniciar la ruta
@@ -230,76 +262,86 @@ public class Navigator implements INavigator {
 		  posicionActual = rf.getStartPoint();
 	  }
 	  
-	  if ( distance <= 0 ) {
-		  // Si no hay distancia que recorrer, hemos terminado
-		  return this;
-	  }
+	  // La posición del navegador se modifica al final: se trabaja con copias locales
+	  String segmento = posicionActual.getRoadSegment();
+	  int posicion = posicionActual.getPosition();
 	  
-	  boolean movemos_direccion_ascendente_PKs = ( rf.getEndPoint().getPosition() >= posicionActual.getPosition() ? true : false);
+	  while ( distance > 0 ) {
+		  
+		  int finFragmento = rf.getEndPoint().getPosition();
+		  boolean movemos_direccion_ascendente_PKs = ( finFragmento >= posicion );
 
-	  // calculamos hasta donde deberíamos avanzar ...
-	  boolean salimosDeRoadSegment = false;
+		  // calculamos hasta donde deberíamos avanzar ...
+		  boolean salimosDeRoadSegment = false;
 
-	  int nextPos;
-	  if ( movemos_direccion_ascendente_PKs ) {
-		  nextPos = posicionActual.getPosition() + distance;
-		  if (  nextPos > rf.getEndPoint().getPosition() ) {
-			  // Al movernos deberíamos salirnos del fragmento actual
-			  salimosDeRoadSegment = true;
-			  nextPos = rf.getEndPoint().getPosition();
-		  }
-	  } else {
-		  nextPos = posicionActual.getPosition() - distance;
-		  if (  nextPos < rf.getEndPoint().getPosition() ) {
-			  // Al movernos deberíamos salirnos del fragmento actual
-			  salimosDeRoadSegment = true;
-			  nextPos = rf.getEndPoint().getPosition();
+		  int nextPos;
+		  if ( movemos_direccion_ascendente_PKs ) {
+			  nextPos = posicion + distance;
+			  if (  nextPos > finFragmento ) {
+				  // Al movernos deberíamos salirnos del fragmento actual
+				  salimosDeRoadSegment = true;
+				  nextPos = finFragmento;
+			  }
+		  } else {
+			  nextPos = posicion - distance;
+			  if (  nextPos < finFragmento ) {
+				  // Al movernos deberíamos salirnos del fragmento actual
+				  salimosDeRoadSegment = true;
+				  nextPos = finFragmento;
+			  }
 		  }
-	  }
-
-	  
-	  // ... en nextpos tenemos la posición a la que llegamos
-	  if ( !salimosDeRoadSegment ) {
-		  
-		  // Si no llegamos a salir del segmento, nos ubicamo en la posición calculada
-		  
-		  this.setCurrentPosition(new RoadPoint(posicionActual.getRoadSegment(), nextPos));
-		  
-	  } else {
-		  
-		  // Salimos del RoadSegment actual y entramos en el siguiente ...
-		  
-		  // Para ello, se realizarán dos pasos:
-		  //	1-  nos moveremos justo al punto inicial del siguiente fragmento,
-		  //	2-  relanzaremos recursivamente esta operación para movernos la distancia restante
 		  
+		  if ( !salimosDeRoadSegment ) {
+			  // Si no llegamos a salir del segmento, nos ubicamos en la posición calculada
+			  this.setCurrentPosition(segmento, nextPos);
+			  return this;
+		  }
 		  
-		  // ... eliminamos el fragmento actual (que hemos completado) de la ruta ...
-		  this.getRoute().extractFirst();
+		  // Salimos del fragmento actual: lo eliminamos de la ruta (O(1)) ...
+		  route.extractFirst();
 		  
-		  if ( this.getRoute().isEmpty() ) {
-			  
+		  if ( route.isEmpty() ) {
 			  // hemos llegado al final de la ruta
-			  this.reachedDestination(new RoadPoint(rf.getEndPoint().getRoadSegment(), rf.getEndPoint().getPosition()));
+			  this.reachedDestination(rf.getEndPoint());
 			  return this;
-			  
-		  } else {
-			  int travelled = Math.abs(nextPos - posicionActual.getPosition());
-			  int remaining_distance = distance-travelled;
-			  if ( remaining_distance > 0 ) {
-				  
-				  // recursivamente nos movemos la distancia 'sobrante' ...
-				  this._move(remaining_distance, this.getCurrentRouteStep().getStartPoint());
-				  
-			  } else {
-				  this.reachedDestination(new RoadPoint(rf.getEndPoint().getRoadSegment(), rf.getEndPoint().getPosition()));
-			  }
 		  }
+		  
+		  int remaining_distance = distance - Math.abs(nextPos - posicion);
+		  if ( remaining_distance <= 0 ) {
+			  this.reachedDestination(rf.getEndPoint());
+			  return this;
+		  }
+		  
+		  // ... y seguimos con la distancia 'sobrante' desde el inicio del siguiente fragmento
+		  distance = remaining_distance;
+		  rf = route.getFirst();
+		  segmento = rf.getStartPoint().getRoadSegment();
+		  posicion = rf.getStartPoint().getPosition();
 	  }
 	  
+	  // Si no hay distancia que recorrer, hemos terminado
 	  return this;
 	   
    }
+   
+   /**
+    * Distancia (m) que falta hasta el destino. O(1)
+    */
+   public int getRemainingDistance() {
+	   IRoute r = this.getRoute();
+	   if ( r == null || r.isEmpty() )
+		   return 0;
+	   return r.getRemainingDistance(this.getCurrentPosition());
+   }
+   
+   /**
+    * Tiempo estimado (ms) hasta llegar al destino a la velocidad indicada, o -1 si no se mueve
+    */
+   public long getEstimatedTimeToDestination(int vehicle_current_speed) {
+	   if ( vehicle_current_speed <= 0 )
+		   return -1;
+	   return (long) (this.getRemainingDistance() / (vehicle_current_speed * 0.0002778));
+   }
 
    
 }
@@ -0,0 +1,423 @@
+package ina.vehicle.navigation.components;
+
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import ina.vehicle.navigation.utils.JsonStreamReader;
+
+/**
+ * Red de carreteras en memoria compacta.
+ *
+ * Se carga en streaming desde el formato de roads_example.json (array de carreteras con sus
+ * 'segments', o array de segmentos sueltos) sin construir el árbol JSON. Los códigos de segmento
+ * y de carretera se internan a identificadores enteros densos (0..n-1), y los datos de cada
+ * segmento se guardan en arrays paralelos indexados por ese identificador, de modo que el resto
+ * del sistema (planificador, simulación, contadores por segmento) puede trabajar con int en
+ * lugar de con String y mapas.
+ *
+ * La relación carretera -> segmentos se guarda en formato CSR: los segmentos de la carretera r son
+ * getRoadSegment(i) para i en [getRoadSegmentsStart(r), getRoadSegmentsEnd(r)), ordenados por
+ * PK de inicio.
+ *
+ * La red es inmutable una vez cargada y se puede compartir entre hilos.
+ */
+public final class RoadNetwork {
+
+	public static final int NO_ID = -1;
+
+	// Segmentos (indexados por id de segmento)
+	private final String[] segmentCodes;
+	private final int[] segmentRoad;
+	private final int[] startKP;
+	private final int[] endKP;
+	private final int[] length;
+	private final int[] capacity;
+	private final int[] maxSpeed;
+	private final int[] currentMaxSpeed;
+
+	// Carreteras (indexadas por id de carretera)
+	private final String[] roadCodes;
+	private final String[] roadNames;
+	private final int[] roadSegmentsOffsets; // roadCount + 1
+	private final int[] roadSegments;
+
+	private final Map<String, Integer> segmentIds;
+	private final Map<String, Integer> roadIds;
+
+	private RoadNetwork(Builder b) {
+		int ns = b.segmentCount;
+		this.segmentCodes = Arrays.copyOf(b.segmentCodes, ns);
+		this.segmentRoad = Arrays.copyOf(b.segmentRoad, ns);
+		this.startKP = Arrays.copyOf(b.startKP, ns);
+		this.endKP = Arrays.copyOf(b.endKP, ns);
+		this.length = Arrays.copyOf(b.length, ns);
+		this.capacity = Arrays.copyOf(b.capacity, ns);
+		this.maxSpeed = Arrays.copyOf(b.maxSpeed, ns);
+		this.currentMaxSpeed = Arrays.copyOf(b.currentMaxSpeed, ns);
+		this.segmentIds = b.segmentIds;
+
+		int nr = b.roadCount;
+		this.roadCodes = Arrays.copyOf(b.roadCodes, nr);
+		this.roadNames = Arrays.copyOf(b.roadNames, nr);
+		this.roadIds = b.roadIds;
+
+		// Adyacencia carretera -> segmentos (CSR), ordenada por PK de inicio
+		this.roadSegmentsOffsets = new int[nr + 1];
+		for (int s = 0; s < ns; s++) {
+			this.roadSegmentsOffsets[this.segmentRoad[s] + 1]++;
+		}
+		for (int r = 0; r < nr; r++) {
+			this.roadSegmentsOffsets[r + 1] += this.roadSegmentsOffsets[r];
+		}
+		this.roadSegments = new int[ns];
+		int[] fill = Arrays.copyOf(this.roadSegmentsOffsets, nr);
+		for (int s = 0; s < ns; s++) {
+			this.roadSegments[fill[this.segmentRoad[s]]++] = s;
+		}
+		for (int r = 0; r < nr; r++) {
+			this.sortByStartKP(this.roadSegmentsOffsets[r], this.roadSegmentsOffsets[r + 1]);
+		}
+	}
+
+	// ------------------------------------------------------------
+	// Carga
+	// ------------------------------------------------------------
+
+	public static RoadNetwork load(String fichero) throws IOException {
+		try (Reader in = new BufferedReader(new FileReader(fichero))) {
+			return load(in);
+		}
+	}
+
+	/**
+	 * Carga la red desde un documento con el formato de roads_example.json:
+	 * un array (u objeto suelto) de carreteras con 'segments', o de segmentos
+	 */
+	public static RoadNetwork load(Reader in) throws IOException {
+		Builder b = new Builder();
+		JsonStreamReader r = new JsonStreamReader(in);
+		if (r.peek() == JsonStreamReader.Token.BEGIN_ARRAY) {
+			r.beginArray();
+			while (r.hasNext()) {
+				readElement(r, b);
+			}
+			r.endArray();
+		} else {
+			readElement(r, b);
+		}
+		return new RoadNetwork(b);
+	}
+
+	private static void readElement(JsonStreamReader r, Builder b) throws IOException {
+		if (r.peek() != JsonStreamReader.Token.BEGIN_OBJECT) {
+			r.skipValue();
+			return;
+		}
+		String id = null;
+		String name = null;
+		SegmentFields seg = new SegmentFields();
+		boolean isRoad = false;
+		int[] roadSegments = new int[8];
+		int nRoadSegments = 0;
+		r.beginObject();
+		while (r.hasNext()) {
+			String key = r.nextName();
+			if (key.equals("segments") && r.peek() == JsonStreamReader.Token.BEGIN_ARRAY) {
+				// Los segmentos pueden aparecer antes que el id de la carretera: se asocian al final
+				isRoad = true;
+				r.beginArray();
+				while (r.hasNext()) {
+					if (r.peek() != JsonStreamReader.Token.BEGIN_OBJECT) {
+						r.skipValue();
+						continue;
+					}
+					SegmentFields s = new SegmentFields();
+					r.beginObject();
+					while (r.hasNext()) {
+						s.read(r, r.nextName());
+					}
+					r.endObject();
+					int sid = b.addSegment(s, NO_ID);
+					if (sid != NO_ID) {
+						if (nRoadSegments == roadSegments.length) {
+							roadSegments = Arrays.copyOf(roadSegments, nRoadSegments * 2);
+						}
+						roadSegments[nRoadSegments++] = sid;
+					}
+				}
+				r.endArray();
+			} else if (key.equals("id")) {
+				id = r.nextString();
+			} else if (key.equals("name")) {
+				name = r.nextString();
+			} else if (key.equals("rt")) {
+				isRoad |= r.nextString().equals("road");
+			} else {
+				seg.read(r, key);
+			}
+		}
+		r.endObject();
+
+		if (isRoad) {
+			int road = b.internRoad(id, name);
+			for (int i = 0; i < nRoadSegments; i++) {
+				int s = roadSegments[i];
+				b.segmentRoad[s] = (b.pendingRoad[s] != null) ? b.internRoad(b.pendingRoad[s], null) : road;
+			}
+		} else {
+			int s = b.addSegment(seg, NO_ID);
+			if (s != NO_ID) {
+				b.segmentRoad[s] = b.internRoad(b.pendingRoad[s], null);
+			}
+		}
+	}
+
+	// ------------------------------------------------------------
+	// Segmentos
+	// ------------------------------------------------------------
+
+	public int getSegmentCount() {
+		return this.segmentCodes.length;
+	}
+
+	/**
+	 * Identificador entero del segmento, o NO_ID si no existe
+	 */
+	public int getSegmentId(String code) {
+		Integer id = this.segmentIds.get(code);
+		return (id != null) ? id : NO_ID;
+	}
+
+	public String getSegmentCode(int segment) {
+		return this.segmentCodes[segment];
+	}
+
+	public int getSegmentRoad(int segment) {
+		return this.segmentRoad[segment];
+	}
+
+	public int getStartKP(int segment) {
+		return this.startKP[segment];
+	}
+
+	public int getEndKP(int segment) {
+		return this.endKP[segment];
+	}
+
+	public int getLength(int segment) {
+		return this.length[segment];
+	}
+
+	public int getCapacity(int segment) {
+		return this.capacity[segment];
+	}
+
+	public int getMaxSpeed(int segment) {
+		return this.maxSpeed[segment];
+	}
+
+	public int getCurrentMaxSpeed(int segment) {
+		return this.currentMaxSpeed[segment];
+	}
+
+	/**
+	 * Nuevo RoadSegment con los datos del segmento (sin vehículos y en Free_Flow)
+	 */
+	public RoadSegment toRoadSegment(int segment) {
+		String code = this.segmentCodes[segment];
+		RoadSegment rs = new RoadSegment(code, this.roadCodes[this.segmentRoad[segment]], code,
+				this.startKP[segment], this.endKP[segment], this.capacity[segment], this.maxSpeed[segment]);
+		rs.setLength(this.length[segment]);
+		rs.setCurrentMaxSpeed(this.currentMaxSpeed[segment]);
+		return rs;
+	}
+
+	// ------------------------------------------------------------
+	// Carreteras
+	// ------------------------------------------------------------
+
+	public int getRoadCount() {
+		return this.roadCodes.length;
+	}
+
+	/**
+	 * Identificador entero de la carretera, o NO_ID si no existe
+	 */
+	public int getRoadId(String code) {
+		Integer id = this.roadIds.get(code);
+		return (id != null) ? id : NO_ID;
+	}
+
+	public String getRoadCode(int road) {
+		return this.roadCodes[road];
+	}
+
+	public String getRoadName(int road) {
+		return this.roadNames[road];
+	}
+
+	public int getRoadSegmentsStart(int road) {
+		return this.roadSegmentsOffsets[road];
+	}
+
+	public int getRoadSegmentsEnd(int road) {
+		return this.roadSegmentsOffsets[road + 1];
+	}
+
+	/**
+	 * Segmento en la posición i del array de adyacencia (ver getRoadSegmentsStart / getRoadSegmentsEnd)
+	 */
+	public int getRoadSegment(int i) {
+		return this.roadSegments[i];
+	}
+
+	/**
+	 * Segmentos de la carretera ordenados por PK de inicio (copia)
+	 */
+	public int[] getSegmentsOfRoad(int road) {
+		return Arrays.copyOfRange(this.roadSegments, this.roadSegmentsOffsets[road], this.roadSegmentsOffsets[road + 1]);
+	}
+
+	@Override
+	public String toString() {
+		return "RoadNetwork[" + this.getRoadCount() + " roads, " + this.getSegmentCount() + " segments]";
+	}
+
+	private void sortByStartKP(int from, int to) {
+		// Inserción: las carreteras tienen pocos segmentos y normalmente ya vienen ordenados
+		for (int i = from + 1; i < to; i++) {
+			int s = this.roadSegments[i];
+			int j = i - 1;
+			while (j >= from && this.startKP[this.roadSegments[j]] > this.startKP[s]) {
+				this.roadSegments[j + 1] = this.roadSegments[j];
+				j--;
+			}
+			this.roadSegments[j + 1] = s;
+		}
+	}
+
+	// ------------------------------------------------------------
+	// Construcción
+	// ------------------------------------------------------------
+
+	/**
+	 * Campos de un segmento durante la lectura
+	 */
+	private static final class SegmentFields {
+		String code = null;
+		String road = null;
+		int startKP = 0;
+		int endKP = 0;
+		int length = -1;
+		int capacity = 0;
+		int maxSpeed = -1;
+		int currentMaxSpeed = -1;
+
+		void read(JsonStreamReader r, String key) throws IOException {
+			JsonStreamReader.Token t = r.peek();
+			if (t == JsonStreamReader.Token.NULL || t == JsonStreamReader.Token.BEGIN_OBJECT || t == JsonStreamReader.Token.BEGIN_ARRAY) {
+				r.skipValue();
+				return;
+			}
+			switch (key) {
+				case "code": this.code = r.nextString(); break;
+				case "road-segment": String rs = r.nextString(); if (this.code == null) this.code = rs; break;
+				case "road": this.road = r.nextString(); break;
+				case "start-kp": this.startKP = r.nextInt(); break;
+				case "end-kp": this.endKP = r.nextInt(); break;
+				case "length": this.length = r.nextInt(); break;
+				case "capacity": this.capacity = r.nextInt(); break;
+				case "max-speed": this.maxSpeed = r.nextInt(); break;
+				case "current-max-speed": this.currentMaxSpeed = r.nextInt(); break;
+				default: r.skipValue();
+			}
+		}
+	}
+
+	private static final class Builder {
+		int segmentCount = 0;
+		String[] segmentCodes = new String[64];
+		String[] pendingRoad = new String[64];
+		int[] segmentRoad = new int[64];
+		int[] startKP = new int[64];
+		int[] endKP = new int[64];
+		int[] length = new int[64];
+		int[] capacity = new int[64];
+		int[] maxSpeed = new int[64];
+		int[] currentMaxSpeed = new int[64];
+		final Map<String, Integer> segmentIds = new HashMap<>();
+
+		int roadCount = 0;
+		String[] roadCodes = new String[16];
+		String[] roadNames = new String[16];
+		final Map<String, Integer> roadIds = new HashMap<>();
+
+		int addSegment(SegmentFields f, int road) {
+			if (f.code == null) {
+				return NO_ID;
+			}
+			Integer existing = this.segmentIds.get(f.code);
+			int s;
+			if (existing != null) {
+				// Segmento repetido: prevalece la última definición
+				s = existing;
+			} else {
+				if (this.segmentCount == this.segmentCodes.length) {
+					this.grow();
+				}
+				s = this.segmentCount++;
+				this.segmentIds.put(f.code, s);
+				this.segmentCodes[s] = f.code;
+			}
+			this.pendingRoad[s] = f.road;
+			this.segmentRoad[s] = road;
+			this.startKP[s] = f.startKP;
+			this.endKP[s] = f.endKP;
+			this.length[s] = (f.length >= 0) ? f.length : Math.abs(f.endKP - f.startKP);
+			this.capacity[s] = f.capacity;
+			this.maxSpeed[s] = (f.maxSpeed >= 0) ? f.maxSpeed : 0;
+			this.currentMaxSpeed[s] = (f.currentMaxSpeed >= 0) ? f.currentMaxSpeed : this.maxSpeed[s];
+			return s;
+		}
+
+		int internRoad(String code, String name) {
+			if (code == null) {
+				code = "";
+			}
+			Integer existing = this.roadIds.get(code);
+			if (existing != null) {
+				if (name != null) {
+					this.roadNames[existing] = name;
+				}
+				return existing;
+			}
+			if (this.roadCount == this.roadCodes.length) {
+				this.roadCodes = Arrays.copyOf(this.roadCodes, this.roadCount * 2);
+				this.roadNames = Arrays.copyOf(this.roadNames, this.roadCount * 2);
+			}
+			int r = this.roadCount++;
+			this.roadIds.put(code, r);
+			this.roadCodes[r] = code;
+			this.roadNames[r] = (name != null) ? name : code;
+			return r;
+		}
+
+		private void grow() {
+			int n = this.segmentCodes.length * 2;
+			this.segmentCodes = Arrays.copyOf(this.segmentCodes, n);
+			this.pendingRoad = Arrays.copyOf(this.pendingRoad, n);
+			this.segmentRoad = Arrays.copyOf(this.segmentRoad, n);
+			this.startKP = Arrays.copyOf(this.startKP, n);
+			this.endKP = Arrays.copyOf(this.endKP, n);
+			this.length = Arrays.copyOf(this.length, n);
+			this.capacity = Arrays.copyOf(this.capacity, n);
+			this.maxSpeed = Arrays.copyOf(this.maxSpeed, n);
+			this.currentMaxSpeed = Arrays.copyOf(this.currentMaxSpeed, n);
+		}
+	}
+}
@@ -1,46 +1,86 @@
 package ina.vehicle.navigation.components;
 
+import java.util.Arrays;
+
 import ina.vehicle.navigation.interfaces.IRoadSegment;
 import ina.vehicle.navigation.interfaces.IRoadSegmentConfigurator;
+import ina.vehicle.navigation.interfaces.IRoadSegmentStatusListener;
 import ina.vehicle.navigation.types.ERoadStatus;
-import ina.vehicle.navigation.utils.MyBean;
 
+/**
+ * Segmento de carretera.
+ *
+ * El estado se guarda en campos primitivos (no en un MyBean): los getters son accesos directos
+ * y setNumVehicles recalcula densidad y estado sin búsquedas en mapas ni boxing, ya que se
+ * evalúa con cada evento de tráfico del segmento.
+ *
+ * Los cambios de estado (por densidad de tráfico, cierre o apertura) se notifican a los
+ * IRoadSegmentStatusListener registrados.
+ *
+ * Por defecto el estado se obtiene de la densidad actual con los umbrales fijos del simulador. Con una
+ * RoadStatusPolicy (setStatusPolicy) se calcula sobre la densidad suavizada, con histéresis y tiempo
+ * mínimo en cada estado.
+ */
 public class RoadSegment implements IRoadSegment, IRoadSegmentConfigurator {
 
-   protected MyBean bean = null;
+   private static final IRoadSegmentStatusListener[] NO_LISTENERS = new IRoadSegmentStatusListener[0];
+
+   protected final String id;
+   protected String road = null;
+   protected String code = null;
+   protected int startKP = 0;
+   protected int endKP = 0;
+   protected int length = 0;
+   protected int capacity = 0;
+   protected int maxSpeed = 0;
+   protected int currentMaxSpeed = 0;
+   protected int numVehicles = 0;
+   protected int density = 0;
+   protected ERoadStatus status = null;
+
+   // Filtro de estado (null: umbrales fijos) y su estado: densidad suavizada, instante de la última
+   // muestra e instante del último cambio de estado
+   protected RoadStatusPolicy statusPolicy = null;
+   protected double smoothedDensity = 0;
+   protected long densitySampleTime = 0;
+   protected long statusSince = 0;
+
+   // Copy-on-write: la notificación recorre el array sin bloquear
+   private volatile IRoadSegmentStatusListener[] listeners = NO_LISTENERS;
 
    public RoadSegment(String id, String road, String roadSegmentCode, int pk_inicio, int pk_fin, int capacity, int speed) {
-     
-	  this.bean = new MyBean(id);
+
+	  this.id = id;
       this.setRoad(road);
       this.setRoadSegmentCode(roadSegmentCode);
       this.setStartKP(pk_inicio);
       this.setEndKP(pk_fin);
       this.setLength(Math.abs((pk_inicio-pk_fin)));
       this.setCapacity(capacity);
-      this.setRoadSegmentMaxSpeed(speed);
+      this.maxSpeed = speed;
+      this.currentMaxSpeed = speed;
       this.setStatus(ERoadStatus.Free_Flow);
       this.setNumVehicles(0);
    }
 
    @Override
    public String getId() {
-      return this.bean.getId();
+      return this.id;
    }
-   
-   
+
+
    @Override
 	public String getRT() {
 		return "road-segment";
 	}
-   
+
    @Override
 	public String getRoadSegmentCode() {
-		return this.bean.getProperty("code", String.class);
+		return this.code;
 	}
-   
+
    protected IRoadSegmentConfigurator setRoadSegmentCode(String code) {
-	   this.bean.setProperty("code", code);
+	   this.code = code;
 	   return this;
    }
 
@@ -49,57 +89,56 @@ public class RoadSegment implements IRoadSegment, IRoadSegmentConfigurator {
       return this;
    }
 
-   
+
    @Override
    public int getRoadSegmentMaxSpeed() {
-	   return this.bean.getProperty("max_speed", Integer.class);
+	   return this.maxSpeed;
    }
 
    @Override
    public IRoadSegmentConfigurator setRoadSegmentMaxSpeed(int maxSpeed) {
-      this.bean.getProperties().put("max_speed", maxSpeed);
-      Integer cmaxSpeed = this.getCurrentMaxSpeed();
-      if ( cmaxSpeed == null || cmaxSpeed > maxSpeed )
-    	  this.setCurrentMaxSpeed(maxSpeed);
+      this.maxSpeed = maxSpeed;
+      if ( this.currentMaxSpeed > maxSpeed )
+    	  this.currentMaxSpeed = maxSpeed;
       return this;
    }
 
 
    @Override
    public int getCurrentMaxSpeed() {
-	   Integer ms = this.bean.getProperty("current_max_speed", Integer.class);
-	   if ( ms != null )
-		   return ms;
-	   
-	   ms = this.getRoadSegmentMaxSpeed();
-	   this.setCurrentMaxSpeed(ms);
-	   return ms;
+	   return this.currentMaxSpeed;
    }
-   
+
    @Override
    public IRoadSegmentConfigurator setCurrentMaxSpeed(int maxSpeed) {
-      this.bean.getProperties().put("current_max_speed", Math.min(maxSpeed, this.getRoadSegmentMaxSpeed()));
+      this.currentMaxSpeed = Math.min(maxSpeed, this.maxSpeed);
       return this;
    }
 
-   
+
    @Override
    public ERoadStatus getStatus() {
-      return this.bean.getProperty("status", ERoadStatus.class);
+      return this.status;
    }
 
    protected void setStatus(ERoadStatus status) {
-      this.bean.getProperties().put("status", status);
+      ERoadStatus previous = this.status;
+      this.status = status;
+      if ( previous != status ) {
+    	  IRoadSegmentStatusListener[] ls = this.listeners;
+    	  for (int i = 0; i < ls.length; i++)
+    		  ls[i].onStatusChanged(this, previous, status);
+      }
    }
-   
+
    @Override
 	public void closeRoadSegment() {
 	   if ( this.getStatus() == ERoadStatus.Closed )
 		   return;
-	   
+
 	   this.setStatus(ERoadStatus.Closed);
 	}
-   
+
    @Override
 	public void openRoadSegment() {
 	   ERoadStatus cstatus = this.getStatus();
@@ -111,61 +150,61 @@ public class RoadSegment implements IRoadSegment, IRoadSegmentConfigurator {
 
    @Override
    public int getCapacity() {
-      return this.bean.getProperty("capacity", Integer.class);
+      return this.capacity;
    }
 
    @Override
    public IRoadSegmentConfigurator setCapacity(int c) {
-      this.bean.getProperties().put("capacity", c);
+      this.capacity = c;
       return this;
    }
 
    @Override
    public String getRoad() {
-      return this.bean.getProperty("road", String.class);
-   
+      return this.road;
+
    }
 
-   
+
    protected IRoadSegmentConfigurator setRoad(String road) {
-      this.bean.getProperties().put("road", road);
+      this.road = road;
       return this;
    }
-   
+
    @Override
    public int getStartKP() {
-	   return this.bean.getProperty("start-kp", Integer.class);
+	   return this.startKP;
    }
 
    @Override
    public int getEndKP() {
-	   return this.bean.getProperty("end-kp", Integer.class);
+	   return this.endKP;
    }
-   
+
    protected IRoadSegmentConfigurator setStartKP(int p) {
-	   this.bean.setProperty("start-kp", p);
+	   this.startKP = p;
 	   return this;
    }
 
    protected IRoadSegmentConfigurator setEndKP(int p) {
-	   this.bean.setProperty("end-kp", p);
+	   this.endKP = p;
 	   return this;
    }
 
    @Override
    public int getLength() {
-      return this.bean.getProperty("length", Integer.class);
-   
+      return this.length;
+
    }
 
    @Override
    public IRoadSegmentConfigurator setLength(int l) {
-      this.bean.getProperties().put("length", l);
+      this.length = l;
       return this;
    }
-   
+
    protected ERoadStatus _calculateStatusValueForTrafficDensity(int trafficDensity) {
-	        
+
       if ( trafficDensity < 20 ) {
     	  return ERoadStatus.Free_Flow;
       } else if (trafficDensity >= 20 && trafficDensity < 35) {
@@ -173,74 +212,155 @@ public class RoadSegment implements IRoadSegment, IRoadSegmentConfigurator {
       } else if (trafficDensity >= 35 && trafficDensity < 50) {
       	  return ERoadStatus.Restricted_Manouvers;
       } else if (trafficDensity >= 50 && trafficDensity < 65) {
-          return ERoadStatus.Limited_Manouvers; 
+          return ERoadStatus.Limited_Manouvers;
       } else if (trafficDensity >= 65 && trafficDensity < 85) {
-          return ERoadStatus.No_Manouvers; 
+          return ERoadStatus.No_Manouvers;
       } else {
-          return ERoadStatus.Collapsed; 
+          return ERoadStatus.Collapsed;
       }
 
    }
-   
+
    @Override
    public IRoadSegment setNumVehicles(int n) {
 	   if ( n < 0 )
 		   n = 0;
-	   this.bean.getProperties().put("num-vehicles", n);
-	   
+	   this.numVehicles = n;
+
 	   // Si no está cerrado el Road Segment, actualizamos su estado en función del tráfico
-	   ERoadStatus currentStatus = this.getStatus();
-	   if ( currentStatus != ERoadStatus.Closed ) {
-		   if ( this.getCapacity() == 0) {
-			   
-		   }
+	   if ( this.status != ERoadStatus.Closed ) {
 		   this._updateRoadTrafficDensityStatus();
 	   }
-	   
-	   
+
 	   return this;
    }
-   
+
+   /**
+    * Suma (o resta) vehículos al segmento: VEHICLE_IN / VEHICLE_OUT
+    */
+   public IRoadSegment addVehicles(int delta) {
+	   return this.setNumVehicles(this.numVehicles + delta);
+   }
+
    protected IRoadSegment setTrafficDensityPctg(int densityPctg) {
-	   this.bean.setProperty("density", densityPctg);
+	   this.density = densityPctg;
 	   return this;
    }
-   
-   
+
+
    protected IRoadSegment _updateRoadTrafficDensityStatus() {
 	   int trafficDensity = 0;
-	   if ( this.getCapacity() < 0 ) {
+	   if ( this.capacity < 0 ) {
 		   trafficDensity = 0;
-	   } else if ( this.getCapacity() == 0 ) {
+	   } else if ( this.capacity == 0 ) {
 		   trafficDensity = 100;
 	   } else {
-		   trafficDensity = this.getNumVehicles() * 100 / this.getCapacity();
+		   trafficDensity = this.numVehicles * 100 / this.capacity;
+	   }
+	   RoadStatusPolicy policy = this.statusPolicy;
+	   if ( policy == null ) {
+		   this.density = trafficDensity;
+		   ERoadStatus status = this._calculateStatusValueForTrafficDensity(trafficDensity);
+		   if ( this.status != status ) {
+			   this.setStatus(status);
+		   }
+		   return this;
+	   }
+
+	   long now = policy.now();
+	   ERoadStatus current = this.status;
+	   if ( current == null || current == ERoadStatus.Closed ) {
+		   // Sin historia (o al reabrir) se parte de la densidad actual
+		   this.smoothedDensity = trafficDensity;
+	   } else {
+		   // La densidad anterior ha valido desde la última muestra hasta ahora
+		   this.smoothedDensity = policy.smooth(this.smoothedDensity, this.density, now - this.densitySampleTime);
 	   }
-	   this.setTrafficDensityPctg(trafficDensity);
-	   ERoadStatus status = this._calculateStatusValueForTrafficDensity(trafficDensity);
-	   ERoadStatus currentStatus = this.getStatus();
-	   if ( currentStatus != status ) {
+	   this.densitySampleTime = now;
+	   this.density = trafficDensity;
+	   ERoadStatus status = policy.next(current, this.smoothedDensity, this.statusSince, now);
+	   if ( current != status ) {
+		   this.statusSince = now;
 		   this.setStatus(status);
 	   }
 	   return this;
    }
-   
+
+   /**
+    * Filtro de cambios de estado por densidad (null: umbrales fijos del simulador)
+    */
+   public IRoadSegment setStatusPolicy(RoadStatusPolicy policy) {
+	   this.statusPolicy = policy;
+	   if ( policy != null ) {
+		   this.smoothedDensity = this.density;
+		   this.densitySampleTime = policy.now();
+		   this.statusSince = Long.MIN_VALUE / 2; // El primer cambio no espera
+	   }
+	   return this;
+   }
+
+   public RoadStatusPolicy getStatusPolicy() {
+	   return this.statusPolicy;
+   }
+
+   /**
+    * Densidad suavizada (%) a la que se aplica la política (la densidad actual sin política)
+    */
+   public double getSmoothedDensityPctg() {
+	   return (this.statusPolicy != null) ? this.smoothedDensity : this.density;
+   }
+
+   /**
+    * Con política, indica si el estado puede cambiar sin nuevos eventos: la densidad suavizada aún no ha
+    * alcanzado la actual o hay un cambio a la espera del tiempo mínimo. Basta con volver a evaluar el
+    * segmento (setNumVehicles con el mismo número) mientras lo esté.
+    */
+   public boolean isStatusSettling() {
+	   RoadStatusPolicy policy = this.statusPolicy;
+	   if ( policy == null || this.status == ERoadStatus.Closed ) {
+		   return false;
+	   }
+	   return Math.abs(this.smoothedDensity - this.density) >= 0.5
+			   || policy.target(this.status, this.smoothedDensity) != this.status;
+   }
+
    @Override
 	public int getTrafficDensityPctg() {
-		return this.bean.getProperty("density", Integer.class);
+		return this.density;
 	}
-   
+
    @Override
    public Integer getNumVehicles() {
-	   Integer nv = this.bean.getProperty("num-vehicles", Integer.class);
-	   if ( nv == null ) {
-		   this.setNumVehicles(0);
-		   return 0;
+	   return this.numVehicles;
+   }
+
+   /**
+    * Número de vehículos sin boxing (getNumVehicles devuelve Integer por compatibilidad con IRoadSegment)
+    */
+   public int getNumVehiclesCount() {
+	   return this.numVehicles;
+   }
+
+   public synchronized void addStatusListener(IRoadSegmentStatusListener listener) {
+	   IRoadSegmentStatusListener[] ls = Arrays.copyOf(this.listeners, this.listeners.length + 1);
+	   ls[ls.length - 1] = listener;
+	   this.listeners = ls;
+   }
+
+   public synchronized void removeStatusListener(IRoadSegmentStatusListener listener) {
+	   IRoadSegmentStatusListener[] ls = this.listeners;
+	   for (int i = 0; i < ls.length; i++) {
+		   if ( ls[i] == listener ) {
+			   IRoadSegmentStatusListener[] nls = new IRoadSegmentStatusListener[ls.length - 1];
+			   System.arraycopy(ls, 0, nls, 0, i);
+			   System.arraycopy(ls, i + 1, nls, i, ls.length - i - 1);
+			   this.listeners = nls;
+			   return;
+		   }
 	   }
-	   return nv;
    }
-      
-   
+
+
    @Override
 	public String toString() {
 		return this.getId();
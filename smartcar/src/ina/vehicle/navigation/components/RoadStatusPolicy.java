@@ -0,0 +1,176 @@
+package ina.vehicle.navigation.components;
+
+import java.util.function.LongSupplier;
+
+import ina.vehicle.navigation.types.ERoadStatus;
+
+/**
+ * Política de cambio de estado por densidad de un RoadSegment, para evitar que el estado oscile
+ * cuando la densidad ronda un umbral (cada cambio supone un ROAD_STATUS y, en el RoadManager,
+ * crear o retirar una señal speed-limit):
+ *
+ *  - Suavizado: media móvil exponencial (EWMA) de la densidad en tiempo continuo, con constante de
+ *    tiempo smoothingMillis. La densidad se considera constante entre dos muestras, de modo que el
+ *    resultado no depende de cuántos eventos lleguen sino del tiempo que dura cada valor.
+ *  - Histéresis: umbrales de subida y de bajada separados para cada nivel. Se entra en el nivel k
+ *    cuando la densidad suavizada alcanza up[k-1] y se sale de él cuando baja de down[k-1].
+ *  - Permanencia mínima: no se cambia de estado hasta que han pasado minDwellMillis desde el último
+ *    cambio.
+ *
+ * Los niveles son los de ERoadStatus de Free_Flow (0) a Collapsed (5); Closed no se ve afectado.
+ * La política es inmutable y se puede compartir entre segmentos: el estado del filtro (densidad
+ * suavizada e instante del último cambio) lo guarda cada RoadSegment.
+ */
+public class RoadStatusPolicy {
+
+	/**
+	 * Umbrales de densidad (%) del simulador para Mostly_Free_Flow ... Collapsed
+	 */
+	public static final int[] THRESHOLDS = { 20, 35, 50, 65, 85 };
+
+	public static final long DEFAULT_SMOOTHING_MS = 9_000L;  // 3 pasos del simulador
+	public static final int DEFAULT_HYSTERESIS = 5;           // puntos de densidad
+	public static final long DEFAULT_MIN_DWELL_MS = 15_000L;  // 5 pasos del simulador
+
+	private static final ERoadStatus[] LEVELS = { ERoadStatus.Free_Flow, ERoadStatus.Mostly_Free_Flow,
+			ERoadStatus.Restricted_Manouvers, ERoadStatus.Limited_Manouvers, ERoadStatus.No_Manouvers,
+			ERoadStatus.Collapsed };
+
+	private final long smoothingMillis;
+	private final int[] up;
+	private final int[] down;
+	private final long minDwellMillis;
+	private final LongSupplier clock;
+
+	/**
+	 * @param smoothingMillis constante de tiempo de la EWMA (0: sin suavizado)
+	 * @param up densidad a partir de la que se entra en cada nivel (Mostly_Free_Flow ... Collapsed)
+	 * @param down densidad por debajo de la que se sale de cada nivel (down[k] <= up[k])
+	 * @param minDwellMillis tiempo mínimo en un estado antes de cambiar a otro (0: sin mínimo)
+	 */
+	public RoadStatusPolicy(long smoothingMillis, int[] up, int[] down, long minDwellMillis) {
+		this(smoothingMillis, up, down, minDwellMillis, System::currentTimeMillis);
+	}
+
+	private RoadStatusPolicy(long smoothingMillis, int[] up, int[] down, long minDwellMillis, LongSupplier clock) {
+		if (up.length != THRESHOLDS.length || down.length != THRESHOLDS.length) {
+			throw new IllegalArgumentException("Expected " + THRESHOLDS.length + " thresholds");
+		}
+		for (int k = 0; k < up.length; k++) {
+			if (down[k] > up[k] || (k > 0 && (up[k] <= up[k - 1] || down[k] <= down[k - 1]))) {
+				throw new IllegalArgumentException("Thresholds must increase and down[k] <= up[k] (level " + (k + 1) + ")");
+			}
+		}
+		if (smoothingMillis < 0 || minDwellMillis < 0) {
+			throw new IllegalArgumentException("Negative smoothing or dwell time");
+		}
+		this.smoothingMillis = smoothingMillis;
+		this.up = up.clone();
+		this.down = down.clone();
+		this.minDwellMillis = minDwellMillis;
+		this.clock = clock;
+	}
+
+	/**
+	 * Umbrales del simulador para subir y los mismos menos 'hysteresis' puntos para bajar
+	 */
+	public static RoadStatusPolicy withHysteresis(long smoothingMillis, int hysteresis, long minDwellMillis) {
+		int[] down = new int[THRESHOLDS.length];
+		for (int k = 0; k < down.length; k++) {
+			down[k] = THRESHOLDS[k] - hysteresis;
+		}
+		return new RoadStatusPolicy(smoothingMillis, THRESHOLDS, down, minDwellMillis);
+	}
+
+	public static RoadStatusPolicy defaults() {
+		return withHysteresis(DEFAULT_SMOOTHING_MS, DEFAULT_HYSTERESIS, DEFAULT_MIN_DWELL_MS);
+	}
+
+	/**
+	 * Política configurada con propiedades del sistema (null si no se ha indicado ninguna):
+	 *   {prefix}.smoothing=<ms>, {prefix}.hysteresis=<puntos>, {prefix}.dwell=<ms>
+	 * Las que falten toman el valor por defecto; {prefix}.smoothing=true activa todos los valores por defecto.
+	 */
+	public static RoadStatusPolicy fromSystemProperties(String prefix) {
+		String smoothing = System.getProperty(prefix + ".smoothing");
+		String hysteresis = System.getProperty(prefix + ".hysteresis");
+		String dwell = System.getProperty(prefix + ".dwell");
+		if (smoothing == null && hysteresis == null && dwell == null) {
+			return null;
+		}
+		if ("false".equalsIgnoreCase(smoothing)) {
+			return null;
+		}
+		long s = (smoothing == null || "true".equalsIgnoreCase(smoothing)) ? DEFAULT_SMOOTHING_MS : Long.parseLong(smoothing);
+		int h = (hysteresis == null) ? DEFAULT_HYSTERESIS : Integer.parseInt(hysteresis);
+		long d = (dwell == null) ? DEFAULT_MIN_DWELL_MS : Long.parseLong(dwell);
+		return withHysteresis(s, h, d);
+	}
+
+	/**
+	 * Misma política con otro reloj (p.ej. el VirtualClock de la simulación headless)
+	 */
+	public RoadStatusPolicy withClock(LongSupplier clock) {
+		return new RoadStatusPolicy(this.smoothingMillis, this.up, this.down, this.minDwellMillis, clock);
+	}
+
+	public long now() {
+		return this.clock.getAsLong();
+	}
+
+	public long getSmoothingMillis() {
+		return this.smoothingMillis;
+	}
+
+	public long getMinDwellMillis() {
+		return this.minDwellMillis;
+	}
+
+	/**
+	 * Avanza la EWMA 'elapsed' ms durante los que la densidad ha valido 'held'
+	 */
+	public double smooth(double smoothed, int held, long elapsed) {
+		if (this.smoothingMillis == 0) {
+			return held;
+		}
+		if (elapsed <= 0) {
+			return smoothed;
+		}
+		return held + (smoothed - held) * Math.exp(-(double) elapsed / this.smoothingMillis);
+	}
+
+	/**
+	 * Estado al que corresponde la densidad suavizada partiendo de 'current', sin tener en cuenta la permanencia
+	 * (sin estado anterior, o Closed, se aplican los umbrales de subida)
+	 */
+	public ERoadStatus target(ERoadStatus current, double smoothed) {
+		int level = (current == null || current == ERoadStatus.Closed) ? 0 : current.getCode();
+		int t = level;
+		while (t < this.up.length && smoothed >= this.up[t]) {
+			t++;
+		}
+		if (t == level) {
+			while (t > 0 && smoothed < this.down[t - 1]) {
+				t--;
+			}
+		}
+		return LEVELS[t];
+	}
+
+	/**
+	 * Siguiente estado: el de target si el actual ha durado al menos minDwellMillis (o no hay estado anterior)
+	 * @param since instante del último cambio de estado
+	 */
+	public ERoadStatus next(ERoadStatus current, double smoothed, long since, long now) {
+		ERoadStatus t = this.target(current, smoothed);
+		if (t != current && current != null && current != ERoadStatus.Closed && now - since < this.minDwellMillis) {
+			return current;
+		}
+		return t;
+	}
+
+	@Override
+	public String toString() {
+		return "RoadStatusPolicy[smoothing=" + this.smoothingMillis + "ms, dwell=" + this.minDwellMillis + "ms]";
+	}
+}
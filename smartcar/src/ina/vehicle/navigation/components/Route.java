@@ -1,20 +1,40 @@
 package ina.vehicle.navigation.components;
 
-import java.util.ArrayList;
+import java.util.AbstractList;
+import java.util.Arrays;
 import java.util.Iterator;
+import java.util.RandomAccess;
 
 import ina.vehicle.navigation.interfaces.IRoadPoint;
 import ina.vehicle.navigation.interfaces.IRoute;
 import ina.vehicle.navigation.interfaces.IRouteFragment;
 
-public class Route extends ArrayList<IRouteFragment> implements IRoute {
-	
-    /**
-	 * 
-	 */
-	private static final long serialVersionUID = 8554884433683050245L;
+/**
+ * Ruta: secuencia de fragmentos que el Navigator va consumiendo desde el principio.
+ *
+ * Los fragmentos se guardan en un array con un índice de cabeza: extractFirst() sólo avanza
+ * la cabeza (O(1)), en lugar de desplazar todos los elementos como ArrayList.remove(0).
+ * Se mantienen además las sumas acumuladas de las longitudes de los fragmentos, de modo que
+ * la distancia restante (getRemainingDistance) se calcula en O(1) sin recorrer la ruta.
+ *
+ * Las sumas se recalculan cuando se modifica un fragmento ya añadido (setStartPoint/setEndPoint
+ * o set/add/remove en mitad de la ruta). Los puntos de la ruta no deben modificarse directamente
+ * (IRoadPoint.setPosition): el Navigator trabaja con su propia copia de la posición.
+ */
+public class Route extends AbstractList<IRouteFragment> implements IRoute, RandomAccess {
+
 	protected int length = 0;
 	protected String routeID = null;
+	protected boolean autoRouteID = false; // routeID generado a partir de los fragmentos
+
+	// Fragmentos vigentes: fragments[head .. tail-1]
+	protected IRouteFragment[] fragments = new IRouteFragment[8];
+	protected int head = 0;
+	protected int tail = 0;
+
+	// distances[i] = suma de las longitudes de los fragmentos anteriores a i (índices absolutos)
+	protected long[] distances = new long[9];
+	protected boolean distancesDirty = false;
       
       
 
@@ -43,6 +63,7 @@ public class Route extends ArrayList<IRouteFragment> implements IRoute {
          @Override
          public void setStartPoint(IRoadPoint startPoint) {
             this.startPoint = startPoint;
+            Route.this.distancesDirty = true;
          }
       
          @Override
@@ -53,6 +74,7 @@ public class Route extends ArrayList<IRouteFragment> implements IRoute {
          @Override
          public void setEndPoint(IRoadPoint endPoint) {
             this.endPoint = endPoint;
+            Route.this.distancesDirty = true;
          }
          
          
@@ -73,6 +95,9 @@ public class Route extends ArrayList<IRouteFragment> implements IRoute {
       
       @Override
       public String getRouteID() {
+    	 if (this.routeID == null && this.autoRouteID && !this.isEmpty())
+    		 // Identificador automático: se construye al pedirlo, no en cada addRouteFragment
+    		 this.routeID = "Route from " + this.get(0).getStartPoint().toString() + " to " + this.get(this.size()-1).getEndPoint().toString();
     	 if (this.routeID != null)
     		 return this.routeID;
     	 else
@@ -82,6 +107,7 @@ public class Route extends ArrayList<IRouteFragment> implements IRoute {
 
       public void setRouteID(String routeID) {
          this.routeID = routeID;
+         this.autoRouteID = false;
       }
 
       @Override
@@ -100,17 +126,28 @@ public class Route extends ArrayList<IRouteFragment> implements IRoute {
 	    	return this.length;
 	    }
       
+      /**
+       * Distancia desde la posición actual (dentro del primer fragmento) hasta el final de la ruta. O(1)
+       */
       @Override
 	   public int getRemainingDistance(IRoadPoint posActual) {
-    	  	if ( this.size() == 0 || posActual == null )
+    	  	if ( this.isEmpty() || posActual == null )
     	  		return 0;
-    	  	int distance = Math.abs(this.get(0).getEndPoint().getPosition() - posActual.getPosition());
-    	  	for(int i=1;i<this.size();i++) {
-    	  		distance += Math.abs(this.get(i).getEndPoint().getPosition()-this.get(i).getStartPoint().getPosition());
-    	  	}
-    	  	return distance;
+    	  	long distance = Math.abs(this.fragments[this.head].getEndPoint().getPosition() - posActual.getPosition());
+    	  	distance += this.getDistanceAfterFirst();
+    	  	return (int) Math.min(distance, Integer.MAX_VALUE);
 	    }
-      
+
+      /**
+       * Longitud de los fragmentos que siguen al primero. O(1)
+       */
+      public long getDistanceAfterFirst() {
+    	  	if ( this.size() <= 1 )
+    	  		return 0;
+    	  	this.ensureDistances();
+    	  	return this.distances[this.tail] - this.distances[this.head+1];
+      }
+
       protected void setLength(int l) {
     	  this.length = l;
       }
@@ -143,7 +180,8 @@ public class Route extends ArrayList<IRouteFragment> implements IRoute {
       public IRoute addRouteFragment(String rs, int pos_start, int pos_end) {
          this.add(new RouteFragment(new RoadPoint(rs, pos_start), new RoadPoint(rs, pos_end)));
          this.setLength(this.getLenght()+ Math.abs(pos_end-pos_start));
-         this.setRouteID("Route from " + this.get(0).getStartPoint().toString() + " to " + this.get(this.size()-1).getEndPoint().toString());
+         this.routeID = null;
+         this.autoRouteID = true;
          return this;
       }
       
@@ -157,4 +195,117 @@ public class Route extends ArrayList<IRouteFragment> implements IRoute {
          return this.get(index);
       }
  
+
+	// ------------------------------------------------------------
+	// Implementación de List sobre el array con cabeza
+	// ------------------------------------------------------------
+
+	@Override
+	public int size() {
+		return this.tail - this.head;
+	}
+
+	@Override
+	public IRouteFragment get(int index) {
+		this.checkIndex(index, this.size());
+		return this.fragments[this.head + index];
+	}
+
+	@Override
+	public IRouteFragment set(int index, IRouteFragment fragment) {
+		this.checkIndex(index, this.size());
+		IRouteFragment old = this.fragments[this.head + index];
+		this.fragments[this.head + index] = fragment;
+		this.distancesDirty = true;
+		return old;
+	}
+
+	@Override
+	public void add(int index, IRouteFragment fragment) {
+		this.checkIndex(index, this.size() + 1);
+		this.ensureCapacity(this.size() + 1);
+		int abs = this.head + index;
+		if (abs < this.tail) {
+			System.arraycopy(this.fragments, abs, this.fragments, abs + 1, this.tail - abs);
+			this.distancesDirty = true;
+		}
+		this.fragments[abs] = fragment;
+		this.tail++;
+		if (!this.distancesDirty) {
+			// Añadir al final: basta con extender las sumas acumuladas
+			this.distances[this.tail] = this.distances[this.tail - 1] + fragmentLength(fragment);
+		}
+		this.modCount++;
+	}
+
+	@Override
+	public IRouteFragment remove(int index) {
+		this.checkIndex(index, this.size());
+		int abs = this.head + index;
+		IRouteFragment old = this.fragments[abs];
+		if (index == 0) {
+			// Consumir el primer fragmento: sólo se avanza la cabeza
+			this.fragments[this.head++] = null;
+		} else {
+			System.arraycopy(this.fragments, abs + 1, this.fragments, abs, this.tail - abs - 1);
+			this.fragments[--this.tail] = null;
+			this.distancesDirty = true;
+		}
+		if (this.head == this.tail) {
+			this.head = 0;
+			this.tail = 0;
+			this.distancesDirty = false;
+		}
+		this.modCount++;
+		return old;
+	}
+
+	@Override
+	public void clear() {
+		Arrays.fill(this.fragments, this.head, this.tail, null);
+		this.head = 0;
+		this.tail = 0;
+		this.distancesDirty = false;
+		this.modCount++;
+	}
+
+	private void checkIndex(int index, int bound) {
+		if (index < 0 || index >= bound) {
+			throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + this.size());
+		}
+	}
+
+	private void ensureCapacity(int needed) {
+		if (this.tail < this.fragments.length) {
+			return;
+		}
+		if (this.head > 0 && needed <= this.fragments.length / 2) {
+			// Hay hueco de sobra al principio (fragmentos ya consumidos): se compacta
+			int n = this.size();
+			System.arraycopy(this.fragments, this.head, this.fragments, 0, n);
+			Arrays.fill(this.fragments, n, this.tail, null);
+			System.arraycopy(this.distances, this.head, this.distances, 0, n + 1);
+			this.head = 0;
+			this.tail = n;
+			return;
+		}
+		int capacity = Math.max(this.fragments.length * 2, needed);
+		this.fragments = Arrays.copyOf(this.fragments, capacity);
+		this.distances = Arrays.copyOf(this.distances, capacity + 1);
+	}
+
+	private void ensureDistances() {
+		if (!this.distancesDirty) {
+			return;
+		}
+		for (int i = this.head; i < this.tail; i++) {
+			this.distances[i + 1] = this.distances[i] + fragmentLength(this.fragments[i]);
+		}
+		this.distancesDirty = false;
+	}
+
+	private static long fragmentLength(IRouteFragment rf) {
+		return Math.abs((long) rf.getEndPoint().getPosition() - rf.getStartPoint().getPosition());
+	}
+
    }
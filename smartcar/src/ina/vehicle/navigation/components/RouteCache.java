@@ -0,0 +1,409 @@
+package ina.vehicle.navigation.components;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import ina.vehicle.navigation.interfaces.IRoadPoint;
+import ina.vehicle.navigation.interfaces.IRoute;
+import ina.vehicle.navigation.interfaces.IRoutePlanner;
+import ina.vehicle.navigation.interfaces.ISegmentWeightListener;
+
+/**
+ * Caché de rutas compartida delante de un RoutePlanner.
+ *
+ * Muchos vehículos piden la misma ruta (salidas desde cocheras, ambulancias hacia los hospitales,
+ * patrullas desde las comisarías): la búsqueda se hace una vez y el resto reciben el mismo RoutePlan
+ * (inmutable), cada uno con su propio cursor.
+ *
+ *  - Clave: origen y destino ajustados a nodos del grafo (el primer punto de conexión a partir del
+ *    origen y el último antes del destino) más la época de la red. Todos los orígenes de un segmento
+ *    que caen antes del mismo punto de conexión comparten el camino; sólo cambian los fragmentos
+ *    inicial y final. Cada entrada recuerda el último plan exacto pedido (mismo origen y destino).
+ *  - Capacidad acotada con expulsión LRU, repartida en STRIPES tablas con su propio cerrojo para que
+ *    las consultas concurrentes no compitan por un único cerrojo.
+ *  - Invalidación selectiva: la caché escucha los cambios de peso del planificador. Cada entrada guarda
+ *    la velocidad de sus segmentos al calcularla, y se descarta cuando la de alguno se aleja de ella en
+ *    'threshold' o más (proporción de esa velocidad; varios cambios pequeños seguidos también cuentan).
+ *    Si un segmento que no usa se vuelve más rápido (o se abre), se descarta si un camino que pase por
+ *    él podría ser más rápido en 'threshold' o más (proporción del tiempo de la ruta guardada) según las
+ *    cotas inferiores (landmarks) del planificador. invalidateAll cambia de época y descarta todo.
+ *  - Las rutas inexistentes también se guardan (se descartan cuando se abre o acelera algún segmento
+ *    que podría dar un camino).
+ */
+public class RouteCache implements IRoutePlanner, ISegmentWeightListener {
+
+	public static final int DEFAULT_MAX_ENTRIES = 4096;
+	public static final double DEFAULT_THRESHOLD = 0.1; // 10% de la velocidad al guardar la ruta
+
+	private static final int STRIPES = 16;
+
+	private final RoutePlanner planner;
+	private final double threshold;
+	private final Stripe[] stripes;
+
+	private volatile int epoch = 0;
+	private volatile long changes = 0; // cambios de peso (para no guardar rutas calculadas durante uno)
+
+	// Estadísticas
+	private final AtomicLong hits = new AtomicLong();
+	private final AtomicLong misses = new AtomicLong();
+	private final AtomicLong evictions = new AtomicLong();
+	private final AtomicLong invalidations = new AtomicLong();
+
+	public RouteCache(RoutePlanner planner) {
+		this(planner, DEFAULT_MAX_ENTRIES, DEFAULT_THRESHOLD);
+	}
+
+	/**
+	 * @param maxEntries número máximo de pares origen/destino guardados
+	 * @param threshold variación relativa de velocidad (o de tiempo de la ruta) a partir de la cual se invalidan
+	 *                  rutas (0: cualquier cambio)
+	 */
+	public RouteCache(RoutePlanner planner, int maxEntries, double threshold) {
+		if (maxEntries <= 0) {
+			throw new IllegalArgumentException("maxEntries must be > 0");
+		}
+		this.planner = planner;
+		this.threshold = Math.max(0, threshold);
+		this.stripes = new Stripe[STRIPES];
+		int perStripe = Math.max(1, (maxEntries + STRIPES - 1) / STRIPES);
+		for (int i = 0; i < STRIPES; i++) {
+			this.stripes[i] = new Stripe(perStripe);
+		}
+		planner.addWeightListener(this);
+	}
+
+	// ------------------------------------------------------------
+	// Consultas
+	// ------------------------------------------------------------
+
+	@Override
+	public IRoute planRoute(IRoadPoint origin, IRoadPoint destination) {
+		return this.planRoute(origin.getRoadSegment(), origin.getPosition(), destination.getRoadSegment(), destination.getPosition());
+	}
+
+	/**
+	 * Ruta más rápida entre dos puntos: un cursor nuevo sobre el plan compartido (ver getPlan)
+	 */
+	@Override
+	public IRoute planRoute(String originSegment, int originPosition, String destinationSegment, int destinationPosition) {
+		RoutePlan plan = this.getPlan(originSegment, originPosition, destinationSegment, destinationPosition);
+		return (plan == null) ? null : plan.newCursor();
+	}
+
+	/**
+	 * Plan de ruta compartido entre dos puntos (no se debe modificar: se recorre con newCursor)
+	 * @return el plan, o null si el destino no es alcanzable
+	 */
+	public RoutePlan getPlan(String originSegment, int originPosition, String destinationSegment, int destinationPosition) {
+		RoutePlanner p = this.planner;
+		int so = p.segmentId(originSegment);
+		int sd = p.segmentId(destinationSegment);
+		RoutePlanner.checkPosition(p.network, so, originPosition);
+		RoutePlanner.checkPosition(p.network, sd, destinationPosition);
+
+		// Destino más adelante en el mismo segmento: no hay búsqueda que ahorrar
+		if (so == sd && p.isAhead(so, originPosition, destinationPosition)) {
+			return RoutePlan.of(new Route().addRouteFragment(originSegment, originPosition, destinationPosition));
+		}
+
+		int source = p.nodeAtOrAfter(so, originPosition);
+		int target = p.nodeAtOrBefore(sd, destinationPosition);
+		Key key = new Key(source, target, this.epoch);
+		Stripe stripe = this.stripe(key);
+
+		Entry entry;
+		synchronized (stripe) {
+			entry = stripe.get(key);
+		}
+		if (entry != null) {
+			this.hits.incrementAndGet();
+		} else {
+			this.misses.incrementAndGet();
+			long before = this.changes;
+			entry = new Entry(source, target, p.findPath(so, originPosition, source, target));
+			synchronized (stripe) {
+				// Si el peso de algún segmento ha cambiado durante la búsqueda la ruta puede estar ya invalidada
+				// (el cambio se comprueba con el cerrojo: la invalidación recorre después esta tabla)
+				if (this.changes == before) {
+					stripe.put(key, entry);
+				}
+			}
+		}
+		return entry.getPlan(so, originPosition, destinationPosition);
+	}
+
+	// ------------------------------------------------------------
+	// Invalidación
+	// ------------------------------------------------------------
+
+	@Override
+	public void onSegmentWeightChanged(String segment, int previousSpeed, int currentSpeed) {
+		if (previousSpeed == currentSpeed) {
+			return;
+		}
+		int s = this.planner.network.getSegmentId(segment);
+		if (s == RoadNetwork.NO_ID) {
+			return;
+		}
+		this.changes++; // Los cambios de peso llegan de uno en uno (el planificador los serializa)
+		boolean faster = currentSpeed != 0 && (previousSpeed == 0 || currentSpeed > previousSpeed);
+		for (Stripe stripe : this.stripes) {
+			synchronized (stripe) {
+				Iterator<Entry> it = stripe.values().iterator();
+				while (it.hasNext()) {
+					Entry e = it.next();
+					// Las rutas que usan el segmento se comparan con su velocidad al guardarlas (más rápido puede
+					// compensar recorrer más parte de él: también se descartan)
+					int i = e.indexOf(s);
+					boolean stale = (i >= 0) ? this.isSignificant(e.speeds[i], currentSpeed) : (faster && this.couldImprove(e, s));
+					if (stale) {
+						it.remove();
+						this.invalidations.incrementAndGet();
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * Descarta todas las rutas (p.ej. al cambiar las conexiones de la red)
+	 */
+	public void invalidateAll() {
+		// Las búsquedas en curso guardan su resultado con la época anterior y no se vuelven a encontrar
+		this.epoch++;
+		for (Stripe stripe : this.stripes) {
+			synchronized (stripe) {
+				this.invalidations.addAndGet(stripe.size());
+				stripe.clear();
+			}
+		}
+	}
+
+	/**
+	 * Indica si la velocidad actual se aleja lo bastante de la que tenía el segmento al guardar la ruta
+	 */
+	private boolean isSignificant(int cachedSpeed, int currentSpeed) {
+		if (cachedSpeed == currentSpeed) {
+			return false;
+		}
+		if (cachedSpeed == 0 || currentSpeed == 0) {
+			return true; // Se abre o se cierra
+		}
+		return Math.abs(currentSpeed - cachedSpeed) >= this.threshold * cachedSpeed;
+	}
+
+	/**
+	 * Indica si un camino que pase por el segmento (con su velocidad actual) podría ser más rápido que la ruta
+	 * guardada en 'threshold' o más: cota inferior hasta un punto del segmento + tramo recorrido + cota
+	 * inferior hasta el destino
+	 */
+	private boolean couldImprove(Entry e, int s) {
+		RoutePlanner p = this.planner;
+		double limit = e.cost * (1 - Math.min(this.threshold, 1));
+		int first = p.segNodes[s];
+		int last = p.segNodes[s + 1] - 1;
+		for (int i = first; i <= last; i++) {
+			double toSegment = p.heuristic(e.source, i);
+			if (toSegment >= limit) {
+				continue;
+			}
+			for (int j = i; j <= last; j++) {
+				double along = p.travelTime(s, Math.abs(p.nodePosition[j] - p.nodePosition[i]), false);
+				if (toSegment + along + p.heuristic(j, e.target) < limit) {
+					return true;
+				}
+			}
+		}
+		return false;
+	}
+
+	// ------------------------------------------------------------
+	// Estadísticas
+	// ------------------------------------------------------------
+
+	public int size() {
+		int size = 0;
+		for (Stripe stripe : this.stripes) {
+			synchronized (stripe) {
+				size += stripe.size();
+			}
+		}
+		return size;
+	}
+
+	public long getHits() {
+		return this.hits.get();
+	}
+
+	public long getMisses() {
+		return this.misses.get();
+	}
+
+	public long getEvictions() {
+		return this.evictions.get();
+	}
+
+	public long getInvalidations() {
+		return this.invalidations.get();
+	}
+
+	public RoutePlanner getPlanner() {
+		return this.planner;
+	}
+
+	public String getStats() {
+		return "routes=" + this.size()
+				+ " hits=" + this.hits.get()
+				+ " misses=" + this.misses.get()
+				+ " evictions=" + this.evictions.get()
+				+ " invalidations=" + this.invalidations.get();
+	}
+
+	@Override
+	public String toString() {
+		return "RouteCache[" + this.getStats() + "]";
+	}
+
+	private Stripe stripe(Key key) {
+		int h = key.hashCode();
+		return this.stripes[(h ^ (h >>> 16)) & (STRIPES - 1)];
+	}
+
+	/**
+	 * Origen y destino ajustados a nodos, y época de la red
+	 */
+	private static final class Key {
+		final int source;
+		final int target;
+		final int epoch;
+
+		Key(int source, int target, int epoch) {
+			this.source = source;
+			this.target = target;
+			this.epoch = epoch;
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			if (!(o instanceof Key)) {
+				return false;
+			}
+			Key k = (Key) o;
+			return k.source == this.source && k.target == this.target && k.epoch == this.epoch;
+		}
+
+		@Override
+		public int hashCode() {
+			return (this.source * 31 + this.target) * 31 + this.epoch;
+		}
+	}
+
+	/**
+	 * Camino de nodos entre el origen y el destino de una clave (inmutable salvo el último plan pedido)
+	 */
+	private final class Entry {
+		final int source;
+		final int target;
+		final int[] path; // null: no hay ruta
+		final int[] segments; // segmentos recorridos, ordenados
+		final int[] speeds; // velocidad de cada segmento de 'segments' al calcularlo
+		final double cost; // tiempo (ms) de source a target al calcularlo
+
+		// Último plan exacto pedido (las salidas desde un mismo punto suelen repetirse)
+		volatile ExactPlan last = null;
+
+		Entry(int source, int target, int[] path) {
+			this.source = source;
+			this.target = target;
+			this.path = path;
+			RoutePlanner p = RouteCache.this.planner;
+			if (path == null) {
+				this.segments = new int[0];
+				this.speeds = new int[0];
+				this.cost = Double.POSITIVE_INFINITY;
+				return;
+			}
+			int[] segs = new int[path.length];
+			int n = 0;
+			double c = 0;
+			for (int i = 0; i < path.length; i++) {
+				int s = p.nodeSegment[path[i]];
+				if (n == 0 || segs[n - 1] != s) {
+					segs[n++] = s;
+				}
+				if (i > 0 && p.nodeSegment[path[i - 1]] == s) {
+					c += p.travelTime(s, Math.abs(p.nodePosition[path[i]] - p.nodePosition[path[i - 1]]), false);
+				}
+			}
+			this.segments = Arrays.copyOf(segs, n);
+			Arrays.sort(this.segments);
+			this.speeds = new int[n];
+			for (int i = 0; i < n; i++) {
+				this.speeds[i] = p.speed[this.segments[i]];
+			}
+			this.cost = c;
+		}
+
+		/**
+		 * Posición del segmento en 'segments', o -1 si la ruta no lo usa
+		 */
+		int indexOf(int segment) {
+			int i = Arrays.binarySearch(this.segments, segment);
+			return (i >= 0) ? i : -1;
+		}
+
+		RoutePlan getPlan(int so, int originPosition, int destinationPosition) {
+			if (this.path == null) {
+				return null;
+			}
+			ExactPlan e = this.last;
+			if (e != null && e.originPosition == originPosition && e.destinationPosition == destinationPosition) {
+				return e.plan;
+			}
+			IRoute route = RouteCache.this.planner.buildRoute(this.path, this.path.length, so, originPosition, destinationPosition);
+			// El plan es de la entrada (no se interna): se libera cuando la entrada se expulsa o invalida
+			RoutePlan plan = RoutePlan.of(route);
+			this.last = new ExactPlan(originPosition, destinationPosition, plan);
+			return plan;
+		}
+	}
+
+	private static final class ExactPlan {
+		final int originPosition;
+		final int destinationPosition;
+		final RoutePlan plan;
+
+		ExactPlan(int originPosition, int destinationPosition, RoutePlan plan) {
+			this.originPosition = originPosition;
+			this.destinationPosition = destinationPosition;
+			this.plan = plan;
+		}
+	}
+
+	/**
+	 * Tabla LRU de una parte de las claves (se accede con su cerrojo)
+	 */
+	private final class Stripe extends LinkedHashMap<Key, Entry> {
+		private static final long serialVersionUID = 1L;
+
+		private final int maxEntries;
+
+		Stripe(int maxEntries) {
+			super(16, 0.75f, true);
+			this.maxEntries = maxEntries;
+		}
+
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<Key, Entry> eldest) {
+			if (this.size() > this.maxEntries) {
+				RouteCache.this.evictions.incrementAndGet();
+				return true;
+			}
+			return false;
+		}
+	}
+}
@@ -0,0 +1,119 @@
+package ina.vehicle.navigation.components;
+
+import java.util.AbstractList;
+import java.util.RandomAccess;
+
+import ina.vehicle.navigation.interfaces.IRoadPoint;
+import ina.vehicle.navigation.interfaces.IRoute;
+import ina.vehicle.navigation.interfaces.IRouteFragment;
+
+/**
+ * Ruta de un vehículo sobre un RoutePlan compartido.
+ *
+ * Implementa IRoute (se puede pasar tal cual a Navigator.setRoute / SmartCar.setRoute) pero no copia
+ * los fragmentos: sólo guarda el plan y el índice del fragmento actual. Consumir un fragmento
+ * (extractFirst) avanza el índice; el plan no se modifica. La posición dentro del fragmento la
+ * mantiene el Navigator.
+ *
+ * La ruta es de sólo lectura salvo por extractFirst/remove(0): añadir o modificar fragmentos lanza
+ * UnsupportedOperationException (para cambiar de ruta se asigna otro plan).
+ */
+public class RouteCursor extends AbstractList<IRouteFragment> implements IRoute, RandomAccess {
+
+	private final RoutePlan plan;
+	private int index = 0;
+
+	public RouteCursor(RoutePlan plan) {
+		this.plan = plan;
+	}
+
+	public RoutePlan getPlan() {
+		return this.plan;
+	}
+
+	/**
+	 * Índice en el plan del fragmento actual
+	 */
+	public int getIndex() {
+		return this.index;
+	}
+
+	@Override
+	public int size() {
+		return this.plan.size() - this.index;
+	}
+
+	@Override
+	public IRouteFragment get(int i) {
+		if (i < 0 || i >= this.size()) {
+			throw new IndexOutOfBoundsException("Index: " + i + ", Size: " + this.size());
+		}
+		return this.plan.getFragment(this.index + i);
+	}
+
+	@Override
+	public IRouteFragment remove(int i) {
+		if (i != 0) {
+			throw new UnsupportedOperationException("Only the first fragment of a RouteCursor can be removed");
+		}
+		IRouteFragment first = this.get(0);
+		this.index++;
+		this.modCount++;
+		return first;
+	}
+
+	@Override
+	public IRoute addRouteFragment(String rs, int pos_start, int pos_end) {
+		throw new UnsupportedOperationException("RouteCursor is backed by an immutable RoutePlan");
+	}
+
+	@Override
+	public String getRouteID() {
+		return this.plan.getRouteID();
+	}
+
+	@Override
+	public IRouteFragment getFirst() throws IndexOutOfBoundsException {
+		return this.get(0);
+	}
+
+	@Override
+	public IRouteFragment extractFirst() throws IndexOutOfBoundsException {
+		return this.remove(0);
+	}
+
+	@Override
+	public IRouteFragment getRouteFragment(int i) throws IndexOutOfBoundsException {
+		return this.get(i);
+	}
+
+	@Override
+	public int getLenght() {
+		return (int) Math.min(this.plan.getLength(), Integer.MAX_VALUE);
+	}
+
+	/**
+	 * Distancia desde la posición actual (dentro del primer fragmento) hasta el final de la ruta. O(1)
+	 */
+	@Override
+	public int getRemainingDistance(IRoadPoint posActual) {
+		if (this.isEmpty() || posActual == null) {
+			return 0;
+		}
+		long distance = Math.abs(this.get(0).getEndPoint().getPosition() - posActual.getPosition())
+				+ this.plan.getDistanceFrom(this.index + 1);
+		return (int) Math.min(distance, Integer.MAX_VALUE);
+	}
+
+	@Override
+	public String toString() {
+		if (this.isEmpty()) {
+			return "<none>";
+		}
+		StringBuilder rs = new StringBuilder();
+		for (int i = 0; i < this.size(); i++) {
+			rs.append(this.get(i).toString());
+		}
+		return rs.toString();
+	}
+}
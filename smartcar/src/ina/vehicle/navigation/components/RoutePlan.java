@@ -0,0 +1,262 @@
+package ina.vehicle.navigation.components;
+
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import ina.vehicle.navigation.interfaces.IRoadPoint;
+import ina.vehicle.navigation.interfaces.IRouteFragment;
+
+/**
+ * Plan de ruta inmutable y compartible.
+ *
+ * Contiene los fragmentos de una ruta (con sus longitudes acumuladas) y no se modifica nunca,
+ * de modo que todos los vehículos que siguen la misma ruta comparten una única instancia
+ * (ver intern). Cada vehículo recorre el plan con su propio RouteCursor, que sólo guarda el
+ * índice del fragmento actual: la memoria por vehículo es constante sea cual sea la ruta.
+ *
+ * Los fragmentos y puntos del plan son de sólo lectura: sus setters lanzan UnsupportedOperationException.
+ */
+public final class RoutePlan {
+
+	// Planes internados por contenido. Referencias débiles: un plan sale de la tabla cuando ya no lo
+	// usa ningún cursor, caché ni flota
+	private static final Map<String, InternedRef> INTERNED = new ConcurrentHashMap<>();
+	private static final ReferenceQueue<RoutePlan> COLLECTED = new ReferenceQueue<>();
+
+	private final IRouteFragment[] fragments;
+	private final long[] distances; // distances[i] = longitud de los fragmentos anteriores a i
+	private final String key;
+	private final String routeID;
+
+	private RoutePlan(IRouteFragment[] fragments, String key) {
+		this.fragments = fragments;
+		this.key = key;
+		this.distances = new long[fragments.length + 1];
+		for (int i = 0; i < fragments.length; i++) {
+			IRouteFragment rf = fragments[i];
+			this.distances[i + 1] = this.distances[i] + Math.abs((long) rf.getEndPoint().getPosition() - rf.getStartPoint().getPosition());
+		}
+		this.routeID = (fragments.length == 0) ? "<no-route>"
+				: "Route from " + fragments[0].getStartPoint() + " to " + fragments[fragments.length - 1].getEndPoint();
+	}
+
+	/**
+	 * Plan con los fragmentos indicados (se copian). No se interna: ver intern
+	 */
+	public static RoutePlan of(List<IRouteFragment> fragments) {
+		IRouteFragment[] copy = new IRouteFragment[fragments.size()];
+		StringBuilder key = new StringBuilder(fragments.size() * 16);
+		for (int i = 0; i < copy.length; i++) {
+			IRouteFragment rf = fragments.get(i);
+			PlanPoint start = new PlanPoint(rf.getStartPoint().getRoadSegment().intern(), rf.getStartPoint().getPosition());
+			PlanPoint end = new PlanPoint(rf.getEndPoint().getRoadSegment().intern(), rf.getEndPoint().getPosition());
+			copy[i] = new PlanFragment(start, end);
+			if (i > 0) {
+				key.append(',');
+			}
+			key.append(start.segment).append(':').append(start.position).append(':');
+			if (!end.segment.equals(start.segment)) {
+				key.append(end.segment).append(':');
+			}
+			key.append(end.position);
+		}
+		return new RoutePlan(copy, key.toString());
+	}
+
+	/**
+	 * Instancia compartida del plan con estos fragmentos (la crea la primera vez).
+	 *
+	 * Pensado para un conjunto pequeño y fijo de rutas que siguen muchos vehículos (las del fichero de
+	 * flota). Las rutas calculadas para un vehículo (planificador, replanificación, caché de rutas)
+	 * deben crearse con of: su clave empieza en la posición del vehículo y casi nunca se repite.
+	 */
+	public static RoutePlan intern(List<IRouteFragment> fragments) {
+		if (fragments instanceof RouteCursor) {
+			RouteCursor c = (RouteCursor) fragments;
+			if (c.getIndex() == 0) {
+				return intern(c.getPlan());
+			}
+		}
+		return intern(of(fragments));
+	}
+
+	public static RoutePlan intern(RoutePlan plan) {
+		expungeCollected();
+		while (true) {
+			InternedRef ref = INTERNED.get(plan.key);
+			RoutePlan existing = (ref != null) ? ref.get() : null;
+			if (existing != null) {
+				return existing;
+			}
+			InternedRef mine = new InternedRef(plan, COLLECTED);
+			if ((ref == null) ? INTERNED.putIfAbsent(plan.key, mine) == null : INTERNED.replace(plan.key, ref, mine)) {
+				return plan;
+			}
+		}
+	}
+
+	/**
+	 * Número de planes internados (que sigue usando algún vehículo)
+	 */
+	public static int getInternedCount() {
+		expungeCollected();
+		return INTERNED.size();
+	}
+
+	/**
+	 * Retira de la tabla las entradas de los planes ya recogidos por el GC
+	 */
+	private static void expungeCollected() {
+		Reference<? extends RoutePlan> r;
+		while ((r = COLLECTED.poll()) != null) {
+			InternedRef ref = (InternedRef) r;
+			INTERNED.remove(ref.key, ref);
+		}
+	}
+
+	/**
+	 * Nuevo cursor al inicio del plan (la ruta de un vehículo)
+	 */
+	public RouteCursor newCursor() {
+		return new RouteCursor(this);
+	}
+
+	public int size() {
+		return this.fragments.length;
+	}
+
+	public IRouteFragment getFragment(int index) {
+		return this.fragments[index];
+	}
+
+	public String getRouteID() {
+		return this.routeID;
+	}
+
+	/**
+	 * Identificador canónico del contenido ('segmento:inicio:fin,...')
+	 */
+	public String getKey() {
+		return this.key;
+	}
+
+	/**
+	 * Longitud total de la ruta (m)
+	 */
+	public long getLength() {
+		return this.distances[this.fragments.length];
+	}
+
+	/**
+	 * Longitud de los fragmentos desde 'from' (incluido) hasta el final. O(1)
+	 */
+	public long getDistanceFrom(int from) {
+		if (from >= this.fragments.length) {
+			return 0;
+		}
+		return this.distances[this.fragments.length] - this.distances[from];
+	}
+
+	@Override
+	public String toString() {
+		return this.key;
+	}
+
+	/**
+	 * Entrada de INTERNED: referencia débil al plan con su clave (para retirarla al recogerse)
+	 */
+	static final class InternedRef extends WeakReference<RoutePlan> {
+		final String key;
+
+		InternedRef(RoutePlan plan, ReferenceQueue<RoutePlan> queue) {
+			super(plan, queue);
+			this.key = plan.key;
+		}
+	}
+
+	/**
+	 * Fragmento de sólo lectura
+	 */
+	static final class PlanFragment implements IRouteFragment {
+		private final IRoadPoint startPoint;
+		private final IRoadPoint endPoint;
+
+		PlanFragment(IRoadPoint startPoint, IRoadPoint endPoint) {
+			this.startPoint = startPoint;
+			this.endPoint = endPoint;
+		}
+
+		@Override
+		public IRoadPoint getStartPoint() {
+			return this.startPoint;
+		}
+
+		@Override
+		public IRoadPoint getEndPoint() {
+			return this.endPoint;
+		}
+
+		@Override
+		public void setStartPoint(IRoadPoint p) {
+			throw new UnsupportedOperationException("RoutePlan fragments are immutable");
+		}
+
+		@Override
+		public void setEndPoint(IRoadPoint p) {
+			throw new UnsupportedOperationException("RoutePlan fragments are immutable");
+		}
+
+		@Override
+		public String toString() {
+			return "[" + this.startPoint.toString() + "-" + this.endPoint.toString() + "]";
+		}
+	}
+
+	/**
+	 * Punto de sólo lectura
+	 */
+	static final class PlanPoint implements IRoadPoint {
+		private final String segment;
+		private final int position;
+
+		PlanPoint(String segment, int position) {
+			this.segment = segment;
+			this.position = position;
+		}
+
+		@Override
+		public String getRoadSegment() {
+			return this.segment;
+		}
+
+		@Override
+		public int getPosition() {
+			return this.position;
+		}
+
+		@Override
+		public void setRoadSegment(String rs) {
+			throw new UnsupportedOperationException("RoutePlan points are immutable");
+		}
+
+		@Override
+		public void setPosition(int position) {
+			throw new UnsupportedOperationException("RoutePlan points are immutable");
+		}
+
+		@Override
+		public boolean equals(IRoadPoint p2) {
+			if (p2 == null) return false;
+			return (this.segment.equals(p2.getRoadSegment()) && this.position == p2.getPosition());
+		}
+
+		@Override
+		public String toString() {
+			return "(" + this.segment + "," + this.position + ")";
+		}
+	}
+}
@@ -0,0 +1,774 @@
+package ina.vehicle.navigation.components;
+
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import ina.vehicle.navigation.interfaces.IRoadPoint;
+import ina.vehicle.navigation.interfaces.IRoute;
+import ina.vehicle.navigation.interfaces.IRoutePlanner;
+import ina.vehicle.navigation.interfaces.ISegmentWeightListener;
+
+/**
+ * Planificador de rutas sobre una RoadNetwork.
+ *
+ * Construye un grafo cuyos nodos son los puntos de conexión de cada segmento (inicio, fin y los
+ * puntos donde se entra o se sale hacia otro segmento) y cuyas aristas son:
+ *  - el avance por el segmento entre dos puntos consecutivos, en el sentido de circulación
+ *    (de start-kp a end-kp), con coste longitud / velocidad máxima actual;
+ *  - el paso de un segmento a otro en un punto de conexión (coste 0).
+ *
+ * Las conexiones se obtienen de:
+ *  - el encadenamiento de segmentos de una misma carretera con el mismo sentido: el final de un
+ *    segmento enlaza con el inicio del siguiente si está a menos de MAX_CHAIN_GAP metros
+ *    (p.ej. R1s2a 20-320 -> R1s4a 340-640, R2s1 0-300 -> R2s2 300-750);
+ *  - un fichero de conexiones opcional, con una conexión por línea:
+ *      <segmento>:<punto> <segmento>:<punto>     (p.ej. R5s1:580 R1s4a:490)
+ *
+ * Las consultas usan A*. Como los segmentos no tienen coordenadas, la heurística se obtiene con
+ * landmarks (ALT): se precalculan los tiempos mínimos desde y hacia unos pocos nodos de referencia
+ * y la desigualdad triangular da una cota inferior del tiempo restante. Las cotas se calculan con
+ * la velocidad máxima de cada segmento, de modo que siguen siendo válidas cuando se reduce la
+ * velocidad actual o se cierra un segmento (setSegmentSpeed).
+ *
+ * Para redes grandes las consultas pueden resolverse con una jerarquía de contracción precalculada
+ * (ContractionHierarchy, ver setHierarchy) en lugar de A*.
+ *
+ * Los cambios de velocidad se notifican a los ISegmentWeightListener registrados (p.ej. RouteCache).
+ *
+ * Las consultas se pueden hacer concurrentemente desde varios hilos.
+ */
+public class RoutePlanner implements IRoutePlanner {
+
+	public static final int MAX_CHAIN_GAP = 50; // metros entre el final de un segmento y el inicio del siguiente
+	public static final int DEFAULT_LANDMARKS = 8;
+
+	// Margen para absorber el redondeo de las distancias a landmarks (guardadas en float)
+	private static final double HEURISTIC_SCALE = 0.999;
+
+	protected final RoadNetwork network;
+
+	// Segmentos
+	protected final int[] direction; // +1: start-kp < end-kp, -1: descendente
+	protected final int[] speed; // velocidad máxima actual (km/h), 0: cerrado
+
+	// Nodos: los de un segmento son segNodes[s] .. segNodes[s+1]-1, en el sentido de circulación
+	protected final int[] segNodes;
+	protected final int[] nodeSegment;
+	protected final int[] nodePosition;
+
+	// Conexiones entre segmentos (CSR por nodo de origen) y sus inversas
+	protected final int[] outOffsets;
+	protected final int[] outTargets;
+	protected final int[] inOffsets;
+	protected final int[] inSources;
+
+	// Landmarks: tiempos mínimos (ms) desde cada landmark y hacia cada landmark
+	private final float[][] fromLandmark;
+	private final float[][] toLandmark;
+
+	// Jerarquía de contracción opcional para las consultas (null: A*)
+	private volatile ContractionHierarchy hierarchy = null;
+
+	// Cambios de peso
+	private final List<ISegmentWeightListener> weightListeners = new CopyOnWriteArrayList<>();
+	private volatile long weightVersion = 0;
+
+	private final ThreadLocal<Search> searches = ThreadLocal.withInitial(() -> new Search(this.nodeCount()));
+
+	public RoutePlanner(RoadNetwork network) {
+		this(network, new int[0], DEFAULT_LANDMARKS);
+	}
+
+	public RoutePlanner(RoadNetwork network, String connectionsFile) throws IOException {
+		this(network, readConnections(network, connectionsFile), DEFAULT_LANDMARKS);
+	}
+
+	/**
+	 * @param connections conexiones adicionales, 4 enteros por conexión: segmento y punto de salida, segmento y punto de entrada
+	 * @param landmarks número de landmarks de la heurística (0: Dijkstra)
+	 */
+	public RoutePlanner(RoadNetwork network, int[] connections, int landmarks) {
+		this.network = network;
+		int ns = network.getSegmentCount();
+		this.direction = new int[ns];
+		this.speed = new int[ns];
+		for (int s = 0; s < ns; s++) {
+			this.direction[s] = (network.getEndKP(s) < network.getStartKP(s)) ? -1 : 1;
+			this.speed[s] = network.getCurrentMaxSpeed(s);
+		}
+
+		int[] all = this.concat(this.chainConnections(), connections);
+		int nc = all.length / 4;
+
+		// Nodos: inicio y fin de cada segmento más los extremos de cada conexión
+		long[] keys = new long[2 * ns + 2 * nc];
+		int k = 0;
+		for (int s = 0; s < ns; s++) {
+			keys[k++] = this.nodeKey(s, network.getStartKP(s));
+			keys[k++] = this.nodeKey(s, network.getEndKP(s));
+		}
+		for (int c = 0; c < nc; c++) {
+			keys[k++] = this.nodeKey(all[4 * c], all[4 * c + 1]);
+			keys[k++] = this.nodeKey(all[4 * c + 2], all[4 * c + 3]);
+		}
+		Arrays.sort(keys);
+		int nn = 0;
+		for (int i = 0; i < keys.length; i++) {
+			if (i == 0 || keys[i] != keys[i - 1]) {
+				keys[nn++] = keys[i];
+			}
+		}
+		this.segNodes = new int[ns + 1];
+		this.nodeSegment = new int[nn];
+		this.nodePosition = new int[nn];
+		for (int n = 0; n < nn; n++) {
+			int s = (int) (keys[n] >>> 32);
+			this.nodeSegment[n] = s;
+			this.nodePosition[n] = this.direction[s] * (int) ((keys[n] & 0xFFFFFFFFL) - 0x80000000L);
+			this.segNodes[s + 1]++;
+		}
+		for (int s = 0; s < ns; s++) {
+			this.segNodes[s + 1] += this.segNodes[s];
+		}
+
+		// Conexiones por nodo
+		this.outOffsets = new int[nn + 1];
+		this.inOffsets = new int[nn + 1];
+		int[] from = new int[nc];
+		int[] to = new int[nc];
+		for (int c = 0; c < nc; c++) {
+			from[c] = this.findNode(all[4 * c], all[4 * c + 1]);
+			to[c] = this.findNode(all[4 * c + 2], all[4 * c + 3]);
+			this.outOffsets[from[c] + 1]++;
+			this.inOffsets[to[c] + 1]++;
+		}
+		for (int n = 0; n < nn; n++) {
+			this.outOffsets[n + 1] += this.outOffsets[n];
+			this.inOffsets[n + 1] += this.inOffsets[n];
+		}
+		this.outTargets = new int[nc];
+		this.inSources = new int[nc];
+		int[] outFill = Arrays.copyOf(this.outOffsets, nn);
+		int[] inFill = Arrays.copyOf(this.inOffsets, nn);
+		for (int c = 0; c < nc; c++) {
+			this.outTargets[outFill[from[c]]++] = to[c];
+			this.inSources[inFill[to[c]]++] = from[c];
+		}
+
+		// Landmarks
+		int nl = Math.min(Math.max(landmarks, 0), nn);
+		this.fromLandmark = new float[nl][];
+		this.toLandmark = new float[nl][];
+		this.selectLandmarks(nl);
+	}
+
+	// ------------------------------------------------------------
+	// Conexiones
+	// ------------------------------------------------------------
+
+	/**
+	 * Lee un fichero de conexiones ('<segmento>:<punto> <segmento>:<punto>' por línea, '#' para comentarios)
+	 */
+	public static int[] readConnections(RoadNetwork network, String fichero) throws IOException {
+		try (Reader in = new BufferedReader(new FileReader(fichero))) {
+			return readConnections(network, in);
+		}
+	}
+
+	public static int[] readConnections(RoadNetwork network, Reader reader) throws IOException {
+		BufferedReader in = (reader instanceof BufferedReader) ? (BufferedReader) reader : new BufferedReader(reader);
+		int[] connections = new int[64];
+		int n = 0;
+		String line;
+		int numLinea = 0;
+		while ((line = in.readLine()) != null) {
+			numLinea++;
+			line = line.trim();
+			if (line.isEmpty() || line.startsWith("#")) {
+				continue;
+			}
+			String[] campos = line.split("\\s+");
+			if (campos.length < 2) {
+				throw new IOException("Invalid connection at line " + numLinea + ": " + line);
+			}
+			if (n + 4 > connections.length) {
+				connections = Arrays.copyOf(connections, connections.length * 2);
+			}
+			try {
+				parsePoint(network, campos[0], connections, n);
+				parsePoint(network, campos[1], connections, n + 2);
+			} catch (IllegalArgumentException e) {
+				throw new IOException(e.getMessage() + " at line " + numLinea);
+			}
+			n += 4;
+		}
+		return Arrays.copyOf(connections, n);
+	}
+
+	private static void parsePoint(RoadNetwork network, String point, int[] out, int offset) {
+		int sep = point.lastIndexOf(':');
+		if (sep <= 0) {
+			throw new IllegalArgumentException("Invalid connection point '" + point + "'");
+		}
+		String code = point.substring(0, sep);
+		int s = network.getSegmentId(code);
+		if (s == RoadNetwork.NO_ID) {
+			throw new IllegalArgumentException("Unknown road segment '" + code + "'");
+		}
+		int position;
+		try {
+			position = Integer.parseInt(point.substring(sep + 1));
+		} catch (NumberFormatException e) {
+			throw new IllegalArgumentException("Invalid connection point '" + point + "'");
+		}
+		checkPosition(network, s, position);
+		out[offset] = s;
+		out[offset + 1] = position;
+	}
+
+	/**
+	 * Encadena los segmentos de una misma carretera con el mismo sentido
+	 */
+	private int[] chainConnections() {
+		int[] connections = new int[64];
+		int n = 0;
+		for (int r = 0; r < this.network.getRoadCount(); r++) {
+			int first = this.network.getRoadSegmentsStart(r);
+			int last = this.network.getRoadSegmentsEnd(r);
+			for (int i = first; i < last; i++) {
+				int a = this.network.getRoadSegment(i);
+				int end = this.network.getEndKP(a);
+				int best = RoadNetwork.NO_ID;
+				int bestGap = Integer.MAX_VALUE;
+				for (int j = first; j < last; j++) {
+					int b = this.network.getRoadSegment(j);
+					if (b == a || this.direction[b] != this.direction[a]) {
+						continue;
+					}
+					int gap = (this.network.getStartKP(b) - end) * this.direction[a];
+					if (gap >= 0 && gap <= MAX_CHAIN_GAP && gap < bestGap) {
+						best = b;
+						bestGap = gap;
+					}
+				}
+				if (best != RoadNetwork.NO_ID) {
+					if (n + 4 > connections.length) {
+						connections = Arrays.copyOf(connections, connections.length * 2);
+					}
+					connections[n++] = a;
+					connections[n++] = end;
+					connections[n++] = best;
+					connections[n++] = this.network.getStartKP(best);
+				}
+			}
+		}
+		return Arrays.copyOf(connections, n);
+	}
+
+	// ------------------------------------------------------------
+	// Consultas
+	// ------------------------------------------------------------
+
+	@Override
+	public IRoute planRoute(IRoadPoint origin, IRoadPoint destination) {
+		return this.planRoute(origin.getRoadSegment(), origin.getPosition(), destination.getRoadSegment(), destination.getPosition());
+	}
+
+	@Override
+	public IRoute planRoute(String originSegment, int originPosition, String destinationSegment, int destinationPosition) {
+		int so = this.segmentId(originSegment);
+		int sd = this.segmentId(destinationSegment);
+		checkPosition(this.network, so, originPosition);
+		checkPosition(this.network, sd, destinationPosition);
+
+		// Destino más adelante en el mismo segmento: un único fragmento
+		if (so == sd && this.isAhead(so, originPosition, destinationPosition)) {
+			return new Route().addRouteFragment(originSegment, originPosition, destinationPosition);
+		}
+
+		// Primer nodo a partir del origen y último nodo antes del destino
+		int source = this.nodeAtOrAfter(so, originPosition);
+		int target = this.nodeAtOrBefore(sd, destinationPosition);
+		int[] path = this.findPath(so, originPosition, source, target);
+		return (path == null) ? null : this.buildRoute(path, path.length, so, originPosition, destinationPosition);
+	}
+
+	/**
+	 * A* entre dos nodos, saliendo de 'originPosition' en el segmento 'so' (el nodo 'source' es de ese segmento)
+	 * @return camino de nodos de source a target, o null si no hay camino
+	 */
+	protected int[] findPath(int so, int originPosition, int source, int target) {
+		ContractionHierarchy ch = this.hierarchy;
+		if (ch != null) {
+			// El tramo inicial hasta 'source' es común a todos los caminos: no cambia cuál es el mínimo
+			return ch.findPath(source, target);
+		}
+		Search search = this.searches.get();
+		search.reset();
+		double startCost = this.travelTime(so, Math.abs(this.nodePosition[source] - originPosition), true);
+		search.open(source, -1, startCost, startCost + this.heuristic(source, target));
+
+		int node;
+		while ((node = search.poll()) >= 0) {
+			if (node == target) {
+				return this.extractPath(search, target);
+			}
+			double g = search.cost[node];
+			int s = this.nodeSegment[node];
+
+			// Avance por el segmento hasta el siguiente punto de conexión
+			if (node + 1 < this.segNodes[s + 1]) {
+				double t = this.travelTime(s, Math.abs(this.nodePosition[node + 1] - this.nodePosition[node]), false);
+				if (t < Double.POSITIVE_INFINITY) {
+					this.relax(search, node, node + 1, g + t, target);
+				}
+			}
+			// Paso a otros segmentos
+			for (int i = this.outOffsets[node]; i < this.outOffsets[node + 1]; i++) {
+				this.relax(search, node, this.outTargets[i], g, target);
+			}
+		}
+		return null;
+	}
+
+	private void relax(Search search, int from, int to, double cost, int target) {
+		if (search.isClosed(to) || (search.isSeen(to) && search.cost[to] <= cost)) {
+			return;
+		}
+		search.open(to, from, cost, cost + this.heuristic(to, target));
+	}
+
+	private int[] extractPath(Search search, int target) {
+		// Camino de nodos del final al principio
+		int length = 0;
+		for (int n = target; n >= 0; n = search.parent[n]) {
+			length++;
+		}
+		int[] path = new int[length];
+		for (int n = target, i = length - 1; n >= 0; n = search.parent[n], i--) {
+			path[i] = n;
+		}
+		return path;
+	}
+
+	/**
+	 * Ruta a partir de un camino de nodos: un fragmento por cada segmento recorrido
+	 */
+	protected IRoute buildRoute(int[] path, int length, int so, int originPosition, int destinationPosition) {
+		Route route = new Route();
+		int segment = so;
+		int start = originPosition;
+		for (int i = 0; i + 1 < length; i++) {
+			int a = path[i];
+			int b = path[i + 1];
+			if (this.nodeSegment[b] != segment) {
+				this.addFragment(route, segment, start, this.nodePosition[a]);
+				segment = this.nodeSegment[b];
+				start = this.nodePosition[b];
+			}
+		}
+		this.addFragment(route, segment, start, destinationPosition);
+		if (route.isEmpty()) {
+			route.addRouteFragment(this.network.getSegmentCode(segment), start, destinationPosition);
+		}
+		return route;
+	}
+
+	private void addFragment(Route route, int segment, int start, int end) {
+		// Los fragmentos vacíos (p.ej. salir justo en el punto de origen) no aportan nada al Navigator
+		if (start != end) {
+			route.addRouteFragment(this.network.getSegmentCode(segment), start, end);
+		}
+	}
+
+	// ------------------------------------------------------------
+	// Velocidades
+	// ------------------------------------------------------------
+
+	/**
+	 * Cambia la velocidad máxima actual de un segmento (0: cerrado). No puede superar su velocidad máxima
+	 */
+	public synchronized void setSegmentSpeed(String segment, int speed) {
+		int s = this.segmentId(segment);
+		this.applySpeed(s, Math.max(0, Math.min(speed, this.network.getMaxSpeed(s))));
+	}
+
+	/**
+	 * Fija la velocidad efectiva de un segmento y, si cambia, avisa a los listeners de pesos
+	 * @return true si la velocidad ha cambiado
+	 */
+	protected boolean applySpeed(int segment, int speed) {
+		int previous = this.speed[segment];
+		if (previous == speed) {
+			return false;
+		}
+		this.speed[segment] = speed;
+		this.weightVersion++;
+		for (ISegmentWeightListener listener : this.weightListeners) {
+			listener.onSegmentWeightChanged(this.network.getSegmentCode(segment), previous, speed);
+		}
+		return true;
+	}
+
+	public void addWeightListener(ISegmentWeightListener listener) {
+		this.weightListeners.add(listener);
+	}
+
+	public void removeWeightListener(ISegmentWeightListener listener) {
+		this.weightListeners.remove(listener);
+	}
+
+	/**
+	 * Versión de los pesos: se incrementa con cada cambio de velocidad de un segmento
+	 */
+	public long getWeightVersion() {
+		return this.weightVersion;
+	}
+
+	public int getSegmentSpeed(String segment) {
+		return this.speed[this.segmentId(segment)];
+	}
+
+	/**
+	 * Tiempo estimado (ms) para recorrer una ruta a la velocidad máxima actual de sus segmentos
+	 */
+	public long estimateTravelTime(IRoute route) {
+		double total = 0;
+		for (int i = 0; i < route.size(); i++) {
+			IRoadPoint a = route.get(i).getStartPoint();
+			IRoadPoint b = route.get(i).getEndPoint();
+			total += this.travelTime(this.segmentId(a.getRoadSegment()), Math.abs(b.getPosition() - a.getPosition()), true);
+		}
+		return (long) Math.ceil(total);
+	}
+
+	/**
+	 * Usa una jerarquía de contracción (creada para este planificador) en lugar de A*; null para volver a A*
+	 */
+	public void setHierarchy(ContractionHierarchy hierarchy) {
+		if (hierarchy != null && hierarchy.getGraph() != this) {
+			throw new IllegalArgumentException("Route index " + hierarchy + " belongs to another planner");
+		}
+		this.hierarchy = hierarchy;
+	}
+
+	public ContractionHierarchy getHierarchy() {
+		return this.hierarchy;
+	}
+
+	public RoadNetwork getNetwork() {
+		return this.network;
+	}
+
+	public int nodeCount() {
+		return this.nodePosition.length;
+	}
+
+	public int connectionCount() {
+		return this.outTargets.length;
+	}
+
+	/**
+	 * Tiempo (ms) para recorrer 'length' metros del segmento. Los segmentos cerrados son infranqueables,
+	 * salvo el tramo inicial/final de la propia ruta (endpoint), que se recorre a la velocidad máxima
+	 */
+	protected double travelTime(int segment, int length, boolean endpoint) {
+		int v = this.speed[segment];
+		if (v <= 0) {
+			if (!endpoint) {
+				return Double.POSITIVE_INFINITY;
+			}
+			v = Math.max(1, this.network.getMaxSpeed(segment));
+		}
+		return length * 3600.0 / v;
+	}
+
+	private double lowerBoundTime(int segment, int length) {
+		return length * 3600.0 / Math.max(1, this.network.getMaxSpeed(segment));
+	}
+
+	// ------------------------------------------------------------
+	// Heurística (ALT)
+	// ------------------------------------------------------------
+
+	/**
+	 * Cota inferior del tiempo (ms) entre dos nodos, válida con cualquier velocidad actual
+	 */
+	protected double heuristic(int node, int target) {
+		double h = 0;
+		for (int l = 0; l < this.fromLandmark.length; l++) {
+			float[] from = this.fromLandmark[l];
+			float[] to = this.toLandmark[l];
+			// d(L,t) - d(L,n) <= d(n,t)   y   d(n,L) - d(t,L) <= d(n,t)
+			if (from[node] != Float.POSITIVE_INFINITY && from[target] != Float.POSITIVE_INFINITY) {
+				h = Math.max(h, from[target] - from[node]);
+			}
+			if (to[node] != Float.POSITIVE_INFINITY && to[target] != Float.POSITIVE_INFINITY) {
+				h = Math.max(h, to[node] - to[target]);
+			}
+		}
+		return h * HEURISTIC_SCALE;
+	}
+
+	/**
+	 * Elige los landmarks por el método del más lejano: cada nuevo landmark es el nodo más alejado de los ya elegidos
+	 */
+	private void selectLandmarks(int count) {
+		if (count == 0) {
+			return;
+		}
+		int nn = this.nodeCount();
+		float[] minDistance = new float[nn];
+		Arrays.fill(minDistance, Float.POSITIVE_INFINITY);
+		int landmark = this.farthest(this.lowerBounds(0, true), null);
+		for (int l = 0; l < count; l++) {
+			this.fromLandmark[l] = this.lowerBounds(landmark, true);
+			this.toLandmark[l] = this.lowerBounds(landmark, false);
+			for (int n = 0; n < nn; n++) {
+				float d = Math.min(this.fromLandmark[l][n], this.toLandmark[l][n]);
+				if (d < minDistance[n]) {
+					minDistance[n] = d;
+				}
+			}
+			landmark = this.farthest(minDistance, minDistance);
+		}
+	}
+
+	private int farthest(float[] distance, float[] exclude) {
+		int best = 0;
+		float bestDistance = -1;
+		for (int n = 0; n < distance.length; n++) {
+			float d = distance[n];
+			if (d == Float.POSITIVE_INFINITY) {
+				// Nodo no conectado con los landmarks ya elegidos: es el mejor candidato
+				d = Float.MAX_VALUE;
+			}
+			if (d > bestDistance && (exclude == null || exclude[n] != 0)) {
+				best = n;
+				bestDistance = d;
+			}
+		}
+		return best;
+	}
+
+	/**
+	 * Dijkstra con la velocidad máxima de cada segmento, desde (forward) o hacia (!forward) un nodo
+	 */
+	private float[] lowerBounds(int root, boolean forward) {
+		int nn = this.nodeCount();
+		float[] distance = new float[nn];
+		Arrays.fill(distance, Float.POSITIVE_INFINITY);
+		Search search = new Search(nn);
+		search.open(root, -1, 0, 0);
+		int node;
+		while ((node = search.poll()) >= 0) {
+			double g = search.cost[node];
+			distance[node] = (float) g;
+			int s = this.nodeSegment[node];
+			if (forward) {
+				if (node + 1 < this.segNodes[s + 1]) {
+					this.relaxBound(search, node + 1, g + this.lowerBoundTime(s, Math.abs(this.nodePosition[node + 1] - this.nodePosition[node])));
+				}
+				for (int i = this.outOffsets[node]; i < this.outOffsets[node + 1]; i++) {
+					this.relaxBound(search, this.outTargets[i], g);
+				}
+			} else {
+				if (node > this.segNodes[s]) {
+					this.relaxBound(search, node - 1, g + this.lowerBoundTime(s, Math.abs(this.nodePosition[node] - this.nodePosition[node - 1])));
+				}
+				for (int i = this.inOffsets[node]; i < this.inOffsets[node + 1]; i++) {
+					this.relaxBound(search, this.inSources[i], g);
+				}
+			}
+		}
+		return distance;
+	}
+
+	private void relaxBound(Search search, int to, double cost) {
+		if (!search.isClosed(to) && (!search.isSeen(to) || cost < search.cost[to])) {
+			search.open(to, -1, cost, cost);
+		}
+	}
+
+	// ------------------------------------------------------------
+	// Nodos
+	// ------------------------------------------------------------
+
+	protected int segmentId(String code) {
+		int s = this.network.getSegmentId(code);
+		if (s == RoadNetwork.NO_ID) {
+			throw new IllegalArgumentException("Unknown road segment '" + code + "'");
+		}
+		return s;
+	}
+
+	protected static void checkPosition(RoadNetwork network, int segment, int position) {
+		int a = network.getStartKP(segment);
+		int b = network.getEndKP(segment);
+		if (position < Math.min(a, b) || position > Math.max(a, b)) {
+			throw new IllegalArgumentException("Position " + position + " out of road segment "
+					+ network.getSegmentCode(segment) + " [" + a + "-" + b + "]");
+		}
+	}
+
+	/**
+	 * Clave ordenable de un nodo: segmento y posición en el sentido de circulación
+	 */
+	private long nodeKey(int segment, int position) {
+		return ((long) segment << 32) | ((long) (this.direction[segment] * position) + 0x80000000L);
+	}
+
+	protected boolean isAhead(int segment, int from, int to) {
+		return (to - from) * this.direction[segment] >= 0;
+	}
+
+	private int findNode(int segment, int position) {
+		long key = this.nodeKey(segment, position);
+		int lo = this.segNodes[segment];
+		int hi = this.segNodes[segment + 1] - 1;
+		while (lo <= hi) {
+			int mid = (lo + hi) >>> 1;
+			long k = this.nodeKey(segment, this.nodePosition[mid]);
+			if (k < key) {
+				lo = mid + 1;
+			} else if (k > key) {
+				hi = mid - 1;
+			} else {
+				return mid;
+			}
+		}
+		return -1;
+	}
+
+	protected int nodeAtOrAfter(int segment, int position) {
+		for (int n = this.segNodes[segment]; n < this.segNodes[segment + 1]; n++) {
+			if (this.isAhead(segment, position, this.nodePosition[n])) {
+				return n;
+			}
+		}
+		return this.segNodes[segment + 1] - 1;
+	}
+
+	protected int nodeAtOrBefore(int segment, int position) {
+		for (int n = this.segNodes[segment + 1] - 1; n >= this.segNodes[segment]; n--) {
+			if (this.isAhead(segment, this.nodePosition[n], position)) {
+				return n;
+			}
+		}
+		return this.segNodes[segment];
+	}
+
+	private int[] concat(int[] a, int[] b) {
+		int[] r = Arrays.copyOf(a, a.length + b.length);
+		System.arraycopy(b, 0, r, a.length, b.length);
+		return r;
+	}
+
+	@Override
+	public String toString() {
+		return "RoutePlanner[" + this.nodeCount() + " nodes, " + this.connectionCount() + " connections, "
+				+ this.fromLandmark.length + " landmarks]";
+	}
+
+	/**
+	 * Estado de una búsqueda (reutilizable: cada hilo tiene el suyo).
+	 * Las marcas por generación evitan limpiar los arrays en cada consulta
+	 */
+	private static final class Search {
+		final double[] cost;
+		final int[] parent;
+		final int[] seen;
+		final int[] closed;
+		int generation = 1;
+
+		// Montículo binario de (prioridad, nodo); las entradas obsoletas se descartan al extraerlas
+		double[] heapKey = new double[64];
+		int[] heapNode = new int[64];
+		int heapSize = 0;
+
+		Search(int nodes) {
+			this.cost = new double[nodes];
+			this.parent = new int[nodes];
+			this.seen = new int[nodes];
+			this.closed = new int[nodes];
+		}
+
+		void reset() {
+			this.generation++;
+			this.heapSize = 0;
+		}
+
+		boolean isSeen(int node) {
+			return this.seen[node] == this.generation;
+		}
+
+		boolean isClosed(int node) {
+			return this.closed[node] == this.generation;
+		}
+
+		void open(int node, int parent, double cost, double priority) {
+			this.cost[node] = cost;
+			this.parent[node] = parent;
+			this.seen[node] = this.generation;
+			this.push(priority, node);
+		}
+
+		int poll() {
+			while (this.heapSize > 0) {
+				int node = this.heapNode[0];
+				this.heapSize--;
+				if (this.heapSize > 0) {
+					this.siftDown(this.heapKey[this.heapSize], this.heapNode[this.heapSize]);
+				}
+				if (!this.isClosed(node)) {
+					this.closed[node] = this.generation;
+					return node;
+				}
+			}
+			return -1;
+		}
+
+		private void push(double key, int node) {
+			if (this.heapSize == this.heapKey.length) {
+				this.heapKey = Arrays.copyOf(this.heapKey, this.heapSize * 2);
+				this.heapNode = Arrays.copyOf(this.heapNode, this.heapSize * 2);
+			}
+			int i = this.heapSize++;
+			while (i > 0) {
+				int p = (i - 1) >>> 1;
+				if (this.heapKey[p] <= key) {
+					break;
+				}
+				this.heapKey[i] = this.heapKey[p];
+				this.heapNode[i] = this.heapNode[p];
+				i = p;
+			}
+			this.heapKey[i] = key;
+			this.heapNode[i] = node;
+		}
+
+		private void siftDown(double key, int node) {
+			int i = 0;
+			int half = this.heapSize >>> 1;
+			while (i < half) {
+				int c = 2 * i + 1;
+				if (c + 1 < this.heapSize && this.heapKey[c + 1] < this.heapKey[c]) {
+					c++;
+				}
+				if (key <= this.heapKey[c]) {
+					break;
+				}
+				this.heapKey[i] = this.heapKey[c];
+				this.heapNode[i] = this.heapNode[c];
+				i = c;
+			}
+			this.heapKey[i] = key;
+			this.heapNode[i] = node;
+		}
+	}
+}
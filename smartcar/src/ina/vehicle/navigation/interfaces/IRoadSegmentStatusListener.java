@@ -0,0 +1,10 @@
+package ina.vehicle.navigation.interfaces;
+
+import ina.vehicle.navigation.types.ERoadStatus;
+
+public interface IRoadSegmentStatusListener {
+
+   // Se invoca en el hilo que provoca el cambio (p.ej. setNumVehicles), sólo cuando el estado cambia
+   public void onStatusChanged(IRoadSegment segment, ERoadStatus previous, ERoadStatus current);
+
+}
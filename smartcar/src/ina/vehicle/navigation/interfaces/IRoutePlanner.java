@@ -0,0 +1,9 @@
+package ina.vehicle.navigation.interfaces;
+
+public interface IRoutePlanner {
+
+   // Ruta más rápida entre dos puntos de la red, o null si el destino no es alcanzable
+   public IRoute planRoute(IRoadPoint origin, IRoadPoint destination);
+   public IRoute planRoute(String originSegment, int originPosition, String destinationSegment, int destinationPosition);
+
+}
@@ -0,0 +1,8 @@
+package ina.vehicle.navigation.interfaces;
+
+public interface ISegmentWeightListener {
+
+   // Se invoca en el hilo que cambia la velocidad efectiva del segmento (0: cerrado), sólo cuando cambia
+   public void onSegmentWeightChanged(String segment, int previousSpeed, int currentSpeed);
+
+}
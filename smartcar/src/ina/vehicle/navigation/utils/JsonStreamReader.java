@@ -0,0 +1,352 @@
+package ina.vehicle.navigation.utils;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.Reader;
+
+/**
+ * Lector JSON en streaming (pull): recorre el documento token a token sin construir
+ * el árbol de objetos, de modo que ficheros grandes se procesan con memoria constante.
+ *
+ * Uso típico:
+ *   r.beginArray();
+ *   while (r.hasNext()) {
+ *      r.beginObject();
+ *      while (r.hasNext()) {
+ *         String name = r.nextName();
+ *         if (name.equals("code")) code = r.nextString(); else r.skipValue();
+ *      }
+ *      r.endObject();
+ *   }
+ *   r.endArray();
+ */
+public class JsonStreamReader implements Closeable {
+
+	public enum Token { BEGIN_OBJECT, END_OBJECT, BEGIN_ARRAY, END_ARRAY, NAME, STRING, NUMBER, BOOLEAN, NULL, END_DOCUMENT }
+
+	private final Reader in;
+	private final char[] buf = new char[8192];
+	private int pos = 0;
+	private int limit = 0;
+	private int line = 1;
+
+	// Pila de contextos: true = objeto, false = array
+	private boolean[] stack = new boolean[32];
+	private int depth = 0;
+	// En un objeto: se espera un nombre (true) o un valor (false)
+	private boolean expectName = false;
+	// Hay que consumir una coma antes del siguiente elemento
+	private boolean needComma = false;
+
+	private final StringBuilder sb = new StringBuilder();
+
+	public JsonStreamReader(Reader in) {
+		this.in = in;
+	}
+
+	// ------------------------------------------------------------
+	// API
+	// ------------------------------------------------------------
+
+	public Token peek() throws IOException {
+		int c = this.nextNonWhitespace(false);
+		if (c == -1) {
+			return Token.END_DOCUMENT;
+		}
+		if (c == '}' || c == ']') {
+			return (c == '}') ? Token.END_OBJECT : Token.END_ARRAY;
+		}
+		if (this.needComma) {
+			if (c != ',') {
+				throw this.syntaxError("Expected ',' but was '" + (char) c + "'");
+			}
+			this.pos++;
+			this.needComma = false;
+			c = this.nextNonWhitespace(true);
+		}
+		if (this.depth > 0 && this.stack[this.depth - 1] && this.expectName) {
+			if (c != '"') {
+				throw this.syntaxError("Expected name");
+			}
+			return Token.NAME;
+		}
+		switch (c) {
+			case '{': return Token.BEGIN_OBJECT;
+			case '[': return Token.BEGIN_ARRAY;
+			case '"': return Token.STRING;
+			case 't': case 'f': return Token.BOOLEAN;
+			case 'n': return Token.NULL;
+			default:
+				if (c == '-' || (c >= '0' && c <= '9')) {
+					return Token.NUMBER;
+				}
+				throw this.syntaxError("Unexpected character '" + (char) c + "'");
+		}
+	}
+
+	public boolean hasNext() throws IOException {
+		Token t = this.peek();
+		return t != Token.END_OBJECT && t != Token.END_ARRAY && t != Token.END_DOCUMENT;
+	}
+
+	public void beginObject() throws IOException {
+		this.expect(Token.BEGIN_OBJECT);
+		this.pos++;
+		this.push(true);
+	}
+
+	public void endObject() throws IOException {
+		this.expect(Token.END_OBJECT);
+		this.pos++;
+		this.pop();
+	}
+
+	public void beginArray() throws IOException {
+		this.expect(Token.BEGIN_ARRAY);
+		this.pos++;
+		this.push(false);
+	}
+
+	public void endArray() throws IOException {
+		this.expect(Token.END_ARRAY);
+		this.pos++;
+		this.pop();
+	}
+
+	public String nextName() throws IOException {
+		this.expect(Token.NAME);
+		this.pos++;
+		String name = this.readString();
+		int c = this.nextNonWhitespace(true);
+		if (c != ':') {
+			throw this.syntaxError("Expected ':'");
+		}
+		this.pos++;
+		this.expectName = false;
+		return name;
+	}
+
+	public String nextString() throws IOException {
+		Token t = this.peek();
+		String value;
+		if (t == Token.STRING) {
+			this.pos++;
+			value = this.readString();
+		} else if (t == Token.NUMBER || t == Token.BOOLEAN) {
+			value = this.readLiteral();
+		} else {
+			throw this.syntaxError("Expected string but was " + t);
+		}
+		this.afterValue();
+		return value;
+	}
+
+	public long nextLong() throws IOException {
+		Token t = this.peek();
+		String literal;
+		if (t == Token.NUMBER) {
+			literal = this.readLiteral();
+		} else if (t == Token.STRING) {
+			this.pos++;
+			literal = this.readString();
+		} else {
+			throw this.syntaxError("Expected number but was " + t);
+		}
+		this.afterValue();
+		try {
+			return Long.parseLong(literal);
+		} catch (NumberFormatException e) {
+			try {
+				return (long) Double.parseDouble(literal);
+			} catch (NumberFormatException e2) {
+				throw this.syntaxError("Invalid number " + literal);
+			}
+		}
+	}
+
+	public int nextInt() throws IOException {
+		return (int) this.nextLong();
+	}
+
+	public boolean nextBoolean() throws IOException {
+		this.expect(Token.BOOLEAN);
+		String literal = this.readLiteral();
+		this.afterValue();
+		return literal.equals("true");
+	}
+
+	public void nextNull() throws IOException {
+		this.expect(Token.NULL);
+		this.readLiteral();
+		this.afterValue();
+	}
+
+	/**
+	 * Descarta el siguiente valor (con todo su contenido si es un objeto o array)
+	 */
+	public void skipValue() throws IOException {
+		Token t = this.peek();
+		switch (t) {
+			case BEGIN_OBJECT:
+				this.beginObject();
+				while (this.hasNext()) {
+					this.nextName();
+					this.skipValue();
+				}
+				this.endObject();
+				break;
+			case BEGIN_ARRAY:
+				this.beginArray();
+				while (this.hasNext()) {
+					this.skipValue();
+				}
+				this.endArray();
+				break;
+			case STRING:
+				this.pos++;
+				this.readString();
+				this.afterValue();
+				break;
+			case NAME:
+				this.nextName();
+				this.skipValue();
+				break;
+			case NUMBER:
+			case BOOLEAN:
+			case NULL:
+				this.readLiteral();
+				this.afterValue();
+				break;
+			default:
+				throw this.syntaxError("Cannot skip " + t);
+		}
+	}
+
+	@Override
+	public void close() throws IOException {
+		this.in.close();
+	}
+
+	// ------------------------------------------------------------
+	// Internos
+	// ------------------------------------------------------------
+
+	private void expect(Token expected) throws IOException {
+		Token t = this.peek();
+		if (t != expected) {
+			throw this.syntaxError("Expected " + expected + " but was " + t);
+		}
+	}
+
+	private void push(boolean object) {
+		if (this.depth == this.stack.length) {
+			this.stack = java.util.Arrays.copyOf(this.stack, this.depth * 2);
+		}
+		this.stack[this.depth++] = object;
+		this.expectName = object;
+		this.needComma = false;
+	}
+
+	private void pop() {
+		this.depth--;
+		this.afterValue();
+	}
+
+	private void afterValue() {
+		this.needComma = this.depth > 0;
+		this.expectName = this.depth > 0 && this.stack[this.depth - 1];
+	}
+
+	private boolean fill() throws IOException {
+		this.limit = this.in.read(this.buf, 0, this.buf.length);
+		this.pos = 0;
+		if (this.limit <= 0) {
+			this.limit = 0;
+			return false;
+		}
+		return true;
+	}
+
+	private int nextNonWhitespace(boolean required) throws IOException {
+		while (true) {
+			if (this.pos == this.limit && !this.fill()) {
+				if (required) {
+					throw this.syntaxError("Unexpected end of input");
+				}
+				return -1;
+			}
+			char c = this.buf[this.pos];
+			if (c == '\n') {
+				this.line++;
+			}
+			if (c == ' ' || c == '\n' || c == '\r' || c == '\t') {
+				this.pos++;
+				continue;
+			}
+			return c;
+		}
+	}
+
+	private int read() throws IOException {
+		if (this.pos == this.limit && !this.fill()) {
+			throw this.syntaxError("Unexpected end of input");
+		}
+		return this.buf[this.pos++];
+	}
+
+	/**
+	 * Lee una cadena cuyo '"' inicial ya se ha consumido
+	 */
+	private String readString() throws IOException {
+		this.sb.setLength(0);
+		while (true) {
+			int c = this.read();
+			if (c == '"') {
+				return this.sb.toString();
+			}
+			if (c == '\\') {
+				c = this.read();
+				switch (c) {
+					case 'n': this.sb.append('\n'); break;
+					case 't': this.sb.append('\t'); break;
+					case 'r': this.sb.append('\r'); break;
+					case 'b': this.sb.append('\b'); break;
+					case 'f': this.sb.append('\f'); break;
+					case 'u':
+						int code = 0;
+						for (int i = 0; i < 4; i++) {
+							code = (code << 4) | Character.digit(this.read(), 16);
+						}
+						this.sb.append((char) code);
+						break;
+					default: this.sb.append((char) c);
+				}
+			} else {
+				this.sb.append((char) c);
+			}
+		}
+	}
+
+	/**
+	 * Lee un número o literal (true, false, null)
+	 */
+	private String readLiteral() throws IOException {
+		this.sb.setLength(0);
+		while (true) {
+			if (this.pos == this.limit && !this.fill()) {
+				break;
+			}
+			char c = this.buf[this.pos];
+			if (c == ',' || c == '}' || c == ']' || c == ' ' || c == '\n' || c == '\r' || c == '\t' || c == ':') {
+				break;
+			}
+			this.sb.append(c);
+			this.pos++;
+		}
+		return this.sb.toString();
+	}
+
+	private IOException syntaxError(String message) {
+		return new IOException(message + " at line " + this.line);
+	}
+}
@@ -12,31 +12,76 @@ public class MySimpleLogger {
 	public static final int LEVEL_DEBUG = 2;
 	public static final int LEVEL_TRACE = 1;
 	
-	public static final int LEVEL = LEVEL_TRACE; // cambiar para ajustar el nivel de mensaje mínimo
+	public static final int LEVEL = LEVEL_TRACE; // nivel de mensaje mínimo por defecto
+	
+	// Nivel activo: se puede cambiar en ejecución (setLevel) o con -Dina.log.level=ERROR|WARN|INFO|DEBUG|TRACE
+	private static volatile int level = parseLevel(System.getProperty("ina.log.level"), LEVEL);
+	
+	public static int getLevel() {
+		return level;
+	}
+	
+	public static void setLevel(int newLevel) {
+		level = newLevel;
+	}
+	
+	/**
+	 * Indica si se emiten los mensajes del nivel indicado.
+	 * Usar antes de construir mensajes costosos (concatenaciones, String.format) en caminos frecuentes.
+	 */
+	public static boolean isEnabled(int msgLevel) {
+		return level <= msgLevel;
+	}
+	
+	public static boolean isDebugEnabled() {
+		return level <= LEVEL_DEBUG;
+	}
+	
+	public static boolean isTraceEnabled() {
+		return level <= LEVEL_TRACE;
+	}
+	
+	public static int parseLevel(String name, int defaultLevel) {
+		if ( name == null )
+			return defaultLevel;
+		switch (name.trim().toUpperCase()) {
+			case "ERROR": return LEVEL_ERROR;
+			case "WARN": return LEVEL_WARN;
+			case "INFO": return LEVEL_INFO;
+			case "DEBUG": return LEVEL_DEBUG;
+			case "TRACE": return LEVEL_TRACE;
+			default:
+				try {
+					return Integer.parseInt(name.trim());
+				} catch (NumberFormatException e) {
+					return defaultLevel;
+				}
+		}
+	}
 	
 
 	public static void error(String sender, String msg) {
-		if ( LEVEL <= LEVEL_ERROR )
+		if ( level <= LEVEL_ERROR )
 			System.out.println(putCurrentTimestamp() + " ERROR [" + formatWithSpaces(sender,sender_spacing) + "] " + msg);
 	}
 
 	public static void warn(String sender, String msg) {
-		if ( LEVEL <= LEVEL_WARN )
+		if ( level <= LEVEL_WARN )
 			System.out.println(putCurrentTimestamp() + " WARN  [" + formatWithSpaces(sender,sender_spacing) + "] " + msg);
 	}
 
 	public static void info(String sender, String msg) {
-		if ( LEVEL <= LEVEL_INFO )
+		if ( level <= LEVEL_INFO )
 			System.out.println(putCurrentTimestamp() + " INFO  [" + formatWithSpaces(sender,sender_spacing) + "] " + msg);
 	}
 
 	public static void debug(String sender, String msg) {
-		if ( LEVEL <= LEVEL_DEBUG )
+		if ( level <= LEVEL_DEBUG )
 			System.out.println(putCurrentTimestamp() + " DEBUG [" + formatWithSpaces(sender,sender_spacing) + "] " + msg);
 	}
 
 	public static void trace(String sender, String msg) {
-		if ( LEVEL <= LEVEL_TRACE )
+		if ( level <= LEVEL_TRACE )
 			System.out.println(putCurrentTimestamp() + " TRACE [" + formatWithSpaces(sender,sender_spacing) + "] " + msg);
 	}
 
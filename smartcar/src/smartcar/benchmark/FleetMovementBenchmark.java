@@ -0,0 +1,147 @@
+package smartcar.benchmark;
+
+import java.util.Random;
+
+import ina.vehicle.navigation.components.FleetNavigator;
+import ina.vehicle.navigation.components.Navigator;
+import ina.vehicle.navigation.components.Route;
+import ina.vehicle.navigation.components.RouteCursor;
+import ina.vehicle.navigation.components.RoutePlan;
+import ina.vehicle.navigation.interfaces.IRoute;
+import ina.vehicle.navigation.utils.MySimpleLogger;
+
+/**
+ * Compara el motor de movimiento por lotes (FleetNavigator) con un Navigator por vehículo.
+ *
+ *  1. Equivalencia: mueve la misma flota con ambos durante muchos pasos, con velocidades que
+ *     cambian en cada paso y cambios de ruta periódicos (rutas propias y planes compartidos),
+ *     y comprueba que segmento, posición y estado coinciden siempre.
+ *  2. Rendimiento: tiempo por paso de simulación de toda la flota con cada implementación.
+ *
+ * Uso:
+ *   java smartcar.benchmark.FleetMovementBenchmark [vehiculos] [pasos] [fragmentos por ruta]
+ *
+ * Termina con código 1 si hay alguna diferencia entre ambas implementaciones.
+ */
+public class FleetMovementBenchmark {
+
+	static final int CHECK_VEHICLES = 2_000;
+	static final int CHECK_STEPS = 400;
+	static final int CHECK_REROUTE_EVERY = 25; // Pasos entre cambios de ruta en la comprobación
+	static final int CHECK_PLANS = 16;         // Planes compartidos para los cambios de ruta
+
+	public static void main(String[] args) {
+		int vehicles = args.length > 0 ? Integer.parseInt(args[0]) : 20_000;
+		int steps = args.length > 1 ? Integer.parseInt(args[1]) : 20;
+		int fragments = args.length > 2 ? Integer.parseInt(args[2]) : 50;
+
+		MySimpleLogger.setLevel(MySimpleLogger.LEVEL_WARN);
+
+		int mismatches = checkEquivalence(CHECK_VEHICLES, CHECK_STEPS);
+		System.out.println("Equivalencia: " + CHECK_VEHICLES + " vehículos x " + CHECK_STEPS + " pasos (cambio de ruta cada "
+				+ CHECK_REROUTE_EVERY + "), " + mismatches + " diferencias");
+
+		// Rendimiento: los Navigator se mueven uno a uno; FleetNavigator en un único bucle fork/join
+		Random rnd = new Random(7);
+		Navigator[] navs = new Navigator[vehicles];
+		int[] speeds = new int[vehicles];
+		FleetNavigator fleet = new FleetNavigator("Bench");
+		for (int v = 0; v < vehicles; v++) {
+			speeds[v] = 30 + rnd.nextInt(90);
+			// Una sola ruta por vehículo: FleetNavigator la copia antes de que el Navigator la consuma
+			Route route = randomRoute(rnd, fragments);
+			fleet.addVehicle(route, speeds[v]);
+			navs[v] = new Navigator("Nav" + v);
+			navs[v].setRoute(route);
+			navs[v].startRouting();
+		}
+
+		for (int round = 1; round <= 3; round++) {
+			long t0 = System.nanoTime();
+			for (int s = 0; s < steps; s++) {
+				for (int v = 0; v < vehicles; v++) {
+					navs[v].move(3000, speeds[v]);
+				}
+			}
+			long t1 = System.nanoTime();
+			for (int s = 0; s < steps; s++) {
+				fleet.step(3000);
+			}
+			long t2 = System.nanoTime();
+			System.out.println(String.format("Ronda %d: %d vehículos x %d pasos | Navigator %.2f ms/paso (%.1f ns/veh) | FleetNavigator %.2f ms/paso (%.1f ns/veh)",
+					round, vehicles, steps,
+					(t1 - t0) / 1e6 / steps, (double) (t1 - t0) / steps / vehicles,
+					(t2 - t1) / 1e6 / steps, (double) (t2 - t1) / steps / vehicles));
+		}
+
+		System.exit(mismatches > 0 ? 1 : 0);
+	}
+
+	static int checkEquivalence(int vehicles, int steps) {
+		Random rnd = new Random(42);
+		Navigator[] navs = new Navigator[vehicles];
+		FleetNavigator fleet = new FleetNavigator("Check");
+		for (int v = 0; v < vehicles; v++) {
+			Route route = randomRoute(rnd, 1 + rnd.nextInt(6));
+			fleet.addVehicle(route, 0);
+			navs[v] = new Navigator("Nav" + v);
+			navs[v].setRoute(route);
+			navs[v].startRouting();
+		}
+		RoutePlan[] plans = new RoutePlan[CHECK_PLANS];
+		for (int i = 0; i < plans.length; i++) {
+			plans[i] = RoutePlan.of(randomRoute(rnd, 1 + rnd.nextInt(6)));
+		}
+
+		int mismatches = 0;
+		for (int s = 0; s < steps; s++) {
+			if (s > 0 && s % CHECK_REROUTE_EVERY == 0) {
+				// Cambio de ruta de una cuarta parte de la flota: reutiliza rangos, libera planes y compacta
+				for (int v = 0; v < vehicles; v++) {
+					if (rnd.nextInt(4) != 0) {
+						continue;
+					}
+					IRoute route = rnd.nextBoolean() ? randomRoute(rnd, 1 + rnd.nextInt(8))
+							: plans[rnd.nextInt(plans.length)].newCursor();
+					fleet.setRoute(v, route);
+					fleet.startRouting(v);
+					navs[v].setRoute((route instanceof RouteCursor) ? ((RouteCursor) route).getPlan().newCursor() : route);
+					navs[v].startRouting();
+				}
+			}
+			for (int v = 0; v < vehicles; v++) {
+				int speed = rnd.nextInt(10) == 0 ? 0 : rnd.nextInt(200);
+				navs[v].move(3000, speed);
+				fleet.setSpeed(v, speed);
+			}
+			fleet.step(3000);
+			for (int v = 0; v < vehicles; v++) {
+				Navigator n = navs[v];
+				if (!n.getCurrentPosition().getRoadSegment().equals(fleet.getSegment(v))
+						|| n.getCurrentPosition().getPosition() != fleet.getPosition(v)
+						|| n.getNavigatorStatus() != fleet.getStatus(v)) {
+					if (mismatches++ < 10) {
+						System.out.println("Diferencia en paso " + s + " vehículo " + v + ": Navigator "
+								+ n.getCurrentPosition() + " " + n.getNavigatorStatus() + " / FleetNavigator "
+								+ fleet.getCurrentPosition(v) + " " + fleet.getStatus(v));
+					}
+				}
+			}
+		}
+		System.out.println("Fragmentos almacenados tras los cambios de ruta: " + fleet.getStoredFragments());
+		return mismatches;
+	}
+
+	/**
+	 * Ruta aleatoria con fragmentos ascendentes y descendentes
+	 */
+	static Route randomRoute(Random rnd, int fragments) {
+		Route route = new Route();
+		for (int i = 0; i < fragments; i++) {
+			int a = rnd.nextInt(1000);
+			int b = rnd.nextInt(1000);
+			route.addRouteFragment("R" + rnd.nextInt(30) + "s" + rnd.nextInt(4), a, b);
+		}
+		return route;
+	}
+}
@@ -0,0 +1,208 @@
+package smartcar.benchmark;
+
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import smartcar.impl.SmartCar_BinaryCodec;
+import smartcar.impl.SmartCar_JsonCodec;
+import smartcar.impl.SmartCar_Message;
+import smartcar.impl.SmartCar_MessageCodec;
+import smartcar.impl.SmartCar_PayloadBuffer;
+
+/**
+ * Compara la codificación de mensajes en JSON y en binario (SmartCar_MessageCodec) para los tipos
+ * TRAFFIC, ROAD_STATUS, SPEED_LIMIT, TRAFFIC_LIGHT, ACCIDENT y SIMULATOR_STEP.
+ *
+ * Para cada tipo mide, en estado estacionario:
+ *  - org.json:       construir el JSONObject y toString().getBytes() (lo que hacían antes los componentes)
+ *  - json encode:    SmartCar_JsonCodec sobre un SmartCar_PayloadBuffer reutilizable
+ *  - binary encode:  SmartCar_BinaryCodec sobre el mismo buffer
+ *  - json decode:    SmartCar_JsonCodec.decode (parseo con org.json y lectura de los campos)
+ *  - binary decode:  SmartCar_BinaryCodec.decode sobre un SmartCar_Message reutilizable
+ *
+ * e imprime ns/mensaje, mensajes/s, bytes reservados en el heap por mensaje (com.sun.management.ThreadMXBean)
+ * y el tamaño del payload.
+ *
+ * Uso:
+ *   java smartcar.benchmark.MessageCodecBenchmark [mensajes por medida]
+ *
+ * Termina con código 1 si algún mensaje no se decodifica igual que el original en alguno de los dos formatos.
+ */
+public class MessageCodecBenchmark {
+
+	static final int WARMUP_MESSAGES = 200_000;
+
+	static long sink = 0; // Evita que el JIT elimine el trabajo medido
+
+	public static void main(String[] args) {
+		int messages = args.length > 0 ? Integer.parseInt(args[0]) : 500_000;
+
+		SmartCar_Message[] samples = samples();
+		boolean ok = true;
+		for (SmartCar_Message m : samples) {
+			ok &= checkRoundTrip(m, SmartCar_JsonCodec.INSTANCE);
+			ok &= checkRoundTrip(m, SmartCar_BinaryCodec.INSTANCE);
+		}
+
+		com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+		System.out.println(String.format("%-15s %-14s %10s %12s %12s %10s", "tipo", "ruta", "ns/msg", "msgs/s", "heap B/msg", "payload B"));
+		for (SmartCar_Message m : samples) {
+			SmartCar_PayloadBuffer p = new SmartCar_PayloadBuffer();
+			SmartCar_JsonCodec.INSTANCE.encode(m, p);
+			byte[] json = p.toByteArray();
+			SmartCar_BinaryCodec.INSTANCE.encode(m, p.reset());
+			byte[] binary = p.toByteArray();
+			SmartCar_Message into = new SmartCar_Message();
+
+			Runnable[] paths = {
+				() -> sink += encodeWithJSONObject(m).length,
+				() -> { SmartCar_JsonCodec.INSTANCE.encode(m, p.reset()); sink += p.length(); },
+				() -> { SmartCar_BinaryCodec.INSTANCE.encode(m, p.reset()); sink += p.length(); },
+				() -> sink += SmartCar_JsonCodec.INSTANCE.decode(json, 0, json.length, into).position,
+				() -> sink += SmartCar_BinaryCodec.INSTANCE.decode(binary, 0, binary.length, into).position,
+			};
+			String[] names = { "org.json", "json encode", "binary encode", "json decode", "binary decode" };
+			int[] sizes = { json.length, json.length, binary.length, json.length, binary.length };
+
+			for (int i = 0; i < paths.length; i++) {
+				run(paths[i], WARMUP_MESSAGES);
+				long before = threads.getThreadAllocatedBytes(Thread.currentThread().getId());
+				long t0 = System.nanoTime();
+				run(paths[i], messages);
+				long t1 = System.nanoTime();
+				long allocated = threads.getThreadAllocatedBytes(Thread.currentThread().getId()) - before;
+				double ns = (double) (t1 - t0) / messages;
+				System.out.println(String.format("%-15s %-14s %10.1f %12.0f %12.1f %10d", m.type, names[i], ns, 1e9 / ns,
+						(double) allocated / messages, sizes[i]));
+			}
+		}
+		System.out.println("(sink " + sink + ")");
+		System.exit(ok ? 0 : 1);
+	}
+
+	private static void run(Runnable path, int times) {
+		for (int i = 0; i < times; i++) {
+			path.run();
+		}
+	}
+
+	/**
+	 * Un mensaje de cada tipo, con valores típicos de la simulación
+	 */
+	static SmartCar_Message[] samples() {
+		long now = 1638979846783L;
+		SmartCar_Message status = new SmartCar_Message().reset(SmartCar_Message.Type.ROAD_STATUS, now);
+		status.roadSegment = "R1s2a";
+		status.code = "R1s2a";
+		status.rt = "road-segment";
+		status.road = "R1";
+		status.length = 580;
+		status.startKP = 0;
+		status.endKP = 580;
+		status.maxSpeed = 50;
+		status.currentMaxSpeed = 40;
+		status.capacity = 29;
+		status.numVehicles = 12;
+		status.density = 41;
+		status.status = "Limited_Manouvers";
+		return new SmartCar_Message[] {
+			new SmartCar_Message().traffic(now, "VEHICLE_IN", "PrivateUsage", "3240JVM", "R1s2a", 120),
+			status,
+			new SmartCar_Message().speedLimit(now, 40, 100, 300, 60000),
+			new SmartCar_Message().trafficLight(now, "RED", 250, "R5s1"),
+			new SmartCar_Message().accident(now, "OPEN", "accidente", "ACC_3240JVM_" + now, "3240JVM", "R1s2a", 120),
+			new SmartCar_Message().simulatorStep(now, "SimulatorStepPublisher", 1234),
+		};
+	}
+
+	/**
+	 * Codifica, decodifica y compara (por su JSON) con el original
+	 */
+	static boolean checkRoundTrip(SmartCar_Message m, SmartCar_MessageCodec codec) {
+		SmartCar_PayloadBuffer p = new SmartCar_PayloadBuffer();
+		codec.encode(m, p);
+		SmartCar_Message back = SmartCar_MessageCodec.decodeAny(p.toByteArray(), new SmartCar_Message());
+		if (!m.toString().equals(back.toString())) {
+			System.err.println("Round trip " + codec + " " + m.type + " differs:\n  " + m + "\n  " + back);
+			return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Payload con JSONObject, como se publicaba antes del codec
+	 */
+	static byte[] encodeWithJSONObject(SmartCar_Message m) {
+		try {
+			return toJSONObject(m).toString().getBytes(StandardCharsets.UTF_8);
+		} catch (JSONException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	static JSONObject toJSONObject(SmartCar_Message m) throws JSONException {
+		JSONObject msg = new JSONObject();
+		switch (m.type) {
+			case TRAFFIC:
+				msg.put("action", m.action);
+				msg.put("vehicle-role", m.vehicleRole);
+				msg.put("vehicle-id", m.vehicleId);
+				msg.put("road-segment", m.roadSegment);
+				msg.put("position", m.position);
+				break;
+			case ROAD_STATUS:
+				msg.put("code", m.code);
+				msg.put("rt", m.rt);
+				msg.put("road-segment", m.roadSegment);
+				msg.put("link", "/segment/" + m.roadSegment);
+				msg.put("road", m.road);
+				msg.put("length", m.length);
+				msg.put("start-kp", m.startKP);
+				msg.put("end-kp", m.endKP);
+				msg.put("max-speed", m.maxSpeed);
+				msg.put("current-max-speed", m.currentMaxSpeed);
+				msg.put("capacity", m.capacity);
+				msg.put("num-vehicles", m.numVehicles);
+				msg.put("density", m.density);
+				msg.put("status", m.status);
+				break;
+			case SPEED_LIMIT:
+				msg.put("type", "SPEED_LIMIT");
+				msg.put("value", m.value);
+				msg.put("position-start", m.positionStart);
+				msg.put("position-end", m.positionEnd);
+				msg.put("validity", m.validity);
+				return msg;
+			case TRAFFIC_LIGHT:
+				msg.put("type", "TRAFFIC_LIGHT");
+				msg.put("state", m.state);
+				msg.put("position", m.position);
+				msg.put("road-segment", m.roadSegment);
+				return msg;
+			case ACCIDENT:
+				msg.put("event", m.event);
+				msg.put("rt", m.rt);
+				msg.put("id", m.accidentId);
+				msg.put("vehicle", m.vehicle);
+				msg.put("road-segment", m.roadSegment);
+				msg.put("road", m.roadSegment);
+				msg.put("position", m.position);
+				msg.put("kp", m.position);
+				break;
+			case SIMULATOR_STEP:
+				msg.put("simulator", m.simulator);
+				msg.put("step", m.step);
+				break;
+		}
+		JSONObject json = new JSONObject();
+		json.put("msg", msg);
+		json.put("id", "MSG_" + m.timestamp);
+		json.put("type", m.type.name());
+		json.put("timestamp", m.timestamp);
+		return json;
+	}
+}
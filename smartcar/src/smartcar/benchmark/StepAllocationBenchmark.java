@@ -0,0 +1,114 @@
+package smartcar.benchmark;
+
+import java.lang.management.ManagementFactory;
+
+import org.eclipse.paho.client.mqttv3.MqttCallback;
+
+import ina.vehicle.navigation.components.Route;
+import ina.vehicle.navigation.utils.MySimpleLogger;
+import smartcar.impl.SmartCar;
+import smartcar.impl.SpeedLimitSignal;
+import smartcar.impl.TrafficLightSignal;
+import smartcar.interfaces.IMessageBus;
+
+/**
+ * Mide los bytes reservados en el heap por cada paso de simulación de un SmartCar
+ * (SmartCar.onSimulationStep: cálculo de velocidad, movimiento del Navigator y
+ * publicación de VEHICLE_IN) en estado estacionario.
+ *
+ * Usa el contador de memoria reservada por hilo de la JVM (com.sun.management.ThreadMXBean)
+ * y un bus de mensajes que descarta las publicaciones, de modo que sólo se mide el código
+ * del vehículo y no el cliente MQTT.
+ *
+ * Uso:
+ *   java smartcar.benchmark.StepAllocationBenchmark [pasos]
+ *
+ * Termina con código 1 si la última iteración (estado estacionario) reserva memoria.
+ */
+public class StepAllocationBenchmark {
+
+	static final int WARMUP_STEPS = 200_000;
+	static final int ITERATIONS = 5;
+
+	public static void main(String[] args) {
+		int steps = args.length > 0 ? Integer.parseInt(args[0]) : 200_000;
+
+		// Sin trazas: el objetivo es medir el coste con el log desactivado
+		MySimpleLogger.setLevel(MySimpleLogger.LEVEL_INFO);
+
+		SmartCar car = new SmartCar("Bench001", new DiscardingBus());
+		car.preloadSegmentMaxSpeed("R1s1", 50);
+
+		// Segmento muy largo para que el vehículo no llegue a salir de él durante la medida
+		Route route = new Route();
+		route.addRouteFragment("R1s1", 0, Integer.MAX_VALUE);
+		car.setRoute(route);
+
+		// Señales en el segmento para medir también su consulta (límite por intervalo y semáforo en verde)
+		car.addSpeedLimitSignal("R1s1", new SpeedLimitSignal(50, 0, Integer.MAX_VALUE, -1));
+		car.addSpeedLimitSignal("R1s1", new SpeedLimitSignal(30, 0, 100, -1));
+		car.addTrafficLightSignal("R1s1", new TrafficLightSignal("GREEN", 200));
+
+		com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+		long tid = Thread.currentThread().getId();
+
+		// Calentamiento: compilación JIT y crecimiento de los buffers reutilizables
+		for (int i = 0; i < WARMUP_STEPS; i++) {
+			car.onSimulationStep(3000);
+		}
+
+		// Varias iteraciones de medida (como en JMH): la primera puede incluir alguna reserva
+		// puntual de la JVM (recompilación); el estado estacionario es la última
+		long allocated = 0;
+		for (int it = 1; it <= ITERATIONS; it++) {
+			long before = threads.getThreadAllocatedBytes(tid);
+			long t0 = System.nanoTime();
+			for (int i = 0; i < steps; i++) {
+				car.onSimulationStep(3000);
+			}
+			long t1 = System.nanoTime();
+			allocated = threads.getThreadAllocatedBytes(tid) - before;
+			System.out.println("Iteración " + it + ": " + steps + " pasos, " + ((t1 - t0) / steps) + " ns/paso, "
+					+ allocated + " bytes (" + String.format("%.4f", (double) allocated / steps) + " bytes/paso)");
+		}
+		System.out.println("Posición final: " + car.getNavigator().getCurrentPosition());
+
+		car.disconnect();
+		System.exit(allocated > 0 ? 1 : 0);
+	}
+
+	/**
+	 * Bus que acepta suscripciones y descarta las publicaciones
+	 */
+	static class DiscardingBus implements IMessageBus {
+
+		long published = 0;
+
+		@Override
+		public void subscribe(String topic, MqttCallback handler) {
+		}
+
+		@Override
+		public void unsubscribe(String topic, MqttCallback handler) {
+		}
+
+		@Override
+		public void publish(String topic, byte[] payload, int qos) {
+			this.published++;
+		}
+
+		@Override
+		public void publish(String topic, byte[] payload, int length, int qos) {
+			this.published++;
+		}
+
+		@Override
+		public boolean isConnected() {
+			return true;
+		}
+
+		@Override
+		public void disconnect() {
+		}
+	}
+}
@@ -0,0 +1,262 @@
+package smartcar.impl;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+
+/**
+ * Índice de señales de tráfico de un segmento de carretera.
+ *
+ *  - Semáforos indexados por posición: un nuevo estado para la misma posición sustituye al anterior.
+ *  - Límites de velocidad indexados por rango [position-start, position-end]: un límite para el mismo
+ *    rango sustituye al anterior; rangos distintos conviven y en cada posición se aplica el más restrictivo.
+ *  - Los límites caducan a los 'validity' ms de recibirse (validity < 0: sin caducidad), según el reloj
+ *    del vehículo (virtual en la simulación acelerada).
+ *    Un límite con value <= 0 o validity == 0 elimina los límites del segmento (formato de RoadManager).
+ *
+ * Las escrituras (hilo MQTT) reconstruyen una instantánea de arrays ordenados que las lecturas
+ * (cada paso de simulación) consultan con búsqueda binaria, en O(log n) y sin crear objetos.
+ */
+public class SegmentSignalIndex {
+
+	static final long EVICTION_PERIOD_MS = 5000;
+
+	// Temporizador compartido que elimina las señales caducadas de todos los vehículos
+	private static final ScheduledExecutorService EVICTION_TIMER = Executors.newSingleThreadScheduledExecutor(r -> {
+		Thread t = new Thread(r, "signal-eviction");
+		t.setDaemon(true);
+		return t;
+	});
+
+	private final String segment;
+	private final LongSupplier clock; // Reloj del vehículo (caducidad de los límites)
+
+	// Fuente de verdad (sólo se accede con el lock del índice)
+	private final Map<Long, SpeedLimitSignal> limits = new LinkedHashMap<>();
+	private final TreeMap<Integer, TrafficLightSignal> lights = new TreeMap<>();
+
+	// Instantáneas para lectura sin bloqueo
+	private volatile LimitSnapshot limitSnapshot = LimitSnapshot.EMPTY;
+	private volatile LightSnapshot lightSnapshot = LightSnapshot.EMPTY;
+
+	public SegmentSignalIndex(String segment) {
+		this(segment, System::currentTimeMillis);
+	}
+
+	public SegmentSignalIndex(String segment, LongSupplier clock) {
+		this.segment = segment;
+		this.clock = clock;
+	}
+
+	public String getSegment() {
+		return this.segment;
+	}
+
+	// ------------------------------------------------------------
+	// Escritura
+	// ------------------------------------------------------------
+
+	public synchronized void addSpeedLimit(SpeedLimitSignal signal) {
+		if (signal.isRemoval()) {
+			this.limits.clear();
+		} else {
+			this.limits.put(rangeKey(signal.getPositionStart(), signal.getPositionEnd()), signal);
+		}
+		this.rebuildLimits(this.clock.getAsLong());
+	}
+
+	public synchronized void addTrafficLight(TrafficLightSignal signal) {
+		this.lights.put(signal.getPosition(), signal);
+		this.rebuildLights();
+	}
+
+	public synchronized void clear() {
+		this.limits.clear();
+		this.lights.clear();
+		this.limitSnapshot = LimitSnapshot.EMPTY;
+		this.lightSnapshot = LightSnapshot.EMPTY;
+	}
+
+	/**
+	 * Elimina los límites caducados
+	 * @return true si el índice ha quedado vacío
+	 */
+	public synchronized boolean evictExpired(long now) {
+		if (now >= this.limitSnapshot.nextExpiry) {
+			this.rebuildLimits(now);
+		}
+		return this.limits.isEmpty() && this.lights.isEmpty();
+	}
+
+	// ------------------------------------------------------------
+	// Lectura (camino de cada paso)
+	// ------------------------------------------------------------
+
+	/**
+	 * Límite de velocidad vigente en la posición, o -1 si no hay ninguno
+	 */
+	public int getSpeedLimitAt(int position, long now) {
+		LimitSnapshot snap = this.limitSnapshot;
+		if (now >= snap.nextExpiry) {
+			this.evictExpired(now);
+			snap = this.limitSnapshot;
+		}
+		int i = Arrays.binarySearch(snap.starts, position);
+		if (i < 0) {
+			i = -i - 2; // Intervalo elemental que contiene la posición
+		}
+		return (i < 0) ? -1 : snap.values[i];
+	}
+
+	/**
+	 * Semáforo en rojo a menos de 'distance' metros de la posición, o null si no hay ninguno
+	 */
+	public TrafficLightSignal findRedLightWithin(int position, int distance) {
+		LightSnapshot snap = this.lightSnapshot;
+		int i = Arrays.binarySearch(snap.positions, position - distance);
+		if (i < 0) {
+			i = -i - 1;
+		}
+		for (; i < snap.positions.length && snap.positions[i] <= position + distance; i++) {
+			if (snap.signals[i].getDistanceFrom(position) < distance && snap.signals[i].isRed()) {
+				return snap.signals[i];
+			}
+		}
+		return null;
+	}
+
+	public int getSpeedLimitCount() {
+		return this.limitSnapshot.count;
+	}
+
+	public int getTrafficLightCount() {
+		return this.lightSnapshot.positions.length;
+	}
+
+	public synchronized List<SpeedLimitSignal> getSpeedLimits() {
+		return new ArrayList<>(this.limits.values());
+	}
+
+	public synchronized List<TrafficLightSignal> getTrafficLights() {
+		return new ArrayList<>(this.lights.values());
+	}
+
+	// ------------------------------------------------------------
+	// Construcción de instantáneas
+	// ------------------------------------------------------------
+
+	private void rebuildLimits(long now) {
+		long nextExpiry = Long.MAX_VALUE;
+		Iterator<SpeedLimitSignal> it = this.limits.values().iterator();
+		while (it.hasNext()) {
+			SpeedLimitSignal s = it.next();
+			if (s.isExpired(now)) {
+				it.remove();
+			} else {
+				nextExpiry = Math.min(nextExpiry, s.getExpiresAt());
+			}
+		}
+		if (this.limits.isEmpty()) {
+			this.limitSnapshot = LimitSnapshot.EMPTY;
+			return;
+		}
+
+		// Límites de los intervalos elementales: cada inicio y cada fin+1
+		SpeedLimitSignal[] signals = this.limits.values().toArray(new SpeedLimitSignal[0]);
+		int[] bounds = new int[signals.length * 2];
+		int nb = 0;
+		for (SpeedLimitSignal s : signals) {
+			bounds[nb++] = s.getPositionStart();
+			if (s.getPositionEnd() < Integer.MAX_VALUE) {
+				bounds[nb++] = s.getPositionEnd() + 1;
+			}
+		}
+		Arrays.sort(bounds, 0, nb);
+		int n = 0;
+		for (int i = 0; i < nb; i++) {
+			if (n == 0 || bounds[i] != bounds[n - 1]) {
+				bounds[n++] = bounds[i];
+			}
+		}
+		int[] starts = Arrays.copyOf(bounds, n);
+		int[] values = new int[n];
+		for (int i = 0; i < n; i++) {
+			int min = -1;
+			for (SpeedLimitSignal s : signals) {
+				if (s.affectsPosition(starts[i]) && (min < 0 || s.getValue() < min)) {
+					min = s.getValue();
+				}
+			}
+			values[i] = min;
+		}
+		this.limitSnapshot = new LimitSnapshot(starts, values, signals.length, nextExpiry);
+	}
+
+	private void rebuildLights() {
+		int n = this.lights.size();
+		int[] positions = new int[n];
+		TrafficLightSignal[] signals = new TrafficLightSignal[n];
+		int i = 0;
+		for (Map.Entry<Integer, TrafficLightSignal> e : this.lights.entrySet()) {
+			positions[i] = e.getKey();
+			signals[i] = e.getValue();
+			i++;
+		}
+		this.lightSnapshot = new LightSnapshot(positions, signals);
+	}
+
+	private static long rangeKey(int start, int end) {
+		return ((long) start << 32) | (end & 0xFFFFFFFFL);
+	}
+
+	/**
+	 * Programa la eliminación periódica de señales caducadas de un conjunto de índices (los de un vehículo).
+	 * Los índices vacíos se mantienen: se retiran al liberar la suscripción del segmento.
+	 * @param clock reloj del vehículo (el mismo con el que se reciben y consultan las señales)
+	 */
+	public static ScheduledFuture<?> scheduleEviction(Map<String, SegmentSignalIndex> indices, LongSupplier clock) {
+		return EVICTION_TIMER.scheduleWithFixedDelay(() -> {
+			long now = clock.getAsLong();
+			for (SegmentSignalIndex idx : indices.values()) {
+				idx.evictExpired(now);
+			}
+		}, EVICTION_PERIOD_MS, EVICTION_PERIOD_MS, TimeUnit.MILLISECONDS);
+	}
+
+	static final class LimitSnapshot {
+		static final LimitSnapshot EMPTY = new LimitSnapshot(new int[0], new int[0], 0, Long.MAX_VALUE);
+
+		final int[] starts;		// Inicio de cada intervalo elemental (ordenado)
+		final int[] values;		// Límite mínimo del intervalo (-1 si ninguno)
+		final int count;		// Número de señales
+		final long nextExpiry;	// Próxima caducidad (Long.MAX_VALUE si ninguna)
+
+		LimitSnapshot(int[] starts, int[] values, int count, long nextExpiry) {
+			this.starts = starts;
+			this.values = values;
+			this.count = count;
+			this.nextExpiry = nextExpiry;
+		}
+	}
+
+	static final class LightSnapshot {
+		static final LightSnapshot EMPTY = new LightSnapshot(new int[0], new TrafficLightSignal[0]);
+
+		final int[] positions;
+		final TrafficLightSignal[] signals;
+
+		LightSnapshot(int[] positions, TrafficLightSignal[] signals) {
+			this.positions = positions;
+			this.signals = signals;
+		}
+	}
+}
@@ -5,16 +5,16 @@ import ina.vehicle.navigation.components.Route;
 import ina.vehicle.navigation.interfaces.INavigator;
 import ina.vehicle.navigation.interfaces.IRoadPoint;
 import ina.vehicle.navigation.interfaces.IRoute;
+import ina.vehicle.navigation.utils.MySimpleLogger;
 
-import java.io.BufferedReader;
-import java.io.InputStreamReader;
-import java.net.HttpURLConnection;
-import java.net.URL;
-import java.util.ArrayList;
-import java.util.HashMap;
-import java.util.List;
 import java.util.Map;
-import org.json.JSONObject;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledFuture;
+import java.util.function.LongSupplier;
+
+import org.eclipse.paho.client.mqttv3.MqttException;
+
+import smartcar.interfaces.IMessageBus;
 
 /**
  * SmartCar extendido con Navigator para el Proyecto Práctico.
@@ -44,12 +44,22 @@ public class SmartCar {
 	protected String currentRoadSegment = null; // Segmento actual para detectar cambios
 	protected int currentPosition = 0; // Posición actual en el segmento
 	
-	// Almacenamiento de señales de tráfico por segmento
-	protected Map<String, List<SpeedLimitSignal>> speedLimitSignals = new HashMap<>();
-	protected Map<String, List<TrafficLightSignal>> trafficLightSignals = new HashMap<>();
+	// Índice de señales de tráfico por segmento (límites por intervalo y semáforos por posición)
+	// (se escriben desde el hilo MQTT y se leen en cada paso: mapa concurrente)
+	protected Map<String, SegmentSignalIndex> signalIndex = new ConcurrentHashMap<>();
+	protected ScheduledFuture<?> signalEviction = SegmentSignalIndex.scheduleEviction(this.signalIndex, this::currentTimeMillis);
+	
+	// Suscripciones por anticipación a los segmentos de la ruta
+	protected SmartCar_SubscriptionManager subscriptionManager = new SmartCar_SubscriptionManager(this);
+	
+	// Cache de metadatos de segmentos compartida por todos los vehículos (velocidad máxima, etc.)
+	protected SmartCar_SegmentCache segmentCache = SmartCar_SegmentCache.getInstance();
 	
-	// Cache de velocidad máxima por segmento (para evitar consultas REST repetidas)
-	protected Map<String, Integer> segmentMaxSpeedCache = new HashMap<>();
+	// Estado del tráfico para replanificar la ruta (ROAD_STATUS / ACCIDENT) compartido por todos los vehículos
+	protected SmartCar_TrafficRouter trafficRouter = SmartCar_TrafficRouter.getInstance();
+	
+	// Degradaciones de segmentos (SmartCar_TrafficRouter) ya comprobadas contra la ruta
+	protected long degradationsSeen = 0;
 	
 	// Cache de velocidad actual calculada (para AWS Shadow)
 	protected int lastCalculatedSpeed = 0;
@@ -57,33 +67,60 @@ public class SmartCar {
 	// Flag para trackear si ya se disparó la alerta de llegada al destino
 	protected boolean destinationAlertFired = false;
 	
-	static final String REST_API_BASE = "http://tambori.dsic.upv.es:10082";
+	// Reloj del vehículo (timestamps de mensajes y caducidad de señales).
+	// La simulación headless lo sustituye por su reloj virtual
+	protected LongSupplier clock = System::currentTimeMillis;
+	
+	// Conexión compartida del proceso (null si la conexión la aporta un SmartCar_FleetHost)
+	protected SmartCar_MqttBus processBus = null;
+	
+	static final long STEP_MILLIS = 3000; // Duración de un paso de simulación
+	static final int PREFETCH_FRAGMENTS = 3; // Fragmentos de ruta cuyos segmentos se piden por adelantado
 	
 	public SmartCar(String id) {
+		this(id, null);
+	}
+	
+	/**
+	 * Crea un SmartCar cuyos componentes MQTT comparten la conexión indicada.
+	 * Si bus es null, usan la conexión compartida del proceso (SmartCar_MqttBus.acquire).
+	 * @param id Identificador único del vehículo
+	 * @param bus Conexión compartida (ver SmartCar_FleetHost) o null
+	 */
+	public SmartCar(String id, IMessageBus bus) {
 		this.setSmartCarID(id);
+		if (bus == null) {
+			try {
+				this.processBus = SmartCar_MqttBus.acquire(SmartCar_Endpoints.getBrokerURL());
+			} catch (MqttException e) {
+				e.printStackTrace();
+				System.exit(-1);
+			}
+			bus = this.processBus;
+		}
 		this.rp = new RoadPlace("R5s1", 10);
 		this.currentRoadSegment = "R5s1";
 		this.currentPosition = 10;
 
 		// Inicializar y conectar el subscriber para recibir información de la carretera
-		this.subscriber = new SmartCar_RoadInfoSubscriber(this);
+		this.subscriber = new SmartCar_RoadInfoSubscriber(this, bus);
 		this.subscriber.connect();
 		this.subscriber.subscribe("es/upv/pros/tatami/smartcities/traffic/PTPaterna/road/R5s1/info");
 
 		// Inicializar y conectar el publisher para publicar eventos de tráfico
-		this.publisher = new SmartCar_TrafficPublisher(this);
+		this.publisher = new SmartCar_TrafficPublisher(this, bus);
 		this.publisher.connect();
 
 		// Inicializar y conectar el notifier para publicar alertas/incidentes
-		this.notifier = new SmartCar_IncidentNotifier(id);
+		this.notifier = new SmartCar_IncidentNotifier(id, bus);
 		this.notifier.connect();
 		
 		// Inicializar y conectar el suscriptor a pasos de simulación
-		this.stepSubscriber = new SmartCar_StepSubscriber(this);
+		this.stepSubscriber = new SmartCar_StepSubscriber(this, bus);
 		this.stepSubscriber.connect();
 		
 		// Inicializar y conectar el suscriptor a señales de tráfico
-		this.signalsSubscriber = new SmartCar_SignalsSubscriber(this);
+		this.signalsSubscriber = new SmartCar_SignalsSubscriber(this, bus);
 		this.signalsSubscriber.connect();
 		
 		// Inicializar AWS IoT Device Shadow (opcional - solo si se configura thingName)
@@ -126,6 +163,17 @@ public class SmartCar {
 		this.ignoreLimits = ignoreLimits;
 	}
 	
+	public void setClock(LongSupplier clock) {
+		this.clock = clock;
+	}
+	
+	/**
+	 * Hora actual según el reloj del vehículo (real o virtual)
+	 */
+	public long currentTimeMillis() {
+		return this.clock.getAsLong();
+	}
+	
 	public INavigator getNavigator() {
 		return navigator;
 	}
@@ -149,6 +197,14 @@ public class SmartCar {
 		return (this.lastCalculatedSpeed > 0) ? this.lastCalculatedSpeed : this.cruiserSpeed;
 	}
 	
+	/**
+	 * Usa el navegador indicado en lugar de crear un Navigator al asignar la ruta
+	 * (p.ej. la plaza del vehículo en un FleetNavigator, que mueve toda la flota a la vez)
+	 */
+	public void setNavigator(INavigator navigator) {
+		this.navigator = navigator;
+	}
+	
 	/**
 	 * Asigna una ruta al vehículo y crea el Navigator si no existe
 	 */
@@ -158,6 +214,14 @@ public class SmartCar {
 		}
 		this.navigator.setRoute(route);
 		this.navigator.startRouting();
+		this.degradationsSeen = this.trafficRouter.getDegradationCount();
+		
+		// Pedir por adelantado los metadatos de todos los segmentos de la ruta
+		if (route != null) {
+			for (int i = 0; i < route.size(); i++) {
+				this.segmentCache.prefetch(route.get(i).getStartPoint().getRoadSegment());
+			}
+		}
 		
 		// Resetear flag de alerta de destino cuando se asigna una nueva ruta
 		this.destinationAlertFired = false;
@@ -174,16 +238,8 @@ public class SmartCar {
 				this.publisher.publishVehicleIn(this.currentRoadSegment, this.currentPosition);
 			}
 			
-			// Suscribirse al topic de info del segmento inicial (simulador MQTT)
-			if (this.subscriber != null) {
-				String topic = "es/upv/pros/tatami/smartcities/traffic/PTPaterna/road/" + this.currentRoadSegment + "/info";
-				this.subscriber.subscribe(topic);
-			}
-			
-			// Suscribirse al topic de señales del segmento inicial
-			if (this.signalsSubscriber != null) {
-				this.signalsSubscriber.subscribe(this.currentRoadSegment);
-			}
+			// Suscribirse a los topics de info y señales del segmento inicial y de los próximos de la ruta
+			this.subscriptionManager.onRouteChanged();
 			
 			// Suscribirse al topic de info en AWS IoT (si está habilitado)
 			if (this.awsInfoSubscriber != null && this.awsInfoSubscriber.isConnected()) {
@@ -225,11 +281,11 @@ public class SmartCar {
 			// Actualizar la suscripción al topic de info de la nueva carretera
 			if (this.subscriber != null) {
 				// Desuscribirse del topic anterior
-				String oldTopic = "es/upv/pros/tatami/smartcities/traffic/PTPaterna/road/" + previousRoad + "/info";
+				String oldTopic = SmartCar_Topics.info(previousRoad);
 				this.subscriber.unsubscribe(oldTopic);
 				
 				// Suscribirse al topic de la nueva carretera
-				String newTopic = "es/upv/pros/tatami/smartcities/traffic/PTPaterna/road/" + road + "/info";
+				String newTopic = SmartCar_Topics.info(road);
 				this.subscriber.subscribe(newTopic);
 			}
 		} else {
@@ -244,8 +300,34 @@ public class SmartCar {
 	 * Calcula el movimiento del vehículo usando el Navigator
 	 */
 	public void onSimulationStep() {
+		this.onSimulationStep(STEP_MILLIS);
+	}
+	
+	/**
+	 * Avanza el vehículo el tiempo indicado.
+	 * SmartCar_StepScheduler lo usa con un múltiplo de STEP_MILLIS cuando agrupa
+	 * varios pasos que el vehículo no pudo procesar a tiempo.
+	 * @param elapsedMillis tiempo simulado a avanzar (ms)
+	 */
+	public void onSimulationStep(long elapsedMillis) {
+		int velocidadActual = this.beginSimulationStep();
+		if (velocidadActual < 0) {
+			return;
+		}
+		// Mover el Navigator (un paso = 3000 ms)
+		this.navigator.move(elapsedMillis, velocidadActual);
+		this.endSimulationStep();
+	}
+	
+	/**
+	 * Primera mitad de un paso, antes de mover el vehículo: alerta de llegada, replanificación y velocidad.
+	 * Con un FleetNavigator (HeadlessSimulation) se hace en todos los vehículos, la flota los mueve
+	 * a la vez y después se llama a endSimulationStep en los que estaban en ruta.
+	 * @return velocidad a la que moverse (km/h), o -1 si el vehículo no está en ruta
+	 */
+	public int beginSimulationStep() {
 		if (this.navigator == null) {
-			return; // No hay Navigator
+			return -1; // No hay Navigator
 		}
 		
 		// Si llegó al destino, verificar si hay que disparar alerta y salir
@@ -256,15 +338,29 @@ public class SmartCar {
 				this.notifyIncident("accidente");
 				this.destinationAlertFired = true;
 			}
-			return; // No está en modo routing (puede estar en REACHED_DESTINATION)
+			this.subscriptionManager.update(); // Completar las liberaciones pendientes
+			return -1; // No está en modo routing (puede estar en REACHED_DESTINATION)
+		}
+		
+		// Replanificar si se ha degradado algún segmento de lo que queda de la ruta
+		long degradations = this.trafficRouter.getDegradationCount();
+		if (degradations != this.degradationsSeen) {
+			if (this.trafficRouter.isRouteAffected(this.navigator.getRoute(), this.degradationsSeen)) {
+				this.reroute();
+			}
+			this.degradationsSeen = degradations;
 		}
 		
 		// Calcular velocidad actual (respetando límites, señales, etc.)
 		int velocidadActual = calcularVelocidadActual();
 		this.lastCalculatedSpeed = velocidadActual; // Cachear para AWS Shadow
-		// Mover el Navigator (3 segundos = 3000 ms)
-		this.navigator.move(3000, velocidadActual);
-		
+		return velocidadActual;
+	}
+	
+	/**
+	 * Segunda mitad de un paso, con el vehículo ya movido: eventos de tráfico, suscripciones y posición
+	 */
+	public void endSimulationStep() {
 		// Obtener nueva posición
 		IRoadPoint nuevaPosicion = this.navigator.getCurrentPosition();
 		if (nuevaPosicion == null) {
@@ -282,43 +378,38 @@ public class SmartCar {
 				this.publisher.publishVehicleIn(nuevoSegmento, nuevaPosicionKm);
 			}
 			
-			// Actualizar suscripciones
-			if (this.subscriber != null) {
-				String oldTopic = "es/upv/pros/tatami/smartcities/traffic/PTPaterna/road/" + this.currentRoadSegment + "/info";
-				this.subscriber.unsubscribe(oldTopic);
-				
-				String newTopic = "es/upv/pros/tatami/smartcities/traffic/PTPaterna/road/" + nuevoSegmento + "/info";
-				this.subscriber.subscribe(newTopic);
-			}
-			
-			// Actualizar suscripción a señales
-			if (this.signalsSubscriber != null) {
-				this.signalsSubscriber.unsubscribe(this.currentRoadSegment);
-				this.signalsSubscriber.subscribe(nuevoSegmento);
-			}
+			// Las suscripciones a info y señales las mantiene SmartCar_SubscriptionManager
+			// (el nuevo segmento ya estaba suscrito por anticipación; el anterior se libera unos pasos después,
+			// y con él sus señales almacenadas)
 			
 			// Actualizar suscripción a info en AWS IoT
 			if (this.awsInfoSubscriber != null && this.awsInfoSubscriber.isConnected()) {
 				this.awsInfoSubscriber.subscribeToSegment(nuevoSegmento);
 			}
 			
-			// Limpiar señales y cache del segmento anterior
-			// (Las señales del nuevo segmento se recibirán por MQTT cuando estén disponibles)
-			this.speedLimitSignals.remove(this.currentRoadSegment);
-			this.trafficLightSignals.remove(this.currentRoadSegment);
-			this.segmentMaxSpeedCache.remove(this.currentRoadSegment);
+			// Pedir por adelantado los metadatos de los próximos segmentos de la ruta
+			this.prefetchUpcomingSegments();
 			
 			this.currentRoadSegment = nuevoSegmento;
 		} else {
-			// Mismo segmento: publicar VEHICLE_IN con nueva posición
+			// Mismo segmento: publicar VEHICLE_IN con nueva posición si lo pide la política del rol
+			// (SmartCar_ReportingPolicy: p.ej. no se repite en cada paso con el vehículo parado)
 			if (this.publisher != null) {
-				this.publisher.publishVehicleIn(nuevoSegmento, nuevaPosicionKm);
+				this.publisher.reportPosition(nuevoSegmento, nuevaPosicionKm);
 			}
 		}
 		
-		// Actualizar posición actual
+		// Suscribir por anticipación / liberar segmentos ya recorridos
+		this.subscriptionManager.update();
+		
+		// Actualizar posición actual (reutilizando el RoadPlace del vehículo)
 		this.currentPosition = nuevaPosicionKm;
-		this.rp = new RoadPlace(nuevoSegmento, nuevaPosicionKm);
+		if (this.rp == null) {
+			this.rp = new RoadPlace(nuevoSegmento, nuevaPosicionKm);
+		} else {
+			this.rp.setRoad(nuevoSegmento);
+			this.rp.setKm(nuevaPosicionKm);
+		}
 		
 		// Publicar estado en AWS IoT Device Shadow (si está habilitado)
 		if (this.awsShadowPublisher != null && this.awsShadowPublisher.isConnected()) {
@@ -332,129 +423,131 @@ public class SmartCar {
 	 * Para vehículos especiales (ignoreLimits=true), siempre retorna la velocidad de crucero.
 	 */
 	private int calcularVelocidadActual() {
+		// Las trazas sólo se construyen si el nivel TRACE está activo (este método se ejecuta en cada paso)
+		boolean trace = MySimpleLogger.isTraceEnabled();
+		
 		// Si es vehículo especial, ignora límites
 		if (this.ignoreLimits) {
-			System.out.println("(SmartCar: " + this.smartCarID + ") [VELOCIDAD] Vehículo especial - usando velocidad crucero: " + this.cruiserSpeed + " km/h");
+			if (trace) this._traceSpeed("Vehículo especial - usando velocidad crucero: " + this.cruiserSpeed + " km/h");
 			return this.cruiserSpeed;
 		}
 		
 		// 1. Obtener velocidad máxima del segmento (vía REST API)
 		int maxSegmentSpeed = getMaxSpeedFromSegment(this.currentRoadSegment);
-		System.out.println("(SmartCar: " + this.smartCarID + ") [VELOCIDAD] Segmento " + this.currentRoadSegment + " - max-speed: " + maxSegmentSpeed + " km/h");
+		if (trace) this._traceSpeed("Segmento " + this.currentRoadSegment + " - max-speed: " + maxSegmentSpeed + " km/h");
 		
 		// 2. Inicializar velocidad mínima con el mínimo entre velocidad de crucero y límite del segmento
 		int minSpeed = Math.min(this.cruiserSpeed, maxSegmentSpeed);
-		System.out.println("(SmartCar: " + this.smartCarID + ") [VELOCIDAD] Velocidad crucero: " + this.cruiserSpeed + " km/h, min inicial: " + minSpeed + " km/h");
+		if (trace) this._traceSpeed("Velocidad crucero: " + this.cruiserSpeed + " km/h, min inicial: " + minSpeed + " km/h");
 		
-		// 3. Consultar señales speed-limit activas en la posición actual
-		List<SpeedLimitSignal> speedLimits = this.speedLimitSignals.get(this.currentRoadSegment);
-		if (speedLimits != null && !speedLimits.isEmpty()) {
-			System.out.println("(SmartCar: " + this.smartCarID + ") [VELOCIDAD] Encontradas " + speedLimits.size() + " señal(es) speed-limit en segmento " + this.currentRoadSegment);
-			for (SpeedLimitSignal signal : speedLimits) {
-				if (signal.affectsPosition(this.currentPosition)) {
-					System.out.println("(SmartCar: " + this.smartCarID + ") [VELOCIDAD] Señal speed-limit aplica (posición " + this.currentPosition + "): " + signal);
-					minSpeed = Math.min(minSpeed, signal.getValue());
-				} else {
-					System.out.println("(SmartCar: " + this.smartCarID + ") [VELOCIDAD] Señal speed-limit NO aplica (posición " + this.currentPosition + " fuera de rango): " + signal);
-				}
-			}
+		SegmentSignalIndex signals = this.signalIndex.get(this.currentRoadSegment);
+		if (signals == null) {
+			if (trace) this._traceSpeed("No hay señales en segmento " + this.currentRoadSegment);
 		} else {
-			System.out.println("(SmartCar: " + this.smartCarID + ") [VELOCIDAD] No hay señales speed-limit en segmento " + this.currentRoadSegment);
-		}
-		
-		// 4. Consultar semáforos cercanos (< 50m)
-		// Si hay un semáforo rojo a menos de 50m, detenerse (velocidad = 0)
-		List<TrafficLightSignal> trafficLights = this.trafficLightSignals.get(this.currentRoadSegment);
-		if (trafficLights != null && !trafficLights.isEmpty()) {
-			System.out.println("(SmartCar: " + this.smartCarID + ") [VELOCIDAD] Encontrados " + trafficLights.size() + " semáforo(s) en segmento " + this.currentRoadSegment);
-			for (TrafficLightSignal signal : trafficLights) {
-				int distance = signal.getDistanceFrom(this.currentPosition);
-				System.out.println("(SmartCar: " + this.smartCarID + ") [VELOCIDAD] Semáforo en posición " + signal.getPosition() + " (distancia: " + distance + "m, estado: " + signal.getState() + ")");
-				if (distance < 50 && signal.isRed()) {
-					// Semáforo rojo a menos de 50m: detenerse
-					System.out.println("(SmartCar: " + this.smartCarID + ") [VELOCIDAD] ⛔ SEMÁFORO ROJO A " + distance + "m - DETENIÉNDOSE (velocidad = 0)");
-					return 0;
-				}
+			// 3. Consultar el límite speed-limit vigente en la posición actual (el más restrictivo, sin caducar)
+			int limit = signals.getSpeedLimitAt(this.currentPosition, this.currentTimeMillis());
+			if (limit >= 0) {
+				if (trace) this._traceSpeed("Señal speed-limit aplica (posición " + this.currentPosition + "): " + limit + " km/h");
+				minSpeed = Math.min(minSpeed, limit);
+			} else {
+				if (trace) this._traceSpeed("Ninguna señal speed-limit aplica en posición " + this.currentPosition + " (" + signals.getSpeedLimitCount() + " en segmento)");
 			}
-		} else {
-			System.out.println("(SmartCar: " + this.smartCarID + ") [VELOCIDAD] No hay semáforos en segmento " + this.currentRoadSegment);
+			
+			// 4. Consultar semáforos cercanos (< 50m)
+			// Si hay un semáforo rojo a menos de 50m, detenerse (velocidad = 0)
+			TrafficLightSignal red = signals.findRedLightWithin(this.currentPosition, 50);
+			if (red != null) {
+				if (trace) this._traceSpeed("⛔ SEMÁFORO ROJO A " + red.getDistanceFrom(this.currentPosition) + "m - DETENIÉNDOSE (velocidad = 0)");
+				return 0;
+			}
+			if (trace) this._traceSpeed("Sin semáforos en rojo cercanos (" + signals.getTrafficLightCount() + " en segmento)");
 		}
 		
-		System.out.println("(SmartCar: " + this.smartCarID + ") [VELOCIDAD] ✅ Velocidad final calculada: " + minSpeed + " km/h");
+		if (trace) this._traceSpeed("✅ Velocidad final calculada: " + minSpeed + " km/h");
 		return minSpeed;
 	}
 	
+	private void _traceSpeed(String message) {
+		System.out.println("(SmartCar: " + this.smartCarID + ") [VELOCIDAD] " + message);
+	}
+	
 	/**
-	 * Obtiene la velocidad máxima del segmento vía REST API
-	 * Usa cache para evitar consultas repetidas
+	 * Registra la velocidad máxima de un segmento conocida de antemano (evita la consulta REST)
+	 */
+	public void preloadSegmentMaxSpeed(String segment, int maxSpeed) {
+		this.segmentCache.put(segment, maxSpeed);
+	}
+	
+	/**
+	 * Obtiene la velocidad máxima del segmento de la cache compartida.
+	 * No bloquea: si el segmento aún no se conoce se usa 60 km/h mientras se consulta la REST API en segundo plano.
 	 */
 	private int getMaxSpeedFromSegment(String segment) {
-		// Verificar cache primero
-		if (this.segmentMaxSpeedCache.containsKey(segment)) {
-			return this.segmentMaxSpeedCache.get(segment);
+		return this.segmentCache.getMaxSpeed(segment);
+	}
+	
+	/**
+	 * Solicita a la cache los segmentos de los próximos fragmentos de la ruta
+	 */
+	protected void prefetchUpcomingSegments() {
+		if (this.navigator == null || this.navigator.getRoute() == null) {
+			return;
 		}
-		
-		// Si no está en cache, consultar REST API
-		try {
-			URL url = new URL(REST_API_BASE + "/segment/" + segment);
-			HttpURLConnection conn = (HttpURLConnection) url.openConnection();
-			conn.setRequestMethod("GET");
-			conn.setConnectTimeout(2000);
-			conn.setReadTimeout(2000);
-			
-			int responseCode = conn.getResponseCode();
-			if (responseCode == HttpURLConnection.HTTP_OK) {
-				BufferedReader in = new BufferedReader(new InputStreamReader(conn.getInputStream()));
-				StringBuilder response = new StringBuilder();
-				String line;
-				while ((line = in.readLine()) != null) {
-					response.append(line);
-				}
-				in.close();
-				
-				// Parsear JSON
-				JSONObject json = new JSONObject(response.toString());
-				int maxSpeed = json.optInt("max-speed", 60); // Default 60 km/h si no existe
-				
-				// Guardar en cache
-				this.segmentMaxSpeedCache.put(segment, maxSpeed);
-				return maxSpeed;
-			} else {
-				// Si falla la consulta, usar valor por defecto
-				System.err.println("(SmartCar: " + this.smartCarID + ") Failed to get max speed for segment " + segment + ", using default 60 km/h");
-				return 60;
-			}
-		} catch (Exception e) {
-			// Si hay error, usar valor por defecto
-			System.err.println("(SmartCar: " + this.smartCarID + ") Error getting max speed for segment " + segment + ": " + e.getMessage() + ", using default 60 km/h");
-			return 60;
+		IRoute route = this.navigator.getRoute();
+		int n = Math.min(route.size(), PREFETCH_FRAGMENTS);
+		for (int i = 0; i < n; i++) {
+			this.segmentCache.prefetch(route.get(i).getStartPoint().getRoadSegment());
 		}
 	}
 	
 	/**
 	 * Añade una señal de límite de velocidad para un segmento
-	 * Llamado por SmartCar_SignalsSubscriber cuando recibe un mensaje MQTT
+	 * Llamado por SmartCar_SignalsSubscriber cuando recibe un mensaje MQTT.
+	 * Sustituye al límite anterior del mismo rango; value 0 / validity 0 elimina los límites del segmento.
 	 */
 	public void addSpeedLimitSignal(String segment, SpeedLimitSignal signal) {
-		if (!this.speedLimitSignals.containsKey(segment)) {
-			this.speedLimitSignals.put(segment, new ArrayList<>());
-		}
-		// Reemplazar señales existentes del mismo tipo (solo puede haber una por segmento según el proyecto)
-		// O podríamos mantener múltiples y usar la más restrictiva
-		this.speedLimitSignals.get(segment).clear(); // Por simplicidad, solo mantener la última
-		this.speedLimitSignals.get(segment).add(signal);
+		this.getSignalIndex(segment).addSpeedLimit(signal);
 	}
 	
 	/**
 	 * Añade una señal de semáforo para un segmento
-	 * Llamado por SmartCar_SignalsSubscriber cuando recibe un mensaje MQTT
+	 * Llamado por SmartCar_SignalsSubscriber cuando recibe un mensaje MQTT.
+	 * Un nuevo estado para la misma posición sustituye al anterior.
 	 */
 	public void addTrafficLightSignal(String segment, TrafficLightSignal signal) {
-		if (!this.trafficLightSignals.containsKey(segment)) {
-			this.trafficLightSignals.put(segment, new ArrayList<>());
+		this.getSignalIndex(segment).addTrafficLight(signal);
+	}
+	
+	/**
+	 * Índice de señales de un segmento (se crea si no existe)
+	 */
+	public SegmentSignalIndex getSignalIndex(String segment) {
+		SegmentSignalIndex idx = this.signalIndex.get(segment);
+		if (idx == null) {
+			idx = this.signalIndex.computeIfAbsent(segment, s -> new SegmentSignalIndex(s, this::currentTimeMillis));
 		}
-		// Puede haber múltiples semáforos en un segmento
-		this.trafficLightSignals.get(segment).add(signal);
+		return idx;
+	}
+	
+	/**
+	 * Sustituye lo que queda de la ruta por la más rápida desde la posición actual con el tráfico actual
+	 * @return true si la ruta ha cambiado
+	 */
+	protected boolean reroute() {
+		IRoute current = this.navigator.getRoute();
+		IRoute route = this.trafficRouter.reroute(this.navigator.getCurrentPosition(), this.navigator.getDestinationPoint(), current);
+		if (route == null) {
+			return false;
+		}
+		// Sólo en DEBUG: en una flota grande se replanifican muchos vehículos a la vez
+		if (MySimpleLogger.isDebugEnabled()) {
+			MySimpleLogger.debug(this.smartCarID, "Rerouting: " + route);
+		}
+		this.navigator.setRoute(route);
+		this.navigator.startRouting();
+		this.prefetchUpcomingSegments();
+		this.subscriptionManager.onRouteChanged();
+		return true;
 	}
 	
 	public void notifyIncident(String incidentType) {
@@ -504,6 +597,8 @@ public class SmartCar {
 	 * Desconecta todos los componentes MQTT y AWS IoT
 	 */
 	public void disconnect() {
+		// Liberar las suscripciones por anticipación (y sus señales) mientras los suscriptores siguen conectados
+		this.subscriptionManager.releaseAll();
 		if (this.subscriber != null) {
 			this.subscriber.disconnect();
 		}
@@ -531,6 +626,11 @@ public class SmartCar {
 		if (this.awsInfoSubscriber != null) {
 			this.awsInfoSubscriber.disconnect();
 		}
+		this.signalEviction.cancel(false);
+		if (this.processBus != null) {
+			this.processBus.release();
+			this.processBus = null;
+		}
 		System.out.println("(SmartCar: " + this.smartCarID + ") All connections disconnected");
 	}
 	
@@ -538,8 +638,7 @@ public class SmartCar {
 	 * Limpia las señales de tráfico de un segmento (cuando el vehículo sale del segmento)
 	 */
 	protected void clearSignalsForSegment(String segment) {
-		this.speedLimitSignals.remove(segment);
-		this.trafficLightSignals.remove(segment);
+		this.signalIndex.remove(segment);
 	}
 	
 	// ============================================
@@ -555,7 +654,19 @@ public class SmartCar {
 	 * @return SmartCar configurado como ambulancia
 	 */
 	public static SmartCar createAmbulance(String id, int cruiserSpeed) {
-		SmartCar ambulance = new SmartCar(id);
+		return createAmbulance(id, cruiserSpeed, (IMessageBus) null);
+	}
+	
+	/**
+	 * Crea un SmartCar configurado como Ambulancia sobre una conexión compartida.
+	 * 
+	 * @param id Identificador único del vehículo
+	 * @param cruiserSpeed Velocidad de crucero (km/h)
+	 * @param bus Conexión compartida (null para la conexión compartida del proceso)
+	 * @return SmartCar configurado como ambulancia
+	 */
+	public static SmartCar createAmbulance(String id, int cruiserSpeed, IMessageBus bus) {
+		SmartCar ambulance = new SmartCar(id, bus);
 		ambulance.setVehicleRole("Ambulance");
 		ambulance.setCruiserSpeed(cruiserSpeed);
 		ambulance.setIgnoreLimits(true); // Ignora todos los límites
@@ -588,7 +699,19 @@ public class SmartCar {
 	 * @return SmartCar configurado como policía
 	 */
 	public static SmartCar createPolice(String id, int cruiserSpeed) {
-		SmartCar police = new SmartCar(id);
+		return createPolice(id, cruiserSpeed, (IMessageBus) null);
+	}
+	
+	/**
+	 * Crea un SmartCar configurado como Vehículo de Policía sobre una conexión compartida.
+	 * 
+	 * @param id Identificador único del vehículo
+	 * @param cruiserSpeed Velocidad de crucero (km/h)
+	 * @param bus Conexión compartida (null para la conexión compartida del proceso)
+	 * @return SmartCar configurado como policía
+	 */
+	public static SmartCar createPolice(String id, int cruiserSpeed, IMessageBus bus) {
+		SmartCar police = new SmartCar(id, bus);
 		police.setVehicleRole("Police");
 		police.setCruiserSpeed(cruiserSpeed);
 		police.setIgnoreLimits(true); // Ignora todos los límites
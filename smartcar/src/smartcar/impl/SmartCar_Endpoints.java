@@ -0,0 +1,35 @@
+package smartcar.impl;
+
+/**
+ * Direcciones del broker MQTT y de la REST API del simulador.
+ *
+ * Por defecto son las del simulador de la universidad (tambori.dsic.upv.es); para trabajar sin él
+ * (p.ej. contra SmartCarStarter_OfflineStack) se sustituyen con:
+ *   -Dsmartcar.broker.url=tcp://localhost:1883
+ *   -Dsmartcar.rest.base=http://localhost:10082
+ *
+ * Se leen cada vez que un componente conecta, así que también se pueden fijar con System.setProperty
+ * antes de crear los vehículos.
+ */
+public final class SmartCar_Endpoints {
+
+	public static final String DEFAULT_BROKER_URL = "tcp://tambori.dsic.upv.es:10083";
+	public static final String DEFAULT_REST_API_BASE = "http://tambori.dsic.upv.es:10082";
+
+	private SmartCar_Endpoints() {
+	}
+
+	/**
+	 * Broker MQTT del simulador (-Dsmartcar.broker.url)
+	 */
+	public static String getBrokerURL() {
+		return System.getProperty("smartcar.broker.url", DEFAULT_BROKER_URL);
+	}
+
+	/**
+	 * Base de la REST API de segmentos (-Dsmartcar.rest.base)
+	 */
+	public static String getRestApiBase() {
+		return System.getProperty("smartcar.rest.base", DEFAULT_REST_API_BASE);
+	}
+}
@@ -0,0 +1,188 @@
+package smartcar.impl;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.eclipse.paho.client.mqttv3.MqttException;
+
+import ina.vehicle.navigation.interfaces.IRoute;
+
+/**
+ * Anfitrión de flota: ejecuta muchos SmartCar en una única JVM compartiendo
+ * un conjunto pequeño y fijo de conexiones MQTT.
+ *
+ * Cada vehículo se asigna a una de las conexiones (reparto round-robin) y todos
+ * sus componentes (info, traffic, alerts, step, signals) usan esa conexión.
+ * SmartCar_MqttBus encamina cada mensaje entrante al vehículo correcto según el topic,
+ * de modo que un topic compartido (p.ej. 'step') se suscribe una vez por conexión.
+ *
+ * Los vehículos de la flota no habilitan AWS IoT Device Shadow.
+ *
+ * Con enableFleetSnapshots el anfitrión publica además en cada paso una instantánea binaria con el
+ * estado de todos sus vehículos (SmartCar_FleetSnapshot).
+ */
+public class SmartCar_FleetHost {
+
+	static final int DEFAULT_CONNECTIONS = 4;
+
+	protected String hostId = null;
+	protected String brokerURL = null;
+	protected int numConnections = DEFAULT_CONNECTIONS;
+
+	protected List<SmartCar_MqttBus> connections = new ArrayList<>();
+	protected List<SmartCar> vehicles = Collections.synchronizedList(new ArrayList<>());
+	protected SmartCar_FleetSnapshotPublisher snapshotPublisher = null;
+
+	public SmartCar_FleetHost(String hostId) {
+		this(hostId, SmartCar_Endpoints.getBrokerURL(), DEFAULT_CONNECTIONS);
+	}
+
+	public SmartCar_FleetHost(String hostId, String brokerURL, int numConnections) {
+		this.hostId = hostId;
+		this.brokerURL = brokerURL;
+		this.numConnections = Math.max(1, numConnections);
+	}
+
+	protected void _debug(String message) {
+		System.out.println("(FleetHost: " + this.hostId + ") " + message);
+	}
+
+	/**
+	 * Abre el conjunto de conexiones compartidas con el broker
+	 */
+	public void connect() {
+		for (int i = 0; i < this.numConnections; i++) {
+			SmartCar_MqttBus bus = new SmartCar_MqttBus(this.brokerURL, this.hostId + ".conn-" + i, 60);
+			try {
+				bus.connect();
+				this.connections.add(bus);
+			} catch (MqttException e) {
+				e.printStackTrace();
+				System.err.println("Error connecting fleet connection " + i + ": " + e.getMessage());
+			}
+		}
+		this._debug("Connected " + this.connections.size() + "/" + this.numConnections + " shared connections to " + this.brokerURL);
+	}
+
+	/**
+	 * Crea un vehículo de la flota y le asigna una de las conexiones compartidas.
+	 * @param tipo normal, police o ambulance
+	 * @param id Identificador único del vehículo
+	 * @param cruiserSpeed Velocidad de crucero (km/h)
+	 * @param route Ruta a seguir (puede ser null)
+	 * @return el SmartCar creado
+	 */
+	public SmartCar addVehicle(String tipo, String id, int cruiserSpeed, IRoute route) {
+		if (this.connections.isEmpty()) {
+			throw new IllegalStateException("FleetHost " + this.hostId + " is not connected");
+		}
+		SmartCar_MqttBus bus = this.connections.get(this.vehicles.size() % this.connections.size());
+
+		SmartCar car;
+		switch (tipo.toLowerCase()) {
+			case "police":
+				car = SmartCar.createPolice(id, cruiserSpeed, bus);
+				break;
+			case "ambulance":
+				car = SmartCar.createAmbulance(id, cruiserSpeed, bus);
+				break;
+			case "normal":
+				car = new SmartCar(id, bus);
+				car.setVehicleRole("PrivateUsage");
+				car.setCruiserSpeed(cruiserSpeed);
+				break;
+			default:
+				throw new IllegalArgumentException("Unknown vehicle type: " + tipo);
+		}
+		if (route != null) {
+			car.setRoute(route);
+		}
+		this.vehicles.add(car);
+		return car;
+	}
+
+	public List<SmartCar> getVehicles() {
+		return this.vehicles;
+	}
+
+	public int getVehicleCount() {
+		return this.vehicles.size();
+	}
+
+	public int getConnectionCount() {
+		return this.connections.size();
+	}
+
+	/**
+	 * Número total de topics suscritos en el broker (suma de todas las conexiones)
+	 */
+	public int getSubscriptionCount() {
+		int n = 0;
+		for (SmartCar_MqttBus bus : this.connections) {
+			n += bus.getSubscriptionCount();
+		}
+		return n;
+	}
+
+	/**
+	 * Estado de las colas de publicación de las conexiones (profundidad, en vuelo, descartes)
+	 */
+	public String getPublishStats() {
+		StringBuilder sb = new StringBuilder();
+		for (SmartCar_MqttBus bus : this.connections) {
+			if (sb.length() > 0) {
+				sb.append(" | ");
+			}
+			sb.append(bus.getClientID()).append(": ").append(bus.getPipeline().getStats());
+		}
+		return sb.toString();
+	}
+
+	/**
+	 * Planificador que ejecuta los pasos de simulación de los vehículos
+	 */
+	public SmartCar_StepScheduler getStepScheduler() {
+		return SmartCar_StepScheduler.getDefault();
+	}
+
+	public String getHostId() {
+		return this.hostId;
+	}
+
+	/**
+	 * Publica en cada paso una instantánea de la flota en SmartCar_Topics.FLEET_SNAPSHOT (por la primera conexión)
+	 */
+	public SmartCar_FleetSnapshotPublisher enableFleetSnapshots() {
+		if (this.connections.isEmpty()) {
+			throw new IllegalStateException("FleetHost " + this.hostId + " is not connected");
+		}
+		if (this.snapshotPublisher == null) {
+			this.snapshotPublisher = new SmartCar_FleetSnapshotPublisher(this.hostId, this.connections.get(0), () -> this.vehicles);
+			this.snapshotPublisher.start();
+		}
+		return this.snapshotPublisher;
+	}
+
+	public SmartCar_FleetSnapshotPublisher getFleetSnapshotPublisher() {
+		return this.snapshotPublisher;
+	}
+
+	/**
+	 * Libera las suscripciones de todos los vehículos y cierra las conexiones compartidas
+	 */
+	public void disconnect() {
+		if (this.snapshotPublisher != null) {
+			this.snapshotPublisher.stop();
+		}
+		synchronized (this.vehicles) {
+			for (SmartCar car : this.vehicles) {
+				car.disconnect();
+			}
+		}
+		for (SmartCar_MqttBus bus : this.connections) {
+			bus.disconnect();
+		}
+		this._debug("Disconnected " + this.vehicles.size() + " vehicles");
+	}
+}
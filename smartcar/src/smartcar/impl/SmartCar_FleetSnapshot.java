@@ -0,0 +1,452 @@
+package smartcar.impl;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import ina.vehicle.navigation.interfaces.INavigator;
+
+/**
+ * Instantánea binaria del estado de una flota: id, segmento, posición, velocidad y estado del
+ * navegador de todos los vehículos en una única trama, en lugar de un TRAFFIC por vehículo y paso.
+ *
+ * Formato (versión 1). 'varint' es un entero sin signo LEB128 (7 bits por byte, el bit alto indica
+ * que sigue otro byte); 'zigzag' es un varint de un entero con signo ((n << 1) ^ (n >> 63)):
+ *
+ *   'F' 'S' 0x01                       cabecera y versión
+ *   varint len + UTF-8                 host que publica
+ *   varint step, varint timestamp      paso del simulador y marca de tiempo (ms)
+ *   varint nsegs + nsegs x (varint len + UTF-8)
+ *                                      tabla de segmentos de la trama (referencia 1..nsegs; 0 = sin segmento)
+ *   varint n                           número de vehículos
+ *   n x vehículo, ordenados por referencia de segmento y posición:
+ *     varint prefijo, varint len + bytes   id: bytes compartidos con el id anterior y el resto (UTF-8)
+ *     varint dseg                          referencia de segmento menos la del vehículo anterior (>= 0)
+ *     zigzag pos                           posición; si dseg == 0, diferencia con la del vehículo anterior
+ *     zigzag speed                         velocidad (km/h)
+ *     byte status                          código de ENavigatorStatus (0xFF sin navegador)
+ *
+ * Cada trama es autocontenida (se puede leer sin las anteriores). Con ids de la forma 'SmartCar0123'
+ * y varios vehículos por segmento, cada vehículo ocupa unos 8-12 bytes.
+ *
+ * El codificador reutiliza sus buffers entre tramas y no es seguro entre hilos. decode es estático.
+ */
+public class SmartCar_FleetSnapshot {
+
+	public static final byte MAGIC_0 = 'F';
+	public static final byte MAGIC_1 = 'S';
+	public static final byte VERSION = 1;
+	public static final int NO_STATUS = 0xFF;
+
+	// Clave de ordenación: referencia de segmento (20 bits) | posición (22 bits) | índice del vehículo (21 bits)
+	private static final int INDEX_BITS = 21;
+	private static final int POS_BITS = 22;
+	private static final int MAX_VEHICLES = 1 << INDEX_BITS;
+
+	private final String hostId;
+
+	// Vehículos de la trama en curso
+	private int count = 0;
+	private byte[][] ids = new byte[64][];
+	private int[] segRefs = new int[64];
+	private int[] positions = new int[64];
+	private int[] speeds = new int[64];
+	private int[] statuses = new int[64];
+	private long[] order = new long[64];
+
+	// Tabla de segmentos de la trama en curso
+	private final Map<String, Integer> segmentRefs = new HashMap<>();
+	private String[] segments = new String[16];
+
+	private long step = 0;
+	private long timestamp = 0;
+
+	private byte[] buf = new byte[1024];
+	private int len = 0;
+
+	public SmartCar_FleetSnapshot(String hostId) {
+		this.hostId = hostId;
+	}
+
+	public String getHostId() {
+		return this.hostId;
+	}
+
+	/**
+	 * Empieza una trama nueva
+	 */
+	public SmartCar_FleetSnapshot begin(long step, long timestamp) {
+		this.step = step;
+		this.timestamp = timestamp;
+		this.count = 0;
+		this.segmentRefs.clear();
+		this.len = 0;
+		return this;
+	}
+
+	/**
+	 * Añade el estado actual de un vehículo
+	 */
+	public SmartCar_FleetSnapshot add(SmartCar car) {
+		INavigator navigator = car.getNavigator();
+		int status = (navigator != null && navigator.getNavigatorStatus() != null) ? navigator.getNavigatorStatus().getCode() : NO_STATUS;
+		return this.add(car.getSmartCarID(), car.getCurrentRoadSegment(), car.getCurrentPosition(), car.getCurrentSpeed(), status);
+	}
+
+	/**
+	 * @param segment segmento actual (null si el vehículo no está en la red)
+	 * @param status código de ENavigatorStatus (NO_STATUS si no tiene navegador)
+	 */
+	public SmartCar_FleetSnapshot add(String id, String segment, int position, int speed, int status) {
+		int v = this.count;
+		if (v == MAX_VEHICLES) {
+			throw new IllegalStateException("Fleet snapshot limited to " + MAX_VEHICLES + " vehicles");
+		}
+		if (v == this.ids.length) {
+			int n = v * 2;
+			this.ids = Arrays.copyOf(this.ids, n);
+			this.segRefs = Arrays.copyOf(this.segRefs, n);
+			this.positions = Arrays.copyOf(this.positions, n);
+			this.speeds = Arrays.copyOf(this.speeds, n);
+			this.statuses = Arrays.copyOf(this.statuses, n);
+			this.order = Arrays.copyOf(this.order, n);
+		}
+		int ref = 0;
+		if (segment != null) {
+			Integer r = this.segmentRefs.get(segment);
+			if (r == null) {
+				r = this.segmentRefs.size() + 1;
+				this.segmentRefs.put(segment, r);
+				if (r == this.segments.length) {
+					this.segments = Arrays.copyOf(this.segments, r * 2);
+				}
+				this.segments[r] = segment;
+			}
+			ref = r;
+		}
+		this.ids[v] = id.getBytes(StandardCharsets.UTF_8);
+		this.segRefs[v] = ref;
+		this.positions[v] = position;
+		this.speeds[v] = speed;
+		this.statuses[v] = status & 0xFF;
+		long p = Math.min(Math.max(position, 0), (1 << POS_BITS) - 1);
+		this.order[v] = ((long) ref << (POS_BITS + INDEX_BITS)) | (p << INDEX_BITS) | v;
+		this.count++;
+		return this;
+	}
+
+	public int getVehicleCount() {
+		return this.count;
+	}
+
+	/**
+	 * Codifica la trama; el resultado está en array()[0..length())
+	 */
+	public SmartCar_FleetSnapshot finish() {
+		this.len = 0;
+		this.writeByte(MAGIC_0);
+		this.writeByte(MAGIC_1);
+		this.writeByte(VERSION);
+		this.writeString(this.hostId.getBytes(StandardCharsets.UTF_8));
+		this.writeVarint(this.step);
+		this.writeVarint(this.timestamp);
+
+		int nsegs = this.segmentRefs.size();
+		this.writeVarint(nsegs);
+		for (int r = 1; r <= nsegs; r++) {
+			this.writeString(this.segments[r].getBytes(StandardCharsets.UTF_8));
+		}
+
+		Arrays.sort(this.order, 0, this.count);
+		this.writeVarint(this.count);
+		byte[] prevId = null;
+		int prevRef = 0;
+		int prevPos = 0;
+		for (int i = 0; i < this.count; i++) {
+			int v = (int) (this.order[i] & (MAX_VEHICLES - 1));
+			byte[] id = this.ids[v];
+			int shared = 0;
+			if (prevId != null) {
+				int max = Math.min(prevId.length, id.length);
+				while (shared < max && prevId[shared] == id[shared]) {
+					shared++;
+				}
+			}
+			this.writeVarint(shared);
+			this.writeVarint(id.length - shared);
+			this.ensure(id.length - shared);
+			System.arraycopy(id, shared, this.buf, this.len, id.length - shared);
+			this.len += id.length - shared;
+
+			int ref = this.segRefs[v];
+			int pos = this.positions[v];
+			this.writeVarint(ref - prevRef);
+			this.writeZigzag((i > 0 && ref == prevRef) ? (long) pos - prevPos : pos);
+			this.writeZigzag(this.speeds[v]);
+			this.writeByte(this.statuses[v]);
+
+			prevId = id;
+			prevRef = ref;
+			prevPos = pos;
+		}
+		return this;
+	}
+
+	public byte[] array() {
+		return this.buf;
+	}
+
+	public int length() {
+		return this.len;
+	}
+
+	private void ensure(int extra) {
+		if (this.len + extra > this.buf.length) {
+			this.buf = Arrays.copyOf(this.buf, Math.max(this.buf.length * 2, this.len + extra));
+		}
+	}
+
+	private void writeByte(int b) {
+		this.ensure(1);
+		this.buf[this.len++] = (byte) b;
+	}
+
+	private void writeVarint(long n) {
+		this.ensure(10);
+		while ((n & ~0x7FL) != 0) {
+			this.buf[this.len++] = (byte) ((n & 0x7F) | 0x80);
+			n >>>= 7;
+		}
+		this.buf[this.len++] = (byte) n;
+	}
+
+	private void writeZigzag(long n) {
+		this.writeVarint((n << 1) ^ (n >> 63));
+	}
+
+	private void writeString(byte[] s) {
+		this.writeVarint(s.length);
+		this.ensure(s.length);
+		System.arraycopy(s, 0, this.buf, this.len, s.length);
+		this.len += s.length;
+	}
+
+	// ------------------------------------------------------------
+	// Lectura
+	// ------------------------------------------------------------
+
+	public static Frame decode(byte[] data) {
+		return decode(data, 0, data.length);
+	}
+
+	/**
+	 * Decodifica una trama
+	 * @throws IllegalArgumentException si no es una instantánea de flota o está truncada
+	 */
+	public static Frame decode(byte[] data, int offset, int length) {
+		Reader r = new Reader(data, offset, offset + length);
+		if (length < 3 || data[offset] != MAGIC_0 || data[offset + 1] != MAGIC_1) {
+			throw new IllegalArgumentException("Not a fleet snapshot");
+		}
+		r.pos += 2;
+		int version = r.readByte();
+		if (version != VERSION) {
+			throw new IllegalArgumentException("Unsupported fleet snapshot version " + version);
+		}
+		String hostId = r.readString();
+		long step = r.readVarint();
+		long timestamp = r.readVarint();
+
+		int nsegs = r.readCount();
+		String[] segments = new String[nsegs + 1];
+		for (int s = 1; s <= nsegs; s++) {
+			segments[s] = r.readString();
+		}
+
+		int n = r.readCount();
+		Frame f = new Frame(hostId, step, timestamp, n);
+		byte[] id = new byte[32];
+		int idLen = 0;
+		int ref = 0;
+		int pos = 0;
+		for (int i = 0; i < n; i++) {
+			long shared = r.readVarint();
+			int rest = r.readCount();
+			if (shared > idLen) {
+				throw new IllegalArgumentException("Corrupt fleet snapshot (id prefix)");
+			}
+			if (shared + rest > id.length) {
+				id = Arrays.copyOf(id, Math.max(id.length * 2, (int) shared + rest));
+			}
+			r.readBytes(id, (int) shared, rest);
+			idLen = (int) shared + rest;
+			f.ids[i] = new String(id, 0, idLen, StandardCharsets.UTF_8);
+
+			long dseg = r.readVarint();
+			if (dseg > nsegs - ref) {
+				throw new IllegalArgumentException("Corrupt fleet snapshot (segment " + (ref + dseg) + ")");
+			}
+			long p = r.readZigzag();
+			if (i == 0 || dseg != 0) {
+				ref += (int) dseg;
+				pos = (int) p;
+			} else {
+				pos += (int) p;
+			}
+			f.segments[i] = segments[ref];
+			f.positions[i] = pos;
+			f.speeds[i] = (int) r.readZigzag();
+			f.statuses[i] = r.readByte();
+		}
+		return f;
+	}
+
+	/**
+	 * Trama decodificada (un array por campo, en el orden de la trama: por segmento y posición)
+	 */
+	public static final class Frame {
+
+		private final String hostId;
+		private final long step;
+		private final long timestamp;
+		final String[] ids;
+		final String[] segments;
+		final int[] positions;
+		final int[] speeds;
+		final int[] statuses;
+
+		Frame(String hostId, long step, long timestamp, int n) {
+			this.hostId = hostId;
+			this.step = step;
+			this.timestamp = timestamp;
+			this.ids = new String[n];
+			this.segments = new String[n];
+			this.positions = new int[n];
+			this.speeds = new int[n];
+			this.statuses = new int[n];
+		}
+
+		public String getHostId() {
+			return this.hostId;
+		}
+
+		public long getStep() {
+			return this.step;
+		}
+
+		public long getTimestamp() {
+			return this.timestamp;
+		}
+
+		public int size() {
+			return this.ids.length;
+		}
+
+		public String getVehicleId(int i) {
+			return this.ids[i];
+		}
+
+		/**
+		 * Segmento del vehículo (null si no está en la red)
+		 */
+		public String getSegment(int i) {
+			return this.segments[i];
+		}
+
+		public int getPosition(int i) {
+			return this.positions[i];
+		}
+
+		public int getSpeed(int i) {
+			return this.speeds[i];
+		}
+
+		/**
+		 * Código de ENavigatorStatus (NO_STATUS si el vehículo no tiene navegador)
+		 */
+		public int getStatusCode(int i) {
+			return this.statuses[i];
+		}
+
+		/**
+		 * Número de vehículos por segmento
+		 */
+		public Map<String, Integer> countBySegment() {
+			Map<String, Integer> counts = new HashMap<>();
+			for (String s : this.segments) {
+				if (s != null) {
+					counts.merge(s, 1, Integer::sum);
+				}
+			}
+			return counts;
+		}
+
+		@Override
+		public String toString() {
+			return "FleetSnapshot[" + this.hostId + ", step=" + this.step + ", vehicles=" + this.ids.length + "]";
+		}
+	}
+
+	private static final class Reader {
+		final byte[] data;
+		final int end;
+		int pos;
+
+		Reader(byte[] data, int pos, int end) {
+			this.data = data;
+			this.pos = pos;
+			this.end = end;
+		}
+
+		int readByte() {
+			if (this.pos >= this.end) {
+				throw new IllegalArgumentException("Truncated fleet snapshot");
+			}
+			return this.data[this.pos++] & 0xFF;
+		}
+
+		long readVarint() {
+			long n = 0;
+			for (int shift = 0; shift < 64; shift += 7) {
+				int b = this.readByte();
+				n |= (long) (b & 0x7F) << shift;
+				if ((b & 0x80) == 0) {
+					return n;
+				}
+			}
+			throw new IllegalArgumentException("Corrupt fleet snapshot (varint)");
+		}
+
+		long readZigzag() {
+			long n = this.readVarint();
+			return (n >>> 1) ^ -(n & 1);
+		}
+
+		/**
+		 * Varint usado como tamaño: no puede superar lo que queda de trama
+		 */
+		int readCount() {
+			long n = this.readVarint();
+			if (n > this.end - this.pos) {
+				throw new IllegalArgumentException("Corrupt fleet snapshot (count " + n + ")");
+			}
+			return (int) n;
+		}
+
+		void readBytes(byte[] dst, int off, int n) {
+			if (n > this.end - this.pos) {
+				throw new IllegalArgumentException("Truncated fleet snapshot");
+			}
+			System.arraycopy(this.data, this.pos, dst, off, n);
+			this.pos += n;
+		}
+
+		String readString() {
+			int n = this.readCount();
+			String s = new String(this.data, this.pos, n, StandardCharsets.UTF_8);
+			this.pos += n;
+			return s;
+		}
+	}
+}
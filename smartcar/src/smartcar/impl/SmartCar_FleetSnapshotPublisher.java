@@ -0,0 +1,199 @@
+package smartcar.impl;
+
+import java.util.Collection;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
+import java.util.function.Supplier;
+
+import org.eclipse.paho.client.mqttv3.IMqttDeliveryToken;
+import org.eclipse.paho.client.mqttv3.MqttCallback;
+import org.eclipse.paho.client.mqttv3.MqttMessage;
+
+import smartcar.interfaces.IMessageBus;
+
+/**
+ * Publica en cada paso del simulador una instantánea binaria (SmartCar_FleetSnapshot) con el estado
+ * de todos los vehículos de un anfitrión en el topic SmartCar_Topics.FLEET_SNAPSHOT.
+ *
+ * Con start() se suscribe al topic 'step' y publica al recibir cada paso, con el número de ese paso:
+ * la trama refleja el estado de los vehículos en ese momento (el resultado del paso anterior, ya que
+ * los vehículos procesan el nuevo paso en el pool del SmartCar_StepScheduler). La trama se construye
+ * y se publica en un hilo propio: publicar desde el hilo de callbacks de Paho lo bloquea esperando a
+ * que se complete el envío (que notifica ese mismo hilo) y los vehículos de la conexión dejarían de
+ * recibir mensajes. Si llegan pasos mientras se publica una trama, sólo se publica el último.
+ * En la simulación headless el motor llama directamente a publish tras mover los vehículos.
+ *
+ * La colección de vehículos se recorre con su propio lock tomado (Collections.synchronizedList).
+ * Mientras la flota está vacía sólo se publica la primera trama vacía.
+ */
+public class SmartCar_FleetSnapshotPublisher implements MqttCallback {
+
+	private final IMessageBus bus;
+	private final Supplier<? extends Collection<SmartCar>> vehicles;
+	private final SmartCar_FleetSnapshot snapshot;
+	private volatile LongSupplier clock = System::currentTimeMillis;
+	private boolean started = false;
+	private long localStep = 0; // Numeración propia si el mensaje no incluye 'step'
+
+	// Hilo de publicación y último paso recibido pendiente de publicar
+	private volatile ExecutorService executor = null;
+	private final AtomicLong pendingStep = new AtomicLong(-1);
+	private final AtomicBoolean scheduled = new AtomicBoolean(false);
+
+	// Estadísticas
+	private final AtomicLong frames = new AtomicLong(0);
+	private final AtomicLong bytes = new AtomicLong(0);
+	private volatile int lastFrameBytes = 0;
+	private volatile int lastFrameVehicles = 0;
+
+	public SmartCar_FleetSnapshotPublisher(String hostId, IMessageBus bus, Supplier<? extends Collection<SmartCar>> vehicles) {
+		this.bus = bus;
+		this.vehicles = vehicles;
+		this.snapshot = new SmartCar_FleetSnapshot(hostId);
+	}
+
+	protected void _debug(String message) {
+		System.out.println("(FleetSnapshot: " + this.snapshot.getHostId() + ") " + message);
+	}
+
+	/**
+	 * Reloj de las marcas de tiempo de las tramas (el VirtualClock en la simulación headless)
+	 */
+	public void setClock(LongSupplier clock) {
+		this.clock = (clock != null) ? clock : System::currentTimeMillis;
+	}
+
+	/**
+	 * Publica una trama con cada paso recibido en el topic 'step'
+	 */
+	public synchronized void start() {
+		if (this.started) {
+			return;
+		}
+		this.started = true;
+		this.executor = Executors.newSingleThreadExecutor(r -> {
+			Thread t = new Thread(r, "fleet-snapshot-" + this.snapshot.getHostId());
+			t.setDaemon(true);
+			return t;
+		});
+		this.bus.subscribe(SmartCar_StepScheduler.STEP_TOPIC, this);
+		this._debug("Publishing fleet snapshots on " + SmartCar_Topics.FLEET_SNAPSHOT);
+	}
+
+	public synchronized void stop() {
+		if (!this.started) {
+			return;
+		}
+		this.started = false;
+		this.bus.unsubscribe(SmartCar_StepScheduler.STEP_TOPIC, this);
+		this.executor.shutdown();
+		this.executor = null;
+	}
+
+	/**
+	 * Codifica y publica el estado actual de los vehículos
+	 * @return tamaño de la trama en bytes (0 si no se ha publicado)
+	 */
+	public synchronized int publish(long step) {
+		if (!this.bus.isConnected()) {
+			return 0;
+		}
+		SmartCar_FleetSnapshot s = this.snapshot.begin(step, this.clock.getAsLong());
+		Collection<SmartCar> cars = this.vehicles.get();
+		synchronized (cars) {
+			for (SmartCar car : cars) {
+				s.add(car);
+			}
+		}
+		if (s.getVehicleCount() == 0 && this.lastFrameVehicles == 0 && this.frames.get() > 0) {
+			return 0; // Basta con una trama vacía mientras la flota siga vacía
+		}
+		s.finish();
+		this.bus.publish(SmartCar_Topics.FLEET_SNAPSHOT, s.array(), s.length(), 0);
+		this.frames.incrementAndGet();
+		this.bytes.addAndGet(s.length());
+		this.lastFrameBytes = s.length();
+		this.lastFrameVehicles = s.getVehicleCount();
+		return s.length();
+	}
+
+	@Override
+	public void messageArrived(String topic, MqttMessage message) throws Exception {
+		try {
+			SmartCar_Message msg = SmartCar_MessageCodec.decodeAny(message.getPayload(), new SmartCar_Message());
+			if (msg.type != SmartCar_Message.Type.SIMULATOR_STEP) {
+				return;
+			}
+			long step = msg.step;
+			if (step < 0) {
+				step = ++this.localStep; // Sólo se llama desde el hilo de callbacks del bus
+			}
+			this.pendingStep.set(step);
+			this.schedule();
+		} catch (Exception e) {
+			this._debug("Error processing step message: " + e.getMessage());
+			// No re-lanzar la excepción para evitar que cierre la conexión
+		}
+	}
+
+	/**
+	 * Encola la publicación del paso pendiente si no hay ya una en curso
+	 */
+	private void schedule() {
+		ExecutorService ex = this.executor;
+		if (ex == null || !this.scheduled.compareAndSet(false, true)) {
+			return; // La publicación en curso recogerá el último paso al terminar
+		}
+		try {
+			ex.execute(this::publishPending);
+		} catch (RejectedExecutionException e) {
+			this.scheduled.set(false); // Detenido
+		}
+	}
+
+	private void publishPending() {
+		try {
+			long step = this.pendingStep.getAndSet(-1);
+			if (step >= 0) {
+				this.publish(step);
+			}
+		} catch (Exception e) {
+			this._debug("Error publishing fleet snapshot: " + e.getMessage());
+		} finally {
+			this.scheduled.set(false);
+		}
+		if (this.pendingStep.get() >= 0) {
+			this.schedule();
+		}
+	}
+
+	@Override
+	public void connectionLost(Throwable cause) {
+		// La reconexión la gestiona el bus
+	}
+
+	@Override
+	public void deliveryComplete(IMqttDeliveryToken token) {
+		// No aplica para suscripciones
+	}
+
+	public long getFrameCount() {
+		return this.frames.get();
+	}
+
+	public long getByteCount() {
+		return this.bytes.get();
+	}
+
+	public String getStats() {
+		long n = this.frames.get();
+		return "frames=" + n
+				+ " bytes=" + this.bytes.get()
+				+ " avg=" + (n > 0 ? this.bytes.get() / n : 0) + "B"
+				+ " last=" + this.lastFrameBytes + "B/" + this.lastFrameVehicles + " vehicles";
+	}
+}
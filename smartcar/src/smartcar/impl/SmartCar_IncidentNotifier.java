@@ -2,13 +2,10 @@ package smartcar.impl;
 
 import org.eclipse.paho.client.mqttv3.IMqttDeliveryToken;
 import org.eclipse.paho.client.mqttv3.MqttCallback;
-import org.eclipse.paho.client.mqttv3.MqttClient;
-import org.eclipse.paho.client.mqttv3.MqttConnectOptions;
-import org.eclipse.paho.client.mqttv3.MqttDeliveryToken;
 import org.eclipse.paho.client.mqttv3.MqttException;
 import org.eclipse.paho.client.mqttv3.MqttMessage;
-import org.eclipse.paho.client.mqttv3.MqttTopic;
-import org.json.JSONObject;
+
+import smartcar.interfaces.IMessageBus;
 
 /**
  * Clase encargada de notificar incidentes del SmartCar al broker MQTT.
@@ -16,10 +13,9 @@ import org.json.JSONObject;
  */
 public class SmartCar_IncidentNotifier implements MqttCallback {
 
-	private MqttClient myClient;
-	private MqttConnectOptions connOpt;
+	private IMessageBus bus;
+	private boolean sharedBus = false; // true si la conexión es compartida (SmartCar_FleetHost o la del proceso)
 	
-	static final String BROKER_URL = "tcp://tambori.dsic.upv.es:10083";
 	
 	private String smartCarID;
 	
@@ -27,6 +23,15 @@ public class SmartCar_IncidentNotifier implements MqttCallback {
 		this.smartCarID = smartCarID;
 	}
 	
+	/**
+	 * Crea el notifier sobre una conexión compartida (modo flota)
+	 */
+	public SmartCar_IncidentNotifier(String smartCarID, IMessageBus bus) {
+		this.smartCarID = smartCarID;
+		this.bus = bus;
+		this.sharedBus = (bus != null);
+	}
+	
 	protected void _debug(String message) {
 		System.out.println("(SmartCar IncidentNotifier: " + this.smartCarID + ") " + message);
 	}
@@ -51,17 +56,16 @@ public class SmartCar_IncidentNotifier implements MqttCallback {
 	 * Conecta al broker MQTT
 	 */
 	public void connect() {
+		if (this.sharedBus) {
+			return; // La conexión compartida ya está establecida
+		}
 		String clientID = this.smartCarID + ".incidentNotifier";
-		connOpt = new MqttConnectOptions();
-		
-		connOpt.setCleanSession(true);
-		connOpt.setKeepAliveInterval(30);
 		
 		try {
-			myClient = new MqttClient(BROKER_URL, clientID);
-			myClient.setCallback(this);
-			myClient.connect(connOpt);
-			this._debug("IncidentNotifier Connected to " + BROKER_URL);
+			SmartCar_MqttBus mqttBus = new SmartCar_MqttBus(SmartCar_Endpoints.getBrokerURL(), clientID, 30);
+			mqttBus.connect();
+			this.bus = mqttBus;
+			this._debug("IncidentNotifier Connected to " + mqttBus.getBrokerURL());
 		} catch (MqttException e) {
 			e.printStackTrace();
 			System.err.println("Error connecting incident notifier: " + e.getMessage());
@@ -72,13 +76,9 @@ public class SmartCar_IncidentNotifier implements MqttCallback {
 	 * Desconecta del broker MQTT
 	 */
 	public void disconnect() {
-		try {
-			if (myClient != null && myClient.isConnected()) {
-				myClient.disconnect();
-				this._debug("IncidentNotifier Disconnected");
-			}
-		} catch (MqttException e) {
-			e.printStackTrace();
+		if (!this.sharedBus && this.bus != null && this.bus.isConnected()) {
+			this.bus.disconnect();
+			this._debug("IncidentNotifier Disconnected");
 		}
 	}
 	
@@ -89,61 +89,33 @@ public class SmartCar_IncidentNotifier implements MqttCallback {
 	 * @param place Ubicación del incidente (road y km)
 	 */
 	public void alert(String smartCarID, String notificationType, RoadPlace place) {
-		if (myClient == null || !myClient.isConnected()) {
+		if (this.bus == null || !this.bus.isConnected()) {
 			this._debug("Notifier not connected. Cannot publish alert.");
 			return;
 		}
 		
 		// Construir el topic: es/upv/pros/tatami/smartcities/traffic/PTPaterna/road/{road}/alerts
-		String myTopic = "es/upv/pros/tatami/smartcities/traffic/PTPaterna/road/" 
-				+ place.getRoad() + "/alerts";
-		
-		MqttTopic topic = myClient.getTopic(myTopic);
+		String myTopic = SmartCar_Topics.alerts(place.getRoad());
 		
-		// Construir el payload JSON con formato correcto del simulador
+		// Construir el payload con formato correcto del simulador (JSON, o binario si se configura para
+		// los topics alerts: ver SmartCar_MessageCodec)
 		// Formato: { "msg": { "event": "OPEN", "rt": "accidente", "id": ..., "vehicle": ..., "road-segment": ..., "position": ... }, "id": "MSG_...", "type": "ACCIDENT", "timestamp": ... }
-		JSONObject msgContent = new JSONObject();
-		JSONObject pubMsg = new JSONObject();
-		try {
-			// Determinar el tipo de evento (OPEN para abrir, CLOSE para cerrar)
-			// Por defecto, cuando se notifica un incidente, se abre (OPEN)
-			String eventType = "OPEN";
-			String rt = notificationType; // rt puede ser "accidente", "avería", etc.
-			
-			// Generar ID único para el accidente
-			String accidentId = "ACC_" + smartCarID + "_" + System.currentTimeMillis();
-			
-			msgContent.put("event", eventType);
-			msgContent.put("rt", rt);
-			msgContent.put("id", accidentId);
-			msgContent.put("vehicle", smartCarID);
-			msgContent.put("road-segment", place.getRoad());
-			msgContent.put("road", place.getRoad()); // Compatibilidad
-			msgContent.put("position", place.getKm());
-			msgContent.put("kp", place.getKm()); // Compatibilidad
-			
-			pubMsg.put("msg", msgContent);
-			pubMsg.put("id", "MSG_" + System.currentTimeMillis());
-			pubMsg.put("type", "ACCIDENT");
-			pubMsg.put("timestamp", System.currentTimeMillis());
-		} catch (org.json.JSONException e1) {
-			this._debug("Error creating JSON payload: " + e1.getMessage());
-			return;
-		}
+		// Por defecto, cuando se notifica un incidente, se abre (OPEN); rt puede ser "accidente", "avería", etc.
+		long now = System.currentTimeMillis();
+		String accidentId = "ACC_" + smartCarID + "_" + now; // ID único para el accidente
+		SmartCar_Message alert = new SmartCar_Message().accident(now, "OPEN", notificationType, accidentId,
+				smartCarID, place.getRoad(), place.getKm());
+		SmartCar_PayloadBuffer payload = new SmartCar_PayloadBuffer();
+		SmartCar_MessageCodec.forTopic(myTopic).encode(alert, payload);
 		
 		int pubQoS = 0;
-		MqttMessage message = new MqttMessage(pubMsg.toString().getBytes());
-		message.setQos(pubQoS);
-		message.setRetained(false);
 		
 		// Publicar el mensaje
-		MqttDeliveryToken token = null;
 		try {
 			// publish message to broker
-			token = topic.publish(message);
-			this._debug("Published alert to topic [" + myTopic + "]: " + pubMsg.toString());
+			this.bus.publish(myTopic, payload.array(), payload.length(), pubQoS);
+			this._debug("Published alert to topic [" + myTopic + "]: " + alert);
 			// No esperar completion ni hacer sleep para no bloquear el hilo principal
-			// token.waitForCompletion();
 		} catch (Exception e) {
 			e.printStackTrace();
 			this._debug("Error publishing alert: " + e.getMessage());
@@ -0,0 +1,138 @@
+package smartcar.impl;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Codificación de los mensajes del sistema (SmartCar_Message) en el payload MQTT.
+ *
+ *  - SmartCar_JsonCodec: el JSON de siempre (el que entienden el simulador, el Road Manager y AWS).
+ *  - SmartCar_BinaryCodec: esquema fijo binario, sin nombres de campo ni conversión a texto.
+ *
+ * Al recibir, el formato se reconoce por el primer byte del payload (decodeAny): los mensajes binarios
+ * empiezan por BINARY_MARKER, que no puede iniciar un texto JSON en UTF-8. Los suscriptores aceptan
+ * así los dos formatos a la vez, y cada publicador elige el suyo según el tipo de topic (forTopic):
+ *
+ *   -Dsmartcar.codec=json|binary             para todos los topics (por defecto json)
+ *   -Dsmartcar.codec.{tipo}=json|binary      para un tipo: traffic, info, signals, alerts, step
+ *
+ * Sólo debe activarse el binario en los topics cuyos suscriptores lo entienden (SmartCar, Road Manager);
+ * el simulador remoto, AWS y los dispositivos (SignalSpeed, PanelInformativo) sólo leen JSON.
+ */
+public abstract class SmartCar_MessageCodec {
+
+	/**
+	 * Primer byte de un mensaje binario (un byte de continuación UTF-8: ningún JSON empieza por él)
+	 */
+	public static final byte BINARY_MARKER = (byte) 0xB5;
+
+	static final String DEFAULT_CODEC = "json";
+
+	// Tipo de topic -> codec de publicación (se resuelve una vez por tipo)
+	private static final Map<String, SmartCar_MessageCodec> BY_KIND = new ConcurrentHashMap<>();
+
+	/**
+	 * Nombre del codec (json, binary)
+	 */
+	public abstract String getName();
+
+	/**
+	 * Añade el mensaje codificado al buffer (sin reiniciarlo)
+	 */
+	public abstract void encode(SmartCar_Message message, SmartCar_PayloadBuffer out);
+
+	/**
+	 * Decodifica un payload de este codec
+	 * @return into (con type null si el mensaje no es de uno de los tipos del modelo)
+	 * @throws IllegalArgumentException si el payload no es válido
+	 */
+	public abstract SmartCar_Message decode(byte[] data, int offset, int length, SmartCar_Message into);
+
+	@Override
+	public String toString() {
+		return this.getName();
+	}
+
+	/**
+	 * Codec por nombre (json, binary)
+	 */
+	public static SmartCar_MessageCodec forName(String name) {
+		if ("binary".equalsIgnoreCase(name)) {
+			return SmartCar_BinaryCodec.INSTANCE;
+		}
+		if (!DEFAULT_CODEC.equalsIgnoreCase(name)) {
+			System.err.println("Unknown codec '" + name + "', using " + DEFAULT_CODEC);
+		}
+		return SmartCar_JsonCodec.INSTANCE;
+	}
+
+	/**
+	 * Codec con el que se publica en un topic, según su tipo (ver la configuración arriba)
+	 */
+	public static SmartCar_MessageCodec forTopic(String topic) {
+		String kind = kindOf(topic);
+		SmartCar_MessageCodec codec = BY_KIND.get(kind);
+		return (codec != null) ? codec : BY_KIND.computeIfAbsent(kind, SmartCar_MessageCodec::load);
+	}
+
+	/**
+	 * Cambia el codec de un tipo de topic (traffic, info, signals, alerts, step)
+	 */
+	public static void setForKind(String kind, SmartCar_MessageCodec codec) {
+		BY_KIND.put(kind, (codec != null) ? codec : SmartCar_JsonCodec.INSTANCE);
+	}
+
+	/**
+	 * Tipo de un topic: traffic, info, signals o alerts para los de segmento, step para el del simulador
+	 * y 'other' para el resto
+	 */
+	static String kindOf(String topic) {
+		SmartCar_TopicTrie.Match<String> m = SmartCar_Topics.ROAD_TOPICS.match(topic);
+		if (m != null) {
+			return m.value();
+		}
+		return SmartCar_StepScheduler.STEP_TOPIC.equals(topic) ? "step" : "other";
+	}
+
+	private static SmartCar_MessageCodec load(String kind) {
+		String name = System.getProperty("smartcar.codec." + kind);
+		if (name == null) {
+			name = System.getProperty("smartcar.codec", DEFAULT_CODEC);
+		}
+		return forName(name.trim());
+	}
+
+	/**
+	 * Indica si el payload está en binario (SmartCar_BinaryCodec)
+	 */
+	public static boolean isBinary(byte[] data, int offset, int length) {
+		return length > 0 && data[offset] == BINARY_MARKER;
+	}
+
+	/**
+	 * Payload legible para trazas: el JSON tal cual o el mensaje binario convertido a JSON
+	 */
+	public static String toText(byte[] data) {
+		if (!isBinary(data, 0, data.length)) {
+			return new String(data, StandardCharsets.UTF_8);
+		}
+		try {
+			return SmartCar_BinaryCodec.INSTANCE.decode(data, 0, data.length, new SmartCar_Message()).toString();
+		} catch (IllegalArgumentException e) {
+			return "<" + e.getMessage() + ": " + data.length + " bytes>";
+		}
+	}
+
+	/**
+	 * Decodifica un payload en cualquiera de los dos formatos (según su primer byte)
+	 */
+	public static SmartCar_Message decodeAny(byte[] data, SmartCar_Message into) {
+		return decodeAny(data, 0, data.length, into);
+	}
+
+	public static SmartCar_Message decodeAny(byte[] data, int offset, int length, SmartCar_Message into) {
+		SmartCar_MessageCodec codec = isBinary(data, offset, length) ? SmartCar_BinaryCodec.INSTANCE : SmartCar_JsonCodec.INSTANCE;
+		return codec.decode(data, offset, length, into);
+	}
+}
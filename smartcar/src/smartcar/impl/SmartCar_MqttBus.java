@@ -0,0 +1,362 @@
+package smartcar.impl;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.eclipse.paho.client.mqttv3.IMqttActionListener;
+import org.eclipse.paho.client.mqttv3.IMqttDeliveryToken;
+import org.eclipse.paho.client.mqttv3.IMqttToken;
+import org.eclipse.paho.client.mqttv3.MqttAsyncClient;
+import org.eclipse.paho.client.mqttv3.MqttCallback;
+import org.eclipse.paho.client.mqttv3.MqttConnectOptions;
+import org.eclipse.paho.client.mqttv3.MqttException;
+import org.eclipse.paho.client.mqttv3.MqttMessage;
+import org.eclipse.paho.client.mqttv3.persist.MemoryPersistence;
+
+import smartcar.interfaces.IMessageBus;
+
+/**
+ * Bus de mensajes sobre una única conexión MQTT (Paho MqttAsyncClient).
+ *
+ * Mantiene una tabla de encaminamiento topic -> callbacks, de forma que un mismo
+ * cliente MQTT puede dar servicio a muchos componentes (y a muchos vehículos).
+ * Cada topic se suscribe una sola vez en el broker aunque tenga varios callbacks,
+ * y cada mensaje entrante se entrega a todos los callbacks cuyo filtro coincide.
+ *
+ * Las publicaciones pasan por una cola asíncrona (SmartCar_PublishPipeline): publish retorna sin
+ * esperar a la red, así que el paso de simulación y los callbacks pueden publicar sin bloquearse.
+ *
+ * Si se pierde la conexión, se reconecta en segundo plano, se vuelven a
+ * suscribir todos los topics registrados y se envía lo que haya quedado en la cola.
+ *
+ * acquire/release mantienen además una conexión por broker compartida por todo el proceso:
+ * es la que usan los SmartCar creados sin conexión de flota, en lugar de abrir una por componente.
+ */
+public class SmartCar_MqttBus implements IMessageBus, MqttCallback {
+
+	static final long CONNECT_TIMEOUT = 30000;
+	static final long FLUSH_TIMEOUT = 2000; // Espera máxima a la cola al desconectar
+
+	private MqttAsyncClient myClient;
+	private MqttConnectOptions connOpt;
+	private SmartCar_PublishPipeline pipeline;
+
+	private final String brokerURL;
+	private final String clientID;
+	private final int keepAlive;
+
+	// Filtro de topic -> callbacks registrados
+	private final Map<String, List<MqttCallback>> routes = new ConcurrentHashMap<>();
+	// Filtros con wildcards (+, #) -> callbacks, en un árbol que resuelve un topic en una sola pasada
+	private final SmartCar_TopicTrie<List<MqttCallback>> wildcardFilters = new SmartCar_TopicTrie<>();
+	private final SmartCar_TopicTrie.Visitor<List<MqttCallback>, MqttMessage> deliverAll = this::deliverAll;
+
+	private volatile boolean closed = false;
+	private volatile boolean reconnecting = false;
+
+	// Conexiones compartidas por el proceso: URL del broker -> bus (ver acquire)
+	private static final Map<String, SmartCar_MqttBus> SHARED = new HashMap<>();
+	private static final AtomicInteger NEXT_SHARED_ID = new AtomicInteger(0);
+	private int references = 0; // Protegido por SHARED
+
+	public SmartCar_MqttBus(String brokerURL, String clientID, int keepAlive) {
+		this.brokerURL = brokerURL;
+		this.clientID = clientID;
+		this.keepAlive = keepAlive;
+	}
+
+	protected void _debug(String message) {
+		System.out.println("(MqttBus: " + this.clientID + ") " + message);
+	}
+
+	/**
+	 * Conecta al broker MQTT
+	 */
+	public void connect() throws MqttException {
+		connOpt = new MqttConnectOptions();
+		connOpt.setCleanSession(true);
+		connOpt.setKeepAliveInterval(this.keepAlive);
+
+		myClient = new MqttAsyncClient(this.brokerURL, this.clientID, new MemoryPersistence());
+		myClient.setCallback(this);
+		pipeline = SmartCar_PublishPipeline.fromSystemProperties(myClient, this.clientID);
+		// ROAD_STATUS de cada segmento e instantáneas de flota completas: sólo interesa el último
+		pipeline.addLastValueTopic(SmartCar_Topics.TOPIC_ROOT + "/road/+/info");
+		pipeline.addLastValueTopic(SmartCar_Topics.FLEET_SNAPSHOT);
+		myClient.connect(connOpt).waitForCompletion(CONNECT_TIMEOUT);
+		this.closed = false;
+	}
+
+	/**
+	 * Conexión compartida por todos los componentes del proceso que usan el mismo broker.
+	 * Se conecta con la primera petición; cada acquire debe acompañarse de un release.
+	 */
+	public static SmartCar_MqttBus acquire(String brokerURL) throws MqttException {
+		synchronized (SHARED) {
+			SmartCar_MqttBus bus = SHARED.get(brokerURL);
+			if (bus == null || bus.closed) {
+				bus = new SmartCar_MqttBus(brokerURL,
+						"SmartCar-" + ProcessHandle.current().pid() + "." + NEXT_SHARED_ID.getAndIncrement(), 60);
+				bus.connect();
+				SHARED.put(brokerURL, bus);
+			}
+			bus.references++;
+			return bus;
+		}
+	}
+
+	/**
+	 * Libera una conexión obtenida con acquire; se desconecta al liberarla su último usuario
+	 */
+	public void release() {
+		synchronized (SHARED) {
+			if (--this.references > 0) {
+				return;
+			}
+			SHARED.remove(this.brokerURL, this);
+		}
+		this.disconnect();
+	}
+
+	/**
+	 * Número de conexiones compartidas abiertas en el proceso
+	 */
+	public static int getSharedConnectionCount() {
+		synchronized (SHARED) {
+			return SHARED.size();
+		}
+	}
+
+	public String getClientID() {
+		return this.clientID;
+	}
+
+	public String getBrokerURL() {
+		return this.brokerURL;
+	}
+
+	@Override
+	public boolean isConnected() {
+		return myClient != null && myClient.isConnected();
+	}
+
+	/**
+	 * Cola de publicación de la conexión (profundidad, envíos en vuelo, descartes)
+	 */
+	public SmartCar_PublishPipeline getPipeline() {
+		return this.pipeline;
+	}
+
+	@Override
+	public void disconnect() {
+		this.closed = true;
+		try {
+			if (myClient != null && myClient.isConnected()) {
+				// Enviar lo que quede en la cola antes de cerrar
+				if (!this.pipeline.flush(FLUSH_TIMEOUT)) {
+					this._debug("Disconnecting with pending messages: " + this.pipeline.getStats());
+				}
+				myClient.disconnect().waitForCompletion(CONNECT_TIMEOUT);
+			}
+		} catch (MqttException e) {
+			e.printStackTrace();
+		}
+	}
+
+	@Override
+	public void subscribe(String topic, MqttCallback handler) {
+		boolean first;
+		synchronized (this) {
+			List<MqttCallback> handlers = this.routes.get(topic);
+			first = (handlers == null);
+			if (first) {
+				handlers = new CopyOnWriteArrayList<>();
+				this.routes.put(topic, handlers);
+				if (isWildcard(topic)) {
+					this.wildcardFilters.add(topic, handlers);
+				}
+			}
+			if (!handlers.contains(handler)) {
+				handlers.add(handler);
+			}
+		}
+		if (first && this.isConnected()) {
+			try {
+				// Sin esperar al SUBACK: se suscribe también desde callbacks y desde el paso de simulación
+				myClient.subscribe(topic, 0, topic, this.subscriptionListener);
+			} catch (MqttException e) {
+				this._debug("Error subscribing to " + topic + ": " + e.getMessage());
+			}
+		}
+	}
+
+	@Override
+	public void unsubscribe(String topic, MqttCallback handler) {
+		boolean last = false;
+		synchronized (this) {
+			List<MqttCallback> handlers = this.routes.get(topic);
+			if (handlers == null) {
+				return;
+			}
+			handlers.remove(handler);
+			if (handlers.isEmpty()) {
+				this.routes.remove(topic);
+				this.wildcardFilters.remove(topic, handlers);
+				last = true;
+			}
+		}
+		if (last && this.isConnected()) {
+			try {
+				myClient.unsubscribe(topic, topic, this.subscriptionListener);
+			} catch (MqttException e) {
+				this._debug("Error unsubscribing from " + topic + ": " + e.getMessage());
+			}
+		}
+	}
+
+	@Override
+	public void publish(String topic, byte[] payload, int qos) {
+		if (this.closed || this.pipeline == null) {
+			this._debug("Not connected. Cannot publish to " + topic);
+			return;
+		}
+		// Mientras se reconecta el mensaje espera en la cola
+		this.pipeline.publish(topic, payload, qos, null);
+	}
+
+	/**
+	 * Publica sin esperar y avisa al completarse el envío (o al descartarse)
+	 */
+	public boolean publish(String topic, byte[] payload, int qos, SmartCar_PublishPipeline.Completion completion) {
+		if (this.closed || this.pipeline == null) {
+			if (completion != null) {
+				completion.completed(topic, new MqttException(MqttException.REASON_CODE_CLIENT_NOT_CONNECTED));
+			}
+			return false;
+		}
+		return this.pipeline.publish(topic, payload, qos, completion);
+	}
+
+	private final IMqttActionListener subscriptionListener = new IMqttActionListener() {
+		@Override
+		public void onSuccess(IMqttToken token) {
+		}
+
+		@Override
+		public void onFailure(IMqttToken token, Throwable cause) {
+			SmartCar_MqttBus.this._debug("Error (un)subscribing to " + token.getUserContext() + ": "
+					+ (cause != null ? cause.getMessage() : "Unknown"));
+		}
+	};
+
+	/**
+	 * Número de filtros de topic con al menos un callback registrado
+	 */
+	public int getSubscriptionCount() {
+		return this.routes.size();
+	}
+
+	@Override
+	public void messageArrived(String topic, MqttMessage message) throws Exception {
+		List<MqttCallback> handlers = this.routes.get(topic);
+		if (handlers != null) {
+			this.deliverAll(handlers, topic, message);
+		}
+		if (!this.wildcardFilters.isEmpty()) {
+			this.wildcardFilters.forEachMatch(topic, this.deliverAll, message);
+		}
+	}
+
+	private void deliverAll(List<MqttCallback> handlers, String topic, MqttMessage message) {
+		for (MqttCallback h : handlers) {
+			this.deliver(h, topic, message);
+		}
+	}
+
+	private void deliver(MqttCallback handler, String topic, MqttMessage message) {
+		try {
+			handler.messageArrived(topic, message);
+		} catch (Exception e) {
+			// Un callback que falla no debe afectar al resto ni cerrar la conexión
+			this._debug("Error delivering message from " + topic + ": " + e.getMessage());
+		}
+	}
+
+	@Override
+	public void connectionLost(Throwable cause) {
+		this._debug("Connection lost: " + (cause != null ? cause.getMessage() : "Unknown reason"));
+		if (this.closed || this.reconnecting) {
+			return;
+		}
+		this.reconnecting = true;
+		// Reconectar en un hilo separado para no bloquear el hilo de Paho
+		Thread t = new Thread(() -> {
+			try {
+				while (!this.closed && !this.isConnected()) {
+					try {
+						Thread.sleep(1000);
+						myClient.connect(connOpt).waitForCompletion(CONNECT_TIMEOUT);
+						for (String topic : this.routes.keySet()) {
+							myClient.subscribe(topic, 0, topic, this.subscriptionListener);
+						}
+						this.pipeline.resume();
+						this._debug("Reconnected to " + this.brokerURL + " (" + this.routes.size() + " topics)");
+					} catch (MqttException e) {
+						this._debug("Error reconnecting: " + e.getMessage());
+					}
+				}
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			} finally {
+				this.reconnecting = false;
+			}
+		}, this.clientID + "-reconnect");
+		t.setDaemon(true);
+		t.start();
+	}
+
+	@Override
+	public void deliveryComplete(IMqttDeliveryToken token) {
+		// No se usa: SmartCar_PublishPipeline recibe el aviso de cada envío
+	}
+
+	protected static boolean isWildcard(String filter) {
+		return filter.indexOf('+') >= 0 || filter.indexOf('#') >= 0;
+	}
+
+	/**
+	 * Comprueba si un topic coincide con un filtro MQTT (niveles separados por '/', wildcards + y #)
+	 */
+	public static boolean topicMatches(String filter, String topic) {
+		int f = 0, t = 0;
+		int fl = filter.length(), tl = topic.length();
+		while (f < fl) {
+			char c = filter.charAt(f);
+			if (c == '#') {
+				return true;
+			}
+			if (c == '+') {
+				// Consumir un nivel completo del topic
+				while (t < tl && topic.charAt(t) != '/') {
+					t++;
+				}
+				f++;
+			} else {
+				if (t >= tl && filter.startsWith("/#", f)) {
+					// "a/#" también coincide con el nivel padre "a"
+					return true;
+				}
+				if (t >= tl || topic.charAt(t) != c) {
+					return false;
+				}
+				f++;
+				t++;
+			}
+		}
+		return t == tl;
+	}
+}
@@ -0,0 +1,125 @@
+package smartcar.impl;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Política de publicación de la posición de un vehículo dentro de su segmento (VEHICLE_IN repetido).
+ *
+ * Los vehículos publicaban VEHICLE_IN en cada paso de simulación aunque no se hubieran movido (p.ej.
+ * parados en un semáforo en rojo). Con esta política, mientras el vehículo sigue en el mismo segmento
+ * sólo se publica si:
+ *   - se ha desplazado al menos minPositionDelta desde la última posición publicada, o
+ *   - han pasado al menos maxSilenceMillis desde la última publicación.
+ * La entrada en un segmento (VEHICLE_IN) y la salida (VEHICLE_OUT) se publican siempre.
+ *
+ * La política depende del rol del vehículo (vehicle-role). Por defecto Ambulance y Police publican en
+ * cada paso (FULL) y el resto (PrivateUsage) usa DEFAULT. maxSilenceMillis debe ser menor que el tiempo
+ * tras el que SmartCar_TrafficAuthority retira un vehículo sin noticias (DEFAULT_VEHICLE_TIMEOUT_MS),
+ * para que un vehículo parado siga contando en la ocupación del segmento.
+ *
+ * Configuración por rol: -Dsmartcar.report.{rol}=minPositionDelta,maxSilenceMillis
+ * (p.ej. -Dsmartcar.report.PrivateUsage=0,0 para volver a publicar en cada paso) o setForRole.
+ */
+public final class SmartCar_ReportingPolicy {
+
+	/**
+	 * Publica en cada paso
+	 */
+	public static final SmartCar_ReportingPolicy FULL = new SmartCar_ReportingPolicy(0, 0);
+
+	/**
+	 * Cada 100 m recorridos o, como mucho, cada 3 pasos del simulador
+	 */
+	public static final SmartCar_ReportingPolicy DEFAULT = new SmartCar_ReportingPolicy(100, 9000);
+
+	static final String DEFAULT_ROLE = "PrivateUsage";
+
+	// Rol -> política (se resuelve una vez por rol)
+	private static final Map<String, SmartCar_ReportingPolicy> BY_ROLE = new ConcurrentHashMap<>();
+
+	// Publicaciones evitadas por todos los vehículos de la JVM
+	private static final LongAdder suppressed = new LongAdder();
+
+	private final int minPositionDelta;
+	private final long maxSilenceMillis;
+
+	/**
+	 * @param minPositionDelta desplazamiento mínimo (m) para volver a publicar; 0 para publicar siempre
+	 * @param maxSilenceMillis tiempo máximo (ms) sin publicar; 0 para publicar siempre
+	 */
+	public SmartCar_ReportingPolicy(int minPositionDelta, long maxSilenceMillis) {
+		this.minPositionDelta = Math.max(0, minPositionDelta);
+		this.maxSilenceMillis = Math.max(0, maxSilenceMillis);
+	}
+
+	/**
+	 * Política de un rol: la de setForRole, la de la propiedad smartcar.report.{rol} o la de por defecto
+	 */
+	public static SmartCar_ReportingPolicy forRole(String role) {
+		if (role == null || role.isEmpty()) {
+			role = DEFAULT_ROLE;
+		}
+		SmartCar_ReportingPolicy policy = BY_ROLE.get(role);
+		return (policy != null) ? policy : BY_ROLE.computeIfAbsent(role, SmartCar_ReportingPolicy::load);
+	}
+
+	/**
+	 * Sustituye la política de un rol (afecta a los vehículos ya creados desde su siguiente paso)
+	 */
+	public static void setForRole(String role, SmartCar_ReportingPolicy policy) {
+		BY_ROLE.put(role, (policy != null) ? policy : FULL);
+	}
+
+	private static SmartCar_ReportingPolicy load(String role) {
+		String value = System.getProperty("smartcar.report." + role);
+		if (value != null) {
+			String[] parts = value.split(",");
+			try {
+				return new SmartCar_ReportingPolicy(Integer.parseInt(parts[0].trim()),
+						(parts.length > 1) ? Long.parseLong(parts[1].trim()) : DEFAULT.maxSilenceMillis);
+			} catch (NumberFormatException e) {
+				System.err.println("Invalid smartcar.report." + role + " (expected minPositionDelta,maxSilenceMillis): " + value);
+			}
+		}
+		return ("Ambulance".equals(role) || "Police".equals(role)) ? FULL : DEFAULT;
+	}
+
+	/**
+	 * Indica si hay que publicar la posición actual en el mismo segmento de la última publicación
+	 * @param lastPosition posición de la última publicación
+	 * @param lastReportMillis instante de la última publicación
+	 * @param position posición actual
+	 * @param now instante actual (reloj del vehículo)
+	 */
+	public boolean shouldReport(int lastPosition, long lastReportMillis, int position, long now) {
+		return Math.abs(position - lastPosition) >= this.minPositionDelta
+				|| now - lastReportMillis >= this.maxSilenceMillis;
+	}
+
+	public int getMinPositionDelta() {
+		return this.minPositionDelta;
+	}
+
+	public long getMaxSilenceMillis() {
+		return this.maxSilenceMillis;
+	}
+
+	static void countSuppressed() {
+		suppressed.increment();
+	}
+
+	/**
+	 * Publicaciones de posición evitadas por la política (todos los vehículos de la JVM)
+	 */
+	public static long getSuppressedCount() {
+		return suppressed.sum();
+	}
+
+	@Override
+	public String toString() {
+		return (this.minPositionDelta == 0 || this.maxSilenceMillis == 0) ? "FULL"
+				: "delta=" + this.minPositionDelta + "m silence=" + this.maxSilenceMillis + "ms";
+	}
+}
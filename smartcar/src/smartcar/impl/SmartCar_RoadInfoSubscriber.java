@@ -1,19 +1,21 @@
 package smartcar.impl;
 
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
 import org.eclipse.paho.client.mqttv3.IMqttDeliveryToken;
 import org.eclipse.paho.client.mqttv3.MqttCallback;
-import org.eclipse.paho.client.mqttv3.MqttClient;
-import org.eclipse.paho.client.mqttv3.MqttConnectOptions;
 import org.eclipse.paho.client.mqttv3.MqttException;
 import org.eclipse.paho.client.mqttv3.MqttMessage;
-import org.json.JSONObject;
+
+import smartcar.interfaces.IMessageBus;
 
 public class SmartCar_RoadInfoSubscriber implements MqttCallback {
 
-	MqttClient myClient;
-	MqttConnectOptions connOpt;
+	IMessageBus bus;
+	boolean sharedBus = false; // true si la conexión es compartida (SmartCar_FleetHost o la del proceso)
+	Set<String> subscribedTopics = ConcurrentHashMap.newKeySet();
 
-	static final String BROKER_URL = "tcp://tambori.dsic.upv.es:10083";
 //	static final String M2MIO_USERNAME = "<m2m.io username>";
 //	static final String M2MIO_PASSWORD_MD5 = "<m2m.io password (MD5 sum of password)>";
 
@@ -23,6 +25,15 @@ public class SmartCar_RoadInfoSubscriber implements MqttCallback {
 		this.smartcar = smartcar;
 	}
 	
+	/**
+	 * Crea el suscriptor sobre una conexión compartida (modo flota)
+	 */
+	public SmartCar_RoadInfoSubscriber(SmartCar smartcar, IMessageBus bus) {
+		this.smartcar = smartcar;
+		this.bus = bus;
+		this.sharedBus = (bus != null);
+	}
+	
 	protected void _debug(String message) {
 		System.out.println("(SmartCar: " + this.smartcar.getSmartCarID() + ") " + message);
 	}
@@ -42,165 +53,68 @@ public class SmartCar_RoadInfoSubscriber implements MqttCallback {
 	@Override
 	public void messageArrived(String topic, MqttMessage message) throws Exception {
 		
-		String payload = new String(message.getPayload());
+		byte[] data = message.getPayload();
+		String payload = SmartCar_MessageCodec.toText(data);
 		
 		System.out.println("-------------------------------------------------");
 		System.out.println("| Topic:" + topic);
 		System.out.println("| Message: " + payload);
 		System.out.println("-------------------------------------------------");
 		
-		// Procesar el mensaje JSON recibido
+		// Mensaje en JSON (con o sin "msg") o en binario (SmartCar_MessageCodec): sólo los tipos del modelo de mensajes
 		try {
-			JSONObject jsonMessage = new JSONObject(payload);
-			JSONObject msgContent = null;
-			String messageType = null;
-			
-			// Detectar formato: puede ser con wrapper (msg, id, type, timestamp) o directo
-			if (jsonMessage.has("msg")) {
-				// Formato con wrapper
-				msgContent = jsonMessage.getJSONObject("msg");
-				messageType = jsonMessage.optString("type", null);
-				this._debug("Message with wrapper format, type: " + messageType);
-			} else {
-				// Formato directo (sin wrapper)
-				msgContent = jsonMessage;
-				messageType = jsonMessage.optString("type", null);
-				this._debug("Message without wrapper, type: " + messageType);
-			}
-			
-			// Si no hay tipo en el nivel superior, buscar en el contenido del mensaje
-			if (messageType == null && msgContent != null) {
-				messageType = msgContent.optString("type", null);
-			}
-			
-			// Si aún no hay tipo, puede ser un mensaje de incidente retransmitido con "event"
-			if (messageType == null) {
-				String event = null;
-				if (msgContent != null) {
-					event = msgContent.optString("event", null);
-				}
-				if (event == null) {
-					event = jsonMessage.optString("event", null);
-				}
+			this.processMessage(SmartCar_MessageCodec.decodeAny(data, new SmartCar_Message()));
+		} catch (IllegalArgumentException e) {
+			this._debug("Error decoding message: " + e.getMessage());
+		}
+	}
+
+	/**
+	 * Procesa un mensaje ya decodificado (JSON o binario)
+	 */
+	private void processMessage(SmartCar_Message msg) {
+		if (msg.type == null) {
+			// P.ej. CONGESTION o INCIDENT (formato antiguo), fuera del modelo de mensajes
+			this._debug("Unknown message type");
+			return;
+		}
+		this._debug("Received message type: " + msg.type);
+		switch (msg.type) {
+			case SPEED_LIMIT:
+				this._debug("SPEED_LIMIT detected: " + msg.value + " km/h (validity: " + msg.validity + "ms)");
+				break;
 				
-				if (event != null) {
-					// Es un mensaje de incidente retransmitido por SmartRoad
-					this._debug("INCIDENT ALERT received (retransmitted): " + event);
-					JSONObject source = msgContent != null ? msgContent : jsonMessage;
-					String road = source.optString("road", source.optString("road-segment", "UNKNOWN"));
-					int kp = source.optInt("kp", source.optInt("position", -1));
-					String vehicle = source.optString("vehicle", source.optString("vehicle-id", "UNKNOWN"));
-					
-					this._debug("Incident details - Road: " + road + ", Km: " + kp + ", Vehicle: " + vehicle + ", Event: " + event);
-					
-					// Si el incidente es en la misma carretera donde estamos, tomar acción
-					if (road.equals(this.smartcar.getCurrentPlace().getRoad())) {
-						this._debug("WARNING: Incident detected on current road! Taking evasive action.");
-						// Aquí podrías implementar lógica para detenerse, cambiar de ruta, etc.
-					}
-					return; // Salir después de procesar el incidente
+			case TRAFFIC_LIGHT:
+				this._debug("TRAFFIC_LIGHT detected: " + msg.state);
+				break;
+				
+			case ACCIDENT:
+				this._debug("ACCIDENT detected - Event: " + msg.event + ", Type: " + msg.rt + 
+				           ", Road: " + msg.roadSegment + ", Position: " + msg.position + ", ID: " + msg.accidentId);
+				this.onAccident(msg.accidentId != null ? msg.accidentId : msg.vehicle + "@" + msg.roadSegment, msg.roadSegment, msg.event);
+				break;
+				
+			case ROAD_STATUS:
+				this._debug("ROAD_STATUS received - Road: " + msg.roadSegment + ", Status: " + msg.status + 
+				           ", Vehicles: " + msg.numVehicles + ", Max Speed: " + msg.currentMaxSpeed);
+				if (this.smartcar.trafficRouter.onRoadStatus(msg.roadSegment, msg.status, msg.currentMaxSpeed)) {
+					this._debug("Road " + msg.roadSegment + " is " + msg.status + ": vehicles with it on their route will reroute");
 				}
-				messageType = "UNKNOWN";
-			}
-			
-			// Usar msgContent si existe, sino usar jsonMessage
-			JSONObject contentToProcess = msgContent != null ? msgContent : jsonMessage;
-			
-			this._debug("Received message type: " + messageType);
-			
-			// Procesar según el tipo de mensaje
-			switch (messageType.toUpperCase()) {
-				case "SPEED_LIMIT":
-					// Mensaje de límite de velocidad
-					int speedLimit = contentToProcess.optInt("value", -1);
-					long validity = contentToProcess.optLong("validity", -1);
-					
-					if (speedLimit > 0) {
-						this._debug("SPEED_LIMIT detected: " + speedLimit + " km/h (validity: " + validity + "ms)");
-						// Aquí podrías actualizar la velocidad del vehículo
-						// Por ejemplo: this.smartcar.setMaxSpeed(speedLimit);
-					}
-					break;
-					
-				case "TRAFFIC_LIGHT":
-					// Mensaje de semáforo
-					String state = contentToProcess.optString("state", "UNKNOWN");
-					this._debug("TRAFFIC_LIGHT detected: " + state);
-					
-					if ("RED".equalsIgnoreCase(state) || "HLL".equalsIgnoreCase(state)) {
-						this._debug("STOP! Red light detected.");
-						// Aquí podrías implementar la lógica para detener el vehículo
-					} else if ("GREEN".equalsIgnoreCase(state) || "LLH".equalsIgnoreCase(state)) {
-						this._debug("GO! Green light detected.");
-					} else if ("YELLOW".equalsIgnoreCase(state)) {
-						this._debug("CAUTION! Yellow light detected.");
-					}
-					break;
-					
-				case "CONGESTION":
-					// Mensaje de congestión
-					int congestionLevel = contentToProcess.optInt("level", -1);
-					this._debug("CONGESTION detected: Level " + congestionLevel);
-					// Aquí podrías ajustar la velocidad según la congestión
-					break;
-					
-				case "INCIDENT":
-					// Mensaje de incidente (formato antiguo)
-					String incidentType = contentToProcess.optString("incidentType", contentToProcess.optString("event", "UNKNOWN"));
-					this._debug("INCIDENT detected: " + incidentType);
-					// Notificar al SmartCar sobre el incidente
-					this.smartcar.notifyIncident(incidentType);
-					break;
-					
-				case "ACCIDENT":
-					// Mensaje de accidente (formato nuevo con wrapper)
-					String accidentEvent = contentToProcess.optString("event", "UNKNOWN"); // "OPEN" o "CLOSE"
-					String accidentRt = contentToProcess.optString("rt", "accidente");
-					String accidentId = contentToProcess.optString("id", "UNKNOWN");
-					String accidentVehicle = contentToProcess.optString("vehicle", "UNKNOWN");
-					String accidentRoad = contentToProcess.optString("road-segment", contentToProcess.optString("road", "UNKNOWN"));
-					int accidentPosition = contentToProcess.optInt("position", contentToProcess.optInt("kp", -1));
-					
-					this._debug("ACCIDENT detected - Event: " + accidentEvent + ", Type: " + accidentRt + 
-					           ", ID: " + accidentId + ", Vehicle: " + accidentVehicle + 
-					           ", Road: " + accidentRoad + ", Position: " + accidentPosition);
-					
-					if ("OPEN".equalsIgnoreCase(accidentEvent)) {
-						// Se abre un nuevo accidente
-						this._debug("New accident opened: " + accidentRt);
-						// Si el accidente es en la misma carretera donde estamos, tomar acción
-						if (accidentRoad.equals(this.smartcar.getCurrentPlace().getRoad())) {
-							this._debug("WARNING: Accident detected on current road! Taking evasive action.");
-							// Aquí podrías implementar lógica para detenerse, cambiar de ruta, etc.
-						}
-					} else if ("CLOSE".equalsIgnoreCase(accidentEvent)) {
-						// Se cierra un accidente
-						this._debug("Accident closed: " + accidentId);
-					}
-					break;
-					
-				case "ROAD_STATUS":
-					// Mensaje de estado de carretera (formato con wrapper)
-					String roadSegment = contentToProcess.optString("road-segment", contentToProcess.optString("code", "UNKNOWN"));
-					String status = contentToProcess.optString("status", "UNKNOWN");
-					int numVehicles = contentToProcess.optInt("num-vehicles", -1);
-					int maxSpeed = contentToProcess.optInt("max-speed", contentToProcess.optInt("current-max-speed", -1));
-					
-					this._debug("ROAD_STATUS received - Road: " + roadSegment + ", Status: " + status + 
-					           ", Vehicles: " + numVehicles + ", Max Speed: " + maxSpeed);
-					// Los carros no hacen mucho con esta información, solo la registran
-					break;
-					
-				default:
-					this._debug("Unknown message type: " + messageType);
-					// Mostrar todos los campos del JSON para debugging
-					this._debug("Full JSON content: " + (msgContent != null ? msgContent.toString() : jsonMessage.toString()));
-					break;
-			}
-			
-		} catch (Exception e) {
-			this._debug("Error parsing JSON message: " + e.getMessage());
-			e.printStackTrace();
+				break;
+				
+			default:
+				this._debug("Unknown message type: " + msg.type);
+				break;
+		}
+	}
+
+	/**
+	 * Accidente o incidente en un segmento: actualiza el peso del segmento para el cálculo de rutas
+	 * (los vehículos que lo tienen en su ruta replanifican en el siguiente paso)
+	 */
+	protected void onAccident(String accidentId, String segment, String event) {
+		if (this.smartcar.trafficRouter.onAccident(accidentId, segment, event)) {
+			this._debug("WARNING: Accident on " + segment + ": vehicles with it on their route will reroute");
 		}
 	}
 
@@ -212,38 +126,45 @@ public class SmartCar_RoadInfoSubscriber implements MqttCallback {
 	 * 
 	 */
 	public void connect() {
+		if (this.sharedBus) {
+			return; // La conexión compartida ya está establecida
+		}
 		// setup MQTT Client
 		String clientID = this.smartcar.getSmartCarID() + ".subscriber";
-		connOpt = new MqttConnectOptions();
-		
-		connOpt.setCleanSession(true);
-		connOpt.setKeepAliveInterval(30);
 //			connOpt.setUserName(M2MIO_USERNAME);
 //			connOpt.setPassword(M2MIO_PASSWORD_MD5.toCharArray());
 		
 		// Connect to Broker
 		try {
-			myClient = new MqttClient(BROKER_URL, clientID);
-			myClient.setCallback(this);
-			myClient.connect(connOpt);
+			SmartCar_MqttBus mqttBus = new SmartCar_MqttBus(SmartCar_Endpoints.getBrokerURL(), clientID, 30);
+			mqttBus.connect();
+			this.bus = mqttBus;
 		} catch (MqttException e) {
 			e.printStackTrace();
 			System.exit(-1);
 		}
 		
-		this._debug("Subscriber Connected to " + BROKER_URL);
+		this._debug("Subscriber Connected to " + SmartCar_Endpoints.getBrokerURL());
 
 	}
 	
 	
 	public void disconnect() {
 		
+		if (this.sharedBus) {
+			// La conexión es compartida: sólo liberar nuestras suscripciones
+			for (String topic : this.subscribedTopics) {
+				this.unsubscribe(topic);
+			}
+			return;
+		}
+		
 		// disconnect
 		try {
 			// wait to ensure subscribed messages are delivered
 			Thread.sleep(120000);
 
-			myClient.disconnect();
+			this.bus.disconnect();
 		} catch (Exception e) {
 			e.printStackTrace();
 		}
@@ -256,8 +177,8 @@ public class SmartCar_RoadInfoSubscriber implements MqttCallback {
 		
 		// subscribe to topic
 		try {
-			int subQoS = 0;
-			myClient.subscribe(myTopic, subQoS);
+			this.bus.subscribe(myTopic, this);
+			this.subscribedTopics.add(myTopic);
 		} catch (Exception e) {
 			e.printStackTrace();
 		}
@@ -269,7 +190,8 @@ public class SmartCar_RoadInfoSubscriber implements MqttCallback {
 		
 		// unsubscribe to topic
 		try {
-			myClient.unsubscribe(myTopic);
+			this.bus.unsubscribe(myTopic, this);
+			this.subscribedTopics.remove(myTopic);
 		} catch (Exception e) {
 			e.printStackTrace();
 		}
@@ -0,0 +1,427 @@
+package smartcar.impl;
+
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.Collection;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import ina.vehicle.navigation.components.RoadNetwork;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.json.JSONTokener;
+
+/**
+ * Caché de metadatos de segmentos de carretera compartida por todos los SmartCar de la JVM.
+ *
+ *  - Se puede precargar en bloque desde un fichero con el formato de roads_example.json
+ *    (array de carreteras con sus 'segments') o desde el endpoint REST equivalente.
+ *  - Las consultas nunca bloquean: si el segmento no está en caché se devuelve la velocidad
+ *    por defecto y se lanza la consulta REST en segundo plano.
+ *  - Cada entrada tiene un TTL; las entradas caducadas se siguen sirviendo mientras un hilo
+ *    de fondo las refresca. Las registradas con put (p.ej. SmartCar.preloadSegmentMaxSpeed) son
+ *    fijas: no caducan ni las sustituye una consulta REST.
+ *  - Los vehículos piden por adelantado (prefetch) los segmentos de los próximos fragmentos de su ruta.
+ */
+public class SmartCar_SegmentCache {
+
+	public static final int DEFAULT_MAX_SPEED = 60; // km/h si no se conoce el segmento
+	static final long DEFAULT_TTL_MS = 5 * 60 * 1000; // 5 minutos
+	static final long RETRY_AFTER_ERROR_MS = 30 * 1000; // No reintentar un segmento fallido antes de 30 segundos
+	static final int FETCH_THREADS = 2;
+
+	private static SmartCar_SegmentCache instance = null;
+
+	private final String restApiBase;
+	private volatile long ttlMillis;
+	private volatile boolean remoteEnabled = true; // false: sólo datos precargados (sin REST)
+
+	private final Map<String, SegmentInfo> segments = new ConcurrentHashMap<>();
+	private final Set<String> inFlight = ConcurrentHashMap.newKeySet();
+	private final Map<String, Long> failedAt = new ConcurrentHashMap<>();
+
+	private final ScheduledExecutorService executor;
+
+	// Estadísticas
+	private final AtomicInteger hits = new AtomicInteger(0);
+	private final AtomicInteger misses = new AtomicInteger(0);
+	private final AtomicInteger fetches = new AtomicInteger(0);
+	private final AtomicInteger fetchErrors = new AtomicInteger(0);
+
+	/**
+	 * Caché compartida de la JVM.
+	 * Si se define -Dsmartcar.roads.file=<fichero>, se precarga desde ese fichero.
+	 * Las consultas REST van a SmartCar_Endpoints.getRestApiBase() (-Dsmartcar.rest.base).
+	 */
+	public static synchronized SmartCar_SegmentCache getInstance() {
+		if (instance == null) {
+			instance = new SmartCar_SegmentCache(SmartCar_Endpoints.getRestApiBase(), DEFAULT_TTL_MS);
+			String roadsFile = System.getProperty("smartcar.roads.file");
+			if (roadsFile != null) {
+				try {
+					instance.preloadFromFile(roadsFile);
+				} catch (IOException e) {
+					instance._debug("Cannot preload " + roadsFile + ": " + e.getMessage());
+				}
+			}
+		}
+		return instance;
+	}
+
+	public SmartCar_SegmentCache(String restApiBase, long ttlMillis) {
+		this.restApiBase = restApiBase;
+		this.ttlMillis = ttlMillis;
+		final AtomicInteger threadCount = new AtomicInteger(0);
+		this.executor = Executors.newScheduledThreadPool(FETCH_THREADS, r -> {
+			Thread t = new Thread(r, "segment-cache-" + threadCount.incrementAndGet());
+			t.setDaemon(true);
+			return t;
+		});
+		// Refresco periódico de las entradas caducadas
+		long period = Math.max(1000, ttlMillis / 4);
+		this.executor.scheduleWithFixedDelay(this::refreshExpired, period, period, TimeUnit.MILLISECONDS);
+	}
+
+	protected void _debug(String message) {
+		System.out.println("(SegmentCache) " + message);
+	}
+
+	public boolean isRemoteEnabled() {
+		return this.remoteEnabled;
+	}
+
+	/**
+	 * Activa o desactiva las consultas REST (la simulación headless trabaja sólo con datos precargados)
+	 */
+	public void setRemoteEnabled(boolean remoteEnabled) {
+		this.remoteEnabled = remoteEnabled;
+	}
+
+	public long getTtlMillis() {
+		return this.ttlMillis;
+	}
+
+	public void setTtlMillis(long ttlMillis) {
+		this.ttlMillis = ttlMillis;
+	}
+
+	/**
+	 * Velocidad máxima del segmento. No bloquea: si el segmento no se conoce todavía
+	 * se devuelve DEFAULT_MAX_SPEED y se solicita en segundo plano.
+	 */
+	public int getMaxSpeed(String segment) {
+		SegmentInfo info = this.get(segment);
+		return (info != null) ? info.maxSpeed : DEFAULT_MAX_SPEED;
+	}
+
+	/**
+	 * Metadatos del segmento, o null si aún no se conocen (en ese caso se solicitan en segundo plano)
+	 */
+	public SegmentInfo get(String segment) {
+		if (segment == null) {
+			return null;
+		}
+		SegmentInfo info = this.segments.get(segment);
+		if (info == null) {
+			this.misses.incrementAndGet();
+			this.fetchAsync(segment);
+			return null;
+		}
+		this.hits.incrementAndGet();
+		if (!info.pinned && System.currentTimeMillis() - info.loadedAt > this.ttlMillis) {
+			this.fetchAsync(segment); // Se sirve el valor caducado mientras se refresca
+		}
+		return info;
+	}
+
+	/**
+	 * Solicita en segundo plano un segmento que todavía no está en caché
+	 */
+	public void prefetch(String segment) {
+		if (segment != null && !this.segments.containsKey(segment)) {
+			this.fetchAsync(segment);
+		}
+	}
+
+	/**
+	 * Todos los segmentos conocidos
+	 */
+	public Collection<SegmentInfo> getSegments() {
+		return this.segments.values();
+	}
+
+	/**
+	 * Registra directamente la velocidad máxima de un segmento (entrada fija: no se refresca por REST)
+	 */
+	public void put(String segment, int maxSpeed) {
+		this.segments.put(segment, new SegmentInfo(segment, null, 0, 0, 0, maxSpeed, maxSpeed, System.currentTimeMillis(), true));
+	}
+
+	public boolean contains(String segment) {
+		return this.segments.containsKey(segment);
+	}
+
+	public int size() {
+		return this.segments.size();
+	}
+
+	/**
+	 * Precarga los segmentos de un fichero con el formato de roads_example.json
+	 * @return número de segmentos cargados
+	 */
+	public int preloadFromFile(String fichero) throws IOException {
+		try (Reader in = new BufferedReader(new FileReader(fichero))) {
+			int n = this.load(new JSONTokener(in));
+			this._debug("Preloaded " + n + " segments from " + fichero);
+			return n;
+		}
+	}
+
+	/**
+	 * Precarga los segmentos de una red ya cargada (RoadNetwork)
+	 * @return número de segmentos cargados
+	 */
+	public int preload(RoadNetwork network) {
+		long now = System.currentTimeMillis();
+		for (int s = 0; s < network.getSegmentCount(); s++) {
+			String code = network.getSegmentCode(s);
+			this.segments.put(code, new SegmentInfo(code, network.getRoadCode(network.getSegmentRoad(s)),
+					network.getStartKP(s), network.getEndKP(s), network.getCapacity(s),
+					network.getMaxSpeed(s), network.getCurrentMaxSpeed(s), now));
+			this.failedAt.remove(code);
+		}
+		return network.getSegmentCount();
+	}
+
+	/**
+	 * Precarga los segmentos desde un endpoint REST que devuelva carreteras o segmentos en bloque
+	 * (p.ej. SmartCar_Endpoints.getRestApiBase() + "/road")
+	 * @return número de segmentos cargados
+	 */
+	public int preloadFromURL(String url) throws IOException {
+		HttpURLConnection conn = (HttpURLConnection) new URL(url).openConnection();
+		conn.setRequestMethod("GET");
+		conn.setConnectTimeout(5000);
+		conn.setReadTimeout(10000);
+		try {
+			if (conn.getResponseCode() != HttpURLConnection.HTTP_OK) {
+				throw new IOException("HTTP " + conn.getResponseCode() + " from " + url);
+			}
+			try (Reader in = new BufferedReader(new InputStreamReader(conn.getInputStream()))) {
+				int n = this.load(new JSONTokener(in));
+				this._debug("Preloaded " + n + " segments from " + url);
+				return n;
+			}
+		} finally {
+			conn.disconnect();
+		}
+	}
+
+	/**
+	 * Precarga en segundo plano desde el endpoint REST de carreteras
+	 */
+	public void preloadAsync() {
+		this.executor.execute(() -> {
+			try {
+				this.preloadFromURL(this.restApiBase + "/road");
+			} catch (Exception e) {
+				this._debug("Bulk preload failed: " + e.getMessage());
+			}
+		});
+	}
+
+	/**
+	 * Carga un array de carreteras (con 'segments') o de segmentos
+	 */
+	protected int load(JSONTokener tokener) throws IOException {
+		Object root;
+		try {
+			root = tokener.nextValue();
+		} catch (JSONException e) {
+			throw new IOException("Invalid roads JSON: " + e.getMessage(), e);
+		}
+		JSONArray items;
+		if (root instanceof JSONArray) {
+			items = (JSONArray) root;
+		} else {
+			items = new JSONArray();
+			items.put(root);
+		}
+		long now = System.currentTimeMillis();
+		int n = 0;
+		for (int i = 0; i < items.length(); i++) {
+			JSONObject item = items.optJSONObject(i);
+			if (item == null) {
+				continue;
+			}
+			JSONArray segs = item.optJSONArray("segments");
+			if (segs == null) {
+				// Elemento suelto de tipo road-segment
+				if (this.loadSegment(item, now)) {
+					n++;
+				}
+				continue;
+			}
+			for (int j = 0; j < segs.length(); j++) {
+				JSONObject seg = segs.optJSONObject(j);
+				if (seg != null && this.loadSegment(seg, now)) {
+					n++;
+				}
+			}
+		}
+		return n;
+	}
+
+	private boolean loadSegment(JSONObject seg, long now) {
+		String code = seg.optString("code", seg.optString("road-segment", null));
+		if (code == null) {
+			return false;
+		}
+		SegmentInfo info = SegmentInfo.fromJSON(code, seg, now);
+		this.segments.put(code, info);
+		this.failedAt.remove(code);
+		return true;
+	}
+
+	/**
+	 * Lanza la consulta REST de un segmento si no hay otra en curso
+	 */
+	protected void fetchAsync(String segment) {
+		if (!this.remoteEnabled) {
+			return;
+		}
+		Long failed = this.failedAt.get(segment);
+		if (failed != null && System.currentTimeMillis() - failed < RETRY_AFTER_ERROR_MS) {
+			return;
+		}
+		if (!this.inFlight.add(segment)) {
+			return;
+		}
+		try {
+			this.executor.execute(() -> {
+				try {
+					this.fetch(segment);
+				} finally {
+					this.inFlight.remove(segment);
+				}
+			});
+		} catch (Exception e) {
+			this.inFlight.remove(segment);
+		}
+	}
+
+	/**
+	 * Consulta REST síncrona de un segmento (sólo desde los hilos de la caché)
+	 */
+	protected void fetch(String segment) {
+		this.fetches.incrementAndGet();
+		try {
+			HttpURLConnection conn = (HttpURLConnection) new URL(this.restApiBase + "/segment/" + segment).openConnection();
+			conn.setRequestMethod("GET");
+			conn.setConnectTimeout(2000);
+			conn.setReadTimeout(2000);
+			try {
+				if (conn.getResponseCode() == HttpURLConnection.HTTP_OK) {
+					try (Reader in = new BufferedReader(new InputStreamReader(conn.getInputStream()))) {
+						JSONObject json = new JSONObject(new JSONTokener(in));
+						SegmentInfo fetched = SegmentInfo.fromJSON(segment, json, System.currentTimeMillis());
+						// Un put mientras la consulta estaba en curso prevalece
+						this.segments.compute(segment, (k, current) -> (current != null && current.pinned) ? current : fetched);
+						this.failedAt.remove(segment);
+					}
+				} else {
+					this.fetchErrors.incrementAndGet();
+					this.failedAt.put(segment, System.currentTimeMillis());
+					this._debug("Failed to get segment " + segment + " (HTTP " + conn.getResponseCode() + ")");
+				}
+			} finally {
+				conn.disconnect();
+			}
+		} catch (Exception e) {
+			this.fetchErrors.incrementAndGet();
+			this.failedAt.put(segment, System.currentTimeMillis());
+			this._debug("Error getting segment " + segment + ": " + e.getMessage());
+		}
+	}
+
+	/**
+	 * Refresca en segundo plano las entradas cuyo TTL ha vencido
+	 */
+	protected void refreshExpired() {
+		long now = System.currentTimeMillis();
+		for (SegmentInfo info : this.segments.values()) {
+			if (!info.pinned && now - info.loadedAt > this.ttlMillis) {
+				this.fetchAsync(info.code);
+			}
+		}
+	}
+
+	public String getStats() {
+		return "segments=" + this.segments.size()
+				+ " hits=" + this.hits.get()
+				+ " misses=" + this.misses.get()
+				+ " fetches=" + this.fetches.get()
+				+ " errors=" + this.fetchErrors.get()
+				+ " inFlight=" + this.inFlight.size();
+	}
+
+	/**
+	 * Metadatos de un segmento (inmutable: cada refresco crea una entrada nueva)
+	 */
+	public static class SegmentInfo {
+		public final String code;
+		public final String road;
+		public final int startKp;
+		public final int endKp;
+		public final int capacity;
+		public final int maxSpeed;
+		public final int currentMaxSpeed;
+		public final long loadedAt;
+		public final boolean pinned; // Registrada con put: no caduca
+
+		public SegmentInfo(String code, String road, int startKp, int endKp, int capacity, int maxSpeed, int currentMaxSpeed, long loadedAt) {
+			this(code, road, startKp, endKp, capacity, maxSpeed, currentMaxSpeed, loadedAt, false);
+		}
+
+		public SegmentInfo(String code, String road, int startKp, int endKp, int capacity, int maxSpeed, int currentMaxSpeed, long loadedAt, boolean pinned) {
+			this.code = code;
+			this.road = road;
+			this.startKp = startKp;
+			this.endKp = endKp;
+			this.capacity = capacity;
+			this.maxSpeed = maxSpeed;
+			this.currentMaxSpeed = currentMaxSpeed;
+			this.loadedAt = loadedAt;
+			this.pinned = pinned;
+		}
+
+		static SegmentInfo fromJSON(String code, JSONObject json, long loadedAt) {
+			int maxSpeed = json.optInt("max-speed", DEFAULT_MAX_SPEED);
+			return new SegmentInfo(code,
+					json.optString("road", null),
+					json.optInt("start-kp", 0),
+					json.optInt("end-kp", 0),
+					json.optInt("capacity", 0),
+					maxSpeed,
+					json.optInt("current-max-speed", maxSpeed),
+					loadedAt);
+		}
+
+		@Override
+		public String toString() {
+			return this.code + "[" + this.startKp + "-" + this.endKp + ", max-speed=" + this.maxSpeed + "]";
+		}
+	}
+}
@@ -2,14 +2,13 @@ package smartcar.impl;
 
 import org.eclipse.paho.client.mqttv3.IMqttDeliveryToken;
 import org.eclipse.paho.client.mqttv3.MqttCallback;
-import org.eclipse.paho.client.mqttv3.MqttClient;
-import org.eclipse.paho.client.mqttv3.MqttConnectOptions;
 import org.eclipse.paho.client.mqttv3.MqttException;
 import org.eclipse.paho.client.mqttv3.MqttMessage;
-import org.json.JSONObject;
 
-import java.util.ArrayList;
-import java.util.List;
+import smartcar.interfaces.IMessageBus;
+
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * Suscriptor MQTT para recibir señales de tráfico (speed-limit, traffic-light)
@@ -17,10 +16,10 @@ import java.util.List;
  */
 public class SmartCar_SignalsSubscriber implements MqttCallback {
 
-	MqttClient myClient;
-	MqttConnectOptions connOpt;
+	IMessageBus bus;
+	boolean sharedBus = false; // true si la conexión es compartida (SmartCar_FleetHost o la del proceso)
+	Set<String> subscribedSegments = ConcurrentHashMap.newKeySet();
 
-	static final String BROKER_URL = "tcp://tambori.dsic.upv.es:10083";
 	static final String TOPIC_ROOT = "es/upv/pros/tatami/smartcities/traffic/PTPaterna";
 
 	SmartCar smartcar;
@@ -29,6 +28,15 @@ public class SmartCar_SignalsSubscriber implements MqttCallback {
 		this.smartcar = smartcar;
 	}
 	
+	/**
+	 * Crea el suscriptor sobre una conexión compartida (modo flota)
+	 */
+	public SmartCar_SignalsSubscriber(SmartCar smartcar, IMessageBus bus) {
+		this.smartcar = smartcar;
+		this.bus = bus;
+		this.sharedBus = (bus != null);
+	}
+	
 	protected void _debug(String message) {
 		System.out.println("(SignalsSubscriber: " + this.smartcar.getSmartCarID() + ") " + message);
 	}
@@ -46,43 +54,36 @@ public class SmartCar_SignalsSubscriber implements MqttCallback {
 
 	@Override
 	public void messageArrived(String topic, MqttMessage message) throws Exception {
-		String payload = new String(message.getPayload());
-		this._debug("Received signal message from " + topic + ": " + payload);
+		byte[] payload = message.getPayload();
+		this._debug("Received signal message from " + topic + ": " + SmartCar_MessageCodec.toText(payload));
 		
 		try {
-			JSONObject jsonMessage = new JSONObject(payload);
-			
-			// Extraer el contenido del mensaje (puede estar en "msg" o directamente)
-			JSONObject msgContent = jsonMessage.optJSONObject("msg");
-			if (msgContent == null) {
-				msgContent = jsonMessage; // Si no hay "msg", usar el JSON completo
-			}
-			
-			String signalType = msgContent.optString("type", null);
-			if (signalType == null) {
-				this._debug("Signal message without type field");
+			// Mensaje en JSON (con o sin "msg") o en binario (SmartCar_MessageCodec)
+			SmartCar_Message msg = SmartCar_MessageCodec.decodeAny(payload, new SmartCar_Message());
+			if (msg.type == null) {
+				this._debug("Signal message without a known type field");
 				return;
 			}
 			
 			// Extraer el segmento del topic: .../road/{segment}/signals
-			String segment = extractSegmentFromTopic(topic);
+			String segment = SmartCar_Topics.segmentOf(topic);
 			if (segment == null) {
 				this._debug("Could not extract segment from topic: " + topic);
 				return;
 			}
 			
 			// Procesar según el tipo de señal
-			switch (signalType.toUpperCase()) {
-				case "SPEED_LIMIT":
-					processSpeedLimitSignal(segment, msgContent);
+			switch (msg.type) {
+				case SPEED_LIMIT:
+					processSpeedLimitSignal(segment, msg);
 					break;
 					
-				case "TRAFFIC_LIGHT":
-					processTrafficLightSignal(segment, msgContent);
+				case TRAFFIC_LIGHT:
+					processTrafficLightSignal(segment, msg);
 					break;
 					
 				default:
-					this._debug("Unknown signal type: " + signalType);
+					this._debug("Unknown signal type: " + msg.type);
 					break;
 			}
 			
@@ -95,73 +96,45 @@ public class SmartCar_SignalsSubscriber implements MqttCallback {
 	/**
 	 * Procesa un mensaje de señal de límite de velocidad
 	 */
-	private void processSpeedLimitSignal(String segment, JSONObject msgContent) {
-		try {
-			int value = msgContent.getInt("value");
-			int positionStart = msgContent.optInt("position-start", 0);
-			int positionEnd = msgContent.optInt("position-end", Integer.MAX_VALUE);
-			long validity = msgContent.optLong("validity", -1);
-			
-			SpeedLimitSignal signal = new SpeedLimitSignal(value, positionStart, positionEnd, validity);
-			this.smartcar.addSpeedLimitSignal(segment, signal);
-			this._debug("Added SPEED_LIMIT signal: " + signal);
-			
-		} catch (Exception e) {
-			this._debug("Error processing SPEED_LIMIT signal: " + e.getMessage());
+	private void processSpeedLimitSignal(String segment, SmartCar_Message msg) {
+		if (msg.value < 0) {
+			this._debug("Error processing SPEED_LIMIT signal: missing value");
+			return;
 		}
+		// Se recibe según el reloj del vehículo, con el que se consulta y caduca
+		SpeedLimitSignal signal = new SpeedLimitSignal(msg.value, msg.positionStart, msg.positionEnd, msg.validity,
+				this.smartcar.currentTimeMillis());
+		this.smartcar.addSpeedLimitSignal(segment, signal);
+		this._debug("Added SPEED_LIMIT signal: " + signal);
 	}
 	
 	/**
 	 * Procesa un mensaje de señal de semáforo
 	 */
-	private void processTrafficLightSignal(String segment, JSONObject msgContent) {
-		try {
-			String state = msgContent.getString("state");
-			int position = msgContent.getInt("position");
-			
-			TrafficLightSignal signal = new TrafficLightSignal(state, position);
-			this.smartcar.addTrafficLightSignal(segment, signal);
-			this._debug("Added TRAFFIC_LIGHT signal: " + signal);
-			
-		} catch (Exception e) {
-			this._debug("Error processing TRAFFIC_LIGHT signal: " + e.getMessage());
+	private void processTrafficLightSignal(String segment, SmartCar_Message msg) {
+		if (msg.state == null || msg.position < 0) {
+			this._debug("Error processing TRAFFIC_LIGHT signal: missing state or position");
+			return;
 		}
+		TrafficLightSignal signal = new TrafficLightSignal(msg.state, msg.position);
+		this.smartcar.addTrafficLightSignal(segment, signal);
+		this._debug("Added TRAFFIC_LIGHT signal: " + signal);
 	}
 	
-	/**
-	 * Extrae el nombre del segmento del topic MQTT
-	 * Ejemplo: .../road/R5s1/signals -> R5s1
-	 */
-	private String extractSegmentFromTopic(String topic) {
-		try {
-			// El topic tiene formato: .../road/{segment}/signals
-			String[] parts = topic.split("/");
-			for (int i = 0; i < parts.length; i++) {
-				if ("road".equals(parts[i]) && i + 1 < parts.length) {
-					return parts[i + 1];
-				}
-			}
-		} catch (Exception e) {
-			// Ignorar
-		}
-		return null;
-	}
-
 	/**
 	 * Conecta al broker MQTT
 	 */
 	public void connect() {
+		if (this.sharedBus) {
+			return; // La conexión compartida ya está establecida
+		}
 		String clientID = this.smartcar.getSmartCarID() + ".signals-subscriber";
-		connOpt = new MqttConnectOptions();
-		
-		connOpt.setCleanSession(true);
-		connOpt.setKeepAliveInterval(30);
 		
 		try {
-			myClient = new MqttClient(BROKER_URL, clientID);
-			myClient.setCallback(this);
-			myClient.connect(connOpt);
-			this._debug("Signals Subscriber Connected to " + BROKER_URL);
+			SmartCar_MqttBus mqttBus = new SmartCar_MqttBus(SmartCar_Endpoints.getBrokerURL(), clientID, 30);
+			mqttBus.connect();
+			this.bus = mqttBus;
+			this._debug("Signals Subscriber Connected to " + mqttBus.getBrokerURL());
 		} catch (MqttException e) {
 			e.printStackTrace();
 			System.exit(-1);
@@ -173,8 +146,13 @@ public class SmartCar_SignalsSubscriber implements MqttCallback {
 	 */
 	public void disconnect() {
 		try {
-			if (myClient != null && myClient.isConnected()) {
-				myClient.disconnect();
+			if (this.sharedBus) {
+				// La conexión es compartida: sólo liberar nuestras suscripciones
+				for (String segment : this.subscribedSegments) {
+					this.unsubscribe(segment);
+				}
+			} else if (this.bus != null && this.bus.isConnected()) {
+				this.bus.disconnect();
 				this._debug("Signals Subscriber Disconnected");
 			}
 		} catch (Exception e) {
@@ -187,9 +165,9 @@ public class SmartCar_SignalsSubscriber implements MqttCallback {
 	 */
 	public void subscribe(String segment) {
 		try {
-			String topic = TOPIC_ROOT + "/road/" + segment + "/signals";
-			int subQoS = 0;
-			myClient.subscribe(topic, subQoS);
+			String topic = SmartCar_Topics.signals(segment);
+			this.bus.subscribe(topic, this);
+			this.subscribedSegments.add(segment);
 			this._debug("Subscribed to signals topic: " + topic);
 		} catch (Exception e) {
 			e.printStackTrace();
@@ -201,8 +179,9 @@ public class SmartCar_SignalsSubscriber implements MqttCallback {
 	 */
 	public void unsubscribe(String segment) {
 		try {
-			String topic = TOPIC_ROOT + "/road/" + segment + "/signals";
-			myClient.unsubscribe(topic);
+			String topic = SmartCar_Topics.signals(segment);
+			this.bus.unsubscribe(topic, this);
+			this.subscribedSegments.remove(segment);
 			this._debug("Unsubscribed from signals topic: " + topic);
 		} catch (Exception e) {
 			e.printStackTrace();
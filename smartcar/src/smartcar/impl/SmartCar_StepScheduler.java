@@ -0,0 +1,373 @@
+package smartcar.impl;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.eclipse.paho.client.mqttv3.IMqttDeliveryToken;
+import org.eclipse.paho.client.mqttv3.MqttCallback;
+import org.eclipse.paho.client.mqttv3.MqttMessage;
+
+import smartcar.interfaces.IMessageBus;
+
+/**
+ * Planificador de pasos de simulación.
+ *
+ * Sustituye al hilo por paso que lanzaba SmartCar_StepSubscriber:
+ *  - Los pasos se ejecutan en un pool de hilos acotado con una cola acotada.
+ *  - Cada vehículo tiene como máximo una tarea en curso, por lo que sus pasos
+ *    se procesan en orden y nunca se solapan sobre el mismo SmartCar.
+ *  - Si llegan pasos mientras el vehículo aún procesa uno anterior, se acumulan
+ *    en un contador y se agrupan (COALESCE: un único movimiento de n*3000 ms)
+ *    o se descartan (SKIP: sólo se procesa el último).
+ *  - Se mide el retraso (lag) de cada vehículo respecto al último paso recibido
+ *    para detectar cuándo la flota no puede seguir el ritmo del simulador.
+ *
+ * El topic 'step' se procesa una sola vez por conexión: el mensaje se parsea
+ * una vez y se reparte entre todos los vehículos registrados en ese bus.
+ */
+public class SmartCar_StepScheduler {
+
+	public enum MissedStepPolicy {
+		COALESCE,	// Agrupar los pasos pendientes en un único movimiento más largo
+		SKIP		// Procesar sólo un paso y descartar el resto
+	}
+
+	static final String STEP_TOPIC = "es/upv/pros/tatami/smartcities/traffic/PTPaterna/step";
+	static final int DEFAULT_QUEUE_CAPACITY = 10000;
+	static final int LAG_WARNING_STEPS = 2; // Avisar cuando algún vehículo va 2 o más pasos por detrás
+
+	private static SmartCar_StepScheduler defaultScheduler = null;
+
+	private final String name;
+	private final ThreadPoolExecutor executor;
+	private volatile MissedStepPolicy policy = MissedStepPolicy.COALESCE;
+
+	// Un repartidor por bus: recibe el topic 'step' y lo reparte entre sus vehículos
+	private final Map<IMessageBus, StepDispatcher> dispatchers = new ConcurrentHashMap<>();
+
+	// Estadísticas globales
+	private final AtomicLong latestStep = new AtomicLong(-1);
+	private final AtomicLong processedSteps = new AtomicLong(0);
+	private final AtomicLong coalescedSteps = new AtomicLong(0);
+	private final AtomicLong skippedSteps = new AtomicLong(0);
+	private final AtomicLong rejectedTasks = new AtomicLong(0);
+	private final AtomicLong failedSteps = new AtomicLong(0);
+	private final AtomicLong stepNanos = new AtomicLong(0);
+	private volatile long maxLagSeen = 0;
+
+	/**
+	 * Planificador compartido por todos los SmartCar de la JVM
+	 */
+	public static synchronized SmartCar_StepScheduler getDefault() {
+		if (defaultScheduler == null) {
+			int threads = Math.max(4, Runtime.getRuntime().availableProcessors() * 2);
+			defaultScheduler = new SmartCar_StepScheduler("default", threads, DEFAULT_QUEUE_CAPACITY);
+		}
+		return defaultScheduler;
+	}
+
+	public SmartCar_StepScheduler(String name, int threads, int queueCapacity) {
+		this.name = name;
+		final AtomicInteger threadCount = new AtomicInteger(0);
+		ThreadFactory factory = r -> {
+			Thread t = new Thread(r, "step-" + name + "-" + threadCount.incrementAndGet());
+			t.setDaemon(true);
+			return t;
+		};
+		this.executor = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+				new ArrayBlockingQueue<>(Math.max(1, queueCapacity)), factory, new ThreadPoolExecutor.AbortPolicy());
+	}
+
+	protected void _debug(String message) {
+		System.out.println("(StepScheduler: " + this.name + ") " + message);
+	}
+
+	public MissedStepPolicy getPolicy() {
+		return this.policy;
+	}
+
+	public void setPolicy(MissedStepPolicy policy) {
+		this.policy = policy;
+	}
+
+	/**
+	 * Registra un vehículo para recibir los pasos que lleguen por el bus indicado.
+	 * La suscripción al topic 'step' se hace una sola vez por bus.
+	 */
+	public void register(SmartCar car, IMessageBus bus) {
+		StepDispatcher dispatcher;
+		boolean created = false;
+		synchronized (this.dispatchers) {
+			dispatcher = this.dispatchers.get(bus);
+			if (dispatcher == null) {
+				dispatcher = new StepDispatcher(bus);
+				this.dispatchers.put(bus, dispatcher);
+				created = true;
+			}
+			VehicleSlot slot = new VehicleSlot(car);
+			slot.task = () -> this.drain(slot);
+			dispatcher.slots.add(slot);
+		}
+		if (created) {
+			bus.subscribe(STEP_TOPIC, dispatcher);
+		}
+	}
+
+	/**
+	 * Elimina un vehículo. Cuando un bus se queda sin vehículos se cancela su suscripción a 'step'.
+	 */
+	public void unregister(SmartCar car, IMessageBus bus) {
+		StepDispatcher dispatcher;
+		boolean empty = false;
+		synchronized (this.dispatchers) {
+			dispatcher = this.dispatchers.get(bus);
+			if (dispatcher == null) {
+				return;
+			}
+			dispatcher.slots.removeIf(slot -> slot.car == car);
+			if (dispatcher.slots.isEmpty()) {
+				this.dispatchers.remove(bus);
+				empty = true;
+			}
+		}
+		if (empty) {
+			bus.unsubscribe(STEP_TOPIC, dispatcher);
+		}
+	}
+
+	/**
+	 * Notifica un nuevo paso a todos los vehículos de un bus
+	 */
+	protected void onStep(StepDispatcher dispatcher, long step) {
+		this.latestStep.accumulateAndGet(step, Math::max);
+
+		long maxLag = 0;
+		int behind = 0;
+		for (VehicleSlot slot : dispatcher.slots) {
+			// Retraso acumulado antes de este paso (pasos anteriores aún sin procesar)
+			long lag = slot.getLag();
+			slot.lastStepSeen = step;
+			slot.pendingSteps.incrementAndGet();
+			if (lag > 0) {
+				behind++;
+				if (lag > maxLag) {
+					maxLag = lag;
+				}
+			}
+			this.schedule(slot);
+		}
+
+		if (maxLag > this.maxLagSeen) {
+			this.maxLagSeen = maxLag;
+		}
+		if (maxLag >= LAG_WARNING_STEPS) {
+			this._debug("Step " + step + ": " + behind + "/" + dispatcher.slots.size()
+					+ " vehicles behind the simulator (max lag " + maxLag + " steps)");
+		}
+	}
+
+	/**
+	 * Encola el procesamiento de un vehículo si no tiene ya una tarea en curso
+	 */
+	private void schedule(VehicleSlot slot) {
+		if (!slot.scheduled.compareAndSet(false, true)) {
+			return; // Ya hay una tarea: recogerá los pasos pendientes al terminar
+		}
+		try {
+			this.executor.execute(slot.task);
+		} catch (RejectedExecutionException e) {
+			// Cola llena: los pasos quedan pendientes y se recogen con el siguiente paso
+			slot.scheduled.set(false);
+			this.rejectedTasks.incrementAndGet();
+		}
+	}
+
+	/**
+	 * Procesa los pasos pendientes de un vehículo (como máximo una ejecución concurrente por vehículo)
+	 */
+	private void drain(VehicleSlot slot) {
+		try {
+			long step = slot.lastStepSeen;
+			int pending = slot.pendingSteps.getAndSet(0);
+			if (pending > 0) {
+				long elapsed = SmartCar.STEP_MILLIS;
+				if (pending > 1) {
+					if (this.policy == MissedStepPolicy.COALESCE) {
+						elapsed = pending * SmartCar.STEP_MILLIS;
+						this.coalescedSteps.addAndGet(pending - 1);
+					} else {
+						this.skippedSteps.addAndGet(pending - 1);
+					}
+				}
+				long t0 = System.nanoTime();
+				try {
+					slot.car.onSimulationStep(elapsed);
+				} catch (Exception e) {
+					this.failedSteps.incrementAndGet();
+					this._debug("Error in onSimulationStep (" + slot.car.getSmartCarID() + "): " + e.getMessage());
+					e.printStackTrace();
+				}
+				this.stepNanos.addAndGet(System.nanoTime() - t0);
+				this.processedSteps.incrementAndGet();
+				slot.lastStepDone = step;
+			}
+		} finally {
+			slot.scheduled.set(false);
+		}
+		// Si llegaron pasos mientras se procesaba, volver a planificar
+		if (slot.pendingSteps.get() > 0) {
+			this.schedule(slot);
+		}
+	}
+
+	public long getLatestStep() {
+		return this.latestStep.get();
+	}
+
+	public long getProcessedSteps() {
+		return this.processedSteps.get();
+	}
+
+	public long getCoalescedSteps() {
+		return this.coalescedSteps.get();
+	}
+
+	public long getSkippedSteps() {
+		return this.skippedSteps.get();
+	}
+
+	public long getRejectedTasks() {
+		return this.rejectedTasks.get();
+	}
+
+	/**
+	 * Mayor retraso observado desde el arranque (en pasos)
+	 */
+	public long getMaxLagSeen() {
+		return this.maxLagSeen;
+	}
+
+	/**
+	 * Retraso actual del vehículo más atrasado (en pasos)
+	 */
+	public long getCurrentMaxLag() {
+		long max = 0;
+		for (StepDispatcher d : this.dispatchers.values()) {
+			for (VehicleSlot slot : d.slots) {
+				max = Math.max(max, slot.getLag());
+			}
+		}
+		return max;
+	}
+
+	public int getVehicleCount() {
+		int n = 0;
+		for (StepDispatcher d : this.dispatchers.values()) {
+			n += d.slots.size();
+		}
+		return n;
+	}
+
+	/**
+	 * Resumen de una línea con el estado del planificador
+	 */
+	public String getLagReport() {
+		long processed = this.processedSteps.get();
+		long avgMicros = processed > 0 ? this.stepNanos.get() / processed / 1000 : 0;
+		return "step=" + this.latestStep.get()
+				+ " vehicles=" + this.getVehicleCount()
+				+ " lag=" + this.getCurrentMaxLag()
+				+ " maxLag=" + this.maxLagSeen
+				+ " processed=" + processed
+				+ " coalesced=" + this.coalescedSteps.get()
+				+ " skipped=" + this.skippedSteps.get()
+				+ " rejected=" + this.rejectedTasks.get()
+				+ " failed=" + this.failedSteps.get()
+				+ " avgStep=" + avgMicros + "us"
+				+ " queue=" + this.executor.getQueue().size();
+	}
+
+	public void shutdown() {
+		this.executor.shutdown();
+	}
+
+	/**
+	 * Estado de planificación de un vehículo
+	 */
+	static class VehicleSlot {
+		final SmartCar car;
+		final AtomicInteger pendingSteps = new AtomicInteger(0);
+		final AtomicBoolean scheduled = new AtomicBoolean(false);
+		volatile long lastStepSeen = -1;
+		volatile long lastStepDone = -1;
+
+		Runnable task; // Tarea de procesamiento, creada una vez por vehículo
+
+		VehicleSlot(SmartCar car) {
+			this.car = car;
+		}
+
+		long getLag() {
+			if (this.lastStepDone < 0) {
+				return this.pendingSteps.get();
+			}
+			return Math.max(0, this.lastStepSeen - this.lastStepDone);
+		}
+	}
+
+	/**
+	 * Callback del topic 'step' para un bus: parsea el mensaje una vez y lo reparte
+	 */
+	class StepDispatcher implements MqttCallback {
+		final IMessageBus bus;
+		final List<VehicleSlot> slots = new CopyOnWriteArrayList<>();
+		long localStep = 0; // Numeración propia si el mensaje no incluye 'step'
+
+		StepDispatcher(IMessageBus bus) {
+			this.bus = bus;
+		}
+
+		@Override
+		public void messageArrived(String topic, MqttMessage message) throws Exception {
+			try {
+				// JSON o binario (SmartCar_MessageCodec)
+				SmartCar_Message msg = SmartCar_MessageCodec.decodeAny(message.getPayload(), new SmartCar_Message());
+
+				// Verificar que es un mensaje de tipo SIMULATOR_STEP
+				if (msg.type != SmartCar_Message.Type.SIMULATOR_STEP) {
+					return;
+				}
+
+				long step = msg.step;
+				if (step < 0) {
+					step = ++this.localStep;
+				}
+				// Retornar inmediatamente: el procesamiento se hace en el pool
+				onStep(this, step);
+			} catch (Exception e) {
+				_debug("Error processing step message: " + e.getMessage());
+				// No re-lanzar la excepción para evitar que cierre la conexión
+			}
+		}
+
+		@Override
+		public void connectionLost(Throwable cause) {
+			// La reconexión la gestiona el bus
+		}
+
+		@Override
+		public void deliveryComplete(IMqttDeliveryToken token) {
+			// No aplica para suscripciones
+		}
+	}
+}
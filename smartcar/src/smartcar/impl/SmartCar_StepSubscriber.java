@@ -1,55 +1,69 @@
 package smartcar.impl;
 
-import org.eclipse.paho.client.mqttv3.IMqttDeliveryToken;
-import org.eclipse.paho.client.mqttv3.MqttCallback;
-import org.eclipse.paho.client.mqttv3.MqttClient;
-import org.eclipse.paho.client.mqttv3.MqttConnectOptions;
 import org.eclipse.paho.client.mqttv3.MqttException;
-import org.eclipse.paho.client.mqttv3.MqttMessage;
-import org.json.JSONObject;
+
+import smartcar.interfaces.IMessageBus;
 
 /**
  * Suscriptor al topic 'step' del simulador.
  * Cada vez que el simulador publica un paso de simulación (cada 3 segundos),
- * este suscriptor notifica al SmartCar para que mueva su Navigator.
+ * el SmartCar mueve su Navigator.
+ *
+ * Los pasos no se procesan en el hilo de MQTT: se delegan en SmartCar_StepScheduler,
+ * que los ejecuta en un pool acotado, en orden para cada vehículo, y agrupa los pasos
+ * que el vehículo no haya podido procesar a tiempo.
  */
-public class SmartCar_StepSubscriber implements MqttCallback {
+public class SmartCar_StepSubscriber {
 
-	private MqttClient myClient;
-	private MqttConnectOptions connOpt;
+	private IMessageBus bus;
+	private boolean sharedBus = false; // true si la conexión es compartida (SmartCar_FleetHost o la del proceso)
 	
-	static final String BROKER_URL = "tcp://tambori.dsic.upv.es:10083";
-	static final String STEP_TOPIC = "es/upv/pros/tatami/smartcities/traffic/PTPaterna/step";
+	static final String STEP_TOPIC = SmartCar_StepScheduler.STEP_TOPIC;
 	
 	private SmartCar smartcar;
+	private SmartCar_StepScheduler scheduler;
 	
 	public SmartCar_StepSubscriber(SmartCar smartcar) {
+		this(smartcar, null);
+	}
+	
+	/**
+	 * Crea el suscriptor sobre una conexión compartida (modo flota)
+	 */
+	public SmartCar_StepSubscriber(SmartCar smartcar, IMessageBus bus) {
+		this(smartcar, bus, SmartCar_StepScheduler.getDefault());
+	}
+	
+	public SmartCar_StepSubscriber(SmartCar smartcar, IMessageBus bus, SmartCar_StepScheduler scheduler) {
 		this.smartcar = smartcar;
+		this.bus = bus;
+		this.sharedBus = (bus != null);
+		this.scheduler = scheduler;
 	}
 	
 	protected void _debug(String message) {
 		System.out.println("(StepSubscriber: " + this.smartcar.getSmartCarID() + ") " + message);
 	}
 	
+	public SmartCar_StepScheduler getScheduler() {
+		return this.scheduler;
+	}
+	
 	/**
-	 * Conecta al broker MQTT y se suscribe al topic 'step'
+	 * Conecta al broker MQTT y registra el vehículo en el planificador de pasos
 	 */
 	public void connect() {
-		String clientID = this.smartcar.getSmartCarID() + ".step-subscriber";
-		connOpt = new MqttConnectOptions();
-		
-		connOpt.setCleanSession(true);
-		connOpt.setKeepAliveInterval(60); // Aumentar keepalive a 60 segundos
-		
 		try {
-			myClient = new MqttClient(BROKER_URL, clientID);
-			myClient.setCallback(this);
-			myClient.connect(connOpt);
-			this._debug("Connected to " + BROKER_URL);
+			if (!this.sharedBus) {
+				String clientID = this.smartcar.getSmartCarID() + ".step-subscriber";
+				SmartCar_MqttBus mqttBus = new SmartCar_MqttBus(SmartCar_Endpoints.getBrokerURL(), clientID, 60); // keepalive a 60 segundos
+				mqttBus.connect();
+				this.bus = mqttBus;
+				this._debug("Connected to " + mqttBus.getBrokerURL());
+			}
 			
-			// Suscribirse al topic 'step'
-			int subQoS = 0;
-			myClient.subscribe(STEP_TOPIC, subQoS);
+			// El planificador se suscribe al topic 'step' (una vez por conexión)
+			this.scheduler.register(this.smartcar, this.bus);
 			this._debug("Subscribed to " + STEP_TOPIC);
 			
 		} catch (MqttException e) {
@@ -62,81 +76,13 @@ public class SmartCar_StepSubscriber implements MqttCallback {
 	 * Desconecta del broker MQTT
 	 */
 	public void disconnect() {
-		try {
-			if (myClient != null && myClient.isConnected()) {
-				myClient.unsubscribe(STEP_TOPIC);
-				myClient.disconnect();
-				this._debug("Disconnected");
-			}
-		} catch (MqttException e) {
-			e.printStackTrace();
+		if (this.bus == null) {
+			return;
 		}
-	}
-	
-	@Override
-	public void connectionLost(Throwable cause) {
-		this._debug("Connection lost: " + (cause != null ? cause.getMessage() : "Unknown reason"));
-		// Intentar reconectar en un hilo separado para no bloquear
-		new Thread(() -> {
-			try {
-				Thread.sleep(1000); // Esperar un segundo antes de reconectar
-				connect();
-			} catch (Exception e) {
-				this._debug("Error reconnecting: " + e.getMessage());
-			}
-		}).start();
-	}
-
-	@Override
-	public void messageArrived(String topic, MqttMessage message) throws Exception {
-		String payload = new String(message.getPayload());
-		this._debug("Received step message: " + payload);
-		
-		try {
-			// Parsear el mensaje JSON
-			JSONObject jsonMessage = new JSONObject(payload);
-			
-			// Verificar que es un mensaje de tipo SIMULATOR_STEP
-			String type = jsonMessage.optString("type", "");
-			if (!"SIMULATOR_STEP".equals(type)) {
-				this._debug("Ignoring message of type: " + type);
-				return;
-			}
-			
-			// Extraer el número de paso (opcional, para logging)
-			JSONObject msg = jsonMessage.optJSONObject("msg");
-			if (msg != null) {
-				int step = msg.optInt("step", -1);
-				this._debug("Processing simulation step: " + step);
-			}
-			
-			// Notificar al SmartCar que debe moverse
-			// El SmartCar calculará su velocidad y moverá el Navigator
-			// Ejecutar en un hilo separado para no bloquear el callback MQTT
-			if (this.smartcar != null) {
-				final SmartCar car = this.smartcar;
-				new Thread(() -> {
-					try {
-						car.onSimulationStep();
-					} catch (Exception e) {
-						this._debug("Error in onSimulationStep: " + e.getMessage());
-						e.printStackTrace();
-					}
-				}).start();
-			}
-
-			// No esperar a que termine el procesamiento - retornar inmediatamente
-			// para no bloquear el callback MQTT	
-		} catch (Exception e) {
-			this._debug("Error processing step message: " + e.getMessage());
-			e.printStackTrace();
-			// No re-lanzar la excepción para evitar que cierre la conexión
+		this.scheduler.unregister(this.smartcar, this.bus);
+		if (!this.sharedBus && this.bus.isConnected()) {
+			this.bus.disconnect();
+			this._debug("Disconnected");
 		}
 	}
-
-	@Override
-	public void deliveryComplete(IMqttDeliveryToken token) {
-		// No aplica para suscripciones
-	}
 }
-
@@ -0,0 +1,178 @@
+package smartcar.impl;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+
+import ina.vehicle.navigation.interfaces.IRoute;
+
+/**
+ * Gestor de suscripciones por anticipación (lookahead) de un SmartCar.
+ *
+ * Mantiene suscritos los topics 'info' y 'signals' del segmento actual y de los segmentos
+ * de los próximos K fragmentos de la ruta, de modo que las señales de un segmento ya están
+ * recibidas cuando el vehículo entra en él (sin paso "a ciegas" al cruzar el límite).
+ *
+ * Al salir de un segmento sus suscripciones no se liberan de inmediato: se programan para
+ * unos pasos después y se liberan de forma escalonada (como máximo MAX_RELEASES_PER_STEP
+ * por paso), repartiendo el trabajo de subscribe/unsubscribe entre varios pasos.
+ * Las señales almacenadas de un segmento se descartan cuando se libera su suscripción.
+ */
+public class SmartCar_SubscriptionManager {
+
+	static final int DEFAULT_LOOKAHEAD = 2;		// Fragmentos de ruta por delante del actual
+	static final int DEFAULT_RELEASE_DELAY = 2;	// Pasos que se mantiene un segmento tras salir de él
+	static final int MAX_RELEASES_PER_STEP = 2;
+
+	private final SmartCar smartcar;
+	private int lookahead = DEFAULT_LOOKAHEAD;
+	private int releaseDelay = DEFAULT_RELEASE_DELAY;
+
+	// Segmentos suscritos actualmente (incluidos los pendientes de liberar)
+	private final Set<String> active = new HashSet<>();
+	// Segmento -> paso a partir del cual se puede liberar
+	private final Map<String, Long> pendingRelease = new HashMap<>();
+
+	private long step = 0;
+	private String lastSegment = null;
+	private int lastRouteSize = -1;
+	private IRoute lastRoute = null;
+
+	public SmartCar_SubscriptionManager(SmartCar smartcar) {
+		this.smartcar = smartcar;
+	}
+
+	protected void _debug(String message) {
+		System.out.println("(Subscriptions: " + this.smartcar.getSmartCarID() + ") " + message);
+	}
+
+	public int getLookahead() {
+		return this.lookahead;
+	}
+
+	public void setLookahead(int lookahead) {
+		this.lookahead = Math.max(0, lookahead);
+	}
+
+	public int getReleaseDelay() {
+		return this.releaseDelay;
+	}
+
+	public void setReleaseDelay(int releaseDelay) {
+		this.releaseDelay = Math.max(0, releaseDelay);
+	}
+
+	public synchronized Set<String> getActiveSegments() {
+		return new HashSet<>(this.active);
+	}
+
+	/**
+	 * Recalcula las suscripciones tras asignar una ruta nueva
+	 */
+	public synchronized void onRouteChanged() {
+		this.lastRoute = null;
+		this.update();
+	}
+
+	/**
+	 * Se llama en cada paso de simulación.
+	 * Sólo recalcula el conjunto de segmentos cuando cambia el segmento actual o se consume un
+	 * fragmento de la ruta; en el resto de pasos únicamente atiende las liberaciones pendientes.
+	 */
+	public synchronized void update() {
+		this.step++;
+
+		String segment = this.smartcar.getCurrentRoadSegment();
+		IRoute route = (this.smartcar.getNavigator() != null) ? this.smartcar.getNavigator().getRoute() : null;
+		int routeSize = (route != null) ? route.size() : 0;
+
+		if (route != this.lastRoute || routeSize != this.lastRouteSize || (segment != null && !segment.equals(this.lastSegment))) {
+			this.lastRoute = route;
+			this.lastRouteSize = routeSize;
+			this.lastSegment = segment;
+			this.recompute(segment, route);
+		}
+
+		if (!this.pendingRelease.isEmpty()) {
+			this.releaseExpired();
+		}
+	}
+
+	private void recompute(String segment, IRoute route) {
+		Set<String> wanted = new HashSet<>();
+		if (segment != null) {
+			wanted.add(segment);
+		}
+		if (route != null) {
+			// El primer fragmento es el que se está recorriendo; se añaden los K siguientes
+			int n = Math.min(route.size(), this.lookahead + 1);
+			for (int i = 0; i < n; i++) {
+				wanted.add(route.get(i).getStartPoint().getRoadSegment());
+				wanted.add(route.get(i).getEndPoint().getRoadSegment());
+			}
+		}
+
+		for (String s : wanted) {
+			// Un segmento que vuelve a necesitarse deja de estar pendiente de liberar
+			this.pendingRelease.remove(s);
+			if (this.active.add(s)) {
+				this.subscribeSegment(s);
+			}
+		}
+		for (String s : this.active) {
+			if (!wanted.contains(s) && !this.pendingRelease.containsKey(s)) {
+				this.pendingRelease.put(s, this.step + this.releaseDelay);
+			}
+		}
+	}
+
+	private void releaseExpired() {
+		int released = 0;
+		Iterator<Map.Entry<String, Long>> it = this.pendingRelease.entrySet().iterator();
+		while (it.hasNext() && released < MAX_RELEASES_PER_STEP) {
+			Map.Entry<String, Long> e = it.next();
+			if (e.getValue() <= this.step) {
+				it.remove();
+				this.active.remove(e.getKey());
+				this.unsubscribeSegment(e.getKey());
+				released++;
+			}
+		}
+	}
+
+	/**
+	 * Libera todas las suscripciones (al desconectar el vehículo)
+	 */
+	public synchronized void releaseAll() {
+		for (String s : this.active) {
+			this.unsubscribeSegment(s);
+		}
+		this.active.clear();
+		this.pendingRelease.clear();
+		this.lastRoute = null;
+		this.lastSegment = null;
+		this.lastRouteSize = -1;
+	}
+
+	protected void subscribeSegment(String segment) {
+		if (this.smartcar.subscriber != null) {
+			this.smartcar.subscriber.subscribe(SmartCar_Topics.info(segment));
+		}
+		if (this.smartcar.signalsSubscriber != null) {
+			this.smartcar.signalsSubscriber.subscribe(segment);
+		}
+	}
+
+	protected void unsubscribeSegment(String segment) {
+		if (this.smartcar.subscriber != null) {
+			this.smartcar.subscriber.unsubscribe(SmartCar_Topics.info(segment));
+		}
+		if (this.smartcar.signalsSubscriber != null) {
+			this.smartcar.signalsSubscriber.unsubscribe(segment);
+		}
+		// Las señales sólo se descartan cuando el segmento deja de seguirse
+		this.smartcar.clearSignalsForSegment(segment);
+	}
+}
@@ -0,0 +1,84 @@
+package smartcar.impl;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Topics MQTT por segmento de carretera, calculados una sola vez.
+ *
+ * Los vehículos construían el topic concatenando cadenas en cada paso de simulación;
+ * aquí se guardan por segmento y se comparten entre todos los vehículos de la JVM
+ * (el número de segmentos de la red es pequeño y fijo).
+ */
+public final class SmartCar_Topics {
+
+	public static final String TOPIC_ROOT = "es/upv/pros/tatami/smartcities/traffic/PTPaterna";
+
+	/**
+	 * Instantáneas binarias de flota (SmartCar_FleetSnapshot), un único topic para todos los anfitriones
+	 */
+	public static final String FLEET_SNAPSHOT = TOPIC_ROOT + "/fleet/snapshot";
+
+	/**
+	 * Topics por segmento (.../road/{segment}/info, traffic, signals o alerts) -> tipo (info, traffic...)
+	 */
+	public static final SmartCar_TopicTrie<String> ROAD_TOPICS = new SmartCar_TopicTrie<String>()
+			.add(TOPIC_ROOT + "/road/{segment}/info", "info")
+			.add(TOPIC_ROOT + "/road/{segment}/traffic", "traffic")
+			.add(TOPIC_ROOT + "/road/{segment}/signals", "signals")
+			.add(TOPIC_ROOT + "/road/{segment}/alerts", "alerts");
+
+	private static final Map<String, String> infoTopics = new ConcurrentHashMap<>();
+	private static final Map<String, String> trafficTopics = new ConcurrentHashMap<>();
+	private static final Map<String, String> signalsTopics = new ConcurrentHashMap<>();
+	private static final Map<String, String> alertsTopics = new ConcurrentHashMap<>();
+
+	private SmartCar_Topics() {
+	}
+
+	/**
+	 * .../road/{segment}/info
+	 */
+	public static String info(String segment) {
+		return topic(infoTopics, segment, "/info");
+	}
+
+	/**
+	 * .../road/{segment}/traffic
+	 */
+	public static String traffic(String segment) {
+		return topic(trafficTopics, segment, "/traffic");
+	}
+
+	/**
+	 * .../road/{segment}/signals
+	 */
+	public static String signals(String segment) {
+		return topic(signalsTopics, segment, "/signals");
+	}
+
+	/**
+	 * .../road/{segment}/alerts
+	 */
+	public static String alerts(String segment) {
+		return topic(alertsTopics, segment, "/alerts");
+	}
+
+	/**
+	 * Segmento de un topic por segmento (.../road/R5s1/signals -> R5s1) o null. Se resuelve sin
+	 * split ni substring y devuelve siempre la misma instancia de String para cada segmento.
+	 */
+	public static String segmentOf(String topic) {
+		SmartCar_TopicTrie.Match<String> m = ROAD_TOPICS.match(topic);
+		return (m != null) ? m.capture(0) : null;
+	}
+
+	private static String topic(Map<String, String> cache, String segment, String suffix) {
+		String topic = cache.get(segment);
+		if (topic == null) {
+			topic = TOPIC_ROOT + "/road/" + segment + suffix;
+			cache.putIfAbsent(segment, topic);
+		}
+		return topic;
+	}
+}
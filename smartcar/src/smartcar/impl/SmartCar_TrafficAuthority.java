@@ -0,0 +1,676 @@
+package smartcar.impl;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
+
+import org.eclipse.paho.client.mqttv3.IMqttDeliveryToken;
+import org.eclipse.paho.client.mqttv3.MqttCallback;
+import org.eclipse.paho.client.mqttv3.MqttMessage;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import ina.vehicle.navigation.components.RoadNetwork;
+import ina.vehicle.navigation.components.RoadSegment;
+import ina.vehicle.navigation.components.RoadStatusPolicy;
+import ina.vehicle.navigation.interfaces.IRoadSegment;
+import ina.vehicle.navigation.interfaces.IRoadSegmentStatusListener;
+import ina.vehicle.navigation.types.ERoadStatus;
+import smartcar.interfaces.IMessageBus;
+
+/**
+ * Autoridad de tráfico local: sustituye al simulador remoto en el recuento de vehículos por segmento.
+ *
+ *  - Consume los eventos VEHICLE_IN / VEHICLE_OUT de .../road/+/traffic y mantiene la ocupación de cada
+ *    segmento en contadores atómicos (sin locks: los eventos llegan a la vez desde muchos hilos).
+ *    Los vehículos repiten VEHICLE_IN en cada paso con su nueva posición y no envían VEHICLE_OUT al llegar:
+ *    se recuerda el segmento de cada vehicle-id (sólo cuenta el primer VEHICLE_IN en cada segmento) y los
+ *    vehículos que llevan más de vehicleTimeoutMillis sin informar se retiran en el siguiente paso.
+ *  - El estado de cada segmento lo calcula RoadSegment (_updateRoadTrafficDensityStatus, con los mismos
+ *    umbrales de densidad que el simulador o, con setStatusPolicy, con densidad suavizada, histéresis y
+ *    tiempo mínimo en cada estado) y se publica como ROAD_STATUS en .../road/{segmento}/info
+ *    (en JSON o en binario según SmartCar_MessageCodec; los eventos se aceptan en ambos formatos):
+ *      - al cambiar de estado (publishOnChange, por defecto), en el hilo del evento que lo provoca;
+ *      - en cada paso (publishOnStep), para los segmentos cuyo número de vehículos ha cambiado.
+ *  - Opcionalmente sirve el recurso REST del segmento (GET /segment/{id}, /segment/{id}/max-speed,
+ *    /segment y /road) con el mismo contenido que el campo 'msg' de ROAD_STATUS, de modo que
+ *    SmartCar_SegmentCache puede apuntar a ella (-Dsmartcar.rest.base=http://localhost:{puerto}).
+ *
+ * Los segmentos se indexan con el id entero de RoadNetwork: un evento sólo hace una búsqueda en el mapa
+ * de códigos y un incremento atómico. El lock de cada segmento sólo se toma para recalcular su estado y
+ * construir el mensaje, que siempre refleja el valor más reciente del contador.
+ */
+public class SmartCar_TrafficAuthority implements MqttCallback, IRoadSegmentStatusListener {
+
+	static final String TRAFFIC_TOPIC = SmartCar_Topics.TOPIC_ROOT + "/road/+/traffic";
+	static final String STEP_TOPIC = SmartCar_StepScheduler.STEP_TOPIC;
+	static final int HTTP_THREADS = 2;
+	public static final long DEFAULT_VEHICLE_TIMEOUT_MS = 10_000L; // Algo más de 3 pasos del simulador
+
+	private final RoadNetwork network;
+	private final IMessageBus bus;
+	private final AuthoritySegment[] segments;
+
+	// Ocupación por segmento (id de RoadNetwork) y segmentos con cambios desde el último paso
+	private final AtomicIntegerArray occupancy;
+	private final AtomicIntegerArray changed;
+	// Segmento en el que está cada vehículo (vehicle-id)
+	private final Map<String, VehicleEntry> vehicles = new ConcurrentHashMap<>();
+
+	private volatile boolean publishOnChange = true;
+	private volatile boolean publishOnStep = false;
+	private volatile long vehicleTimeoutMillis = DEFAULT_VEHICLE_TIMEOUT_MS;
+	private volatile LongSupplier clock = System::currentTimeMillis;
+	private volatile boolean started = false;
+	private volatile RoadStatusPolicy statusPolicy = null;
+
+	private HttpServer httpServer = null;
+	private ExecutorService httpExecutor = null;
+
+	// Estadísticas
+	private final AtomicLong events = new AtomicLong(0);
+	private final AtomicLong unknownEvents = new AtomicLong(0);
+	private final AtomicLong expiredVehicles = new AtomicLong(0);
+	private final AtomicLong statusMessages = new AtomicLong(0);
+	private final AtomicLong statusChanges = new AtomicLong(0);
+	private final AtomicLong restRequests = new AtomicLong(0);
+
+	public SmartCar_TrafficAuthority(RoadNetwork network, IMessageBus bus) {
+		this.network = network;
+		this.bus = bus;
+		int n = network.getSegmentCount();
+		this.segments = new AuthoritySegment[n];
+		this.occupancy = new AtomicIntegerArray(n);
+		this.changed = new AtomicIntegerArray(n);
+		for (int s = 0; s < n; s++) {
+			AuthoritySegment seg = new AuthoritySegment(s, network);
+			seg.addStatusListener(this);
+			this.segments[s] = seg;
+		}
+	}
+
+	protected void _debug(String message) {
+		System.out.println("(TrafficAuthority) " + message);
+	}
+
+	public RoadNetwork getNetwork() {
+		return this.network;
+	}
+
+	/**
+	 * Reloj de las marcas de tiempo de los mensajes (el VirtualClock en la simulación headless)
+	 */
+	public void setClock(LongSupplier clock) {
+		this.clock = (clock != null) ? clock : System::currentTimeMillis;
+	}
+
+	/**
+	 * Publicar ROAD_STATUS en cuanto un segmento cambia de estado (por defecto activo)
+	 */
+	public void setPublishOnChange(boolean publishOnChange) {
+		this.publishOnChange = publishOnChange;
+	}
+
+	/**
+	 * Publicar ROAD_STATUS en cada paso para los segmentos cuyo número de vehículos ha cambiado
+	 */
+	public void setPublishOnStep(boolean publishOnStep) {
+		this.publishOnStep = publishOnStep;
+	}
+
+	/**
+	 * Política de cambio de estado de todos los segmentos (null: umbrales fijos del simulador).
+	 * Usa el reloj de la autoridad (setClock). Los segmentos cuyo estado aún se está asentando se
+	 * vuelven a evaluar en cada paso aunque no tengan eventos.
+	 */
+	public void setStatusPolicy(RoadStatusPolicy policy) {
+		RoadStatusPolicy p = (policy != null) ? policy.withClock(() -> this.clock.getAsLong()) : null;
+		this.statusPolicy = p;
+		for (AuthoritySegment seg : this.segments) {
+			synchronized (seg) {
+				seg.setStatusPolicy(p);
+			}
+		}
+	}
+
+	public RoadStatusPolicy getStatusPolicy() {
+		return this.statusPolicy;
+	}
+
+	/**
+	 * Tiempo sin eventos tras el que se da por hecho que un vehículo ha salido de la red
+	 */
+	public void setVehicleTimeoutMillis(long vehicleTimeoutMillis) {
+		this.vehicleTimeoutMillis = vehicleTimeoutMillis;
+	}
+
+	/**
+	 * Se suscribe a los eventos de tráfico de todos los segmentos y al topic 'step'
+	 * (en la simulación headless no hace falta: el motor llama directamente a onStep)
+	 */
+	public synchronized void start() {
+		this.start(true);
+	}
+
+	public synchronized void start(boolean subscribeToStep) {
+		if (this.started) {
+			return;
+		}
+		this.bus.subscribe(TRAFFIC_TOPIC, this);
+		if (subscribeToStep) {
+			this.bus.subscribe(STEP_TOPIC, this);
+		}
+		this.started = true;
+		this._debug("Listening on " + TRAFFIC_TOPIC + " (" + this.segments.length + " segments"
+				+ (this.publishOnStep ? ", ROAD_STATUS on every step" : "") + ")");
+	}
+
+	public synchronized void stop() {
+		if (this.started) {
+			this.bus.unsubscribe(TRAFFIC_TOPIC, this);
+			this.bus.unsubscribe(STEP_TOPIC, this);
+			this.started = false;
+		}
+		this.stopHttpServer();
+	}
+
+	@Override
+	public void connectionLost(Throwable t) {
+		this._debug("Connection lost!");
+	}
+
+	@Override
+	public void deliveryComplete(IMqttDeliveryToken token) {
+	}
+
+	@Override
+	public void messageArrived(String topic, MqttMessage message) throws Exception {
+		if (STEP_TOPIC.equals(topic)) {
+			this.onStep();
+			return;
+		}
+		// JSON o binario (SmartCar_MessageCodec)
+		SmartCar_Message msg = SmartCar_MessageCodec.decodeAny(message.getPayload(), new SmartCar_Message());
+		String segment = msg.roadSegment;
+		if (segment == null) {
+			segment = SmartCar_Topics.segmentOf(topic);
+		}
+		this.onTrafficEvent(msg.vehicleId, segment, (msg.action != null) ? msg.action : "");
+	}
+
+	/**
+	 * Aplica un evento de tráfico
+	 * @param vehicle vehicle-id (null: el evento se cuenta tal cual, sin seguir al vehículo)
+	 * @param action VEHICLE_IN o VEHICLE_OUT
+	 * @return false si el segmento no pertenece a la red o la acción no se reconoce
+	 */
+	public boolean onTrafficEvent(String vehicle, String segment, String action) {
+		int s = (segment != null) ? this.network.getSegmentId(segment) : RoadNetwork.NO_ID;
+		boolean in = "VEHICLE_IN".equals(action);
+		if (s == RoadNetwork.NO_ID || (!in && !"VEHICLE_OUT".equals(action))) {
+			this.unknownEvents.incrementAndGet();
+			return false;
+		}
+		this.events.incrementAndGet();
+		if (vehicle == null) {
+			this.move(in ? RoadNetwork.NO_ID : s, in ? s : RoadNetwork.NO_ID, this.publishOnChange);
+			return true;
+		}
+		while (true) {
+			VehicleEntry v = this.vehicles.get(vehicle);
+			if (v == null) {
+				if (!in) {
+					return true; // Salida de un vehículo que no se ha visto entrar (o ya retirado)
+				}
+				VehicleEntry created = new VehicleEntry();
+				v = this.vehicles.putIfAbsent(vehicle, created);
+				if (v == null) {
+					v = created;
+				}
+			}
+			// Los eventos de un vehículo llegan casi siempre del mismo hilo: el lock no tiene contención
+			synchronized (v) {
+				if (v.removed) {
+					// expireVehicles lo ha retirado entre el get y el lock: contar el evento sobre esta
+					// entrada dejaría un vehículo en el contador que ya nadie retiraría
+					continue;
+				}
+				v.lastSeen = this.clock.getAsLong();
+				if (in) {
+					if (v.segment != s) {
+						int from = v.segment;
+						v.segment = s;
+						this.move(from, s, this.publishOnChange);
+					}
+				} else if (v.segment == s) {
+					v.segment = RoadNetwork.NO_ID;
+					this.move(s, RoadNetwork.NO_ID, this.publishOnChange);
+				}
+			}
+			return true;
+		}
+	}
+
+	/**
+	 * Pasa un vehículo de un segmento a otro (NO_ID: fuera de la red)
+	 * @param evaluate recalcular ya el estado de ambos segmentos (si no, se recalcula en el siguiente paso)
+	 */
+	private void move(int from, int to, boolean evaluate) {
+		if (from != RoadNetwork.NO_ID) {
+			this.decrement(from);
+			this.changed.set(from, 1);
+			if (evaluate) {
+				this.evaluate(from);
+			}
+		}
+		if (to != RoadNetwork.NO_ID) {
+			this.occupancy.incrementAndGet(to);
+			this.changed.set(to, 1);
+			if (evaluate) {
+				this.evaluate(to);
+			}
+		}
+	}
+
+	/**
+	 * Resta un vehículo sin bajar de 0 (un VEHICLE_OUT sin su VEHICLE_IN, p.ej. al arrancar con vehículos en ruta)
+	 */
+	private void decrement(int s) {
+		int n;
+		do {
+			n = this.occupancy.get(s);
+			if (n == 0) {
+				return;
+			}
+		} while (!this.occupancy.compareAndSet(s, n, n - 1));
+	}
+
+	/**
+	 * Recalcula el estado del segmento con el valor actual del contador.
+	 * Si cambia, onStatusChanged publica ROAD_STATUS
+	 */
+	private void evaluate(int s) {
+		AuthoritySegment seg = this.segments[s];
+		synchronized (seg) {
+			seg.setNumVehicles(this.occupancy.get(s));
+		}
+	}
+
+	/**
+	 * Paso de simulación: recalcula los segmentos con cambios (y, con política, los que se están asentando)
+	 * y, con publishOnStep, publica el ROAD_STATUS de los segmentos con cambios
+	 */
+	public void onStep() {
+		this.expireVehicles();
+		boolean publish = this.publishOnStep;
+		boolean settle = this.statusPolicy != null;
+		for (int s = 0; s < this.segments.length; s++) {
+			boolean dirty = this.changed.get(s) != 0 && this.changed.getAndSet(s, 0) != 0;
+			AuthoritySegment seg = this.segments[s];
+			if (!dirty && !(settle && seg.isStatusSettling())) {
+				continue;
+			}
+			synchronized (seg) {
+				ERoadStatus previous = seg.getStatus();
+				seg.setNumVehicles(this.occupancy.get(s));
+				if (publish && dirty && seg.getStatus() == previous) {
+					this.publishStatus(seg); // Si ha cambiado ya lo ha publicado onStatusChanged
+				}
+			}
+		}
+	}
+
+	/**
+	 * Retira los vehículos que no han informado en vehicleTimeoutMillis (han llegado a su destino o se han desconectado)
+	 */
+	private void expireVehicles() {
+		long limit = this.clock.getAsLong() - this.vehicleTimeoutMillis;
+		for (Iterator<VehicleEntry> it = this.vehicles.values().iterator(); it.hasNext(); ) {
+			VehicleEntry v = it.next();
+			if (v.lastSeen >= limit) {
+				continue;
+			}
+			synchronized (v) {
+				if (v.lastSeen >= limit) {
+					continue; // Ha informado mientras tanto
+				}
+				it.remove();
+				v.removed = true;
+				int from = v.segment;
+				v.segment = RoadNetwork.NO_ID;
+				this.move(from, RoadNetwork.NO_ID, false); // onStep recalcula el segmento a continuación
+			}
+			this.expiredVehicles.incrementAndGet();
+		}
+	}
+
+	@Override
+	public void onStatusChanged(IRoadSegment segment, ERoadStatus previous, ERoadStatus current) {
+		// Se invoca con el lock del segmento tomado (evaluate / onStep)
+		AuthoritySegment seg = (AuthoritySegment) segment;
+		if (previous != null) {
+			this.statusChanges.incrementAndGet();
+		}
+		if (previous != null && (this.publishOnChange || this.publishOnStep)) {
+			this.publishStatus(seg);
+		}
+	}
+
+	/**
+	 * Publica el ROAD_STATUS del segmento (con su lock tomado)
+	 */
+	private void publishStatus(AuthoritySegment seg) {
+		this.changed.set(seg.index, 0);
+		if (this.bus == null || !this.bus.isConnected()) {
+			return;
+		}
+		String topic = SmartCar_Topics.info(seg.getId());
+		SmartCar_PayloadBuffer p = seg.payload.reset();
+		SmartCar_MessageCodec.forTopic(topic).encode(seg.toMessage(this.clock.getAsLong()), p);
+		this.bus.publish(topic, p.array(), p.length(), 0);
+		this.statusMessages.incrementAndGet();
+	}
+
+	/**
+	 * Cierra un segmento (ROAD_STATUS Closed) hasta que se vuelva a abrir
+	 */
+	public boolean closeRoadSegment(String segment) {
+		int s = this.network.getSegmentId(segment);
+		if (s == RoadNetwork.NO_ID) {
+			return false;
+		}
+		AuthoritySegment seg = this.segments[s];
+		synchronized (seg) {
+			seg.closeRoadSegment();
+		}
+		return true;
+	}
+
+	/**
+	 * Abre un segmento cerrado: el estado vuelve a depender de la ocupación
+	 */
+	public boolean openRoadSegment(String segment) {
+		int s = this.network.getSegmentId(segment);
+		if (s == RoadNetwork.NO_ID) {
+			return false;
+		}
+		AuthoritySegment seg = this.segments[s];
+		synchronized (seg) {
+			seg.setNumVehicles(this.occupancy.get(s));
+			seg.openRoadSegment();
+		}
+		return true;
+	}
+
+	/**
+	 * Vehículos en el segmento según los eventos recibidos (-1 si no pertenece a la red)
+	 */
+	public int getNumVehicles(String segment) {
+		int s = this.network.getSegmentId(segment);
+		return (s == RoadNetwork.NO_ID) ? -1 : this.occupancy.get(s);
+	}
+
+	/**
+	 * Estado actual del segmento (null si no pertenece a la red)
+	 */
+	public ERoadStatus getStatus(String segment) {
+		int s = this.network.getSegmentId(segment);
+		if (s == RoadNetwork.NO_ID) {
+			return null;
+		}
+		AuthoritySegment seg = this.segments[s];
+		synchronized (seg) {
+			seg.setNumVehicles(this.occupancy.get(s));
+			return seg.getStatus();
+		}
+	}
+
+	/**
+	 * Contenido JSON del segmento (campo 'msg' de ROAD_STATUS), o null si no pertenece a la red
+	 */
+	public String getSegmentJSON(String segment) {
+		int s = this.network.getSegmentId(segment);
+		if (s == RoadNetwork.NO_ID) {
+			return null;
+		}
+		SmartCar_PayloadBuffer p = new SmartCar_PayloadBuffer();
+		this.writeSegment(s, p);
+		return p.toString();
+	}
+
+	private void writeSegment(int s, SmartCar_PayloadBuffer p) {
+		AuthoritySegment seg = this.segments[s];
+		synchronized (seg) {
+			seg.setNumVehicles(this.occupancy.get(s));
+			seg.writeJSON(p);
+		}
+	}
+
+	// ------------------------------------------------------------------
+	// Recurso REST
+	// ------------------------------------------------------------------
+
+	/**
+	 * Arranca el servidor HTTP del recurso de segmentos
+	 * @param port puerto (0: uno libre)
+	 * @return el puerto en el que escucha
+	 */
+	public synchronized int startHttpServer(int port) throws IOException {
+		if (this.httpServer != null) {
+			return this.httpServer.getAddress().getPort();
+		}
+		HttpServer server = HttpServer.create(new InetSocketAddress(port), 0);
+		server.createContext("/segment", this::handleSegment);
+		server.createContext("/road", this::handleRoads);
+		final AtomicInteger threadCount = new AtomicInteger(0);
+		this.httpExecutor = Executors.newFixedThreadPool(HTTP_THREADS, r -> {
+			Thread t = new Thread(r, "traffic-authority-http-" + threadCount.incrementAndGet());
+			t.setDaemon(true);
+			return t;
+		});
+		server.setExecutor(this.httpExecutor);
+		server.start();
+		this.httpServer = server;
+		int bound = server.getAddress().getPort();
+		this._debug("REST resource on http://localhost:" + bound + "/segment/{id}");
+		return bound;
+	}
+
+	public synchronized void stopHttpServer() {
+		if (this.httpServer != null) {
+			this.httpServer.stop(0);
+			this.httpExecutor.shutdown();
+			this.httpServer = null;
+			this.httpExecutor = null;
+		}
+	}
+
+	/**
+	 * GET /segment, /segment/{id} y /segment/{id}/max-speed
+	 */
+	private void handleSegment(HttpExchange exchange) throws IOException {
+		this.restRequests.incrementAndGet();
+		try {
+			if (!"GET".equals(exchange.getRequestMethod())) {
+				this.respond(exchange, 405, null);
+				return;
+			}
+			String[] parts = exchange.getRequestURI().getPath().split("/");
+			// parts[0] = "", parts[1] = "segment"
+			SmartCar_PayloadBuffer p = new SmartCar_PayloadBuffer();
+			if (parts.length == 2) {
+				p.raw('[');
+				for (int s = 0; s < this.segments.length; s++) {
+					if (s > 0) {
+						p.raw(',');
+					}
+					this.writeSegment(s, p);
+				}
+				p.raw(']');
+				this.respond(exchange, 200, p);
+				return;
+			}
+			int s = this.network.getSegmentId(parts[2]);
+			if (s == RoadNetwork.NO_ID || parts.length > 4 || (parts.length == 4 && !"max-speed".equals(parts[3]))) {
+				this.respond(exchange, 404, null);
+				return;
+			}
+			if (parts.length == 4) {
+				AuthoritySegment seg = this.segments[s];
+				p.raw('{').key("road-segment").string(seg.getId()).raw(',');
+				p.key("max-speed").number(seg.getCurrentMaxSpeed()).raw('}');
+			} else {
+				this.writeSegment(s, p);
+			}
+			this.respond(exchange, 200, p);
+		} finally {
+			exchange.close();
+		}
+	}
+
+	/**
+	 * GET /road: carreteras con sus segmentos (formato de roads_example.json, para la precarga en bloque)
+	 */
+	private void handleRoads(HttpExchange exchange) throws IOException {
+		this.restRequests.incrementAndGet();
+		try {
+			if (!"GET".equals(exchange.getRequestMethod())) {
+				this.respond(exchange, 405, null);
+				return;
+			}
+			SmartCar_PayloadBuffer p = new SmartCar_PayloadBuffer();
+			p.raw('[');
+			for (int r = 0; r < this.network.getRoadCount(); r++) {
+				if (r > 0) {
+					p.raw(',');
+				}
+				p.raw('{').key("code").string(this.network.getRoadCode(r)).raw(',');
+				p.key("rt").string("road").raw(',');
+				p.key("segments").raw('[');
+				int[] segs = this.network.getSegmentsOfRoad(r);
+				for (int i = 0; i < segs.length; i++) {
+					if (i > 0) {
+						p.raw(',');
+					}
+					this.writeSegment(segs[i], p);
+				}
+				p.raw("]}");
+			}
+			p.raw(']');
+			this.respond(exchange, 200, p);
+		} finally {
+			exchange.close();
+		}
+	}
+
+	private void respond(HttpExchange exchange, int code, SmartCar_PayloadBuffer body) throws IOException {
+		if (body == null) {
+			exchange.sendResponseHeaders(code, -1);
+			return;
+		}
+		exchange.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+		exchange.sendResponseHeaders(code, body.length());
+		try (OutputStream out = exchange.getResponseBody()) {
+			out.write(body.array(), 0, body.length());
+		}
+	}
+
+	public long getEventCount() {
+		return this.events.get();
+	}
+
+	public long getStatusMessageCount() {
+		return this.statusMessages.get();
+	}
+
+	/**
+	 * Cambios de estado por densidad, cierre o apertura desde el arranque
+	 */
+	public long getStatusChangeCount() {
+		return this.statusChanges.get();
+	}
+
+	public String getStats() {
+		int vehicles = 0;
+		int congested = 0;
+		for (int s = 0; s < this.segments.length; s++) {
+			vehicles += this.occupancy.get(s);
+			ERoadStatus st = this.segments[s].getStatus();
+			if (st == ERoadStatus.No_Manouvers || st == ERoadStatus.Collapsed) {
+				congested++;
+			}
+		}
+		return "events=" + this.events.get()
+				+ " unknown=" + this.unknownEvents.get()
+				+ " expired=" + this.expiredVehicles.get()
+				+ " road-status=" + this.statusMessages.get()
+				+ " status-changes=" + this.statusChanges.get()
+				+ " rest=" + this.restRequests.get()
+				+ " vehicles=" + vehicles
+				+ " congested=" + congested;
+	}
+
+	/**
+	 * Segmento actual de un vehículo (protegido por el lock de la propia entrada)
+	 */
+	static final class VehicleEntry {
+		int segment = RoadNetwork.NO_ID;
+		volatile long lastSeen = 0;
+		boolean removed = false; // Retirado de 'vehicles' (con el lock de la entrada)
+	}
+
+	/**
+	 * Segmento de la red con su buffer de publicación (ambos protegidos por el lock del propio segmento)
+	 */
+	static final class AuthoritySegment extends RoadSegment {
+
+		final int index;
+		final SmartCar_PayloadBuffer payload = new SmartCar_PayloadBuffer();
+		final SmartCar_Message message = new SmartCar_Message();
+
+		AuthoritySegment(int index, RoadNetwork network) {
+			super(network.getSegmentCode(index), network.getRoadCode(network.getSegmentRoad(index)), network.getSegmentCode(index),
+					network.getStartKP(index), network.getEndKP(index), network.getCapacity(index), network.getMaxSpeed(index));
+			this.index = index;
+			this.setCurrentMaxSpeed(network.getCurrentMaxSpeed(index));
+		}
+
+		/**
+		 * ROAD_STATUS con el estado actual del segmento (en el mensaje del propio segmento)
+		 */
+		SmartCar_Message toMessage(long timestamp) {
+			SmartCar_Message m = this.message.reset(SmartCar_Message.Type.ROAD_STATUS, timestamp);
+			m.code = this.code;
+			m.rt = this.getRT();
+			m.roadSegment = this.id;
+			m.road = this.road;
+			m.length = this.length;
+			m.startKP = this.startKP;
+			m.endKP = this.endKP;
+			m.maxSpeed = this.maxSpeed;
+			m.currentMaxSpeed = this.currentMaxSpeed;
+			m.capacity = this.capacity;
+			m.numVehicles = this.numVehicles;
+			m.density = this.density;
+			m.status = this.status.name();
+			return m;
+		}
+
+		/**
+		 * Campo 'msg' de ROAD_STATUS (mismo contenido que el recurso /segment/{id})
+		 */
+		void writeJSON(SmartCar_PayloadBuffer p) {
+			SmartCar_JsonCodec.writeRoadStatus(this.toMessage(0), p);
+		}
+	}
+}
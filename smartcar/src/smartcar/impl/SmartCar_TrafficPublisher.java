@@ -1,10 +1,9 @@
 package smartcar.impl;
 
-import org.eclipse.paho.client.mqttv3.MqttClient;
-import org.eclipse.paho.client.mqttv3.MqttConnectOptions;
 import org.eclipse.paho.client.mqttv3.MqttException;
-import org.eclipse.paho.client.mqttv3.MqttMessage;
-import org.json.JSONObject;
+
+import ina.vehicle.navigation.utils.MySimpleLogger;
+import smartcar.interfaces.IMessageBus;
 
 /**
  * Clase encargada de publicar mensajes de tráfico del SmartCar al broker MQTT.
@@ -12,18 +11,33 @@ import org.json.JSONObject;
  */
 public class SmartCar_TrafficPublisher {
 
-	private MqttClient myClient;
-	private MqttConnectOptions connOpt;
+	private IMessageBus bus;
+	private boolean sharedBus = false; // true si la conexión es compartida (SmartCar_FleetHost o la del proceso)
 	
-	static final String BROKER_URL = "tcp://tambori.dsic.upv.es:10083";
 	static final String TOPIC_ROOT = "es/upv/pros/tatami/smartcities/traffic/PTPaterna";
 	
 	private SmartCar smartcar;
+	private final SmartCar_PayloadBuffer payload = new SmartCar_PayloadBuffer();
+	private final SmartCar_Message message = new SmartCar_Message(); // Protegido por payload
+	
+	// Última posición publicada (SmartCar_ReportingPolicy)
+	private String lastSegment = null;
+	private int lastPosition = 0;
+	private long lastReportMillis = 0;
 	
 	public SmartCar_TrafficPublisher(SmartCar smartcar) {
 		this.smartcar = smartcar;
 	}
 	
+	/**
+	 * Crea el publisher sobre una conexión compartida (modo flota)
+	 */
+	public SmartCar_TrafficPublisher(SmartCar smartcar, IMessageBus bus) {
+		this.smartcar = smartcar;
+		this.bus = bus;
+		this.sharedBus = (bus != null);
+	}
+	
 	protected void _debug(String message) {
 		System.out.println("(SmartCar Publisher: " + this.smartcar.getSmartCarID() + ") " + message);
 	}
@@ -32,16 +46,16 @@ public class SmartCar_TrafficPublisher {
 	 * Conecta al broker MQTT
 	 */
 	public void connect() {
+		if (this.sharedBus) {
+			return; // La conexión compartida ya está establecida
+		}
 		String clientID = this.smartcar.getSmartCarID() + ".publisher";
-		connOpt = new MqttConnectOptions();
-		
-		connOpt.setCleanSession(true);
-		connOpt.setKeepAliveInterval(30);
 		
 		try {
-			myClient = new MqttClient(BROKER_URL, clientID);
-			myClient.connect(connOpt);
-			this._debug("Publisher Connected to " + BROKER_URL);
+			SmartCar_MqttBus mqttBus = new SmartCar_MqttBus(SmartCar_Endpoints.getBrokerURL(), clientID, 30);
+			mqttBus.connect();
+			this.bus = mqttBus;
+			this._debug("Publisher Connected to " + mqttBus.getBrokerURL());
 		} catch (MqttException e) {
 			e.printStackTrace();
 			System.err.println("Error connecting publisher: " + e.getMessage());
@@ -52,13 +66,9 @@ public class SmartCar_TrafficPublisher {
 	 * Desconecta del broker MQTT
 	 */
 	public void disconnect() {
-		try {
-			if (myClient != null && myClient.isConnected()) {
-				myClient.disconnect();
-				this._debug("Publisher Disconnected");
-			}
-		} catch (MqttException e) {
-			e.printStackTrace();
+		if (!this.sharedBus && this.bus != null && this.bus.isConnected()) {
+			this.bus.disconnect();
+			this._debug("Publisher Disconnected");
 		}
 	}
 	
@@ -68,9 +78,30 @@ public class SmartCar_TrafficPublisher {
 	 * @param position Posición kilométrica en el segmento
 	 */
 	public void publishVehicleIn(String roadSegment, int position) {
+		this.lastSegment = roadSegment;
+		this.lastPosition = position;
+		this.lastReportMillis = this.smartcar.currentTimeMillis();
 		publishTrafficEvent(roadSegment, "VEHICLE_IN", position);
 	}
 	
+	/**
+	 * Publica VEHICLE_IN con la nueva posición del vehículo en el segmento en el que ya estaba, sólo si
+	 * lo requiere la política de su rol (SmartCar_ReportingPolicy): se ha desplazado lo suficiente o lleva
+	 * demasiado tiempo sin publicar. En otro segmento se publica siempre.
+	 * @return true si se ha publicado
+	 */
+	public boolean reportPosition(String roadSegment, int position) {
+		if (roadSegment.equals(this.lastSegment)) {
+			SmartCar_ReportingPolicy policy = SmartCar_ReportingPolicy.forRole(this.smartcar.getVehicleRole());
+			if (!policy.shouldReport(this.lastPosition, this.lastReportMillis, position, this.smartcar.currentTimeMillis())) {
+				SmartCar_ReportingPolicy.countSuppressed();
+				return false;
+			}
+		}
+		this.publishVehicleIn(roadSegment, position);
+		return true;
+	}
+	
 	/**
 	 * Publica un mensaje VEHICLE_OUT cuando el vehículo sale de un segmento de carretera
 	 * @param roadSegment ID del segmento de carretera (ej: "R5s1")
@@ -82,6 +113,7 @@ public class SmartCar_TrafficPublisher {
 	
 	/**
 	 * Publica un evento de tráfico (VEHICLE_IN o VEHICLE_OUT) en el formato del proyecto práctico
+	 * (o en binario si se configura para los topics traffic, ver SmartCar_MessageCodec)
 	 * Formato según documento:
 	 * {
 	 *   "msg": {
@@ -101,14 +133,14 @@ public class SmartCar_TrafficPublisher {
 	 * @param position Posición kilométrica en el segmento
 	 */
 	private void publishTrafficEvent(String roadSegment, String action, int position) {
-		if (myClient == null || !myClient.isConnected()) {
+		if (this.bus == null || !this.bus.isConnected()) {
 			this._debug("Publisher not connected. Cannot publish.");
 			return;
 		}
 		
 		try {
-			// Construir el topic: es/upv/pros/tatami/smartcities/traffic/PTPaterna/road/{roadSegment}/traffic
-			String topic = TOPIC_ROOT + "/road/" + roadSegment + "/traffic";
+			// Topic precalculado: es/upv/pros/tatami/smartcities/traffic/PTPaterna/road/{roadSegment}/traffic
+			String topic = SmartCar_Topics.traffic(roadSegment);
 			
 			// Obtener el vehicle-role del SmartCar (por defecto "PrivateUsage")
 			String vehicleRole = this.smartcar.getVehicleRole();
@@ -116,32 +148,23 @@ public class SmartCar_TrafficPublisher {
 				vehicleRole = "PrivateUsage";
 			}
 			
-			// Construir el payload JSON según el formato del proyecto
-			long timestamp = System.currentTimeMillis();
-			String messageId = "MSG_" + timestamp;
-			
-			JSONObject msg = new JSONObject();
-			msg.put("action", action);
-			msg.put("vehicle-role", vehicleRole);
-			msg.put("vehicle-id", this.smartcar.getSmartCarID());
-			msg.put("road-segment", roadSegment);
-			msg.put("position", position);
-			
-			JSONObject payload = new JSONObject();
-			payload.put("msg", msg);
-			payload.put("id", messageId);
-			payload.put("type", "TRAFFIC");
-			payload.put("timestamp", timestamp);
+			long timestamp = this.smartcar.currentTimeMillis();
 			
-			// Crear el mensaje MQTT
-			MqttMessage message = new MqttMessage(payload.toString().getBytes());
-			message.setQos(0);
-			message.setRetained(false);
-			
-			// Publicar
-			myClient.publish(topic, message);
-			
-			this._debug("Published to " + topic + ": " + payload.toString());
+			// Codificar sobre un buffer reutilizable, en JSON o en binario según el topic
+			// (SmartCar_MessageCodec; se publica en cada paso de simulación: no crear objetos)
+			SmartCar_MessageCodec codec = SmartCar_MessageCodec.forTopic(topic);
+			synchronized (this.payload) {
+				SmartCar_Message m = this.message.traffic(timestamp, action, vehicleRole, this.smartcar.getSmartCarID(), roadSegment, position);
+				SmartCar_PayloadBuffer p = this.payload.reset();
+				codec.encode(m, p);
+				
+				// Publicar (QoS 0, sin retención)
+				this.bus.publish(topic, p.array(), p.length(), 0);
+				
+				if (MySimpleLogger.isDebugEnabled()) {
+					this._debug("Published to " + topic + " (" + codec + "): " + m);
+				}
+			}
 			
 		} catch (Exception e) {
 			e.printStackTrace();
@@ -0,0 +1,231 @@
+package smartcar.impl;
+
+import java.io.IOException;
+
+import ina.vehicle.navigation.components.ContractionHierarchy;
+import ina.vehicle.navigation.components.IncrementalRoutePlanner;
+import ina.vehicle.navigation.components.RoadNetwork;
+import ina.vehicle.navigation.components.RouteCache;
+import ina.vehicle.navigation.components.RoutePlan;
+import ina.vehicle.navigation.interfaces.IRoadPoint;
+import ina.vehicle.navigation.interfaces.IRoute;
+import ina.vehicle.navigation.types.ERoadStatus;
+
+/**
+ * Estado del tráfico para el cálculo de rutas, compartido por todos los SmartCar de la JVM.
+ *
+ *  - Los mensajes ROAD_STATUS y ACCIDENT que recibe cualquier vehículo actualizan el peso del
+ *    segmento en el planificador (un mismo mensaje recibido por toda la flota sólo cuenta una vez:
+ *    si el peso no cambia no se repara nada).
+ *  - Cuando un segmento se degrada (Collapsed, No_Manouvers, cerrado o con un accidente abierto) se
+ *    anota en un registro de degradaciones. En cada paso, cada vehículo comprueba con una lectura si hay
+ *    degradaciones nuevas y, sólo si alguna afecta a lo que le queda de ruta, pide una nueva ruta
+ *    (reroute), que se obtiene del árbol de caminos mínimos del destino sin lanzar una búsqueda completa.
+ *    Así reaccionan también los vehículos que no están suscritos al segmento afectado.
+ *
+ * Las rutas nuevas entre dos puntos (planRoute) se sirven desde una RouteCache sobre el mismo planificador,
+ * que descarta sólo las rutas afectadas cuando cambia el peso de un segmento.
+ *
+ * Sin planificador (no se ha cargado la red) la replanificación está desactivada.
+ * Si se define -Dsmartcar.roads.file=<fichero> (y opcionalmente -Dsmartcar.connections.file y
+ * -Dsmartcar.route.index), la red se carga al crear la instancia.
+ */
+public class SmartCar_TrafficRouter {
+
+	private static SmartCar_TrafficRouter instance = null;
+
+	static final int LOG_SIZE = 1024; // Degradaciones recientes que se conservan
+
+	private volatile IncrementalRoutePlanner planner = null;
+	private volatile RouteCache routeCache = null;
+
+	// Registro circular de segmentos degradados: degradedLog[i % LOG_SIZE] para i < degradedCount
+	private final String[] degradedLog = new String[LOG_SIZE];
+	private volatile long degradedCount = 0;
+
+	public static synchronized SmartCar_TrafficRouter getInstance() {
+		if (instance == null) {
+			instance = new SmartCar_TrafficRouter();
+			String roadsFile = System.getProperty("smartcar.roads.file");
+			if (roadsFile != null) {
+				try {
+					RoadNetwork network = RoadNetwork.load(roadsFile);
+					String connectionsFile = System.getProperty("smartcar.connections.file");
+					IncrementalRoutePlanner planner = (connectionsFile != null)
+							? new IncrementalRoutePlanner(network, connectionsFile)
+							: new IncrementalRoutePlanner(network);
+					String indexFile = System.getProperty("smartcar.route.index");
+					if (indexFile != null) {
+						planner.setHierarchy(ContractionHierarchy.open(planner, indexFile));
+					}
+					instance.setPlanner(planner);
+				} catch (IOException e) {
+					instance._debug("Cannot load road network " + roadsFile + ": " + e.getMessage());
+				}
+			}
+		}
+		return instance;
+	}
+
+	protected void _debug(String message) {
+		System.out.println("(TrafficRouter) " + message);
+	}
+
+	public IncrementalRoutePlanner getPlanner() {
+		return this.planner;
+	}
+
+	public synchronized void setPlanner(IncrementalRoutePlanner planner) {
+		RouteCache previous = this.routeCache;
+		if (previous != null) {
+			previous.getPlanner().removeWeightListener(previous);
+		}
+		this.routeCache = (planner != null) ? new RouteCache(planner) : null;
+		this.planner = planner;
+	}
+
+	/**
+	 * Caché de rutas sobre el planificador actual (null si no hay planificador)
+	 */
+	public RouteCache getRouteCache() {
+		return this.routeCache;
+	}
+
+	public boolean isEnabled() {
+		return this.planner != null;
+	}
+
+	/**
+	 * Aplica un mensaje ROAD_STATUS
+	 * @param currentMaxSpeed velocidad máxima actual del segmento (<= 0 si no se conoce)
+	 * @return true si el segmento se ha degradado (los vehículos que lo tienen por delante replanificarán)
+	 */
+	public boolean onRoadStatus(String segment, String status, int currentMaxSpeed) {
+		IncrementalRoutePlanner p = this.planner;
+		if (p == null || !this.isKnown(p, segment)) {
+			return false;
+		}
+		if (currentMaxSpeed > 0) {
+			p.setSegmentSpeed(segment, currentMaxSpeed);
+		}
+		ERoadStatus st = ERoadStatus.get(status);
+		if (st == null) {
+			return false;
+		}
+		// El mismo mensaje recibido por varios vehículos sólo cambia el peso la primera vez
+		if (p.setSegmentStatus(segment, st) && IncrementalRoutePlanner.requiresRerouting(st)) {
+			this.degraded(segment);
+			return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Aplica un mensaje ACCIDENT (event OPEN o CLOSE)
+	 * @return true si el segmento se ha degradado (los vehículos que lo tienen por delante replanificarán)
+	 */
+	public boolean onAccident(String accidentId, String segment, String event) {
+		IncrementalRoutePlanner p = this.planner;
+		if (p == null) {
+			return false;
+		}
+		if ("OPEN".equalsIgnoreCase(event)) {
+			if (!this.isKnown(p, segment)) {
+				return false;
+			}
+			if (p.openAccident(accidentId, segment)) {
+				this.degraded(segment);
+				return true;
+			}
+			return false;
+		}
+		if ("CLOSE".equalsIgnoreCase(event)) {
+			p.closeAccident(accidentId);
+		}
+		return false;
+	}
+
+	private synchronized void degraded(String segment) {
+		this.degradedLog[(int) (this.degradedCount % LOG_SIZE)] = segment;
+		this.degradedCount++;
+	}
+
+	/**
+	 * Número de degradaciones registradas (los vehículos lo comparan con el último valor que vieron)
+	 */
+	public long getDegradationCount() {
+		return this.degradedCount;
+	}
+
+	/**
+	 * Indica si alguna degradación posterior a 'since' afecta a la ruta
+	 */
+	public boolean isRouteAffected(IRoute route, long since) {
+		long count = this.degradedCount;
+		if (count - since > LOG_SIZE) {
+			return true; // Demasiadas degradaciones desde la última comprobación: replanificar por si acaso
+		}
+		for (long i = since; i < count; i++) {
+			if (IncrementalRoutePlanner.routeContains(route, this.degradedLog[(int) (i % LOG_SIZE)])) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Nueva ruta desde la posición actual hasta el destino con los pesos actuales.
+	 * La ruta se comparte (RoutePlan) con el resto de vehículos que replanifican desde el mismo punto.
+	 * @return la nueva ruta, o null si no hay planificador, no hay ruta o coincide con la actual
+	 */
+	public IRoute reroute(IRoadPoint position, IRoadPoint destination, IRoute current) {
+		IncrementalRoutePlanner p = this.planner;
+		if (p == null || position == null || destination == null) {
+			return null;
+		}
+		IRoute route;
+		try {
+			route = p.replanRoute(position, destination);
+		} catch (IllegalArgumentException e) {
+			return null; // Posición o destino fuera de la red conocida
+		}
+		if (route == null || sameRoute(route, current)) {
+			return null;
+		}
+		return RoutePlan.of(route).newCursor(); // Ruta propia del vehículo: no se interna
+	}
+
+	/**
+	 * Ruta más rápida entre dos puntos con los pesos actuales, compartida (RoutePlan) con el resto de
+	 * vehículos que piden el mismo origen y destino
+	 * @return la ruta, o null si no hay planificador o no hay ruta
+	 */
+	public IRoute planRoute(IRoadPoint origin, IRoadPoint destination) {
+		RouteCache cache = this.routeCache;
+		if (cache == null || origin == null || destination == null) {
+			return null;
+		}
+		return cache.planRoute(origin, destination);
+	}
+
+	/**
+	 * Compara el recorrido de dos rutas (segmentos y puntos de salida de cada fragmento)
+	 */
+	static boolean sameRoute(IRoute a, IRoute b) {
+		if (b == null || a.size() != b.size()) {
+			return false;
+		}
+		for (int i = 0; i < a.size(); i++) {
+			IRoadPoint ea = a.get(i).getEndPoint();
+			IRoadPoint eb = b.get(i).getEndPoint();
+			if (ea.getPosition() != eb.getPosition() || !ea.getRoadSegment().equals(eb.getRoadSegment())) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private boolean isKnown(IncrementalRoutePlanner p, String segment) {
+		return segment != null && p.getNetwork().getSegmentId(segment) != RoadNetwork.NO_ID;
+	}
+}
@@ -7,13 +7,19 @@ public class SpeedLimitSignal {
 	private int value; // Velocidad máxima en km/h
 	private int positionStart; // Posición inicial donde aplica
 	private int positionEnd; // Posición final donde aplica
-	private long validity; // Validez en milisegundos
+	private long validity; // Validez en milisegundos (< 0: sin caducidad)
+	private long receivedAt; // Instante de recepción (ms)
 	
 	public SpeedLimitSignal(int value, int positionStart, int positionEnd, long validity) {
+		this(value, positionStart, positionEnd, validity, System.currentTimeMillis());
+	}
+	
+	public SpeedLimitSignal(int value, int positionStart, int positionEnd, long validity, long receivedAt) {
 		this.value = value;
 		this.positionStart = positionStart;
 		this.positionEnd = positionEnd;
 		this.validity = validity;
+		this.receivedAt = receivedAt;
 	}
 	
 	public int getValue() {
@@ -32,6 +38,31 @@ public class SpeedLimitSignal {
 		return validity;
 	}
 	
+	public long getReceivedAt() {
+		return receivedAt;
+	}
+	
+	/**
+	 * Instante en que caduca la señal (Long.MAX_VALUE si no caduca)
+	 */
+	public long getExpiresAt() {
+		if (validity < 0 || validity > Long.MAX_VALUE - receivedAt) {
+			return Long.MAX_VALUE;
+		}
+		return receivedAt + validity;
+	}
+	
+	public boolean isExpired(long now) {
+		return now >= getExpiresAt();
+	}
+	
+	/**
+	 * Mensaje de eliminación de RoadManager (value 0, validity 0)
+	 */
+	public boolean isRemoval() {
+		return value <= 0 || validity == 0;
+	}
+	
 	/**
 	 * Verifica si esta señal afecta a la posición dada
 	 */
@@ -41,7 +72,7 @@ public class SpeedLimitSignal {
 	
 	@Override
 	public String toString() {
-		return "SpeedLimitSignal{value=" + value + " km/h, range=[" + positionStart + "-" + positionEnd + "]}";
+		return "SpeedLimitSignal{value=" + value + " km/h, range=[" + positionStart + "-" + positionEnd + "], validity=" + validity + "}";
 	}
 }
 
@@ -0,0 +1,42 @@
+package smartcar.interfaces;
+
+import java.util.Arrays;
+
+import org.eclipse.paho.client.mqttv3.MqttCallback;
+
+/**
+ * Canal de mensajería usado por los componentes del SmartCar.
+ *
+ * Permite que varios vehículos compartan una misma conexión con el broker:
+ * cada componente registra su callback para los topics que le interesan y
+ * el bus se encarga de encaminar los mensajes entrantes al callback correcto.
+ */
+public interface IMessageBus {
+
+	/**
+	 * Registra un callback para un topic (admite wildcards + y #).
+	 * La suscripción física al broker sólo se realiza con el primer callback del topic.
+	 */
+	public void subscribe(String topic, MqttCallback handler);
+
+	/**
+	 * Elimina el callback de un topic.
+	 * La desuscripción física sólo se realiza cuando no quedan callbacks para el topic.
+	 */
+	public void unsubscribe(String topic, MqttCallback handler);
+
+	public void publish(String topic, byte[] payload, int qos);
+
+	/**
+	 * Publica los primeros 'length' bytes de un buffer reutilizable.
+	 * El buffer puede reutilizarse en cuanto el método retorna.
+	 */
+	public default void publish(String topic, byte[] payload, int length, int qos) {
+		this.publish(topic, Arrays.copyOf(payload, length), qos);
+	}
+
+	public boolean isConnected();
+
+	public void disconnect();
+
+}
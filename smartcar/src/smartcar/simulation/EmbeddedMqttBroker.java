@@ -0,0 +1,815 @@
+package smartcar.simulation;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.net.SocketTimeoutException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.eclipse.paho.client.mqttv3.MqttCallback;
+import org.eclipse.paho.client.mqttv3.MqttMessage;
+
+import smartcar.impl.SmartCar_MqttBus;
+import smartcar.interfaces.IMessageBus;
+
+/**
+ * Broker MQTT 3.1.1 (y 3.1) mínimo para pruebas de carga sin el broker de la universidad.
+ *
+ *  - Sesiones limpias: al desconectar se olvidan las suscripciones y los mensajes pendientes
+ *    (cleanSession=false se acepta pero se trata igual).
+ *  - QoS 0 y 1 hacia los suscriptores (una suscripción QoS 2 se concede como QoS 1). Las publicaciones
+ *    QoS 1 y 2 de los clientes se confirman (PUBACK / PUBREC-PUBREL-PUBCOMP) y se entregan una sola vez.
+ *  - Mensajes retenidos, last will y keepalive (se cierra la conexión tras 1,5 x keepalive sin paquetes).
+ *  - Sin autenticación: usuario y contraseña se ignoran.
+ *
+ * Cada conexión tiene un hilo lector y un hilo escritor con su cola de salida: el escritor vacía la cola
+ * entera antes de hacer flush, de modo que un suscriptor con mucho tráfico recibe los mensajes en ráfagas.
+ * Los mensajes QoS 0 se descartan si la cola de un cliente lento está llena (MAX_QUEUED); los QoS 1
+ * esperan a que haya sitio mientras la sesión siga abierta, y se descartan (y cuentan) si se cierra.
+ * Un PUBLISH QoS 0 se codifica una sola vez para todos sus suscriptores.
+ *
+ * El broker es también un IMessageBus: los componentes de la misma JVM (SmartCar_TrafficAuthority,
+ * SimulatorStepPublisher) se suscriben y publican sin pasar por un socket.
+ */
+public class EmbeddedMqttBroker implements IMessageBus {
+
+	public static final int DEFAULT_PORT = 1883;
+	static final int MAX_PACKET_SIZE = 16 * 1024 * 1024;
+	static final int MAX_QUEUED = 10_000; // Paquetes en la cola de salida de cada cliente
+	static final long ENQUEUE_WAIT_MS = 100; // Espera máxima entre comprobaciones de cierre al encolar QoS 1
+
+	// Tipos de paquete (4 bits altos de la cabecera fija)
+	static final int CONNECT = 1;
+	static final int CONNACK = 2;
+	static final int PUBLISH = 3;
+	static final int PUBACK = 4;
+	static final int PUBREC = 5;
+	static final int PUBREL = 6;
+	static final int PUBCOMP = 7;
+	static final int SUBSCRIBE = 8;
+	static final int SUBACK = 9;
+	static final int UNSUBSCRIBE = 10;
+	static final int UNSUBACK = 11;
+	static final int PINGREQ = 12;
+	static final int PINGRESP = 13;
+	static final int DISCONNECT = 14;
+
+	private static final byte[] PINGRESP_PACKET = { (byte) (PINGRESP << 4), 0 };
+
+	private final int port;
+	private ServerSocket serverSocket = null;
+	private Thread acceptor = null;
+	private volatile boolean running = false;
+
+	private final Map<String, Session> sessions = new ConcurrentHashMap<>();
+	private final AtomicInteger anonymousCount = new AtomicInteger(0);
+
+	// Filtro de topic -> suscripciones (sesiones remotas o callbacks de la JVM)
+	private final Map<String, List<Subscription>> routes = new ConcurrentHashMap<>();
+	// Filtros con wildcards (+, #): se recorren aparte porque no admiten búsqueda directa
+	private final List<String> wildcardFilters = new CopyOnWriteArrayList<>();
+	private final Map<String, Retained> retained = new ConcurrentHashMap<>();
+
+	// Estadísticas
+	private final AtomicLong connections = new AtomicLong(0);
+	private final AtomicLong published = new AtomicLong(0);
+	private final AtomicLong delivered = new AtomicLong(0);
+	private final AtomicLong dropped = new AtomicLong(0);
+
+	/**
+	 * @param port puerto TCP (0: uno libre, ver getPort tras start)
+	 */
+	public EmbeddedMqttBroker(int port) {
+		this.port = port;
+	}
+
+	protected void _debug(String message) {
+		System.out.println("(Broker) " + message);
+	}
+
+	/**
+	 * Abre el puerto y empieza a aceptar conexiones
+	 */
+	public synchronized void start() throws IOException {
+		if (this.running) {
+			return;
+		}
+		ServerSocket ss = new ServerSocket();
+		ss.setReuseAddress(true);
+		ss.bind(new InetSocketAddress(this.port));
+		this.serverSocket = ss;
+		this.running = true;
+		this.acceptor = new Thread(this::acceptLoop, "mqtt-broker-acceptor");
+		this.acceptor.setDaemon(true);
+		this.acceptor.start();
+		this._debug("Listening on tcp://localhost:" + ss.getLocalPort());
+	}
+
+	/**
+	 * Cierra el puerto y todas las conexiones
+	 */
+	public synchronized void stop() {
+		if (!this.running) {
+			return;
+		}
+		this.running = false;
+		try {
+			this.serverSocket.close();
+		} catch (IOException e) {
+			// Ya cerrado
+		}
+		for (Session s : this.sessions.values()) {
+			s.close(false);
+		}
+	}
+
+	/**
+	 * Puerto en el que escucha (útil con el puerto 0)
+	 */
+	public int getPort() {
+		ServerSocket ss = this.serverSocket;
+		return (ss != null) ? ss.getLocalPort() : this.port;
+	}
+
+	/**
+	 * URL para los clientes Paho (tcp://localhost:puerto)
+	 */
+	public String getURL() {
+		return "tcp://localhost:" + this.getPort();
+	}
+
+	private void acceptLoop() {
+		while (this.running) {
+			try {
+				Socket socket = this.serverSocket.accept();
+				socket.setTcpNoDelay(true);
+				Session session = new Session(socket);
+				Thread reader = new Thread(session::readLoop, "mqtt-broker-conn-" + this.connections.incrementAndGet());
+				reader.setDaemon(true);
+				reader.start();
+			} catch (IOException e) {
+				if (this.running) {
+					this._debug("Accept failed: " + e.getMessage());
+				}
+			}
+		}
+	}
+
+	// ------------------------------------------------------------------
+	// IMessageBus: componentes de la misma JVM
+	// ------------------------------------------------------------------
+
+	@Override
+	public void subscribe(String topic, MqttCallback handler) {
+		LocalSubscriber local = new LocalSubscriber(handler);
+		this.addSubscription(topic, new Subscription(local, 1));
+		this.sendRetained(topic, local, 1);
+	}
+
+	@Override
+	public void unsubscribe(String topic, MqttCallback handler) {
+		this.removeSubscription(topic, new LocalSubscriber(handler));
+	}
+
+	@Override
+	public void publish(String topic, byte[] payload, int qos) {
+		this.route(topic, payload, 0, payload.length, Math.min(qos, 1), false);
+	}
+
+	@Override
+	public void publish(String topic, byte[] payload, int length, int qos) {
+		this.route(topic, payload, 0, length, Math.min(qos, 1), false);
+	}
+
+	@Override
+	public boolean isConnected() {
+		return this.running;
+	}
+
+	@Override
+	public void disconnect() {
+		this.stop();
+	}
+
+	// ------------------------------------------------------------------
+	// Encaminamiento
+	// ------------------------------------------------------------------
+
+	private synchronized void addSubscription(String filter, Subscription sub) {
+		List<Subscription> subs = this.routes.get(filter);
+		if (subs == null) {
+			subs = new CopyOnWriteArrayList<>();
+			this.routes.put(filter, subs);
+			if (filter.indexOf('+') >= 0 || filter.indexOf('#') >= 0) {
+				this.wildcardFilters.add(filter);
+			}
+		}
+		// Una nueva suscripción de un cliente al mismo filtro sustituye a la anterior
+		for (Subscription s : subs) {
+			if (s.target.equals(sub.target)) {
+				subs.remove(s);
+			}
+		}
+		subs.add(sub);
+	}
+
+	private synchronized void removeSubscription(String filter, Subscriber target) {
+		List<Subscription> subs = this.routes.get(filter);
+		if (subs == null) {
+			return;
+		}
+		for (Subscription s : subs) {
+			if (s.target.equals(target)) {
+				subs.remove(s);
+			}
+		}
+		if (subs.isEmpty()) {
+			this.routes.remove(filter);
+			this.wildcardFilters.remove(filter);
+		}
+	}
+
+	/**
+	 * Entrega un mensaje a todas las suscripciones cuyo filtro coincide con el topic
+	 */
+	private void route(String topic, byte[] payload, int offset, int length, int qos, boolean retain) {
+		this.published.incrementAndGet();
+		if (retain) {
+			if (length == 0) {
+				this.retained.remove(topic);
+			} else {
+				byte[] copy = new byte[length];
+				System.arraycopy(payload, offset, copy, 0, length);
+				this.retained.put(topic, new Retained(copy, qos));
+			}
+		}
+		Delivery d = new Delivery(topic, payload, offset, length, qos);
+		List<Subscription> exact = this.routes.get(topic);
+		if (exact != null) {
+			for (Subscription s : exact) {
+				this.deliver(s, d);
+			}
+		}
+		for (String filter : this.wildcardFilters) {
+			if (SmartCar_MqttBus.topicMatches(filter, topic)) {
+				List<Subscription> subs = this.routes.get(filter);
+				if (subs != null) {
+					for (Subscription s : subs) {
+						this.deliver(s, d);
+					}
+				}
+			}
+		}
+	}
+
+	private void deliver(Subscription s, Delivery d) {
+		if (s.target.deliver(d, Math.min(d.qos, s.qos), false)) {
+			this.delivered.incrementAndGet();
+		} else {
+			this.dropped.incrementAndGet();
+		}
+	}
+
+	/**
+	 * Mensajes retenidos que coinciden con un filtro recién suscrito
+	 */
+	private void sendRetained(String filter, Subscriber target, int grantedQos) {
+		if (this.retained.isEmpty()) {
+			return;
+		}
+		boolean wildcard = filter.indexOf('+') >= 0 || filter.indexOf('#') >= 0;
+		for (Map.Entry<String, Retained> e : this.retained.entrySet()) {
+			if (wildcard ? SmartCar_MqttBus.topicMatches(filter, e.getKey()) : filter.equals(e.getKey())) {
+				Retained r = e.getValue();
+				Delivery d = new Delivery(e.getKey(), r.payload, 0, r.payload.length, r.qos);
+				target.deliver(d, Math.min(r.qos, grantedQos), true);
+			}
+		}
+	}
+
+	public int getConnectionCount() {
+		return this.sessions.size();
+	}
+
+	public long getPublishedCount() {
+		return this.published.get();
+	}
+
+	public long getDeliveredCount() {
+		return this.delivered.get();
+	}
+
+	public String getStats() {
+		return "clients=" + this.sessions.size()
+				+ " subscriptions=" + this.routes.size()
+				+ " retained=" + this.retained.size()
+				+ " published=" + this.published.get()
+				+ " delivered=" + this.delivered.get()
+				+ " dropped=" + this.dropped.get();
+	}
+
+	// ------------------------------------------------------------------
+	// Codificación
+	// ------------------------------------------------------------------
+
+	static byte[] encodePublish(Delivery d, int qos, int packetId, boolean retain) {
+		byte[] topic = d.topicBytes();
+		int remaining = 2 + topic.length + (qos > 0 ? 2 : 0) + d.length;
+		byte[] out = new byte[1 + remainingLengthSize(remaining) + remaining];
+		out[0] = (byte) ((PUBLISH << 4) | (qos << 1) | (retain ? 1 : 0));
+		int p = writeRemainingLength(out, 1, remaining);
+		out[p++] = (byte) (topic.length >> 8);
+		out[p++] = (byte) topic.length;
+		System.arraycopy(topic, 0, out, p, topic.length);
+		p += topic.length;
+		if (qos > 0) {
+			out[p++] = (byte) (packetId >> 8);
+			out[p++] = (byte) packetId;
+		}
+		System.arraycopy(d.payload, d.offset, out, p, d.length);
+		return out;
+	}
+
+	static byte[] encodeAck(int type, int flags, int packetId) {
+		return new byte[] { (byte) ((type << 4) | flags), 2, (byte) (packetId >> 8), (byte) packetId };
+	}
+
+	static int remainingLengthSize(int n) {
+		return (n < 128) ? 1 : (n < 16384) ? 2 : (n < 2097152) ? 3 : 4;
+	}
+
+	static int writeRemainingLength(byte[] out, int p, int n) {
+		do {
+			int b = n & 0x7F;
+			n >>>= 7;
+			out[p++] = (byte) ((n > 0) ? (b | 0x80) : b);
+		} while (n > 0);
+		return p;
+	}
+
+	static int readUnsignedShort(byte[] b, int p) {
+		return ((b[p] & 0xFF) << 8) | (b[p + 1] & 0xFF);
+	}
+
+	static String readString(byte[] b, int p) {
+		return new String(b, p + 2, readUnsignedShort(b, p), StandardCharsets.UTF_8);
+	}
+
+	// ------------------------------------------------------------------
+	// Tipos internos
+	// ------------------------------------------------------------------
+
+	/**
+	 * Mensaje en curso de entrega (el payload no se copia: cada destino lo copia o codifica)
+	 */
+	static final class Delivery {
+		final String topic;
+		final byte[] payload;
+		final int offset;
+		final int length;
+		final int qos;
+		private byte[] topicBytes = null;
+		private byte[] qos0Packet = null;
+		private MqttMessage localMessage = null;
+
+		Delivery(String topic, byte[] payload, int offset, int length, int qos) {
+			this.topic = topic;
+			this.payload = payload;
+			this.offset = offset;
+			this.length = length;
+			this.qos = qos;
+		}
+
+		byte[] topicBytes() {
+			if (this.topicBytes == null) {
+				this.topicBytes = this.topic.getBytes(StandardCharsets.UTF_8);
+			}
+			return this.topicBytes;
+		}
+
+		/**
+		 * PUBLISH QoS 0 sin retain: el mismo paquete vale para todos los suscriptores
+		 */
+		byte[] qos0Packet() {
+			if (this.qos0Packet == null) {
+				this.qos0Packet = encodePublish(this, 0, 0, false);
+			}
+			return this.qos0Packet;
+		}
+
+		/**
+		 * Mensaje para los callbacks de la JVM (una copia del payload compartida por todos)
+		 */
+		MqttMessage localMessage() {
+			if (this.localMessage == null) {
+				byte[] copy = new byte[this.length];
+				System.arraycopy(this.payload, this.offset, copy, 0, this.length);
+				MqttMessage m = new MqttMessage(copy);
+				m.setQos(this.qos);
+				this.localMessage = m;
+			}
+			return this.localMessage;
+		}
+	}
+
+	static final class Retained {
+		final byte[] payload;
+		final int qos;
+
+		Retained(byte[] payload, int qos) {
+			this.payload = payload;
+			this.qos = qos;
+		}
+	}
+
+	static final class Subscription {
+		final Subscriber target;
+		final int qos;
+
+		Subscription(Subscriber target, int qos) {
+			this.target = target;
+			this.qos = qos;
+		}
+	}
+
+	interface Subscriber {
+		/**
+		 * @return false si el mensaje se ha descartado
+		 */
+		boolean deliver(Delivery d, int qos, boolean retain);
+	}
+
+	/**
+	 * Callback de un componente de la misma JVM (se entrega en el hilo que publica)
+	 */
+	final class LocalSubscriber implements Subscriber {
+		final MqttCallback handler;
+
+		LocalSubscriber(MqttCallback handler) {
+			this.handler = handler;
+		}
+
+		@Override
+		public boolean deliver(Delivery d, int qos, boolean retain) {
+			try {
+				this.handler.messageArrived(d.topic, d.localMessage());
+			} catch (Exception e) {
+				_debug("Error delivering message from " + d.topic + ": " + e.getMessage());
+			}
+			return true;
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			return (o instanceof LocalSubscriber) && ((LocalSubscriber) o).handler == this.handler;
+		}
+
+		@Override
+		public int hashCode() {
+			return System.identityHashCode(this.handler);
+		}
+	}
+
+	/**
+	 * Conexión de un cliente MQTT
+	 */
+	final class Session implements Subscriber {
+
+		private final Socket socket;
+		private final BlockingQueue<byte[]> outbox = new LinkedBlockingQueue<>(MAX_QUEUED);
+		private final Set<String> filters = ConcurrentHashMap.newKeySet();
+		private final Set<Integer> awaitingRelease = ConcurrentHashMap.newKeySet(); // PUBLISH QoS 2 sin PUBREL
+		private final AtomicInteger nextPacketId = new AtomicInteger(0);
+
+		private String clientId = null;
+		private String willTopic = null;
+		private byte[] willPayload = null;
+		private int willQos = 0;
+		private boolean willRetain = false;
+		private volatile boolean closed = false;
+		private Thread writer = null;
+
+		Session(Socket socket) {
+			this.socket = socket;
+		}
+
+		void readLoop() {
+			boolean clean = false;
+			try {
+				DataInputStream in = new DataInputStream(new BufferedInputStream(this.socket.getInputStream()));
+				if (!this.handshake(in)) {
+					return;
+				}
+				while (!this.closed) {
+					int header = in.read();
+					if (header < 0) {
+						break;
+					}
+					byte[] body = readBody(in);
+					int type = header >>> 4;
+					if (type == DISCONNECT) {
+						clean = true;
+						break;
+					}
+					this.handle(type, header & 0x0F, body);
+				}
+			} catch (SocketTimeoutException e) {
+				_debug("Keepalive expired for " + this.clientId);
+			} catch (EOFException | SocketException e) {
+				// Conexión cerrada por el cliente
+			} catch (IOException | RuntimeException e) {
+				_debug("Closing " + this.clientId + ": " + e.getMessage());
+			} finally {
+				this.close(!clean);
+			}
+		}
+
+		/**
+		 * CONNECT / CONNACK
+		 */
+		private boolean handshake(DataInputStream in) throws IOException {
+			int header = in.read();
+			if (header < 0 || (header >>> 4) != CONNECT) {
+				return false;
+			}
+			byte[] b = readBody(in);
+			String protocol = readString(b, 0);
+			int p = 2 + readUnsignedShort(b, 0);
+			int level = b[p++] & 0xFF;
+			int flags = b[p++] & 0xFF;
+			int keepAlive = readUnsignedShort(b, p);
+			p += 2;
+			if (!(("MQTT".equals(protocol) && level == 4) || ("MQIsdp".equals(protocol) && level == 3))) {
+				this.send(new byte[] { (byte) (CONNACK << 4), 2, 0, 1 }); // Versión de protocolo no admitida
+				this.flushAndClose();
+				return false;
+			}
+			String id = readString(b, p);
+			p += 2 + readUnsignedShort(b, p);
+			if ((flags & 0x04) != 0) {
+				this.willTopic = readString(b, p);
+				p += 2 + readUnsignedShort(b, p);
+				int n = readUnsignedShort(b, p);
+				this.willPayload = new byte[n];
+				System.arraycopy(b, p + 2, this.willPayload, 0, n);
+				this.willQos = Math.min((flags >> 3) & 0x03, 1);
+				this.willRetain = (flags & 0x20) != 0;
+			}
+			if (id.isEmpty()) {
+				id = "anonymous-" + anonymousCount.incrementAndGet();
+			}
+			this.clientId = id;
+			if (keepAlive > 0) {
+				this.socket.setSoTimeout(keepAlive * 1500);
+			}
+
+			this.writer = new Thread(this::writeLoop, "mqtt-broker-out-" + id);
+			this.writer.setDaemon(true);
+			this.writer.start();
+
+			// Un cliente que se reconecta con el mismo id sustituye a la conexión anterior (que no se ha
+			// desconectado limpiamente: se publica su last will)
+			Session previous = sessions.put(id, this);
+			if (previous != null) {
+				previous.close(true);
+			}
+			this.send(new byte[] { (byte) (CONNACK << 4), 2, 0, 0 });
+			return true;
+		}
+
+		private void handle(int type, int flags, byte[] b) throws IOException {
+			switch (type) {
+				case PUBLISH: {
+					int qos = (flags >> 1) & 0x03;
+					String topic = readString(b, 0);
+					int p = 2 + readUnsignedShort(b, 0);
+					if (topic.indexOf('+') >= 0 || topic.indexOf('#') >= 0) {
+						throw new IOException("wildcard in PUBLISH topic " + topic);
+					}
+					int packetId = 0;
+					if (qos > 0) {
+						packetId = readUnsignedShort(b, p);
+						p += 2;
+					}
+					boolean retain = (flags & 0x01) != 0;
+					if (qos == 2) {
+						// Se entrega al recibirlo; un reenvío antes del PUBREL no se vuelve a entregar
+						if (this.awaitingRelease.add(packetId)) {
+							route(topic, b, p, b.length - p, 1, retain);
+						}
+						this.send(encodeAck(PUBREC, 0, packetId));
+					} else {
+						route(topic, b, p, b.length - p, qos, retain);
+						if (qos == 1) {
+							this.send(encodeAck(PUBACK, 0, packetId));
+						}
+					}
+					break;
+				}
+				case PUBREL: {
+					int packetId = readUnsignedShort(b, 0);
+					this.awaitingRelease.remove(packetId);
+					this.send(encodeAck(PUBCOMP, 0, packetId));
+					break;
+				}
+				case PUBACK:
+				case PUBREC:
+				case PUBCOMP:
+					// Las entregas QoS 1 no se reintentan (sesiones limpias sobre TCP): no hay nada que confirmar
+					break;
+				case SUBSCRIBE: {
+					int packetId = readUnsignedShort(b, 0);
+					List<String> topics = new ArrayList<>();
+					List<Integer> granted = new ArrayList<>();
+					int p = 2;
+					while (p < b.length) {
+						String filter = readString(b, p);
+						p += 2 + readUnsignedShort(b, p);
+						int qos = Math.min(b[p++] & 0x03, 1);
+						topics.add(filter);
+						granted.add(qos);
+					}
+					byte[] ack = new byte[4 + topics.size()];
+					ack[0] = (byte) (SUBACK << 4);
+					ack[1] = (byte) (2 + topics.size());
+					ack[2] = (byte) (packetId >> 8);
+					ack[3] = (byte) packetId;
+					for (int i = 0; i < topics.size(); i++) {
+						addSubscription(topics.get(i), new Subscription(this, granted.get(i)));
+						this.filters.add(topics.get(i));
+						ack[4 + i] = (byte) (int) granted.get(i);
+					}
+					this.send(ack);
+					for (int i = 0; i < topics.size(); i++) {
+						sendRetained(topics.get(i), this, granted.get(i));
+					}
+					break;
+				}
+				case UNSUBSCRIBE: {
+					int packetId = readUnsignedShort(b, 0);
+					int p = 2;
+					while (p < b.length) {
+						String filter = readString(b, p);
+						p += 2 + readUnsignedShort(b, p);
+						removeSubscription(filter, this);
+						this.filters.remove(filter);
+					}
+					this.send(encodeAck(UNSUBACK, 0, packetId));
+					break;
+				}
+				case PINGREQ:
+					this.send(PINGRESP_PACKET);
+					break;
+				default:
+					throw new IOException("unexpected packet type " + type);
+			}
+		}
+
+		@Override
+		public boolean deliver(Delivery d, int qos, boolean retain) {
+			if (this.closed) {
+				return false;
+			}
+			if (qos == 0) {
+				return this.outbox.offer(retain ? encodePublish(d, 0, 0, true) : d.qos0Packet());
+			}
+			int packetId = this.nextPacketId.updateAndGet(i -> (i >= 0xFFFF) ? 1 : i + 1);
+			try {
+				return this.enqueue(encodePublish(d, 1, packetId, retain));
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				return false;
+			}
+		}
+
+		private void send(byte[] packet) throws IOException {
+			try {
+				if (!this.enqueue(packet)) {
+					throw new IOException("session closed");
+				}
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new IOException("interrupted");
+			}
+		}
+
+		/**
+		 * Espera a que haya sitio en la cola de salida, comprobando cada ENQUEUE_WAIT_MS si la sesión se ha
+		 * cerrado: entonces nadie vaciará la cola y el paquete se descarta (devuelve false)
+		 */
+		private boolean enqueue(byte[] packet) throws InterruptedException {
+			while (!this.closed) {
+				if (this.outbox.offer(packet, ENQUEUE_WAIT_MS, TimeUnit.MILLISECONDS)) {
+					return true;
+				}
+			}
+			return false;
+		}
+
+		/**
+		 * Escribe la cola de salida: un flush por ráfaga de paquetes
+		 */
+		private void writeLoop() {
+			try {
+				OutputStream out = new BufferedOutputStream(this.socket.getOutputStream(), 16 * 1024);
+				while (!this.closed) {
+					byte[] packet = this.outbox.take();
+					do {
+						out.write(packet);
+					} while ((packet = this.outbox.poll()) != null);
+					out.flush();
+				}
+			} catch (InterruptedException e) {
+				// Cierre de la sesión
+			} catch (IOException e) {
+				this.close(true);
+			}
+		}
+
+		private void flushAndClose() throws IOException {
+			OutputStream out = this.socket.getOutputStream();
+			byte[] packet;
+			while ((packet = this.outbox.poll()) != null) {
+				out.write(packet);
+			}
+			out.flush();
+			this.socket.close();
+		}
+
+		void close(boolean publishWill) {
+			synchronized (this) {
+				if (this.closed) {
+					return;
+				}
+				this.closed = true;
+			}
+			for (String filter : this.filters) {
+				removeSubscription(filter, this);
+			}
+			if (this.clientId != null) {
+				sessions.remove(this.clientId, this);
+			}
+			if (this.writer != null) {
+				this.writer.interrupt();
+			}
+			this.outbox.clear(); // Libera lo que ya no se va a escribir
+			try {
+				this.socket.close();
+			} catch (IOException e) {
+				// Ya cerrado
+			}
+			if (publishWill && this.willTopic != null && running) {
+				route(this.willTopic, this.willPayload, 0, this.willPayload.length, this.willQos, this.willRetain);
+			}
+		}
+	}
+
+	private static byte[] readBody(InputStream in) throws IOException {
+		int length = 0;
+		int shift = 0;
+		int b;
+		do {
+			b = in.read();
+			if (b < 0) {
+				throw new EOFException();
+			}
+			length |= (b & 0x7F) << shift;
+			shift += 7;
+			if (shift > 21 && (b & 0x80) != 0) {
+				throw new IOException("malformed remaining length");
+			}
+		} while ((b & 0x80) != 0);
+		if (length > MAX_PACKET_SIZE) {
+			throw new IOException("packet too large (" + length + " bytes)");
+		}
+		byte[] body = new byte[length];
+		int read = 0;
+		while (read < length) {
+			int n = in.read(body, read, length - read);
+			if (n < 0) {
+				throw new EOFException();
+			}
+			read += n;
+		}
+		return body;
+	}
+}
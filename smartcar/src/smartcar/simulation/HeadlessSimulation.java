@@ -0,0 +1,506 @@
+package smartcar.simulation;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+import ina.vehicle.navigation.components.ContractionHierarchy;
+import ina.vehicle.navigation.components.FleetNavigator;
+import ina.vehicle.navigation.components.IncrementalRoutePlanner;
+import ina.vehicle.navigation.components.RoadNetwork;
+import ina.vehicle.navigation.components.RouteCache;
+import ina.vehicle.navigation.components.RoutePlan;
+import ina.vehicle.navigation.interfaces.IRoute;
+import smartcar.impl.SmartCar;
+import smartcar.impl.SmartCar_FleetSnapshotPublisher;
+import smartcar.impl.SmartCar_ReportingPolicy;
+import smartcar.impl.SmartCar_SegmentCache;
+import smartcar.impl.SmartCar_SegmentCache.SegmentInfo;
+import smartcar.impl.SmartCar_TrafficAuthority;
+import smartcar.impl.SmartCar_TrafficRouter;
+import smartcar.starter.SmartCarStarter_Test;
+
+/**
+ * Simulación headless acelerada: ejecuta una flota de SmartCar sin broker MQTT ni simulador externo.
+ *
+ *  - Los pasos los genera un reloj virtual interno (VirtualClock) con duración configurable,
+ *    en lugar de esperar al topic 'step' del simulador.
+ *  - Los componentes MQTT de cada vehículo usan un InMemoryMessageBus compartido.
+ *  - Los metadatos de los segmentos se precargan desde un fichero roads.json (sin REST).
+ *  - Los vehículos salen según el horario de cada grupo (salida + intervalo) y se retiran al llegar.
+ *  - Todos los vehículos se mueven en un único FleetNavigator: en cada paso cada vehículo calcula su
+ *    velocidad (y replanifica si hace falta), la flota los mueve a la vez y después cada vehículo
+ *    publica sus eventos de tráfico.
+ *
+ * Con aceleración 0 la simulación avanza tan rápido como permite la CPU: un día completo de tráfico
+ * sobre roads_example.json se resuelve en minutos. Al final se informa de la ocupación máxima de cada
+ * segmento respecto a su capacidad.
+ *
+ * Con enableTrafficAuthority una SmartCar_TrafficAuthority cuenta los eventos de tráfico de los vehículos
+ * y publica ROAD_STATUS en el bus, como haría el simulador. Con enableFleetSnapshots se publica tras cada
+ * paso una instantánea binaria de todos los vehículos en ruta (SmartCar_FleetSnapshot).
+ */
+public class HeadlessSimulation {
+
+	private final long stepMillis;
+	private final VirtualClock clock;
+	private final InMemoryMessageBus bus = new InMemoryMessageBus();
+	private final SmartCar_SegmentCache segmentCache = SmartCar_SegmentCache.getInstance();
+	private final FleetNavigator fleet = new FleetNavigator("Headless-fleet");
+	private RoadNetwork network = null;
+	private IncrementalRoutePlanner planner = null;
+	private SmartCar_TrafficAuthority authority = null;
+	private SmartCar_FleetSnapshotPublisher snapshots = null;
+
+	// Salidas pendientes ordenadas por instante (ms desde el inicio)
+	private final PriorityQueue<Departure> departures = new PriorityQueue<>(Comparator.comparingLong(d -> d.atMillis));
+	private final List<Vehicle> active = new ArrayList<>();
+	private final ConcurrentLinkedQueue<Vehicle> arrived = new ConcurrentLinkedQueue<>();
+
+	// Ocupación por segmento
+	private final Map<String, int[]> occupancy = new HashMap<>();
+	private final Map<String, Integer> peakOccupancy = new HashMap<>();
+	private final Map<String, Long> peakAtMillis = new HashMap<>();
+
+	private boolean quiet = true;
+	private long reportEveryMillis = 3_600_000L;
+	private PrintStream out = System.out;
+
+	// Estadísticas
+	private long steps = 0;
+	private int departed = 0;
+	private int completed = 0;
+	private int failedDepartures = 0;
+	private long totalTripMillis = 0;
+	private int maxActive = 0;
+
+	/**
+	 * @param stepMillis duración de cada paso simulado (ms)
+	 * @param speedup factor de aceleración respecto al tiempo real (0: tan rápido como sea posible)
+	 */
+	public HeadlessSimulation(long stepMillis, double speedup) {
+		this.stepMillis = stepMillis;
+		this.clock = new VirtualClock(System.currentTimeMillis(), speedup);
+		this.segmentCache.setRemoteEnabled(false);
+	}
+
+	protected void _debug(String message) {
+		this.out.println("(Headless) " + message);
+	}
+
+	public VirtualClock getClock() {
+		return this.clock;
+	}
+
+	public InMemoryMessageBus getBus() {
+		return this.bus;
+	}
+
+	/**
+	 * Flota en la que se mueven los vehículos de la simulación
+	 */
+	public FleetNavigator getFleet() {
+		return this.fleet;
+	}
+
+	/**
+	 * Si está activo (por defecto) se silencia la salida de los vehículos durante la simulación
+	 */
+	public void setQuiet(boolean quiet) {
+		this.quiet = quiet;
+	}
+
+	public void setReportEveryMillis(long reportEveryMillis) {
+		this.reportEveryMillis = reportEveryMillis;
+	}
+
+	/**
+	 * Carga la red (segmentos con velocidad máxima y capacidad) desde un fichero roads.json
+	 */
+	public int loadRoads(String fichero) throws IOException {
+		this.network = RoadNetwork.load(fichero);
+		this._debug("Loaded " + this.network);
+		this.getPlanner();
+		return this.segmentCache.preload(this.network);
+	}
+
+	/**
+	 * Red cargada con loadRoads (null si no se ha cargado)
+	 */
+	public RoadNetwork getNetwork() {
+		return this.network;
+	}
+
+	/**
+	 * Carga las conexiones entre segmentos para el planificador de rutas (después de loadRoads)
+	 */
+	public void loadConnections(String fichero) throws IOException {
+		this.setPlanner(new IncrementalRoutePlanner(this.network, fichero));
+		this._debug("Loaded " + this.planner);
+	}
+
+	/**
+	 * Usa el índice de rutas precalculado (SmartCarStarter_RouteIndex) en el planificador, después de
+	 * loadRoads y loadConnections
+	 */
+	public void loadRouteIndex(String fichero) throws IOException {
+		IncrementalRoutePlanner p = this.getPlanner();
+		if (p == null) {
+			throw new IllegalStateException("Roads must be loaded before the route index");
+		}
+		ContractionHierarchy index = ContractionHierarchy.open(p, fichero);
+		p.setHierarchy(index);
+		this._debug("Loaded " + index);
+	}
+
+	/**
+	 * Activa la autoridad de tráfico local sobre el bus de la simulación (después de loadRoads)
+	 * @param publishOnStep además de los cambios de estado, publicar en cada paso los segmentos con cambios
+	 */
+	public SmartCar_TrafficAuthority enableTrafficAuthority(boolean publishOnStep) {
+		if (this.network == null) {
+			throw new IllegalStateException("Roads must be loaded before the traffic authority");
+		}
+		if (this.authority == null) {
+			this.authority = new SmartCar_TrafficAuthority(this.network, this.bus);
+			this.authority.setClock(this.clock);
+			this.authority.setPublishOnStep(publishOnStep);
+			this.authority.start(false); // Los pasos los da el motor (onStep)
+		}
+		return this.authority;
+	}
+
+	/**
+	 * Publica tras cada paso una instantánea de los vehículos en ruta en SmartCar_Topics.FLEET_SNAPSHOT
+	 */
+	public SmartCar_FleetSnapshotPublisher enableFleetSnapshots() {
+		if (this.snapshots == null) {
+			this.snapshots = new SmartCar_FleetSnapshotPublisher("Headless", this.bus, () -> {
+				List<SmartCar> cars = new ArrayList<>(this.active.size());
+				for (Vehicle v : this.active) {
+					cars.add(v.car);
+				}
+				return cars;
+			});
+			this.snapshots.setClock(this.clock);
+		}
+		return this.snapshots;
+	}
+
+	/**
+	 * Autoridad de tráfico local (null si no se ha activado)
+	 */
+	public SmartCar_TrafficAuthority getTrafficAuthority() {
+		return this.authority;
+	}
+
+	/**
+	 * Planificador de rutas sobre la red cargada (sólo con las conexiones de cada carretera si no se ha
+	 * llamado a loadConnections)
+	 */
+	public IncrementalRoutePlanner getPlanner() {
+		if (this.planner == null && this.network != null) {
+			this.setPlanner(new IncrementalRoutePlanner(this.network));
+		}
+		return this.planner;
+	}
+
+	/**
+	 * El planificador se comparte con los vehículos para replanificar ante ROAD_STATUS / ACCIDENT
+	 */
+	private void setPlanner(IncrementalRoutePlanner planner) {
+		this.planner = planner;
+		SmartCar_TrafficRouter.getInstance().setPlanner(planner);
+	}
+
+	/**
+	 * Programa la salida de 'cantidad' vehículos de un tipo con la misma ruta
+	 * @param tipo normal, police o ambulance
+	 * @param id identificador (o prefijo si cantidad > 0)
+	 * @param cruiserSpeed velocidad de crucero (km/h)
+	 * @param ruta ruta en formato 'segmento:inicio:fin,...', o 'segmento:punto>segmento:punto' para que la calcule el planificador
+	 * @param cantidad número de vehículos (0: uno solo con el id tal cual)
+	 * @param salidaMillis instante de salida del primero (ms desde el inicio de la simulación)
+	 * @param intervaloMillis separación entre salidas consecutivas (ms)
+	 */
+	public void schedule(String tipo, String id, int cruiserSpeed, String ruta, int cantidad, long salidaMillis, long intervaloMillis) {
+		// El plan de ruta se comparte entre todos los vehículos que la siguen
+		RoutePlan plan;
+		if (ruta.indexOf('>') > 0) {
+			IRoute planned = this.planRoute(ruta);
+			if (planned == null) {
+				this._debug("No route for " + id + ": " + ruta);
+				return;
+			}
+			plan = RoutePlan.of(planned); // Compartido sólo por los vehículos de esta entrada
+		} else {
+			plan = RoutePlan.intern(SmartCarStarter_Test.parseRoute(ruta, false));
+		}
+		if (cantidad <= 0) {
+			this.departures.add(new Departure(tipo, id, cruiserSpeed, plan, salidaMillis));
+			return;
+		}
+		for (int i = 0; i < cantidad; i++) {
+			String vid = String.format("%s%04d", id, i + 1);
+			this.departures.add(new Departure(tipo, vid, cruiserSpeed, plan, salidaMillis + i * intervaloMillis));
+		}
+	}
+
+	/**
+	 * Ruta entre dos puntos en formato 'segmento:punto>segmento:punto' (null si no hay ruta)
+	 */
+	protected IRoute planRoute(String ruta) {
+		String[] puntos = ruta.split(">");
+		if (puntos.length != 2 || this.getPlanner() == null) {
+			throw new IllegalArgumentException("Invalid route '" + ruta + "' (format: segment:position>segment:position, roads must be loaded)");
+		}
+		int a = puntos[0].lastIndexOf(':');
+		int b = puntos[1].lastIndexOf(':');
+		if (a <= 0 || b <= 0) {
+			throw new IllegalArgumentException("Invalid route '" + ruta + "' (format: segment:position>segment:position)");
+		}
+		// Las rutas con el mismo origen y destino (p.ej. varias líneas desde la misma cochera) se calculan una vez
+		return SmartCar_TrafficRouter.getInstance().getRouteCache().planRoute(puntos[0].substring(0, a), Integer.parseInt(puntos[0].substring(a + 1)),
+				puntos[1].substring(0, b), Integer.parseInt(puntos[1].substring(b + 1)));
+	}
+
+	public int getPendingDepartures() {
+		return this.departures.size();
+	}
+
+	/**
+	 * Ejecuta la simulación durante el tiempo simulado indicado o hasta que no queden vehículos
+	 */
+	public void run(long durationMillis) throws InterruptedException {
+		PrintStream original = System.out;
+		this.out = original;
+		if (this.quiet) {
+			System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+		}
+		long wallStart = System.nanoTime();
+		long nextReport = this.reportEveryMillis;
+		try {
+			this._debug("Inicio: " + this.departures.size() + " vehículos programados, paso " + this.stepMillis + " ms, "
+					+ (this.clock.getSpeedup() > 0 ? "aceleración x" + this.clock.getSpeedup() : "sin esperas"));
+			while (this.clock.elapsed() < durationMillis) {
+				this.launchDepartures();
+				if (this.active.isEmpty() && this.departures.isEmpty()) {
+					break;
+				}
+				this.step();
+				this.clock.advance(this.stepMillis);
+				if (this.reportEveryMillis > 0 && this.clock.elapsed() >= nextReport) {
+					this._debug(this.progressLine());
+					nextReport += this.reportEveryMillis;
+				}
+			}
+		} finally {
+			for (Vehicle v : this.active) {
+				v.car.disconnect();
+			}
+			if (this.authority != null) {
+				this.authority.stop();
+			}
+			if (this.quiet) {
+				System.setOut(original);
+			}
+		}
+		double wallSeconds = (System.nanoTime() - wallStart) / 1e9;
+		this.printReport(wallSeconds);
+	}
+
+	/**
+	 * Crea los vehículos cuya hora de salida ha llegado
+	 */
+	private void launchDepartures() {
+		long now = this.clock.elapsed();
+		while (!this.departures.isEmpty() && this.departures.peek().atMillis <= now) {
+			Departure d = this.departures.poll();
+			try {
+				SmartCar car = this.createCar(d);
+				this.active.add(new Vehicle(car, (FleetNavigator.VehicleNavigator) car.getNavigator(), now));
+				this.departed++;
+			} catch (RuntimeException e) {
+				this.failedDepartures++;
+				this._debug("No se pudo crear " + d.id + ": " + e.getMessage());
+			}
+		}
+		this.maxActive = Math.max(this.maxActive, this.active.size());
+	}
+
+	protected SmartCar createCar(Departure d) {
+		SmartCar car;
+		switch (d.tipo.toLowerCase()) {
+			case "police":
+				car = SmartCar.createPolice(d.id, d.cruiserSpeed, this.bus);
+				break;
+			case "ambulance":
+				car = SmartCar.createAmbulance(d.id, d.cruiserSpeed, this.bus);
+				break;
+			case "normal":
+				car = new SmartCar(d.id, this.bus);
+				car.setVehicleRole("PrivateUsage");
+				car.setCruiserSpeed(d.cruiserSpeed);
+				break;
+			default:
+				throw new IllegalArgumentException("Unknown vehicle type: " + d.tipo);
+		}
+		car.setClock(this.clock);
+		car.setNavigator(this.fleet.newNavigator(d.id + "-navigator"));
+		car.setRoute(d.plan.newCursor());
+		return car;
+	}
+
+	/**
+	 * Avanza un paso todos los vehículos activos y actualiza la ocupación.
+	 * Las dos mitades de cada vehículo se ejecutan en paralelo; el movimiento lo hace la flota.
+	 */
+	private void step() {
+		long now = this.clock.elapsed();
+		this.active.parallelStream().forEach(v -> {
+			int speed = v.car.beginSimulationStep();
+			v.moving = speed >= 0;
+			if (v.moving) {
+				v.navigator.setSpeed(speed);
+			} else {
+				// Un vehículo que ya no estaba en ruta completa este paso (alerta de llegada) y se retira
+				this.arrived.add(v);
+			}
+		});
+		this.fleet.step(this.stepMillis);
+		this.active.parallelStream().forEach(v -> {
+			if (v.moving) {
+				v.car.endSimulationStep();
+			}
+		});
+		this.steps++;
+		if (this.authority != null) {
+			this.authority.onStep();
+		}
+
+		Vehicle v;
+		while ((v = this.arrived.poll()) != null) {
+			this.active.remove(v);
+			this.completed++;
+			this.totalTripMillis += now - v.departedAt;
+			v.car.disconnect();
+			this.fleet.removeVehicle(v.navigator.getIndex());
+		}
+		if (this.snapshots != null) {
+			this.snapshots.publish(this.steps);
+		}
+
+		for (int[] c : this.occupancy.values()) {
+			c[0] = 0;
+		}
+		for (Vehicle a : this.active) {
+			String segment = a.car.getCurrentRoadSegment();
+			int[] c = this.occupancy.get(segment);
+			if (c == null) {
+				c = new int[1];
+				this.occupancy.put(segment, c);
+			}
+			c[0]++;
+		}
+		for (Map.Entry<String, int[]> e : this.occupancy.entrySet()) {
+			int n = e.getValue()[0];
+			Integer peak = this.peakOccupancy.get(e.getKey());
+			if (peak == null || n > peak) {
+				this.peakOccupancy.put(e.getKey(), n);
+				this.peakAtMillis.put(e.getKey(), now);
+			}
+		}
+	}
+
+	private String progressLine() {
+		return String.format("t=%s | activos=%d | salidas=%d | llegadas=%d | pendientes=%d | mensajes=%d",
+				formatTime(this.clock.elapsed()), this.active.size(), this.departed, this.completed,
+				this.departures.size(), this.bus.getPublishedCount());
+	}
+
+	private void printReport(double wallSeconds) {
+		long simMillis = this.clock.elapsed();
+		this._debug("==========================================");
+		this._debug("Simulación finalizada");
+		this._debug("  Tiempo simulado: " + formatTime(simMillis) + " (" + this.steps + " pasos)");
+		this._debug(String.format("  Tiempo real: %.1f s (x%.0f)", wallSeconds, wallSeconds > 0 ? simMillis / 1000.0 / wallSeconds : 0));
+		this._debug("  Vehículos: " + this.departed + " salidos, " + this.completed + " llegados, "
+				+ this.active.size() + " en ruta, " + this.departures.size() + " sin salir, " + this.failedDepartures + " con error");
+		this._debug("  Máximo simultáneo: " + this.maxActive);
+		if (this.completed > 0) {
+			this._debug("  Duración media de viaje: " + formatTime(this.totalTripMillis / this.completed));
+		}
+		this._debug("  Mensajes publicados: " + this.bus.getPublishedCount() + " (entregados " + this.bus.getDeliveredCount() + ")");
+		this._debug("  Posiciones no publicadas (SmartCar_ReportingPolicy): " + SmartCar_ReportingPolicy.getSuppressedCount());
+		RouteCache routes = SmartCar_TrafficRouter.getInstance().getRouteCache();
+		if (routes != null && routes.getHits() + routes.getMisses() > 0) {
+			this._debug("  Caché de rutas: " + routes.getStats());
+		}
+		if (this.authority != null) {
+			this._debug("  Autoridad de tráfico: " + this.authority.getStats());
+		}
+		if (this.snapshots != null) {
+			this._debug("  Instantáneas de flota: " + this.snapshots.getStats());
+		}
+		this._debug("------------------------------------------");
+		this._debug("Ocupación máxima por segmento (vehículos / capacidad):");
+
+		List<String> segments = new ArrayList<>(this.peakOccupancy.keySet());
+		segments.sort(Comparator.comparingDouble((String s) -> this.loadFactor(s)).reversed());
+		for (String s : segments) {
+			SegmentInfo info = this.segmentCache.get(s);
+			int peak = this.peakOccupancy.get(s);
+			String capacidad = (info != null && info.capacity > 0) ? String.valueOf(info.capacity) : "?";
+			String aviso = (info != null && info.capacity > 0 && peak > info.capacity) ? "  ⚠️ SUPERA CAPACIDAD" : "";
+			this._debug(String.format("  %-8s %5d / %-5s a las %s%s", s, peak, capacidad, formatTime(this.peakAtMillis.get(s)), aviso));
+		}
+		this._debug("==========================================");
+	}
+
+	private double loadFactor(String segment) {
+		SegmentInfo info = this.segmentCache.get(segment);
+		int peak = this.peakOccupancy.get(segment);
+		return (info != null && info.capacity > 0) ? (double) peak / info.capacity : peak;
+	}
+
+	static String formatTime(long millis) {
+		long s = millis / 1000;
+		return String.format("%02d:%02d:%02d", s / 3600, (s / 60) % 60, s % 60);
+	}
+
+	static final class Departure {
+		final String tipo;
+		final String id;
+		final int cruiserSpeed;
+		final RoutePlan plan;
+		final long atMillis;
+
+		Departure(String tipo, String id, int cruiserSpeed, RoutePlan plan, long atMillis) {
+			this.tipo = tipo;
+			this.id = id;
+			this.cruiserSpeed = cruiserSpeed;
+			this.plan = plan;
+			this.atMillis = atMillis;
+		}
+	}
+
+	static final class Vehicle {
+		final SmartCar car;
+		final FleetNavigator.VehicleNavigator navigator;
+		final long departedAt;
+		boolean moving = false; // En ruta al empezar el paso actual
+
+		Vehicle(SmartCar car, FleetNavigator.VehicleNavigator navigator, long departedAt) {
+			this.car = car;
+			this.navigator = navigator;
+			this.departedAt = departedAt;
+		}
+	}
+}
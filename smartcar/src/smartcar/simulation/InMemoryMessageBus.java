@@ -0,0 +1,148 @@
+package smartcar.simulation;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.eclipse.paho.client.mqttv3.IMqttDeliveryToken;
+import org.eclipse.paho.client.mqttv3.MqttCallback;
+import org.eclipse.paho.client.mqttv3.MqttMessage;
+
+import smartcar.impl.SmartCar_TopicTrie;
+import smartcar.interfaces.IMessageBus;
+
+/**
+ * Bus de mensajes en memoria: sustituye al broker MQTT en la simulación headless.
+ *
+ * Las publicaciones se entregan de forma síncrona, en el hilo que publica, a los callbacks
+ * cuyos filtros coinciden (admite wildcards + y #). Si un topic no tiene suscriptores el
+ * mensaje se descarta sin copiar el payload.
+ */
+public class InMemoryMessageBus implements IMessageBus {
+
+	private final Map<String, List<MqttCallback>> routes = new ConcurrentHashMap<>();
+	private final SmartCar_TopicTrie<List<MqttCallback>> wildcardFilters = new SmartCar_TopicTrie<>();
+	private final SmartCar_TopicTrie.Visitor<List<MqttCallback>, MqttMessage> deliverAll = this::deliverAll;
+
+	private final AtomicLong published = new AtomicLong(0);
+	private final AtomicLong delivered = new AtomicLong(0);
+
+	private volatile boolean connected = true;
+
+	@Override
+	public synchronized void subscribe(String topic, MqttCallback handler) {
+		List<MqttCallback> handlers = this.routes.get(topic);
+		if (handlers == null) {
+			handlers = new CopyOnWriteArrayList<>();
+			this.routes.put(topic, handlers);
+			if (topic.indexOf('+') >= 0 || topic.indexOf('#') >= 0) {
+				this.wildcardFilters.add(topic, handlers);
+			}
+		}
+		if (!handlers.contains(handler)) {
+			handlers.add(handler);
+		}
+	}
+
+	@Override
+	public synchronized void unsubscribe(String topic, MqttCallback handler) {
+		List<MqttCallback> handlers = this.routes.get(topic);
+		if (handlers == null) {
+			return;
+		}
+		handlers.remove(handler);
+		if (handlers.isEmpty()) {
+			this.routes.remove(topic);
+			this.wildcardFilters.remove(topic, handlers);
+		}
+	}
+
+	@Override
+	public void publish(String topic, byte[] payload, int qos) {
+		this.publish(topic, payload, payload.length, qos);
+	}
+
+	@Override
+	public void publish(String topic, byte[] payload, int length, int qos) {
+		this.published.incrementAndGet();
+		if (!this.connected) {
+			return;
+		}
+		List<MqttCallback> exact = this.routes.get(topic);
+		boolean anyWildcard = !this.wildcardFilters.isEmpty() && this.wildcardFilters.matches(topic);
+		if (exact == null && !anyWildcard) {
+			return; // Nadie escucha: no hace falta construir el mensaje
+		}
+
+		// Los callbacks pueden conservar el payload: se entrega una copia
+		byte[] copy = new byte[length];
+		System.arraycopy(payload, 0, copy, 0, length);
+		MqttMessage message = new MqttMessage(copy);
+		message.setQos(qos);
+
+		if (exact != null) {
+			this.deliverAll(exact, topic, message);
+		}
+		if (anyWildcard) {
+			// Sin estado por hilo: un callback puede volver a publicar en el bus durante la entrega
+			this.wildcardFilters.forEachMatch(topic, this.deliverAll, message);
+		}
+	}
+
+	private void deliverAll(List<MqttCallback> handlers, String topic, MqttMessage message) {
+		for (MqttCallback h : handlers) {
+			this.deliver(h, topic, message);
+		}
+	}
+
+	private void deliver(MqttCallback handler, String topic, MqttMessage message) {
+		try {
+			handler.messageArrived(topic, message);
+			this.delivered.incrementAndGet();
+		} catch (Exception e) {
+			System.err.println("(InMemoryBus) Error delivering message from " + topic + ": " + e.getMessage());
+		}
+	}
+
+	@Override
+	public boolean isConnected() {
+		return this.connected;
+	}
+
+	@Override
+	public void disconnect() {
+		this.connected = false;
+		for (List<MqttCallback> handlers : this.routes.values()) {
+			for (MqttCallback h : handlers) {
+				h.connectionLost(null);
+			}
+		}
+	}
+
+	public long getPublishedCount() {
+		return this.published.get();
+	}
+
+	public long getDeliveredCount() {
+		return this.delivered.get();
+	}
+
+	public int getSubscriptionCount() {
+		return this.routes.size();
+	}
+
+	/**
+	 * Callback vacío para componentes que sólo necesitan contar mensajes
+	 */
+	public static abstract class Listener implements MqttCallback {
+		@Override
+		public void connectionLost(Throwable cause) {
+		}
+
+		@Override
+		public void deliveryComplete(IMqttDeliveryToken token) {
+		}
+	}
+}
@@ -0,0 +1,118 @@
+package smartcar.simulation;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import smartcar.impl.SmartCar_Message;
+import smartcar.impl.SmartCar_MessageCodec;
+import smartcar.impl.SmartCar_PayloadBuffer;
+import smartcar.impl.SmartCar_Topics;
+import smartcar.interfaces.IMessageBus;
+
+/**
+ * Generador de pasos de simulación: publica SIMULATOR_STEP en el topic 'step' a intervalos fijos,
+ * con el mismo formato que el simulador SmartTraffic:
+ *
+ * {
+ *   "msg": { "simulator": "PTPaterna", "step": 190428 },
+ *   "id": "MSG_1764890816674",
+ *   "type": "SIMULATOR_STEP",
+ *   "timestamp": 1764890816674
+ * }
+ *
+ * (o en binario con -Dsmartcar.codec.step=binary, ver SmartCar_MessageCodec).
+ *
+ * Con un intervalo menor que los 3 segundos del simulador se somete a los vehículos a más pasos por
+ * segundo (pruebas de carga); el vehículo sigue avanzando 3 segundos simulados por paso.
+ */
+public class SimulatorStepPublisher {
+
+	public static final String STEP_TOPIC = SmartCar_Topics.TOPIC_ROOT + "/step";
+	public static final long DEFAULT_STEP_MILLIS = 3000;
+	public static final String DEFAULT_SIMULATOR = "PTPaterna";
+
+	private final IMessageBus bus;
+	private final long stepMillis;
+	private final String simulator;
+	private final AtomicLong step;
+	private final SmartCar_PayloadBuffer payload = new SmartCar_PayloadBuffer();
+	private final SmartCar_Message message = new SmartCar_Message(); // Protegido por payload
+
+	private ScheduledExecutorService executor = null;
+	private ScheduledFuture<?> task = null;
+
+	/**
+	 * @param stepMillis intervalo entre pasos (ms)
+	 */
+	public SimulatorStepPublisher(IMessageBus bus, long stepMillis) {
+		this(bus, stepMillis, DEFAULT_SIMULATOR, 0);
+	}
+
+	/**
+	 * @param firstStep número del primer paso menos uno (el simulador no empieza en 0)
+	 */
+	public SimulatorStepPublisher(IMessageBus bus, long stepMillis, String simulator, long firstStep) {
+		this.bus = bus;
+		this.stepMillis = stepMillis;
+		this.simulator = simulator;
+		this.step = new AtomicLong(firstStep);
+	}
+
+	protected void _debug(String message) {
+		System.out.println("(StepPublisher) " + message);
+	}
+
+	public long getStepMillis() {
+		return this.stepMillis;
+	}
+
+	/**
+	 * Último paso publicado
+	 */
+	public long getStep() {
+		return this.step.get();
+	}
+
+	public synchronized void start() {
+		if (this.task != null) {
+			return;
+		}
+		this.executor = Executors.newSingleThreadScheduledExecutor(r -> {
+			Thread t = new Thread(r, "simulator-step");
+			t.setDaemon(true);
+			return t;
+		});
+		this.task = this.executor.scheduleAtFixedRate(this::publishStep, this.stepMillis, this.stepMillis, TimeUnit.MILLISECONDS);
+		this._debug("Publishing SIMULATOR_STEP every " + this.stepMillis + " ms on " + STEP_TOPIC);
+	}
+
+	public synchronized void stop() {
+		if (this.task != null) {
+			this.task.cancel(false);
+			this.executor.shutdown();
+			this.task = null;
+			this.executor = null;
+		}
+	}
+
+	/**
+	 * Publica el siguiente paso (también se puede llamar directamente para avanzar a mano)
+	 */
+	public void publishStep() {
+		try {
+			long n = this.step.incrementAndGet();
+			long timestamp = System.currentTimeMillis();
+			synchronized (this.payload) {
+				SmartCar_PayloadBuffer p = this.payload.reset();
+				SmartCar_MessageCodec.forTopic(STEP_TOPIC).encode(this.message.simulatorStep(timestamp, this.simulator, n), p);
+				this.bus.publish(STEP_TOPIC, p.array(), p.length(), 0);
+			}
+		} catch (RuntimeException e) {
+			// Un fallo no debe cancelar la tarea periódica
+			this._debug("Error publishing step: " + e.getMessage());
+		}
+	}
+}
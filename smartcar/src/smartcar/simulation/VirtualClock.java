@@ -0,0 +1,69 @@
+package smartcar.simulation;
+
+import java.util.function.LongSupplier;
+
+/**
+ * Reloj virtual de la simulación headless.
+ *
+ * El tiempo sólo avanza cuando el motor lo indica (advance). Opcionalmente se puede
+ * acompasar con el tiempo real mediante un factor de aceleración: con factor 60 un
+ * minuto simulado dura un segundo real; con factor 0 la simulación va tan rápido como puede.
+ */
+public class VirtualClock implements LongSupplier {
+
+	private final long startMillis;
+	private volatile long nowMillis;
+	private final double speedup;
+
+	// Referencia real para acompasar la simulación
+	private final long wallStartNanos;
+
+	/**
+	 * @param startMillis instante simulado inicial (ms desde epoch)
+	 * @param speedup factor de aceleración respecto al tiempo real (0 o negativo: sin esperas)
+	 */
+	public VirtualClock(long startMillis, double speedup) {
+		this.startMillis = startMillis;
+		this.nowMillis = startMillis;
+		this.speedup = speedup;
+		this.wallStartNanos = System.nanoTime();
+	}
+
+	/**
+	 * Instante simulado actual (ms desde epoch)
+	 */
+	public long now() {
+		return this.nowMillis;
+	}
+
+	@Override
+	public long getAsLong() {
+		return this.nowMillis;
+	}
+
+	/**
+	 * Tiempo simulado transcurrido desde el inicio (ms)
+	 */
+	public long elapsed() {
+		return this.nowMillis - this.startMillis;
+	}
+
+	public double getSpeedup() {
+		return this.speedup;
+	}
+
+	/**
+	 * Avanza el reloj. Si hay factor de aceleración, espera hasta que el tiempo real
+	 * transcurrido corresponda al tiempo simulado.
+	 */
+	public void advance(long millis) throws InterruptedException {
+		this.nowMillis += millis;
+		if (this.speedup > 0) {
+			long targetNanos = (long) (this.elapsed() * 1_000_000L / this.speedup);
+			long waitNanos = targetNanos - (System.nanoTime() - this.wallStartNanos);
+			if (waitNanos > 0) {
+				Thread.sleep(waitNanos / 1_000_000L, (int) (waitNanos % 1_000_000L));
+			}
+		}
+	}
+}
@@ -0,0 +1,143 @@
+package smartcar.starter;
+
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.io.IOException;
+
+import ina.vehicle.navigation.components.RoutePlan;
+
+import smartcar.impl.SmartCar_Endpoints;
+import smartcar.impl.SmartCar_FleetHost;
+import smartcar.impl.SmartCar_SegmentCache;
+
+/**
+ * Starter para ejecutar una flota de vehículos en una única JVM
+ * compartiendo un número reducido de conexiones MQTT (SmartCar_FleetHost).
+ *
+ * Uso:
+ *   java [-Dsmartcar.roads.file=roads.json] SmartCarStarter_Fleet <fichero-flota> [conexiones] [hostId]
+ *
+ * Con -Dsmartcar.fleet.snapshot=true publica en cada paso una instantánea binaria de toda la flota
+ * (SmartCar_FleetSnapshot) en .../fleet/snapshot.
+ *
+ * Formato del fichero de flota (una línea por vehículo o grupo, '#' para comentarios):
+ *   <tipo> <id> <velocidad> <ruta> [cantidad]
+ *
+ *   tipo: normal, police, ambulance
+ *   ruta: formato 'segmento1:inicio:fin,segmento2:inicio:fin'
+ *   cantidad: si se indica, se crean 'cantidad' vehículos con ids <id>0001, <id>0002, ...
+ *
+ * Ejemplo:
+ *   normal    SmartCar   60 R5s1:0:580,R1s4a:490:600 500
+ *   police    Police001  90 R2s1:0:300,R2s2:300:750
+ *   ambulance Amb001     90 R9s1:0:415
+ */
+public class SmartCarStarter_Fleet {
+
+	public static void main(String[] args) {
+
+		if (args.length < 1) {
+			System.out.println("Uso: SmartCarStarter_Fleet <fichero-flota> [conexiones] [hostId]");
+			System.out.println("  fichero-flota: una línea por vehículo: <tipo> <id> <velocidad> <ruta> [cantidad]");
+			System.out.println("  conexiones: número de conexiones MQTT compartidas (por defecto 4)");
+			System.out.println("  hostId: prefijo de los client-id MQTT (por defecto FleetHost001)");
+			System.exit(1);
+		}
+
+		String fichero = args[0];
+		int conexiones = args.length > 1 ? Integer.parseInt(args[1]) : 4;
+		String hostId = args.length > 2 ? args[2] : "FleetHost001";
+
+		// Metadatos de los segmentos: desde -Dsmartcar.roads.file=<roads.json> o, si no, en bloque desde la REST API
+		if (System.getProperty("smartcar.roads.file") == null) {
+			SmartCar_SegmentCache.getInstance().preloadAsync();
+		} else {
+			SmartCar_SegmentCache.getInstance();
+		}
+
+		SmartCar_FleetHost host = new SmartCar_FleetHost(hostId, SmartCar_Endpoints.getBrokerURL(), conexiones);
+		host.connect();
+
+		try {
+			loadFleet(host, fichero);
+		} catch (IOException e) {
+			System.err.println("❌ Error leyendo el fichero de flota " + fichero + ": " + e.getMessage());
+			host.disconnect();
+			System.exit(1);
+		}
+
+		if (Boolean.getBoolean("smartcar.fleet.snapshot")) {
+			host.enableFleetSnapshots();
+		}
+
+		System.out.println("==========================================");
+		System.out.println("Flota iniciada");
+		System.out.println("  Host: " + hostId);
+		System.out.println("  Vehículos: " + host.getVehicleCount());
+		System.out.println("  Conexiones MQTT: " + host.getConnectionCount());
+		System.out.println("  Topics suscritos: " + host.getSubscriptionCount());
+		System.out.println("==========================================");
+		System.out.println("Los vehículos se moverán automáticamente");
+		System.out.println("Presiona Ctrl+C para detener");
+		System.out.println("==========================================");
+
+		Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+			host.disconnect();
+			System.out.println("Flota desconectada");
+		}));
+
+		// Mantener corriendo, informando cada 30 segundos del retraso respecto al simulador
+		try {
+			int segundos = 0;
+			while (true) {
+				Thread.sleep(1000);
+				if (++segundos % 30 == 0) {
+					System.out.println("(Fleet: " + hostId + ") " + host.getStepScheduler().getLagReport());
+					System.out.println("(Fleet: " + hostId + ") Publicación: " + host.getPublishStats());
+					if (host.getFleetSnapshotPublisher() != null) {
+						System.out.println("(Fleet: " + hostId + ") Snapshots: " + host.getFleetSnapshotPublisher().getStats());
+					}
+				}
+			}
+		} catch (InterruptedException e) {
+			System.out.println("Programa interrumpido");
+		}
+	}
+
+	/**
+	 * Crea en el host los vehículos descritos en el fichero de flota
+	 */
+	static void loadFleet(SmartCar_FleetHost host, String fichero) throws IOException {
+		try (BufferedReader in = new BufferedReader(new FileReader(fichero))) {
+			String line;
+			int numLinea = 0;
+			while ((line = in.readLine()) != null) {
+				numLinea++;
+				line = line.trim();
+				if (line.isEmpty() || line.startsWith("#")) {
+					continue;
+				}
+				String[] campos = line.split("\\s+");
+				if (campos.length < 4) {
+					System.err.println("Línea " + numLinea + " ignorada (formato: <tipo> <id> <velocidad> <ruta> [cantidad]): " + line);
+					continue;
+				}
+				String tipo = campos[0];
+				String id = campos[1];
+				int velocidad = Integer.parseInt(campos[2]);
+				String rutaStr = campos[3];
+				int cantidad = campos.length > 4 ? Integer.parseInt(campos[4]) : 0;
+
+				// Todos los vehículos del grupo comparten el plan de ruta; cada uno lo recorre con su cursor
+				RoutePlan plan = RoutePlan.intern(SmartCarStarter_Test.parseRoute(rutaStr, false));
+				if (cantidad <= 0) {
+					host.addVehicle(tipo, id, velocidad, plan.newCursor());
+				} else {
+					for (int i = 1; i <= cantidad; i++) {
+						host.addVehicle(tipo, String.format("%s%04d", id, i), velocidad, plan.newCursor());
+					}
+				}
+			}
+		}
+	}
+}
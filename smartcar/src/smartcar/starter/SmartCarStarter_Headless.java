@@ -0,0 +1,135 @@
+package smartcar.starter;
+
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.io.IOException;
+
+import ina.vehicle.navigation.components.RoadStatusPolicy;
+import smartcar.impl.SmartCar_TrafficAuthority;
+import smartcar.simulation.HeadlessSimulation;
+
+/**
+ * Starter de la simulación headless: ejecuta una flota completa sin broker MQTT ni simulador,
+ * con un reloj virtual que avanza tan rápido como se indique.
+ *
+ * Uso:
+ *   java SmartCarStarter_Headless <fichero-flota> <roads.json> [duracion_h] [paso_ms] [aceleracion]
+ *
+ *   duracion_h: horas simuladas (por defecto 24)
+ *   paso_ms: duración de cada paso simulado (por defecto 3000, como el simulador)
+ *   aceleracion: factor respecto al tiempo real (por defecto 0: tan rápido como sea posible)
+ *
+ * Formato del fichero de flota (compatible con SmartCarStarter_Fleet):
+ *   <tipo> <id> <velocidad> <ruta> [cantidad] [salida_s] [intervalo_s]
+ *
+ *   salida_s: segundo simulado en que sale el primer vehículo del grupo (por defecto 0)
+ *   intervalo_s: separación entre salidas del grupo (por defecto 0: todos a la vez)
+ *
+ *   ruta: 'segmento:inicio:fin,...' o bien 'segmento:punto>segmento:punto' para que la calcule
+ *         el planificador de rutas (RoutePlanner)
+ *
+ * Ejemplo (500 vehículos saliendo de 7:00 a 9:00, uno cada 15 s):
+ *   normal    SmartCar   60 R5s1:0:580,R1s4a:490:600 500 25200 15
+ *   normal    SmartCarB  60 R1s1:0>R1s8a:1300        100 25200 30
+ *
+ * Con -Dsmartcar.headless.verbose=true se muestra la salida de los vehículos.
+ * Con -Dsmartcar.connections.file=<fichero> se cargan las conexiones entre segmentos del planificador
+ * (p.ej. connections_example.txt).
+ * Con -Dsmartcar.route.index=<fichero> las rutas se calculan con el índice precalculado por
+ * SmartCarStarter_RouteIndex (para la misma red y conexiones).
+ * Con -Dsmartcar.authority=true una autoridad de tráfico local (SmartCar_TrafficAuthority) publica
+ * ROAD_STATUS según la ocupación de cada segmento (-Dsmartcar.authority.step=true: también en cada paso;
+ * -Dsmartcar.authority.port=<puerto>: sirve además /segment/{id}).
+ * Con -Dsmartcar.authority.smoothing=<ms|true>, .hysteresis=<puntos> y .dwell=<ms> la autoridad suaviza
+ * la densidad y aplica histéresis y tiempo mínimo en cada estado (RoadStatusPolicy).
+ * Con -Dsmartcar.fleet.snapshot=true se publica tras cada paso una instantánea binaria de la flota.
+ */
+public class SmartCarStarter_Headless {
+
+	public static void main(String[] args) {
+
+		if (args.length < 2) {
+			System.out.println("Uso: SmartCarStarter_Headless <fichero-flota> <roads.json> [duracion_h] [paso_ms] [aceleracion]");
+			System.out.println("  fichero-flota: <tipo> <id> <velocidad> <ruta> [cantidad] [salida_s] [intervalo_s]");
+			System.out.println("  roads.json: carreteras y segmentos (p.ej. roads_example.json)");
+			System.out.println("  duracion_h: horas simuladas (por defecto 24)");
+			System.out.println("  paso_ms: duración de cada paso (por defecto 3000)");
+			System.out.println("  aceleracion: factor respecto al tiempo real (por defecto 0: sin esperas)");
+			System.exit(1);
+		}
+
+		String fichero = args[0];
+		String roads = args[1];
+		double horas = args.length > 2 ? Double.parseDouble(args[2]) : 24;
+		long pasoMs = args.length > 3 ? Long.parseLong(args[3]) : 3000;
+		double aceleracion = args.length > 4 ? Double.parseDouble(args[4]) : 0;
+
+		HeadlessSimulation sim = new HeadlessSimulation(pasoMs, aceleracion);
+		sim.setQuiet(!Boolean.getBoolean("smartcar.headless.verbose"));
+
+		try {
+			int n = sim.loadRoads(roads);
+			System.out.println("(Headless) " + n + " segmentos cargados desde " + roads);
+			String conexiones = System.getProperty("smartcar.connections.file");
+			if (conexiones != null) {
+				sim.loadConnections(conexiones);
+			}
+			String indice = System.getProperty("smartcar.route.index");
+			if (indice != null) {
+				sim.loadRouteIndex(indice);
+			}
+			if (Boolean.getBoolean("smartcar.authority")) {
+				SmartCar_TrafficAuthority authority = sim.enableTrafficAuthority(Boolean.getBoolean("smartcar.authority.step"));
+				authority.setStatusPolicy(RoadStatusPolicy.fromSystemProperties("smartcar.authority"));
+				int puerto = Integer.getInteger("smartcar.authority.port", 0);
+				if (puerto > 0) {
+					authority.startHttpServer(puerto);
+				}
+			}
+			if (Boolean.getBoolean("smartcar.fleet.snapshot")) {
+				sim.enableFleetSnapshots();
+			}
+			loadSchedule(sim, fichero);
+		} catch (IOException e) {
+			System.err.println("❌ Error leyendo " + e.getMessage());
+			System.exit(1);
+		}
+
+		try {
+			sim.run((long) (horas * 3_600_000L));
+		} catch (InterruptedException e) {
+			System.out.println("Programa interrumpido");
+		}
+		System.exit(0);
+	}
+
+	/**
+	 * Programa en la simulación las salidas descritas en el fichero de flota
+	 */
+	static void loadSchedule(HeadlessSimulation sim, String fichero) throws IOException {
+		try (BufferedReader in = new BufferedReader(new FileReader(fichero))) {
+			String line;
+			int numLinea = 0;
+			while ((line = in.readLine()) != null) {
+				numLinea++;
+				line = line.trim();
+				if (line.isEmpty() || line.startsWith("#")) {
+					continue;
+				}
+				String[] campos = line.split("\\s+");
+				if (campos.length < 4) {
+					System.err.println("Línea " + numLinea + " ignorada (formato: <tipo> <id> <velocidad> <ruta> [cantidad] [salida_s] [intervalo_s]): " + line);
+					continue;
+				}
+				int cantidad = campos.length > 4 ? Integer.parseInt(campos[4]) : 0;
+				long salida = campos.length > 5 ? Long.parseLong(campos[5]) * 1000 : 0;
+				long intervalo = campos.length > 6 ? Long.parseLong(campos[6]) * 1000 : 0;
+				try {
+					sim.schedule(campos[0], campos[1], Integer.parseInt(campos[2]), campos[3], cantidad, salida, intervalo);
+				} catch (IllegalArgumentException e) {
+					System.err.println("Línea " + numLinea + " ignorada: " + e.getMessage());
+				}
+			}
+		}
+	}
+}
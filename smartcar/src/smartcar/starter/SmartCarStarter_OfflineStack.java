@@ -0,0 +1,107 @@
+package smartcar.starter;
+
+import java.io.IOException;
+
+import ina.vehicle.navigation.components.RoadNetwork;
+import ina.vehicle.navigation.components.RoadStatusPolicy;
+import smartcar.impl.SmartCar_TrafficAuthority;
+import smartcar.simulation.EmbeddedMqttBroker;
+import smartcar.simulation.SimulatorStepPublisher;
+
+/**
+ * Sustituto local del simulador de la universidad, en una sola JVM, para pruebas de carga:
+ *
+ *  - Broker MQTT embebido (EmbeddedMqttBroker).
+ *  - Generador de pasos SIMULATOR_STEP (SimulatorStepPublisher) con el intervalo indicado.
+ *  - Autoridad de tráfico (SmartCar_TrafficAuthority): ROAD_STATUS a partir de VEHICLE_IN / VEHICLE_OUT
+ *    y recurso REST /segment/{id} (admite las mismas propiedades -Dsmartcar.authority.* que su starter).
+ *
+ * Uso:
+ *   java SmartCarStarter_OfflineStack <roads.json> [puerto_mqtt] [puerto_http] [paso_ms]
+ *
+ *   puerto_mqtt: puerto del broker (por defecto 1883)
+ *   puerto_http: puerto del recurso REST (por defecto 10082; 0 para no servirlo)
+ *   paso_ms: intervalo entre pasos (por defecto 3000, como el simulador; 0 para no generar pasos)
+ *
+ * Los demás procesos se conectan con:
+ *   smartcar:    -Dsmartcar.broker.url=tcp://localhost:1883 -Dsmartcar.rest.base=http://localhost:10082
+ *   roadmanager: -Droadmanager.broker.url=tcp://localhost:1883
+ *   SignalSpeed / PanelInformativo: tcp://localhost:1883 como broker
+ */
+public class SmartCarStarter_OfflineStack {
+
+	static final int DEFAULT_HTTP_PORT = 10082;
+	static final long STATS_EVERY_MS = 60_000L;
+
+	public static void main(String[] args) {
+
+		if (args.length < 1) {
+			System.out.println("Uso: SmartCarStarter_OfflineStack <roads.json> [puerto_mqtt] [puerto_http] [paso_ms]");
+			System.out.println("  roads.json: carreteras y segmentos (p.ej. roads_example.json)");
+			System.out.println("  puerto_mqtt: puerto del broker MQTT (por defecto " + EmbeddedMqttBroker.DEFAULT_PORT + ")");
+			System.out.println("  puerto_http: puerto del recurso /segment/{id} (por defecto " + DEFAULT_HTTP_PORT + ", 0: sin REST)");
+			System.out.println("  paso_ms: intervalo entre pasos (por defecto " + SimulatorStepPublisher.DEFAULT_STEP_MILLIS + ", 0: sin pasos)");
+			System.exit(1);
+		}
+
+		int puertoMqtt = args.length > 1 ? Integer.parseInt(args[1]) : EmbeddedMqttBroker.DEFAULT_PORT;
+		int puertoHttp = args.length > 2 ? Integer.parseInt(args[2]) : DEFAULT_HTTP_PORT;
+		long pasoMs = args.length > 3 ? Long.parseLong(args[3]) : SimulatorStepPublisher.DEFAULT_STEP_MILLIS;
+
+		EmbeddedMqttBroker broker = new EmbeddedMqttBroker(puertoMqtt);
+		SmartCar_TrafficAuthority authority = null;
+		SimulatorStepPublisher steps = null;
+		try {
+			RoadNetwork network = RoadNetwork.load(args[0]);
+			System.out.println("(OfflineStack) Loaded " + network);
+
+			broker.start();
+
+			// La autoridad y el generador de pasos usan el broker directamente (sin socket)
+			authority = new SmartCar_TrafficAuthority(network, broker);
+			authority.setPublishOnStep(Boolean.getBoolean("smartcar.authority.step"));
+			authority.setStatusPolicy(RoadStatusPolicy.fromSystemProperties("smartcar.authority"));
+			authority.start();
+			if (puertoHttp > 0) {
+				puertoHttp = authority.startHttpServer(puertoHttp);
+			}
+			if (pasoMs > 0) {
+				steps = new SimulatorStepPublisher(broker, pasoMs);
+				steps.start();
+			}
+		} catch (IOException e) {
+			System.err.println("❌ Error: " + e.getMessage());
+			broker.stop();
+			System.exit(1);
+		}
+
+		System.out.println("==========================================");
+		System.out.println("Simulador local iniciado");
+		System.out.println("  smartcar:    -Dsmartcar.broker.url=" + broker.getURL()
+				+ (puertoHttp > 0 ? " -Dsmartcar.rest.base=http://localhost:" + puertoHttp : ""));
+		System.out.println("  roadmanager: -Droadmanager.broker.url=" + broker.getURL());
+		System.out.println("Presiona Ctrl+C para detener");
+		System.out.println("==========================================");
+
+		final SmartCar_TrafficAuthority a = authority;
+		final SimulatorStepPublisher s = steps;
+		Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+			if (s != null) {
+				s.stop();
+			}
+			a.stop();
+			broker.stop();
+			System.out.println("(OfflineStack) " + broker.getStats());
+		}));
+
+		try {
+			while (true) {
+				Thread.sleep(STATS_EVERY_MS);
+				System.out.println("(OfflineStack) paso=" + (s != null ? s.getStep() : 0) + " | " + broker.getStats());
+				System.out.println("(OfflineStack) " + a.getStats());
+			}
+		} catch (InterruptedException e) {
+			System.out.println("Programa interrumpido");
+		}
+	}
+}
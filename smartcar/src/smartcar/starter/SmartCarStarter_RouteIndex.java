@@ -0,0 +1,54 @@
+package smartcar.starter;
+
+import java.io.IOException;
+
+import ina.vehicle.navigation.components.ContractionHierarchy;
+import ina.vehicle.navigation.components.RoadNetwork;
+import ina.vehicle.navigation.components.RoutePlanner;
+
+/**
+ * Preproceso fuera de línea del índice de rutas (ContractionHierarchy) de una red.
+ *
+ * Uso:
+ *   java SmartCarStarter_RouteIndex <roads.json> <fichero-indice> [conexiones]
+ *
+ *   conexiones: fichero de conexiones entre segmentos (p.ej. connections_example.txt). Debe ser el mismo
+ *               que se use después en la simulación: el índice sólo sirve para esa red y esas conexiones
+ *
+ * El índice no depende de las velocidades, así que sólo hay que regenerarlo si cambian los segmentos o
+ * las conexiones. Para usarlo: -Dsmartcar.route.index=<fichero-indice>
+ */
+public class SmartCarStarter_RouteIndex {
+
+	public static void main(String[] args) {
+
+		if (args.length < 2) {
+			System.out.println("Uso: SmartCarStarter_RouteIndex <roads.json> <fichero-indice> [conexiones]");
+			System.out.println("  roads.json: carreteras y segmentos (p.ej. roads_example.json)");
+			System.out.println("  fichero-indice: fichero binario que se genera");
+			System.out.println("  conexiones: conexiones entre segmentos (p.ej. connections_example.txt)");
+			System.exit(1);
+		}
+
+		try {
+			RoadNetwork network = RoadNetwork.load(args[0]);
+			System.out.println("(RouteIndex) Loaded " + network);
+			// Sin landmarks: el índice sólo necesita el grafo
+			int[] connections = (args.length > 2) ? RoutePlanner.readConnections(network, args[2]) : new int[0];
+			RoutePlanner graph = new RoutePlanner(network, connections, 0);
+
+			long t0 = System.currentTimeMillis();
+			ContractionHierarchy.build(graph, args[1]);
+			long t1 = System.currentTimeMillis();
+			ContractionHierarchy index = ContractionHierarchy.open(graph, args[1]);
+			index.customize();
+			long t2 = System.currentTimeMillis();
+
+			System.out.println("(RouteIndex) " + index);
+			System.out.println("(RouteIndex) Preproceso: " + (t1 - t0) + " ms, personalización: " + (t2 - t1) + " ms");
+		} catch (IOException e) {
+			System.err.println("❌ Error: " + e.getMessage());
+			System.exit(1);
+		}
+	}
+}
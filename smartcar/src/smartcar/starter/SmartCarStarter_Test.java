@@ -100,6 +100,13 @@ public class SmartCarStarter_Test {
 	 * Parsea una cadena de ruta en formato "segmento1:inicio:fin,segmento2:inicio:fin"
 	 */
 	private static IRoute parseRoute(String rutaStr) {
+		return parseRoute(rutaStr, true);
+	}
+	
+	/**
+	 * Parsea una cadena de ruta, mostrando opcionalmente cada fragmento por consola
+	 */
+	public static IRoute parseRoute(String rutaStr, boolean verbose) {
 		Route ruta = new Route();
 		
 		String[] fragmentos = rutaStr.split(",");
@@ -110,7 +117,9 @@ public class SmartCarStarter_Test {
 				int inicio = Integer.parseInt(partes[1].trim());
 				int fin = Integer.parseInt(partes[2].trim());
 				ruta.addRouteFragment(segmento, inicio, fin);
-				System.out.println("  Ruta: " + segmento + " desde " + inicio + " hasta " + fin);
+				if (verbose) {
+					System.out.println("  Ruta: " + segmento + " desde " + inicio + " hasta " + fin);
+				}
 			}
 		}
 		
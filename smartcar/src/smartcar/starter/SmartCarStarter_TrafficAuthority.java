@@ -0,0 +1,90 @@
+package smartcar.starter;
+
+import java.io.IOException;
+
+import org.eclipse.paho.client.mqttv3.MqttException;
+
+import ina.vehicle.navigation.components.RoadNetwork;
+import ina.vehicle.navigation.components.RoadStatusPolicy;
+import smartcar.impl.SmartCar_MqttBus;
+import smartcar.impl.SmartCar_TrafficAuthority;
+
+/**
+ * Starter de la autoridad de tráfico local (SmartCar_TrafficAuthority): cuenta los vehículos de cada
+ * segmento a partir de los eventos VEHICLE_IN / VEHICLE_OUT, publica ROAD_STATUS y sirve /segment/{id}.
+ *
+ * Uso:
+ *   java SmartCarStarter_TrafficAuthority <roads.json> [puerto_http] [broker]
+ *
+ *   puerto_http: puerto del recurso REST (por defecto 10082, como el simulador; 0 para no servirlo)
+ *   broker: broker MQTT (por defecto tcp://localhost:1883)
+ *
+ * En cada paso del simulador (topic 'step') retira los vehículos que han dejado de informar. Con
+ * -Dsmartcar.authority.step=true además publica en cada paso el ROAD_STATUS de los segmentos cuyo
+ * número de vehículos ha cambiado. Con -Dsmartcar.authority.smoothing=<ms|true>, .hysteresis=<puntos> y
+ * .dwell=<ms> el estado se calcula con densidad suavizada, histéresis y tiempo mínimo (RoadStatusPolicy).
+ * Los vehículos usan este servidor REST con -Dsmartcar.rest.base=http://<host>:<puerto_http>.
+ */
+public class SmartCarStarter_TrafficAuthority {
+
+	static final String DEFAULT_BROKER = "tcp://localhost:1883";
+	static final int DEFAULT_HTTP_PORT = 10082;
+	static final long STATS_EVERY_MS = 60_000L;
+
+	public static void main(String[] args) {
+
+		if (args.length < 1) {
+			System.out.println("Uso: SmartCarStarter_TrafficAuthority <roads.json> [puerto_http] [broker]");
+			System.out.println("  roads.json: carreteras y segmentos (p.ej. roads_example.json)");
+			System.out.println("  puerto_http: puerto del recurso /segment/{id} (por defecto " + DEFAULT_HTTP_PORT + ", 0: sin REST)");
+			System.out.println("  broker: broker MQTT (por defecto " + DEFAULT_BROKER + ")");
+			System.exit(1);
+		}
+
+		int puerto = args.length > 1 ? Integer.parseInt(args[1]) : DEFAULT_HTTP_PORT;
+		String broker = args.length > 2 ? args[2] : DEFAULT_BROKER;
+
+		SmartCar_MqttBus bus = new SmartCar_MqttBus(broker, "TrafficAuthority-" + ProcessHandle.current().pid(), 60);
+		SmartCar_TrafficAuthority authority = null;
+		try {
+			RoadNetwork network = RoadNetwork.load(args[0]);
+			System.out.println("(TrafficAuthority) Loaded " + network);
+
+			bus.connect();
+			System.out.println("(TrafficAuthority) Connected to " + broker);
+
+			authority = new SmartCar_TrafficAuthority(network, bus);
+			authority.setPublishOnStep(Boolean.getBoolean("smartcar.authority.step"));
+			authority.setStatusPolicy(RoadStatusPolicy.fromSystemProperties("smartcar.authority"));
+			if (authority.getStatusPolicy() != null) {
+				System.out.println("(TrafficAuthority) " + authority.getStatusPolicy());
+			}
+			authority.start();
+			if (puerto > 0) {
+				authority.startHttpServer(puerto);
+			}
+		} catch (IOException e) {
+			System.err.println("❌ Error: " + e.getMessage());
+			System.exit(1);
+		} catch (MqttException e) {
+			System.err.println("❌ Error connecting to " + broker + ": " + e.getMessage());
+			System.exit(1);
+		}
+
+		final SmartCar_TrafficAuthority a = authority;
+		Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+			a.stop();
+			bus.disconnect();
+			System.out.println("(TrafficAuthority) " + a.getStats());
+		}));
+
+		try {
+			while (true) {
+				Thread.sleep(STATS_EVERY_MS);
+				System.out.println("(TrafficAuthority) " + authority.getStats());
+			}
+		} catch (InterruptedException e) {
+			System.out.println("Programa interrumpido");
+		}
+	}
+}